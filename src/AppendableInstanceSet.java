@@ -0,0 +1,503 @@
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * An AppendableInstanceSet is a ColumnStore that can grow: new rows are
+ * appended in batches, for example a daily refresh, at a cost proportional
+ * to the new rows rather than to the whole history.
+ *
+ * Each numeric attribute is divided into buckets at the quantiles of its
+ * values, as InstanceSet divides it, when the set is first read. Appended
+ * rows are put into the existing buckets, and the number of rows in each
+ * bucket is kept up to date. The fraction of rows below each boundary then
+ * drifts from the quantile the boundary was chosen for; once it has drifted
+ * by more than the tolerance, measured in buckets (2 means that the fraction
+ * of rows below some boundary has changed by two buckets' share), the
+ * attribute is bucketed again from all of its values, which are kept for
+ * this. Sampling alone moves quantiles by about a bucket when there are a few
+ * dozen rows per bucket, so the tolerance should be larger than that. Nominal
+ * attributes are encoded with their fixed lists of values.
+ *
+ * Rebucketing changes codes, so trees learned before it must be learned
+ * again; <code>getGeneration</code> changes whenever any boundaries do. A
+ * missing nominal value is replaced with the most common value so far, and a
+ * missing numeric value with the median so far. An AppendableInstanceSet may
+ * be read by any number of threads, but not while rows are being appended.
+ *
+ * @author jmac
+ */
+public class AppendableInstanceSet implements ColumnStore {
+	private AttributeSet attributeSet;
+	private int numAttributes;
+	private int classAttributeIndex;
+	private int numBuckets;
+	private double tolerance;
+
+	// columns[a][r] is the code of attribute a in row r; the arrays have room
+	// for more rows than numRows
+	private int[][] columns;
+	private int numRows;
+
+	// For each numeric attribute, the raw value of every row, the current
+	// bucket boundaries, the number of rows in each bucket, and the fraction
+	// of rows in each bucket when the boundaries were computed; null for a
+	// nominal attribute
+	private double[][] rawValues;
+	private double[][] boundaries;
+	private int[][] bucketCounts;
+	private double[][] baselineFractions;
+
+	// For each nominal attribute, the number of rows with each value
+	private int[][] valueCounts;
+
+	// The values of the row being added, as numbers for numeric attributes
+	// and codes for nominal ones
+	private double[] rowNumbers;
+	private int[] rowCodes;
+
+	private int generation;
+	private int numRebucketings;
+
+	/**
+	 * The default tolerance, in buckets.
+	 */
+	public static final double DEFAULT_TOLERANCE = 3.0;
+
+	public static final boolean VERBOSE = false;
+
+	/**
+	 * Read a .arff file, dividing each numeric attribute into
+	 * <code>InstanceSet.NUM_BUCKETS</code> buckets, with a tolerance of
+	 * <code>DEFAULT_TOLERANCE</code>.
+	 *
+	 * @param inputFilename the name of the file
+	 * @throws DecisionTreeException if the file is malformed
+	 * @throws IOException
+	 */
+	public AppendableInstanceSet(String inputFilename) throws DecisionTreeException, IOException {
+		this(inputFilename, InstanceSet.NUM_BUCKETS, DEFAULT_TOLERANCE);
+	}
+
+	/**
+	 * Read a .arff file.
+	 *
+	 * @param inputFilename the name of the file
+	 * @param numBuckets    the number of buckets for each numeric attribute
+	 * @param tolerance     how far the fraction of rows below a boundary may
+	 *                      drift, in buckets, before the attribute is bucketed
+	 *                      again
+	 * @throws DecisionTreeException if the file is malformed
+	 * @throws IOException
+	 */
+	public AppendableInstanceSet(String inputFilename, int numBuckets, double tolerance)
+			throws DecisionTreeException, IOException {
+		this.numBuckets = numBuckets;
+		this.tolerance = tolerance;
+		BufferedReader reader = new BufferedReader(new FileReader(inputFilename));
+		try {
+			attributeSet = InstanceSet.readPreamble(reader, numBuckets).getAttributeSet();
+			classAttributeIndex = attributeSet.getClassAttributeIndex();
+			ArrayList<Attribute> attributes = attributeSet.getAttributes();
+			numAttributes = attributes.size();
+			columns = new int[numAttributes][1024];
+			rawValues = new double[numAttributes][];
+			boundaries = new double[numAttributes][];
+			bucketCounts = new int[numAttributes][];
+			baselineFractions = new double[numAttributes][];
+			valueCounts = new int[numAttributes][];
+			rowNumbers = new double[numAttributes];
+			rowCodes = new int[numAttributes];
+			for (int a = 0; a < numAttributes; a++) {
+				if (attributes.get(a).isOrdered())
+					rawValues[a] = new double[1024];
+				else
+					valueCounts[a] = new int[attributes.get(a).getNumValues()];
+			}
+
+			// Missing values are filled in once every row is read, as
+			// InstanceSet fills them in from the whole file
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (!isData(line))
+					continue;
+				addRow(RowEncoder.split(line), false);
+			}
+			if (numRows == 0)
+				throw new DecisionTreeException("no data in " + inputFilename);
+			for (int a = 0; a < numAttributes; a++) {
+				if (rawValues[a] != null) {
+					fillMissing(a, 0, median(a));
+					rebucket(a);
+				} else {
+					fillMissing(a, 0, ContingencyTable.indexOfMax(valueCounts[a]));
+				}
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	private static boolean isData(String line) {
+		String trimmed = line.trim();
+		return !trimmed.isEmpty() && !trimmed.startsWith(InstanceSet.commentStart) && !trimmed.startsWith("@");
+	}
+
+	/**
+	 * Append rows. Each numeric attribute is put into its current buckets,
+	 * and bucketed again if the new rows make it drift past the tolerance.
+	 *
+	 * @param lines data lines in the .arff format of the set
+	 * @return the number of rows appended
+	 * @throws DecisionTreeException if a line is malformed; the rows before
+	 *                               it have been appended
+	 */
+	public int append(List<String> lines) throws DecisionTreeException {
+		int first = numRows;
+		try {
+			for (String line : lines) {
+				if (isData(line))
+					addRow(RowEncoder.split(line), true);
+			}
+		} finally {
+			// The buckets are checked for the rows appended, even if a line
+			// was malformed
+			for (int a = 0; a < numAttributes; a++) {
+				if (rawValues[a] != null && drift(a) > tolerance)
+					rebucket(a);
+			}
+		}
+		return numRows - first;
+	}
+
+	/**
+	 * Append the rows of another .arff file with the same attributes.
+	 *
+	 * @param inputFilename the name of the file
+	 * @return the number of rows appended
+	 * @throws DecisionTreeException if the file is malformed or its attributes
+	 *                               differ
+	 * @throws IOException
+	 */
+	public int appendFile(String inputFilename) throws DecisionTreeException, IOException {
+		BufferedReader reader = new BufferedReader(new FileReader(inputFilename));
+		try {
+			AttributeSet other = InstanceSet.readPreamble(reader, numBuckets).getAttributeSet();
+			if (other.getAttributes().size() != numAttributes)
+				throw new DecisionTreeException(inputFilename + " has " + other.getAttributes().size()
+						+ " attributes, not " + numAttributes);
+			ArrayList<String> lines = new ArrayList<String>();
+			String line;
+			while ((line = reader.readLine()) != null)
+				lines.add(line);
+			return append(lines);
+		} finally {
+			reader.close();
+		}
+	}
+
+	// Add a row, counting its values. Missing values are filled in now if
+	// fillMissing is true, and otherwise marked with -1 (or NaN) to be filled
+	// in later. Numeric codes are assigned now only if there are boundaries.
+	private void addRow(String[] values, boolean fillMissing) throws DecisionTreeException {
+		if (values.length != numAttributes)
+			throw new DecisionTreeException("expected " + numAttributes + " values but found " + values.length);
+		// Parse and check every value before changing anything, so that a
+		// rejected row leaves the set as it was
+		ArrayList<Attribute> attributes = attributeSet.getAttributes();
+		for (int a = 0; a < numAttributes; a++) {
+			String value = values[a];
+			boolean missing = value.equals("?");
+			if (rawValues[a] != null) {
+				if (missing) {
+					rowNumbers[a] = fillMissing ? median(a) : Double.NaN;
+				} else {
+					try {
+						rowNumbers[a] = Double.parseDouble(value);
+					} catch (NumberFormatException e) {
+						throw new DecisionTreeException("unexpected value " + value + " for numeric attribute "
+								+ attributes.get(a).getName());
+					}
+				}
+			} else {
+				if (missing) {
+					rowCodes[a] = fillMissing ? ContingencyTable.indexOfMax(valueCounts[a]) : -1;
+				} else {
+					rowCodes[a] = attributes.get(a).getValueIndex(value);
+					if (rowCodes[a] < 0)
+						throw new DecisionTreeException("unexpected value " + value + " for attribute "
+								+ attributes.get(a).getName());
+				}
+			}
+		}
+
+		if (numRows == columns[0].length) {
+			for (int a = 0; a < numAttributes; a++) {
+				columns[a] = Arrays.copyOf(columns[a], 2 * numRows);
+				if (rawValues[a] != null)
+					rawValues[a] = Arrays.copyOf(rawValues[a], 2 * numRows);
+			}
+		}
+		for (int a = 0; a < numAttributes; a++) {
+			if (rawValues[a] != null) {
+				rawValues[a][numRows] = rowNumbers[a];
+				if (boundaries[a] != null) {
+					int code = RowEncoder.bucketOf(boundaries[a], rowNumbers[a]);
+					columns[a][numRows] = code;
+					bucketCounts[a][code]++;
+				}
+			} else {
+				columns[a][numRows] = rowCodes[a];
+				if (rowCodes[a] >= 0)
+					valueCounts[a][rowCodes[a]]++;
+			}
+		}
+		numRows++;
+	}
+
+	// Replace the missing values of an attribute, from the given row on, with
+	// the given code (for a nominal attribute) or value (for a numeric one).
+	private void fillMissing(int a, int from, double replacement) {
+		for (int r = from; r < numRows; r++) {
+			if (rawValues[a] != null) {
+				if (Double.isNaN(rawValues[a][r]))
+					rawValues[a][r] = replacement;
+			} else if (columns[a][r] < 0) {
+				columns[a][r] = (int) replacement;
+				valueCounts[a][(int) replacement]++;
+			}
+		}
+	}
+
+	// The median of a numeric attribute: the middle boundary if it has been
+	// bucketed, and otherwise the middle of the values read so far.
+	private double median(int a) {
+		if (boundaries[a] != null)
+			return boundaries[a].length == 0 ? 0.0 : boundaries[a][boundaries[a].length / 2];
+		double[] sorted = new double[numRows];
+		int n = 0;
+		for (int r = 0; r < numRows; r++) {
+			if (!Double.isNaN(rawValues[a][r]))
+				sorted[n++] = rawValues[a][r];
+		}
+		if (n == 0)
+			return 0.0;
+		Arrays.sort(sorted, 0, n);
+		return sorted[n / 2];
+	}
+
+	// Divide a numeric attribute into buckets at the quantiles of all of its
+	// values, as InstanceSet does, and encode every row again.
+	private void rebucket(int a) {
+		double[] sorted = Arrays.copyOf(rawValues[a], numRows);
+		Arrays.sort(sorted);
+		double[] bounds = new double[numBuckets - 1];
+		int step = numRows / numBuckets;
+		for (int j = 1; j < numBuckets; j++)
+			bounds[j - 1] = sorted[step * j];
+		boolean changed = !Arrays.equals(bounds, boundaries[a]);
+		boundaries[a] = bounds;
+		bucketCounts[a] = new int[numBuckets];
+		for (int r = 0; r < numRows; r++) {
+			int code = RowEncoder.bucketOf(bounds, rawValues[a][r]);
+			columns[a][r] = code;
+			bucketCounts[a][code]++;
+		}
+		baselineFractions[a] = new double[numBuckets];
+		for (int b = 0; b < numBuckets; b++)
+			baselineFractions[a][b] = (double) bucketCounts[a][b] / numRows;
+		if (changed)
+			generation++;
+		numRebucketings++;
+		if (VERBOSE)
+			System.out.println("bucketed " + attributeSet.getAttributes().get(a).getName() + " over " + numRows
+					+ " rows");
+	}
+
+	/**
+	 * Measure how far the buckets of a numeric attribute have drifted since
+	 * they were computed: the largest change in the fraction of rows below any
+	 * boundary, in units of an equal share (1 / the number of buckets). This
+	 * is roughly the number of buckets by which the boundary of some quantile
+	 * has moved.
+	 *
+	 * @param attributeIndex the index of a numeric attribute
+	 * @return the drift
+	 */
+	public double drift(int attributeIndex) {
+		int[] counts = bucketCounts[attributeIndex];
+		double[] baseline = baselineFractions[attributeIndex];
+		double drift = 0.0;
+		double fraction = 0.0;
+		double baselineFraction = 0.0;
+		for (int b = 0; b < counts.length - 1; b++) {
+			fraction += (double) counts[b] / numRows;
+			baselineFraction += baseline[b];
+			drift = Math.max(drift, Math.abs(fraction - baselineFraction));
+		}
+		return drift * numBuckets;
+	}
+
+	/**
+	 * Get the boundaries between the buckets of a numeric attribute, in the
+	 * form returned by <code>InstanceSet.getBucketBoundaries</code>.
+	 *
+	 * @param attributeIndex the index of the attribute
+	 * @return the boundaries, which callers must not modify, or null if the
+	 *         attribute is not numeric
+	 */
+	public double[] getBucketBoundaries(int attributeIndex) {
+		return boundaries[attributeIndex];
+	}
+
+	/**
+	 * @return a number that changes whenever the boundaries of any attribute
+	 *         do, and so the codes of existing rows
+	 */
+	public int getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * @return the number of times an attribute has been bucketed, including
+	 *         when the set was read
+	 */
+	public int getNumRebucketings() {
+		return numRebucketings;
+	}
+
+	@Override
+	public AttributeSet getAttributeSet() {
+		return attributeSet;
+	}
+
+	@Override
+	public int getNumRows() {
+		return numRows;
+	}
+
+	@Override
+	public int getNumAttributes() {
+		return numAttributes;
+	}
+
+	@Override
+	public int getCode(int row, int attributeIndex) {
+		return columns[attributeIndex][row];
+	}
+
+	@Override
+	public int getClassCode(int row) {
+		return columns[classAttributeIndex][row];
+	}
+
+	@Override
+	public int getNumValues(int attributeIndex) {
+		return attributeSet.getAttributes().get(attributeIndex).getNumValues();
+	}
+
+	@Override
+	public int getNumClasses() {
+		return attributeSet.getClassAttribute().getNumValues();
+	}
+
+	/**
+	 * Reads the MAGIC training set, checks that it is encoded as an
+	 * EncodedInstanceSet encodes it and that rows with bad values are rejected
+	 * without changing any counts, and appends the shuffled test set to it in
+	 * daily batches, first as it is and then with one attribute doubled, as if
+	 * its units had changed, reporting the time taken by each batch and when
+	 * attributes are bucketed again.
+	 *
+	 * @param arguments Optionally, the number of batches.
+	 * @throws DecisionTreeException
+	 * @throws FileNotFoundException
+	 * @throws IOException
+	 */
+	public static void main(String[] arguments) throws DecisionTreeException, FileNotFoundException, IOException {
+		int numBatches = arguments.length > 0 ? Integer.parseInt(arguments[0]) : 10;
+		String trainingFile = "data/MAGIC_DataSet_Training.arff";
+		long start = System.nanoTime();
+		AppendableInstanceSet data = new AppendableInstanceSet(trainingFile);
+		System.out.println("Read " + data.getNumRows() + " rows in " + (System.nanoTime() - start) / 1000000
+				+ " ms");
+		start = System.nanoTime();
+		EncodedInstanceSet encoded = new EncodedInstanceSet(new InstanceSet(trainingFile));
+		System.out.println("InstanceSet and EncodedInstanceSet read them in " + (System.nanoTime() - start) / 1000000
+				+ " ms");
+		int differences = 0;
+		for (int r = 0; r < data.getNumRows(); r++) {
+			for (int a = 0; a < data.getNumAttributes(); a++) {
+				if (data.getCode(r, a) != encoded.getCode(r, a))
+					differences++;
+			}
+		}
+		System.out.println("Codes differing from EncodedInstanceSet: " + differences);
+
+		ArrayList<String> testLines = new ArrayList<String>();
+		BufferedReader reader = new BufferedReader(new FileReader("data/MAGIC_DataSet_Test.arff"));
+		InstanceSet.readPreamble(reader, InstanceSet.NUM_BUCKETS);
+		String line;
+		while ((line = reader.readLine()) != null) {
+			if (isData(line))
+				testLines.add(line);
+		}
+		reader.close();
+		// The file is sorted by class, so it is shuffled to make batches like
+		// the training set
+		Collections.shuffle(testLines, new Random(42));
+
+		// A row with a malformed value midway, or an undeclared class, must be
+		// rejected without changing any counts
+		String[] good = RowEncoder.split(testLines.get(0));
+		for (int a : new int[] { data.getNumAttributes() / 2, data.classAttributeIndex }) {
+			String[] bad = good.clone();
+			bad[a] = "unknown";
+			int numRows = data.getNumRows();
+			String counts = Arrays.deepToString(data.valueCounts) + Arrays.deepToString(data.bucketCounts);
+			String message = null;
+			try {
+				data.append(Collections.singletonList(String.join(",", bad)));
+			} catch (DecisionTreeException e) {
+				message = e.getMessage();
+			}
+			if (message == null)
+				throw new DecisionTreeException("a row with " + bad[a] + " for attribute " + a + " was accepted");
+			if (data.getNumRows() != numRows
+					|| !counts.equals(Arrays.deepToString(data.valueCounts) + Arrays.deepToString(data.bucketCounts)))
+				throw new DecisionTreeException("rejecting a row changed the counts: " + message);
+			System.out.println("Rejected without changing any counts: " + message);
+		}
+
+		int batchSize = testLines.size() / numBatches;
+		for (int pass = 0; pass < 2; pass++) {
+			for (int b = 0; b < numBatches; b++) {
+				List<String> batch = testLines.subList(b * batchSize, (b + 1) * batchSize);
+				if (pass == 1) {
+					// Double the first attribute
+					ArrayList<String> changed = new ArrayList<String>();
+					for (String row : batch) {
+						String[] values = RowEncoder.split(row);
+						values[0] = String.valueOf(2 * Double.parseDouble(values[0]));
+						changed.add(String.join(",", values));
+					}
+					batch = changed;
+				}
+				int rebucketings = data.getNumRebucketings();
+				start = System.nanoTime();
+				data.append(batch);
+				long elapsed = System.nanoTime() - start;
+				System.out.println(String.format("%s batch %2d: %5d rows in %6d us, %d rows in all, drift of %s %.2f%s",
+						pass == 0 ? "unchanged" : "doubled  ", b + 1, batch.size(), elapsed / 1000,
+						data.getNumRows(), data.getAttributeSet().getAttributes().get(0).getName(), data.drift(0),
+						data.getNumRebucketings() > rebucketings ? ", bucketed again" : ""));
+			}
+		}
+	}
+}
@@ -1,3 +1,5 @@
+import java.util.HashMap;
+
 /**
  * A class describing an attribute in a machine learning problem: in particular,
  * the name of the attribute and the values it can take
@@ -7,7 +9,11 @@
 public class Attribute {
 	private String name; // The name of the attribute
 	private String[] values; // The possible values this attribute can take
-	
+	private boolean ordered; // True if the values are in increasing order
+
+	// Key is one of the possible values, value is that value's index in
+	// this.values
+	private HashMap<String, Integer> valueIndices;
 
 	/**
 	 * Construct a new Attribute with the given name and values.
@@ -15,8 +21,23 @@ public class Attribute {
 	 * @param values the values this attribute can take
 	 */
 	public Attribute(String name,  String[] values) {
+		this(name, values, false);
+	}
+
+	/**
+	 * Construct a new Attribute with the given name and values.
+	 * @param name the name of the attribute
+	 * @param values the values this attribute can take
+	 * @param ordered true if the values are in increasing order, as the
+	 *        buckets of a numeric attribute are
+	 */
+	public Attribute(String name, String[] values, boolean ordered) {
 		this.name = name;
+		this.ordered = ordered;
 		this.values = values;
+		valueIndices = new HashMap<String, Integer>();
+		for (int i = 0; i < values.length; i++)
+			valueIndices.put(values[i], i);
 	}
 
 	/**
@@ -47,6 +68,41 @@ public class Attribute {
 		return values;
 	}
 
+	/**
+	 * Get the index of the given value in the array returned by
+	 * <code>getValues()</code>.
+	 * 
+	 * @param value one of the values this attribute can take
+	 * @return the index of the value, or -1 if this attribute cannot take the
+	 *         given value
+	 */
+	public int getValueIndex(String value) {
+		Integer index = valueIndices.get(value);
+		if (index == null)
+			return -1;
+		return index;
+	}
+
+	/**
+	 * Get the number of values this attribute can take.
+	 * 
+	 * @return the number of values this attribute can take
+	 */
+	public int getNumValues() {
+		return values.length;
+	}
+
+	/**
+	 * Find out whether the values of this attribute are ordered, so that
+	 * neighbouring values are similar, as for the buckets of a numeric
+	 * attribute.
+	 * 
+	 * @return true if the values are in increasing order
+	 */
+	public boolean isOrdered() {
+		return ordered;
+	}
+
 
 
 }
\ No newline at end of file
@@ -0,0 +1,318 @@
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.concurrent.Callable;
+
+/**
+ * An AttributeScreener scores every attribute by how much it says about the
+ * classification, so that uninformative attributes can be dropped before a
+ * tree is learned and no node pays to evaluate them. The contingency table of
+ * every attribute with the class is counted in one pass over the rows, split
+ * into contiguous ranges counted on separate threads and then added together;
+ * from each table come the mutual information (the information gain at the
+ * root) and Pearson's chi-square statistic. Attributes are ranked and
+ * selected by mutual information or by Cramer's V, the chi-square statistic
+ * normalized by the number of rows and the size of the table; the statistic
+ * itself grows with the number of values an attribute takes, so it would
+ * favour attributes with many values, such as finely bucketed numeric ones.
+ *
+ * Screening looks only at each attribute on its own, so an attribute that is
+ * useful only in combination with others may be dropped. Thresholds should be
+ * chosen on held-out data, for example with CrossValidation.
+ *
+ * @author jmac
+ */
+public class AttributeScreener {
+	// The number of threads counting rows
+	private int numThreads;
+
+	// The attributes screened, and their scores in the same order
+	private ArrayList<Attribute> attributes;
+	private double[] mutualInformation;
+	private double[] chiSquare;
+	private double[] cramersV;
+
+	// The number of rows each thread gathers before counting them
+	private static final int BLOCK_SIZE = 4096;
+
+	public static final boolean VERBOSE = false;
+
+	/**
+	 * Create a screener.
+	 *
+	 * @param numThreads the number of threads counting rows
+	 */
+	public AttributeScreener(int numThreads) {
+		this.numThreads = Math.max(1, numThreads);
+	}
+
+	/**
+	 * Score the given attributes on every row of an instance set, encoding it
+	 * first.
+	 *
+	 * @param instances  the rows
+	 * @param attributes the attributes to score, which must not include the
+	 *                   class attribute
+	 * @throws DecisionTreeException if a value cannot be encoded or a thread
+	 *                               fails
+	 */
+	public void screen(InstanceSet instances, ArrayList<Attribute> attributes) throws DecisionTreeException {
+		screen(new EncodedInstanceSet(instances), attributes);
+	}
+
+	/**
+	 * Score the given attributes on every row of the data. The scores replace
+	 * those of any earlier call.
+	 *
+	 * @param data       the rows
+	 * @param attributes the attributes to score, which must not include the
+	 *                   class attribute
+	 * @throws DecisionTreeException if a thread fails
+	 */
+	public void screen(final ColumnStore data, ArrayList<Attribute> attributes) throws DecisionTreeException {
+		this.attributes = new ArrayList<Attribute>(attributes);
+		AttributeSet attributeSet = data.getAttributeSet();
+		final int[] attributeIndices = new int[attributes.size()];
+		for (int t = 0; t < attributeIndices.length; t++)
+			attributeIndices[t] = attributeSet.getAttributeIndex(attributes.get(t));
+
+		int numRows = data.getNumRows();
+		int rowsPerThread = (numRows + numThreads - 1) / numThreads;
+		ArrayList<Callable<ContingencyTable[]>> tasks = new ArrayList<Callable<ContingencyTable[]>>();
+		for (int from = 0; from < numRows; from += rowsPerThread) {
+			final int start = from;
+			final int end = Math.min(numRows, from + rowsPerThread);
+			tasks.add(new Callable<ContingencyTable[]>() {
+				@Override
+				public ContingencyTable[] call() {
+					return count(data, attributeIndices, start, end);
+				}
+			});
+		}
+		ContingencyTable[] tables = null;
+		for (ContingencyTable[] partial : ParallelTasks.invokeAll(tasks, numThreads)) {
+			if (tables == null) {
+				tables = partial;
+			} else {
+				for (int t = 0; t < tables.length; t++)
+					tables[t].add(partial[t]);
+			}
+		}
+
+		mutualInformation = new double[attributeIndices.length];
+		chiSquare = new double[attributeIndices.length];
+		cramersV = new double[attributeIndices.length];
+		for (int t = 0; t < attributeIndices.length; t++) {
+			mutualInformation[t] = tables == null ? 0.0 : tables[t].mutualInformation();
+			chiSquare[t] = tables == null ? 0.0 : tables[t].chiSquare();
+			cramersV[t] = tables == null ? 0.0 : tables[t].cramersV();
+			if (VERBOSE)
+				System.out.println(attributes.get(t).getName() + ": mutual information " + mutualInformation[t]
+						+ ", chi-square " + chiSquare[t] + ", Cramer's V " + cramersV[t]);
+		}
+	}
+
+	// Count the table of every attribute over rows [from, to).
+	private static ContingencyTable[] count(ColumnStore data, int[] attributeIndices, int from, int to) {
+		int numClasses = data.getNumClasses();
+		ContingencyTable[] tables = new ContingencyTable[attributeIndices.length];
+		for (int t = 0; t < tables.length; t++)
+			tables[t] = new ContingencyTable(data.getNumValues(attributeIndices[t]), numClasses);
+		int[] classCodes = new int[BLOCK_SIZE];
+		int[] codes = new int[BLOCK_SIZE];
+		for (int start = from; start < to; start += BLOCK_SIZE) {
+			int length = Math.min(BLOCK_SIZE, to - start);
+			for (int i = 0; i < length; i++)
+				classCodes[i] = data.getClassCode(start + i);
+			for (int t = 0; t < tables.length; t++) {
+				for (int i = 0; i < length; i++)
+					codes[i] = data.getCode(start + i, attributeIndices[t]);
+				tables[t].addAll(codes, classCodes, null, length);
+			}
+		}
+		return tables;
+	}
+
+	/**
+	 * Get the mutual information of an attribute with the classification.
+	 *
+	 * @param attribute a screened attribute
+	 * @return the mutual information in bits
+	 */
+	public double getMutualInformation(Attribute attribute) {
+		return mutualInformation[attributes.indexOf(attribute)];
+	}
+
+	/**
+	 * Get the chi-square statistic of an attribute and the classification.
+	 * The statistic grows with the number of values of the attribute, so it
+	 * should not be compared between attributes; see
+	 * <code>getCramersV</code>.
+	 *
+	 * @param attribute a screened attribute
+	 * @return the statistic
+	 */
+	public double getChiSquare(Attribute attribute) {
+		return chiSquare[attributes.indexOf(attribute)];
+	}
+
+	/**
+	 * Get Cramer's V for an attribute and the classification (see
+	 * <code>ContingencyTable.cramersV</code>).
+	 *
+	 * @param attribute a screened attribute
+	 * @return V, between 0 and 1
+	 */
+	public double getCramersV(Attribute attribute) {
+		return cramersV[attributes.indexOf(attribute)];
+	}
+
+	/**
+	 * Rank the screened attributes by mutual information.
+	 *
+	 * @return a new list of the attributes, most informative first; ties keep
+	 *         the order in which the attributes were screened
+	 */
+	public ArrayList<Attribute> rankByMutualInformation() {
+		return rank(mutualInformation);
+	}
+
+	/**
+	 * Rank the screened attributes by Cramer's V.
+	 *
+	 * @return a new list of the attributes, highest V first; ties keep the
+	 *         order in which the attributes were screened
+	 */
+	public ArrayList<Attribute> rankByCramersV() {
+		return rank(cramersV);
+	}
+
+	/**
+	 * Select the attributes whose mutual information is at least the given
+	 * threshold, keeping only the most informative if there are too many.
+	 *
+	 * @param minMutualInformation the smallest mutual information, in bits, of a
+	 *                             selected attribute
+	 * @param maxAttributes        the largest number of attributes selected, or
+	 *                             0 for no limit
+	 * @return a new list of the selected attributes, in the order in which they
+	 *         were screened, so that trees learned from them break ties as
+	 *         before
+	 */
+	public ArrayList<Attribute> selectByMutualInformation(double minMutualInformation, int maxAttributes) {
+		return select(mutualInformation, minMutualInformation, maxAttributes);
+	}
+
+	/**
+	 * Select the attributes whose Cramer's V is at least the given threshold,
+	 * keeping only those with the highest V if there are too many.
+	 *
+	 * @param minCramersV   the smallest V of a selected attribute, between 0
+	 *                      and 1
+	 * @param maxAttributes the largest number of attributes selected, or 0 for
+	 *                      no limit
+	 * @return a new list of the selected attributes, in the order in which they
+	 *         were screened
+	 */
+	public ArrayList<Attribute> selectByCramersV(double minCramersV, int maxAttributes) {
+		return select(cramersV, minCramersV, maxAttributes);
+	}
+
+	private ArrayList<Attribute> rank(final double[] scores) {
+		ArrayList<Integer> order = new ArrayList<Integer>();
+		for (int t = 0; t < scores.length; t++)
+			order.add(t);
+		// The sort is stable, so ties keep their order
+		Collections.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Double.compare(scores[b], scores[a]);
+			}
+		});
+		ArrayList<Attribute> ranked = new ArrayList<Attribute>();
+		for (int t : order)
+			ranked.add(attributes.get(t));
+		return ranked;
+	}
+
+	private ArrayList<Attribute> select(double[] scores, double threshold, int maxAttributes) {
+		ArrayList<Attribute> ranked = rank(scores);
+		boolean[] selected = new boolean[scores.length];
+		int numSelected = 0;
+		for (Attribute attribute : ranked) {
+			int t = attributes.indexOf(attribute);
+			if (scores[t] < threshold || (maxAttributes > 0 && numSelected >= maxAttributes))
+				break;
+			selected[t] = true;
+			numSelected++;
+		}
+		ArrayList<Attribute> result = new ArrayList<Attribute>();
+		for (int t = 0; t < scores.length; t++) {
+			if (selected[t])
+				result.add(attributes.get(t));
+		}
+		return result;
+	}
+
+	/**
+	 * Screens the attributes of the soybean and MAGIC data sets, reporting the
+	 * most informative and the strongest by Cramer's V, then learns a tree
+	 * from every attribute and from the most informative quarter and half of
+	 * them, reporting the time taken to screen and to learn and the error rate
+	 * on the test set.
+	 *
+	 * @param arguments Optionally, the number of threads.
+	 * @throws DecisionTreeException
+	 * @throws FileNotFoundException
+	 * @throws IOException
+	 */
+	public static void main(String[] arguments) throws DecisionTreeException, FileNotFoundException, IOException {
+		int numThreads = arguments.length > 0 ? Integer.parseInt(arguments[0])
+				: Runtime.getRuntime().availableProcessors();
+		String[][] dataSets = { { "data/soybean.train.arff", "data/soybean.test.arff" },
+				{ "data/MAGIC_DataSet_Training.arff", "data/MAGIC_DataSet_Test.arff" } };
+		for (String[] files : dataSets) {
+			EncodedInstanceSet trainingSet = new EncodedInstanceSet(new InstanceSet(files[0]));
+			EncodedInstanceSet testSet = new EncodedInstanceSet(new InstanceSet(files[1]));
+			AttributeSet attributeSet = trainingSet.getAttributeSet();
+			ArrayList<Attribute> attributes = DecisionTree.removeClassAttribute(attributeSet,
+					attributeSet.getAttributes());
+
+			AttributeScreener screener = new AttributeScreener(numThreads);
+			long start = System.nanoTime();
+			screener.screen(trainingSet, attributes);
+			long screenMicros = (System.nanoTime() - start) / 1000;
+			ArrayList<Attribute> ranked = screener.rankByMutualInformation();
+			System.out.println(files[0] + ": " + attributes.size() + " attributes screened in " + screenMicros
+					+ " us; most informative " + ranked.get(0).getName() + " ("
+					+ String.format("%.3f", screener.getMutualInformation(ranked.get(0))) + " bits), least "
+					+ ranked.get(ranked.size() - 1).getName() + " ("
+					+ String.format("%.3f", screener.getMutualInformation(ranked.get(ranked.size() - 1)))
+					+ " bits)");
+			Attribute strongest = screener.rankByCramersV().get(0);
+			System.out.println("  highest Cramer's V " + strongest.getName() + " ("
+					+ String.format("%.3f", screener.getCramersV(strongest)) + ", chi-square "
+					+ String.format("%.1f", screener.getChiSquare(strongest)) + ")");
+
+			for (int divisor : new int[] { 1, 2, 4 }) {
+				int maxAttributes = Math.max(1, attributes.size() / divisor);
+				ArrayList<Attribute> selected = screener.selectByMutualInformation(0.0, maxAttributes);
+				DecisionTree tree = null;
+				start = System.nanoTime();
+				for (int i = 0; i < 5; i++)
+					tree = new EncodedTreeBuilder(trainingSet, null).build(selected);
+				long learnMicros = (System.nanoTime() - start) / 5000;
+				Attribute classAttribute = attributeSet.getClassAttribute();
+				int numErrors = 0;
+				for (int r = 0; r < testSet.getNumRows(); r++) {
+					if (classAttribute.getValueIndex(tree.decide(testSet, r)) != testSet.getClassCode(r))
+						numErrors++;
+				}
+				System.out.println(String.format("  %3d attributes: learn %7d us, error rate %.4f", selected.size(),
+						learnMicros, (double) numErrors / testSet.getNumRows()));
+			}
+		}
+	}
+}
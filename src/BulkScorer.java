@@ -0,0 +1,390 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A BulkScorer decides every data line of a file, which may be far too large
+ * to load as an InstanceSet, and writes the decisions to another file, one per
+ * line and in the same order. The work is done by a pipeline of threads:
+ *
+ * <pre>
+ * reader -&gt; parsers -&gt; scorers -&gt; writer
+ * </pre>
+ *
+ * The reader reads chunks of lines; several parser threads split and encode
+ * each chunk into a RowBatch; several scorer threads decide the batches; and
+ * the writer puts the decisions back in order and writes them. A fixed number
+ * of chunks, each with its own line array, RowBatch and decision array,
+ * circulate through the pipeline and are reused, so memory is constant
+ * however large the file is, and a stage that falls behind makes the stages
+ * before it wait (backpressure) rather than letting work pile up.
+ *
+ * The input may be a .arff file, whose data lines follow the "@data" line, or
+ * a file of comma-separated data lines only. Values are encoded by a
+ * RowEncoder, so numeric values fall in the training set's buckets.
+ *
+ * @author jmac
+ */
+public class BulkScorer {
+	// The number of lines in each chunk
+	private static final int CHUNK_SIZE = 4096;
+
+	private DecisionTree tree;
+	private RowEncoder encoder;
+	private int numParsers;
+	private int numScorers;
+
+	// The chunks in circulation, bounding the memory used
+	private int numChunks;
+
+	// The per-stage counters of the last run, in pipeline order
+	private Stage[] stages;
+
+	// The number of rows with a known classification, and of those, the
+	// number decided wrongly, in the last run
+	private AtomicLong numLabelled = new AtomicLong();
+	private AtomicLong numErrors = new AtomicLong();
+
+	/**
+	 * Create a scorer.
+	 *
+	 * @param tree       the model
+	 * @param encoder    the encoder for the data the model was learned from
+	 * @param numParsers the number of threads encoding lines
+	 * @param numScorers the number of threads deciding rows
+	 */
+	public BulkScorer(DecisionTree tree, RowEncoder encoder, int numParsers, int numScorers) {
+		this.tree = tree;
+		this.encoder = encoder;
+		this.numParsers = Math.max(1, numParsers);
+		this.numScorers = Math.max(1, numScorers);
+		numChunks = 2 * (this.numParsers + this.numScorers) + 2;
+	}
+
+	/**
+	 * Decide every data line of the input file and write the decisions to the
+	 * output file.
+	 *
+	 * @param inputFilename  a .arff file or a file of data lines
+	 * @param outputFilename the file to receive one decision per data line
+	 * @return the number of lines decided
+	 * @throws IOException
+	 * @throws DecisionTreeException if a line cannot be encoded
+	 */
+	public long score(final String inputFilename, final String outputFilename) throws IOException, DecisionTreeException {
+		stages = new Stage[] { new Stage("read"), new Stage("parse"), new Stage("score"), new Stage("write") };
+		numLabelled.set(0);
+		numErrors.set(0);
+
+		final ArrayBlockingQueue<Chunk> free = new ArrayBlockingQueue<Chunk>(numChunks);
+		final ArrayBlockingQueue<Chunk> read = new ArrayBlockingQueue<Chunk>(numChunks + numParsers);
+		final ArrayBlockingQueue<Chunk> parsed = new ArrayBlockingQueue<Chunk>(numChunks + numScorers);
+		final ArrayBlockingQueue<Chunk> scored = new ArrayBlockingQueue<Chunk>(numChunks + 1);
+		for (int c = 0; c < numChunks; c++)
+			free.add(new Chunk(encoder.getAttributeSet()));
+
+		ArrayList<Callable<Long>> tasks = new ArrayList<Callable<Long>>();
+		tasks.add(new Callable<Long>() {
+			@Override
+			public Long call() throws Exception {
+				return readLines(inputFilename, free, read);
+			}
+		});
+		final AtomicInteger parsersLeft = new AtomicInteger(numParsers);
+		for (int p = 0; p < numParsers; p++)
+			tasks.add(new Callable<Long>() {
+				@Override
+				public Long call() throws Exception {
+					return parseChunks(read, parsed, parsersLeft);
+				}
+			});
+		final AtomicInteger scorersLeft = new AtomicInteger(numScorers);
+		for (int s = 0; s < numScorers; s++)
+			tasks.add(new Callable<Long>() {
+				@Override
+				public Long call() throws Exception {
+					return scoreChunks(parsed, scored, scorersLeft);
+				}
+			});
+		tasks.add(new Callable<Long>() {
+			@Override
+			public Long call() throws Exception {
+				return writeDecisions(outputFilename, scored, free);
+			}
+		});
+		return runPipeline(tasks);
+	}
+
+	// Run every stage on its own thread. If any stage fails, stop the others
+	// and rethrow its exception; otherwise return the writer's result.
+	private long runPipeline(ArrayList<Callable<Long>> tasks) throws IOException, DecisionTreeException {
+		ExecutorService executor = Executors.newFixedThreadPool(tasks.size());
+		ExecutorCompletionService<Long> completion = new ExecutorCompletionService<Long>(executor);
+		try {
+			for (Callable<Long> task : tasks)
+				completion.submit(task);
+			long written = 0;
+			for (int t = 0; t < tasks.size(); t++)
+				written = Math.max(written, completion.take().get());
+			return written;
+		} catch (InterruptedException e) {
+			throw new DecisionTreeException("interrupted while scoring");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			if (cause instanceof DecisionTreeException)
+				throw (DecisionTreeException) cause;
+			throw new DecisionTreeException("scoring failed: " + cause);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	// The reader: fill free chunks with data lines, in order.
+	private long readLines(String filename, ArrayBlockingQueue<Chunk> free, ArrayBlockingQueue<Chunk> read)
+			throws IOException, InterruptedException {
+		Stage stage = stages[0];
+		long sequence = 0;
+		try (BufferedReader reader = new BufferedReader(new FileReader(filename), 1 << 16)) {
+			reader.mark(1 << 16);
+			boolean inData = !isArff(reader);
+			reader.reset();
+			String line = "";
+			while (line != null) {
+				Chunk chunk = free.take();
+				long start = System.nanoTime();
+				chunk.clear(sequence++);
+				while (chunk.numLines < CHUNK_SIZE && (line = reader.readLine()) != null) {
+					String trimmed = line.trim();
+					if (trimmed.isEmpty() || trimmed.startsWith(InstanceSet.commentStart))
+						continue;
+					if (!inData) {
+						inData = trimmed.toLowerCase().startsWith("@data");
+						continue;
+					}
+					chunk.lines[chunk.numLines++] = trimmed;
+				}
+				stage.record(chunk.numLines, System.nanoTime() - start);
+				read.put(chunk);
+			}
+		}
+		for (int p = 0; p < numParsers; p++)
+			read.put(Chunk.END);
+		return 0;
+	}
+
+	// Return true if the first non-empty line starts with "@", as .arff
+	// headers do.
+	private static boolean isArff(BufferedReader reader) throws IOException {
+		String line;
+		while ((line = reader.readLine()) != null) {
+			String trimmed = line.trim();
+			if (!trimmed.isEmpty() && !trimmed.startsWith(InstanceSet.commentStart))
+				return trimmed.startsWith("@");
+		}
+		return false;
+	}
+
+	// A parser: encode each chunk's lines into its batch.
+	private long parseChunks(ArrayBlockingQueue<Chunk> read, ArrayBlockingQueue<Chunk> parsed,
+			AtomicInteger parsersLeft) throws DecisionTreeException, InterruptedException {
+		Stage stage = stages[1];
+		Chunk chunk;
+		while ((chunk = read.take()) != Chunk.END) {
+			long start = System.nanoTime();
+			chunk.batch.clear();
+			for (int i = 0; i < chunk.numLines; i++) {
+				try {
+					chunk.batch.add(encoder, RowEncoder.split(chunk.lines[i]));
+				} catch (DecisionTreeException e) {
+					throw new DecisionTreeException("data line " + (chunk.sequence * CHUNK_SIZE + i + 1) + ": "
+							+ e.getMessage());
+				}
+			}
+			stage.record(chunk.numLines, System.nanoTime() - start);
+			parsed.put(chunk);
+		}
+		// The last parser to finish tells every scorer
+		if (parsersLeft.decrementAndGet() == 0) {
+			for (int s = 0; s < numScorers; s++)
+				parsed.put(Chunk.END);
+		}
+		return 0;
+	}
+
+	// A scorer: decide each chunk's rows.
+	private long scoreChunks(ArrayBlockingQueue<Chunk> parsed, ArrayBlockingQueue<Chunk> scored,
+			AtomicInteger scorersLeft) throws InterruptedException {
+		Stage stage = stages[2];
+		Attribute classAttribute = encoder.getAttributeSet().getClassAttribute();
+		Chunk chunk;
+		while ((chunk = parsed.take()) != Chunk.END) {
+			long start = System.nanoTime();
+			RowBatch batch = chunk.batch;
+			long labelled = 0;
+			long errors = 0;
+			for (int r = 0; r < batch.getNumRows(); r++) {
+				String decision = tree.decide(batch, r);
+				chunk.decisions[r] = decision;
+				int classCode = batch.getClassCode(r);
+				if (classCode >= 0) {
+					labelled++;
+					if (classAttribute.getValueIndex(decision) != classCode)
+						errors++;
+				}
+			}
+			numLabelled.addAndGet(labelled);
+			numErrors.addAndGet(errors);
+			stage.record(batch.getNumRows(), System.nanoTime() - start);
+			scored.put(chunk);
+		}
+		if (scorersLeft.decrementAndGet() == 0)
+			scored.put(Chunk.END);
+		return 0;
+	}
+
+	// The writer: write the decisions of the chunks in sequence, holding back
+	// chunks that arrive early, and return each chunk for reuse.
+	private long writeDecisions(String filename, ArrayBlockingQueue<Chunk> scored, ArrayBlockingQueue<Chunk> free)
+			throws IOException, InterruptedException {
+		Stage stage = stages[3];
+		HashMap<Long, Chunk> early = new HashMap<Long, Chunk>();
+		long next = 0;
+		long written = 0;
+		try (BufferedWriter writer = new BufferedWriter(new FileWriter(filename), 1 << 16)) {
+			Chunk chunk;
+			while ((chunk = scored.take()) != Chunk.END) {
+				early.put(chunk.sequence, chunk);
+				while ((chunk = early.remove(next)) != null) {
+					long start = System.nanoTime();
+					for (int r = 0; r < chunk.numLines; r++) {
+						writer.write(chunk.decisions[r]);
+						writer.newLine();
+					}
+					written += chunk.numLines;
+					next++;
+					stage.record(chunk.numLines, System.nanoTime() - start);
+					free.put(chunk);
+				}
+			}
+		}
+		return written;
+	}
+
+	/**
+	 * Describe the work of each stage in the last run: the rows it handled, the
+	 * time its threads spent working (rather than waiting for other stages),
+	 * and the rate at which it worked. The slowest stage limits the pipeline.
+	 *
+	 * @return one line per stage
+	 */
+	public String getStageReport() {
+		StringBuilder report = new StringBuilder();
+		for (Stage stage : stages)
+			report.append(stage).append('\n');
+		return report.toString();
+	}
+
+	/**
+	 * @return the error rate of the last run on the lines that had a known
+	 *         classification, or NaN if none did
+	 */
+	public double getErrorRate() {
+		return numLabelled.get() == 0 ? Double.NaN : (double) numErrors.get() / numLabelled.get();
+	}
+
+	// Counters for one stage of the pipeline, shared by its threads
+	private static class Stage {
+		String name;
+		AtomicLong rows = new AtomicLong();
+		AtomicLong busyNanos = new AtomicLong();
+
+		Stage(String name) {
+			this.name = name;
+		}
+
+		void record(long numRows, long nanos) {
+			rows.addAndGet(numRows);
+			busyNanos.addAndGet(nanos);
+		}
+
+		@Override
+		public String toString() {
+			double seconds = busyNanos.get() / 1e9;
+			return String.format("%-6s %10d rows, busy %8.1f ms, %12.0f rows/s per thread", name, rows.get(),
+					seconds * 1000, seconds == 0 ? 0.0 : rows.get() / seconds);
+		}
+	}
+
+	// A chunk of consecutive data lines and everything computed from them
+	private static class Chunk {
+		// Marks the end of the input in a queue
+		static final Chunk END = new Chunk(null);
+
+		long sequence;
+		String[] lines;
+		int numLines;
+		RowBatch batch;
+		String[] decisions;
+
+		Chunk(AttributeSet attributeSet) {
+			if (attributeSet == null)
+				return;
+			lines = new String[CHUNK_SIZE];
+			batch = new RowBatch(attributeSet, CHUNK_SIZE);
+			decisions = new String[CHUNK_SIZE];
+		}
+
+		void clear(long sequence) {
+			this.sequence = sequence;
+			numLines = 0;
+		}
+	}
+
+	/**
+	 * Learns a decision tree from the MAGIC training set and decides every line
+	 * of a file with it.
+	 *
+	 * @param arguments Optionally, the input file (by default the MAGIC test
+	 *                  set), the output file, and the numbers of parser and
+	 *                  scorer threads.
+	 * @throws DecisionTreeException
+	 * @throws IOException
+	 */
+	public static void main(String[] arguments) throws DecisionTreeException, IOException {
+		String inputFilename = arguments.length > 0 ? arguments[0] : "data/MAGIC_DataSet_Test.arff";
+		String outputFilename = arguments.length > 1 ? arguments[1] : "MAGIC_DataSet_Test.decisions";
+		int numThreads = Runtime.getRuntime().availableProcessors();
+		int numParsers = arguments.length > 2 ? Integer.parseInt(arguments[2]) : Math.max(1, numThreads / 2);
+		int numScorers = arguments.length > 3 ? Integer.parseInt(arguments[3]) : Math.max(1, numThreads / 2);
+
+		InstanceSet trainingSet = new InstanceSet("data/MAGIC_DataSet_Training.arff");
+		AttributeSet attributeSet = trainingSet.getAttributeSet();
+		ArrayList<Attribute> attributes = DecisionTree.removeClassAttribute(attributeSet,
+				attributeSet.getAttributes());
+		DecisionTree tree = new EncodedTreeBuilder(new EncodedInstanceSet(trainingSet), null).build(attributes);
+
+		BulkScorer scorer = new BulkScorer(tree, new RowEncoder(trainingSet), numParsers, numScorers);
+		long start = System.currentTimeMillis();
+		long numLines = scorer.score(inputFilename, outputFilename);
+		long elapsed = Math.max(1, System.currentTimeMillis() - start);
+
+		System.out.println("Decided " + numLines + " lines in " + elapsed + " ms (" + numLines * 1000 / elapsed
+				+ " lines/s) with " + numParsers + " parsers and " + numScorers + " scorers");
+		System.out.print(scorer.getStageReport());
+		System.out.println("Error rate on labelled lines: " + scorer.getErrorRate());
+	}
+}
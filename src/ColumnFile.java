@@ -0,0 +1,286 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A ColumnFile describes the on-disk format used to store a ColumnStore
+ * column by column, so that large data sets can be written once and then
+ * mapped into memory (OffHeapInstanceSet) or scanned sequentially without
+ * being parsed again. All numbers are little-endian.
+ *
+ * <pre>
+ * int    magic number 0x44544346 ("DTCF")
+ * int    format version (1)
+ * int    number of rows
+ * int    number of attributes
+ * int    index of the classification attribute
+ * int[]  width in bytes (1, 2 or 4) of each attribute's codes
+ *        padding to a multiple of 8 bytes
+ * then, for each attribute in order, its codes for every row,
+ *        each column padded to a multiple of 8 bytes
+ * </pre>
+ *
+ * The attribute names and values are not stored; a ColumnFile is read with the
+ * AttributeSet of the data it was written from.
+ *
+ * @author jmac
+ */
+public class ColumnFile {
+	/**
+	 * The first four bytes of every column file.
+	 */
+	public static final int MAGIC = 0x44544346;
+
+	/**
+	 * The version of the format written by this class.
+	 */
+	public static final int VERSION = 1;
+
+	private int numRows;
+	private int numAttributes;
+	private int classAttributeIndex;
+	private int[] widths;
+
+	// The position in the file of the first code of each column
+	private long[] columnOffsets;
+
+	// The total length of the file
+	private long length;
+
+	/**
+	 * Read the header of an existing column file.
+	 *
+	 * @param filename the name of the file
+	 * @throws IOException
+	 * @throws DecisionTreeException if the file is not a column file
+	 */
+	public ColumnFile(String filename) throws IOException, DecisionTreeException {
+		try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+			ByteBuffer header = ByteBuffer.allocate(20).order(ByteOrder.LITTLE_ENDIAN);
+			readFully(channel, header, 0);
+			if (header.getInt(0) != MAGIC)
+				throw new DecisionTreeException(filename + " is not a column file");
+			if (header.getInt(4) != VERSION)
+				throw new DecisionTreeException("unsupported column file version " + header.getInt(4));
+			numRows = header.getInt(8);
+			numAttributes = header.getInt(12);
+			classAttributeIndex = header.getInt(16);
+
+			ByteBuffer widthBuffer = ByteBuffer.allocate(4 * numAttributes).order(ByteOrder.LITTLE_ENDIAN);
+			readFully(channel, widthBuffer, 20);
+			widths = new int[numAttributes];
+			for (int a = 0; a < numAttributes; a++)
+				widths[a] = widthBuffer.getInt(4 * a);
+			computeLayout();
+			if (channel.size() < length)
+				throw new DecisionTreeException(filename + " is truncated");
+		}
+	}
+
+	// Describe the layout of a file holding data of the given shape.
+	private ColumnFile(int numRows, int[] widths, int classAttributeIndex) {
+		this.numRows = numRows;
+		this.numAttributes = widths.length;
+		this.classAttributeIndex = classAttributeIndex;
+		this.widths = widths;
+		computeLayout();
+	}
+
+	private void computeLayout() {
+		columnOffsets = new long[numAttributes];
+		long offset = pad(20 + 4L * numAttributes);
+		for (int a = 0; a < numAttributes; a++) {
+			columnOffsets[a] = offset;
+			offset += pad((long) numRows * widths[a]);
+		}
+		length = offset;
+	}
+
+	/**
+	 * Write the given data to a column file, using the narrowest width that
+	 * can hold each attribute's codes.
+	 *
+	 * @param data     the data to write
+	 * @param filename the name of the file, which is replaced if it exists
+	 * @return a description of the written file
+	 * @throws IOException
+	 */
+	public static ColumnFile write(ColumnStore data, String filename) throws IOException {
+		int[] widths = new int[data.getNumAttributes()];
+		for (int a = 0; a < widths.length; a++)
+			widths[a] = widthFor(data.getNumValues(a));
+		ColumnFile file = new ColumnFile(data.getNumRows(), widths,
+				data.getAttributeSet().getClassAttributeIndex());
+
+		try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer header = ByteBuffer.allocate(20 + 4 * widths.length).order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(MAGIC).putInt(VERSION).putInt(file.numRows).putInt(file.numAttributes)
+					.putInt(file.classAttributeIndex);
+			for (int width : widths)
+				header.putInt(width);
+			header.flip();
+			writeFully(channel, header, 0);
+
+			ByteBuffer buffer = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+			for (int a = 0; a < widths.length; a++) {
+				long position = file.columnOffsets[a];
+				for (int r = 0; r < data.getNumRows(); r++) {
+					if (buffer.remaining() < 4) {
+						buffer.flip();
+						position += writeFully(channel, buffer, position);
+						buffer.clear();
+					}
+					int code = data.getCode(r, a);
+					if (widths[a] == 1)
+						buffer.put((byte) code);
+					else if (widths[a] == 2)
+						buffer.putShort((short) code);
+					else
+						buffer.putInt(code);
+				}
+				buffer.flip();
+				writeFully(channel, buffer, position);
+				buffer.clear();
+			}
+			// Extend the file to cover the padding after the last column
+			if (channel.size() < file.length)
+				writeFully(channel, ByteBuffer.allocate(1), file.length - 1);
+		}
+		return file;
+	}
+
+	/**
+	 * Get the number of bytes needed to store the codes of an attribute with
+	 * the given number of values.
+	 *
+	 * @param numValues the number of values
+	 * @return 1, 2 or 4
+	 */
+	public static int widthFor(int numValues) {
+		if (numValues <= 1 << 8)
+			return 1;
+		else if (numValues <= 1 << 16)
+			return 2;
+		else
+			return 4;
+	}
+
+	/**
+	 * Check that this file could have been written from data with the given
+	 * attributes.
+	 *
+	 * @param attributeSet the attributes of the data
+	 * @throws DecisionTreeException if the number of attributes, the
+	 *                               classification attribute or a column width
+	 *                               does not match
+	 */
+	public void checkAttributes(AttributeSet attributeSet) throws DecisionTreeException {
+		if (attributeSet.getAttributes().size() != numAttributes
+				|| attributeSet.getClassAttributeIndex() != classAttributeIndex)
+			throw new DecisionTreeException("column file does not match the attribute set");
+		for (int a = 0; a < numAttributes; a++) {
+			if (widths[a] < widthFor(attributeSet.getAttributes().get(a).getNumValues()))
+				throw new DecisionTreeException("column " + a + " of column file is too narrow");
+		}
+	}
+
+	/**
+	 * @return the number of rows
+	 */
+	public int getNumRows() {
+		return numRows;
+	}
+
+	/**
+	 * @return the number of attributes
+	 */
+	public int getNumAttributes() {
+		return numAttributes;
+	}
+
+	/**
+	 * @return the index of the classification attribute
+	 */
+	public int getClassAttributeIndex() {
+		return classAttributeIndex;
+	}
+
+	/**
+	 * @param attributeIndex the index of an attribute
+	 * @return the number of bytes used by each of the attribute's codes
+	 */
+	public int getWidth(int attributeIndex) {
+		return widths[attributeIndex];
+	}
+
+	/**
+	 * @param attributeIndex the index of an attribute
+	 * @return the position in the file of the attribute's first code
+	 */
+	public long getColumnOffset(int attributeIndex) {
+		return columnOffsets[attributeIndex];
+	}
+
+	/**
+	 * @return the total length of the file in bytes
+	 */
+	public long getLength() {
+		return length;
+	}
+
+	/**
+	 * Read the codes of one attribute for a run of consecutive rows. Reading
+	 * successive runs of a column in order scans it sequentially.
+	 *
+	 * @param channel        an open channel to this file
+	 * @param attributeIndex the index of the attribute
+	 * @param fromRow        the first row to read
+	 * @param numRowsToRead  the number of rows to read
+	 * @param buffer         scratch space of at least
+	 *                       <code>numRowsToRead * getWidth(attributeIndex)</code>
+	 *                       bytes
+	 * @param codes          receives the codes, starting at element 0
+	 * @throws IOException
+	 */
+	public void readCodes(FileChannel channel, int attributeIndex, int fromRow, int numRowsToRead,
+			ByteBuffer buffer, int[] codes) throws IOException {
+		int width = widths[attributeIndex];
+		buffer.clear();
+		buffer.order(ByteOrder.LITTLE_ENDIAN).limit(numRowsToRead * width);
+		readFully(channel, buffer, columnOffsets[attributeIndex] + (long) fromRow * width);
+		buffer.flip();
+		for (int i = 0; i < numRowsToRead; i++) {
+			if (width == 1)
+				codes[i] = buffer.get() & 0xff;
+			else if (width == 2)
+				codes[i] = buffer.getShort() & 0xffff;
+			else
+				codes[i] = buffer.getInt();
+		}
+	}
+
+	// Round up to a multiple of 8.
+	private static long pad(long size) {
+		return (size + 7) & ~7L;
+	}
+
+	static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, position);
+			if (read < 0)
+				throw new IOException("unexpected end of column file");
+			position += read;
+		}
+	}
+
+	static int writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		int total = 0;
+		while (buffer.hasRemaining())
+			total += channel.write(buffer, position + total);
+		return total;
+	}
+}
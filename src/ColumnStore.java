@@ -0,0 +1,70 @@
+/**
+ * A ColumnStore gives read-only access to a table of encoded rows: every
+ * attribute value is represented by its index in the array returned by
+ * <code>Attribute.getValues()</code>. This is the access used by
+ * EncodedTreeBuilder and the other learners to read training data, and by
+ * <code>DecisionTree.decide(ColumnStore, int)</code> to score it, so they work
+ * the same way whether the values are held in Java arrays (EncodedInstanceSet)
+ * or in memory outside the Java heap (OffHeapInstanceSet).
+ *
+ * Implementations must allow any number of threads to read at once.
+ *
+ * @author jmac
+ */
+public interface ColumnStore {
+
+	/**
+	 * Get the set of attributes used by every row.
+	 *
+	 * @return the attributeSet
+	 */
+	AttributeSet getAttributeSet();
+
+	/**
+	 * Get the number of rows.
+	 *
+	 * @return the number of rows
+	 */
+	int getNumRows();
+
+	/**
+	 * Get the number of attributes (columns), including the classification
+	 * attribute.
+	 *
+	 * @return the number of attributes
+	 */
+	int getNumAttributes();
+
+	/**
+	 * Get the encoded value of the given attribute in the given row.
+	 *
+	 * @param row            the index of the row
+	 * @param attributeIndex the index of the attribute in the attribute set
+	 * @return the index of the row's value in the attribute's list of values
+	 */
+	int getCode(int row, int attributeIndex);
+
+	/**
+	 * Get the encoded classification of the given row.
+	 *
+	 * @param row the index of the row
+	 * @return the index of the row's classification in the classification
+	 *         attribute's list of values
+	 */
+	int getClassCode(int row);
+
+	/**
+	 * Get the number of values the given attribute can take.
+	 *
+	 * @param attributeIndex the index of the attribute in the attribute set
+	 * @return the number of values, i.e. one more than the largest code
+	 */
+	int getNumValues(int attributeIndex);
+
+	/**
+	 * Get the number of values the classification attribute can take.
+	 *
+	 * @return the number of classes
+	 */
+	int getNumClasses();
+}
@@ -0,0 +1,396 @@
+import java.util.Arrays;
+
+/**
+ * A ContingencyTable counts, for one candidate split attribute, how many
+ * examples were observed with each combination of attribute value and
+ * classification. Counts are integer weights, so an example that appears
+ * several times in a bootstrap sample simply contributes its multiplicity.
+ * Everything needed to score the split and to build the resulting children --
+ * the class counts of every child and of the node as a whole -- can be read
+ * off the table without looking at the examples again.
+ *
+ * @author jmac
+ */
+public class ContingencyTable {
+	// counts[value * numClasses + classCode] is the total weight of examples
+	// with the given attribute value and classification
+	private int[] counts;
+
+	// valueTotals[value] is the total weight of examples with the given value
+	private int[] valueTotals;
+
+	// classTotals[classCode] is the total weight of examples with the given
+	// classification
+	private int[] classTotals;
+
+	// The total weight of all examples in the table
+	private int total;
+
+	private int numValues;
+	private int numClasses;
+
+	private static final double LOG_2 = Math.log(2);
+
+	/**
+	 * Create an empty table.
+	 *
+	 * @param numValues  the number of values the split attribute can take
+	 * @param numClasses the number of values the classification attribute can
+	 *                   take
+	 */
+	public ContingencyTable(int numValues, int numClasses) {
+		this.numValues = numValues;
+		this.numClasses = numClasses;
+		counts = new int[numValues * numClasses];
+		valueTotals = new int[numValues];
+		classTotals = new int[numClasses];
+	}
+
+	/**
+	 * Record an example with the given value and classification.
+	 *
+	 * @param value     the index of the example's value for the split attribute
+	 * @param classCode the index of the example's classification
+	 * @param weight    the number of times the example should be counted
+	 */
+	public void add(int value, int classCode, int weight) {
+		counts[value * numClasses + classCode] += weight;
+		valueTotals[value] += weight;
+		classTotals[classCode] += weight;
+		total += weight;
+	}
+
+	/**
+	 * Record a batch of examples at once, using the fastest available Kernels.
+	 *
+	 * @param codes      an array whose first <code>length</code> elements are
+	 *                   the indices of the examples' values
+	 * @param classCodes the indices of the examples' classifications
+	 * @param weights    the number of times each example should be counted, or
+	 *                   null to count each once
+	 * @param length     the number of examples
+	 */
+	public void addAll(int[] codes, int[] classCodes, int[] weights, int length) {
+		Kernels.getInstance().accumulate(counts, numClasses, codes, classCodes, weights, length);
+		// The totals are cheaper to recompute from the counts than to
+		// maintain for every example
+		total = 0;
+		Arrays.fill(classTotals, 0);
+		for (int value = 0; value < numValues; value++) {
+			int valueTotal = 0;
+			for (int c = 0; c < numClasses; c++) {
+				int count = counts[value * numClasses + c];
+				valueTotal += count;
+				classTotals[c] += count;
+			}
+			valueTotals[value] = valueTotal;
+			total += valueTotal;
+		}
+	}
+
+	/**
+	 * Add every count of another table over the same attribute and
+	 * classifications, for example one counted over a different range of rows.
+	 *
+	 * @param other the table to add, which is not changed
+	 */
+	public void add(ContingencyTable other) {
+		for (int i = 0; i < counts.length; i++)
+			counts[i] += other.counts[i];
+		for (int value = 0; value < numValues; value++)
+			valueTotals[value] += other.valueTotals[value];
+		for (int c = 0; c < numClasses; c++)
+			classTotals[c] += other.classTotals[c];
+		total += other.total;
+	}
+
+	/**
+	 * Remove every count of another table over the same attribute and
+	 * classifications, which must have been counted over a subset of this
+	 * table's examples; for example, the node's table less those of all but
+	 * one child is that child's table.
+	 *
+	 * @param other the table to subtract, which is not changed
+	 */
+	public void subtract(ContingencyTable other) {
+		for (int i = 0; i < counts.length; i++)
+			counts[i] -= other.counts[i];
+		for (int value = 0; value < numValues; value++)
+			valueTotals[value] -= other.valueTotals[value];
+		for (int c = 0; c < numClasses; c++)
+			classTotals[c] -= other.classTotals[c];
+		total -= other.total;
+	}
+
+	/**
+	 * Get the total weight of examples with the given value and classification.
+	 *
+	 * @param value     the index of the attribute value
+	 * @param classCode the index of the classification
+	 * @return the total weight
+	 */
+	public int getCount(int value, int classCode) {
+		return counts[value * numClasses + classCode];
+	}
+
+	/**
+	 * Get the class counts of the child that would receive the examples with
+	 * the given value.
+	 *
+	 * @param value the index of the attribute value
+	 * @return a new array whose c'th element is the weight of examples with the
+	 *         given value and classification c
+	 */
+	public int[] getClassCounts(int value) {
+		int[] classCounts = new int[numClasses];
+		System.arraycopy(counts, value * numClasses, classCounts, 0, numClasses);
+		return classCounts;
+	}
+
+	/**
+	 * Get the total weight of examples with the given value.
+	 *
+	 * @param value the index of the attribute value
+	 * @return the total weight
+	 */
+	public int getValueTotal(int value) {
+		return valueTotals[value];
+	}
+
+	/**
+	 * Get the class counts of all examples in the table, irrespective of their
+	 * value.
+	 *
+	 * @return an array whose c'th element is the weight of examples with
+	 *         classification c; callers must not modify it
+	 */
+	public int[] getClassTotals() {
+		return classTotals;
+	}
+
+	/**
+	 * Get the total weight of all examples in the table.
+	 *
+	 * @return the total weight
+	 */
+	public int getTotal() {
+		return total;
+	}
+
+	/**
+	 * Get the number of values of the split attribute.
+	 *
+	 * @return the number of values
+	 */
+	public int getNumValues() {
+		return numValues;
+	}
+
+	/**
+	 * Get the number of classifications.
+	 *
+	 * @return the number of classes
+	 */
+	public int getNumClasses() {
+		return numClasses;
+	}
+
+	/**
+	 * Compute the expected entropy of the classification after splitting on
+	 * the attribute, i.e. the entropy of each child weighted by the fraction of
+	 * examples the child receives.
+	 *
+	 * @return the expected entropy in bits, or 0 for an empty table
+	 */
+	public double expectedEntropy() {
+		if (total == 0)
+			return 0.0;
+		// Each child's entropy, weighted by n_v / n, is
+		// (n_v ln n_v - sum_c n_vc ln n_vc) / (n ln 2), so the expected entropy
+		// takes just two sums over the table, which the Kernels vectorize.
+		Kernels kernels = Kernels.getInstance();
+		double sum = kernels.sumXLogX(valueTotals, 0, numValues) - kernels.sumXLogX(counts, 0, counts.length);
+		return Math.max(0.0, sum / (total * LOG_2));
+	}
+
+	/**
+	 * Compute the expected Gini impurity of the classification after splitting
+	 * on the attribute, i.e. the Gini impurity of each child weighted by the
+	 * fraction of examples the child receives. No logarithms are needed.
+	 *
+	 * @return the expected Gini impurity, or 0 for an empty table
+	 */
+	public double expectedGini() {
+		if (total == 0)
+			return 0.0;
+		// Each child's impurity, weighted by n_v / n, is
+		// (n_v - sum_c n_vc^2 / n_v) / n, and the squares are exact in a long
+		double sum = 0.0;
+		for (int value = 0; value < numValues; value++) {
+			int valueTotal = valueTotals[value];
+			if (valueTotal == 0)
+				continue;
+			long squares = 0;
+			for (int i = value * numClasses; i < (value + 1) * numClasses; i++)
+				squares += (long) counts[i] * counts[i];
+			sum += valueTotal - (double) squares / valueTotal;
+		}
+		return Math.max(0.0, sum / total);
+	}
+
+	/**
+	 * Compute the entropy of the classification before splitting.
+	 *
+	 * @return the entropy in bits, or 0 for an empty table
+	 */
+	public double classEntropy() {
+		return total == 0 ? 0.0 : Math.max(0.0, entropyOf(classTotals));
+	}
+
+	/**
+	 * Compute the split information of the attribute: the entropy of the
+	 * fractions of examples sent to each child. Attributes with many values
+	 * have high split information.
+	 *
+	 * @return the split information in bits, or 0 for an empty table
+	 */
+	public double splitInformation() {
+		return total == 0 ? 0.0 : Math.max(0.0, entropyOf(valueTotals));
+	}
+
+	/**
+	 * Compute the mutual information of the attribute and the classification,
+	 * i.e. the information gain of splitting on the attribute.
+	 *
+	 * @return the mutual information in bits, or 0 for an empty table
+	 */
+	public double mutualInformation() {
+		return Math.max(0.0, classEntropy() - expectedEntropy());
+	}
+
+	/**
+	 * Compute Pearson's chi-square statistic for independence of the attribute
+	 * and the classification. Values and classifications that never occur are
+	 * left out.
+	 *
+	 * @return the statistic, or 0 for an empty table
+	 */
+	public double chiSquare() {
+		if (total == 0)
+			return 0.0;
+		double statistic = 0.0;
+		for (int value = 0; value < numValues; value++) {
+			if (valueTotals[value] == 0)
+				continue;
+			for (int c = 0; c < numClasses; c++) {
+				if (classTotals[c] == 0)
+					continue;
+				double expected = (double) valueTotals[value] * classTotals[c] / total;
+				double difference = counts[value * numClasses + c] - expected;
+				statistic += difference * difference / expected;
+			}
+		}
+		return statistic;
+	}
+
+	/**
+	 * Compute Cramer's V for the attribute and the classification: the
+	 * chi-square statistic divided by the number of examples and by one less
+	 * than the smaller of the numbers of values and classifications that
+	 * occur, then square-rooted. Unlike the statistic itself, which grows with
+	 * the degrees of freedom of the table, V lies between 0 (independent) and 1
+	 * (either determines the other), whatever the number of values, so
+	 * attributes with many values are not favoured.
+	 *
+	 * @return V, or 0 for an empty table or one in which only one value or one
+	 *         classification occurs
+	 */
+	public double cramersV() {
+		int numValuesSeen = 0;
+		for (int value = 0; value < numValues; value++) {
+			if (valueTotals[value] > 0)
+				numValuesSeen++;
+		}
+		int numClassesSeen = 0;
+		for (int c = 0; c < numClasses; c++) {
+			if (classTotals[c] > 0)
+				numClassesSeen++;
+		}
+		int degrees = Math.min(numValuesSeen, numClassesSeen) - 1;
+		if (degrees <= 0)
+			return 0.0;
+		return Math.min(1.0, Math.sqrt(chiSquare() / ((double) total * degrees)));
+	}
+
+	// The entropy of counts summing to total, (n ln n - sum_i n_i ln n_i) /
+	// (n ln 2).
+	private double entropyOf(int[] totals) {
+		Kernels kernels = Kernels.getInstance();
+		return (total * Math.log(total) - kernels.sumXLogX(totals, 0, totals.length)) / (total * LOG_2);
+	}
+
+	/**
+	 * Compute the entropy of a distribution given by integer counts.
+	 *
+	 * @param counts an array containing the counts
+	 * @param offset the index of the first count
+	 * @param length the number of counts
+	 * @param total  the sum of the counts
+	 * @return the entropy in bits
+	 */
+	public static double entropy(int[] counts, int offset, int length, int total) {
+		double entropy = 0.0;
+		for (int i = offset; i < offset + length; i++) {
+			if (counts[i] == 0)
+				continue;
+			double probability = (double) counts[i] / total;
+			entropy -= probability * Math.log(probability) / LOG_2;
+		}
+		return entropy;
+	}
+
+	/**
+	 * Decide whether at most one classification occurs in the given counts,
+	 * so that a node with them need not be split.
+	 *
+	 * @param classCounts an array of class counts
+	 * @return true if at most one count is nonzero
+	 */
+	public static boolean isPure(int[] classCounts) {
+		int nonzero = 0;
+		for (int count : classCounts) {
+			if (count > 0)
+				nonzero++;
+		}
+		return nonzero <= 1;
+	}
+
+	/**
+	 * Add up the given class counts.
+	 *
+	 * @param classCounts an array of class counts
+	 * @return their sum
+	 */
+	public static int total(int[] classCounts) {
+		int total = 0;
+		for (int count : classCounts)
+			total += count;
+		return total;
+	}
+
+	/**
+	 * Get the index of the most frequent classification in the given counts.
+	 * Ties are broken in favour of the lowest index.
+	 *
+	 * @param classCounts an array of class counts
+	 * @return the index of the largest count
+	 */
+	public static int indexOfMax(int[] classCounts) {
+		int max = 0;
+		for (int c = 1; c < classCounts.length; c++) {
+			if (classCounts[c] > classCounts[max])
+				max = c;
+		}
+		return max;
+	}
+}
@@ -0,0 +1,148 @@
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+
+/**
+ * Estimates the error rate of decision trees by k-fold cross-validation. The
+ * data is loaded, discretized and encoded once; each fold is then described
+ * only by arrays of row indices into the shared ColumnStore, and the
+ * folds are learned and evaluated concurrently.
+ *
+ * @author jmac
+ */
+public class CrossValidation {
+
+	private CrossValidation() {
+	}
+
+	/**
+	 * Cross-validate decision trees learned by an EncodedTreeBuilder. The rows
+	 * are shuffled and divided into <code>numFolds</code> folds of nearly equal
+	 * size; for each fold, a tree is learned from the other folds and
+	 * evaluated on the fold.
+	 *
+	 * @param data       The rows to cross-validate on.
+	 * @param attributes A list of attributes on which the trees are permitted
+	 *                   to make decisions.
+	 * @param numFolds   The number of folds, at least 2.
+	 * @param seed       The seed used to shuffle the rows into folds.
+	 * @param numThreads The number of folds processed at once.
+	 * @return The per-fold error rates, confusion matrices and timings.
+	 * @throws DecisionTreeException
+	 */
+	public static CrossValidationResult crossValidate(final ColumnStore data,
+			final ArrayList<Attribute> attributes, int numFolds, long seed, int numThreads)
+			throws DecisionTreeException {
+		if (numFolds < 2 || numFolds > data.getNumRows())
+			throw new DecisionTreeException("cannot divide " + data.getNumRows() + " rows into " + numFolds
+					+ " folds");
+		final int[] permutation = shuffledRows(data.getNumRows(), new Random(seed));
+		final int numRows = data.getNumRows();
+		final CrossValidationResult result = new CrossValidationResult(
+				data.getAttributeSet().getClassAttribute(), numFolds);
+
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for (int f = 0; f < numFolds; f++) {
+			final int fold = f;
+			final int testFrom = f * numRows / numFolds;
+			final int testTo = (f + 1) * numRows / numFolds;
+			tasks.add(new Callable<Void>() {
+				public Void call() throws DecisionTreeException {
+					int[] trainingRows = new int[numRows - (testTo - testFrom)];
+					System.arraycopy(permutation, 0, trainingRows, 0, testFrom);
+					System.arraycopy(permutation, testTo, trainingRows, testFrom, numRows - testTo);
+
+					long start = System.nanoTime();
+					DecisionTree tree = new EncodedTreeBuilder(data, null).build(attributes, trainingRows);
+					long trained = System.nanoTime();
+					int[][] confusionMatrix = evaluate(tree, data, permutation, testFrom, testTo);
+					long tested = System.nanoTime();
+
+					synchronized (result) {
+						result.setFold(fold, confusionMatrix, (trained - start) / 1000000,
+								(tested - trained) / 1000000);
+					}
+					return null;
+				}
+			});
+		}
+		ParallelTasks.invokeAll(tasks, numThreads);
+		return result;
+	}
+
+	// Return the numbers 0..numRows-1 in a random order.
+	private static int[] shuffledRows(int numRows, Random random) {
+		int[] rows = new int[numRows];
+		for (int r = 0; r < numRows; r++)
+			rows[r] = r;
+		for (int i = numRows - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			int swap = rows[i];
+			rows[i] = rows[j];
+			rows[j] = swap;
+		}
+		return rows;
+	}
+
+	// Classify rows[from..to) and return the confusion matrix.
+	private static int[][] evaluate(DecisionTree tree, ColumnStore data, int[] rows, int from, int to) {
+		Attribute classAttribute = data.getAttributeSet().getClassAttribute();
+		int numClasses = data.getNumClasses();
+		int[][] confusionMatrix = new int[numClasses][numClasses];
+		for (int i = from; i < to; i++) {
+			int r = rows[i];
+			confusionMatrix[data.getClassCode(r)][classAttribute.getValueIndex(tree.decide(data, r))]++;
+		}
+		return confusionMatrix;
+	}
+
+	/**
+	 * Cross-validates decision trees on each of the given .arff files and
+	 * prints the results.
+	 *
+	 * @param arguments The names of .arff files, optionally preceded by
+	 *                  "-k" and the number of folds. Several of the data sets
+	 *                  in the data directory are used by default.
+	 * @throws DecisionTreeException
+	 * @throws FileNotFoundException
+	 * @throws IOException
+	 */
+	public static void main(String[] arguments) throws DecisionTreeException, FileNotFoundException, IOException {
+		int numFolds = 10;
+		ArrayList<String> filenames = new ArrayList<String>();
+		for (int i = 0; i < arguments.length; i++) {
+			if (arguments[i].equals("-k"))
+				numFolds = Integer.parseInt(arguments[++i]);
+			else
+				filenames.add(arguments[i]);
+		}
+		if (filenames.isEmpty()) {
+			filenames.add("data/weather.nominal.arff");
+			filenames.add("data/contact-lenses.arff");
+			filenames.add("data/breast.w.train.arff");
+			filenames.add("data/soybean.train.arff");
+			filenames.add("data/MAGIC_DataSet_Training.arff");
+		}
+		int numThreads = Runtime.getRuntime().availableProcessors();
+
+		for (String filename : filenames) {
+			InstanceSet instances = new InstanceSet(filename);
+			AttributeSet attributeSet = instances.getAttributeSet();
+			ArrayList<Attribute> attributes = DecisionTree.removeClassAttribute(attributeSet,
+					attributeSet.getAttributes());
+			EncodedInstanceSet data = new EncodedInstanceSet(instances);
+
+			long start = System.currentTimeMillis();
+			int k = Math.min(numFolds, data.getNumRows());
+			CrossValidationResult result = crossValidate(data, attributes, k, 1, numThreads);
+			long elapsed = System.currentTimeMillis() - start;
+
+			System.out.println();
+			System.out.println(k + "-fold cross-validation of " + filename + " (" + elapsed + " ms)");
+			result.print();
+		}
+	}
+}
@@ -0,0 +1,138 @@
+/**
+ * A CrossValidationResult records, for every fold of a k-fold
+ * cross-validation, the error rate and confusion matrix on the fold's held-out
+ * rows and the time taken to learn and to evaluate the fold's tree.
+ *
+ * @author jmac
+ */
+public class CrossValidationResult {
+	// The classification attribute; confusion matrices are indexed by the
+	// positions of its values
+	private Attribute classAttribute;
+
+	// For fold f: the error rate on the held-out rows, the confusion matrix
+	// (confusionMatrices[f][actual][decided] counts held-out rows), and the
+	// training and testing times in milliseconds
+	private double[] errorRates;
+	private int[][][] confusionMatrices;
+	private long[] trainingMillis;
+	private long[] testingMillis;
+
+	/**
+	 * Create an empty result for the given number of folds.
+	 *
+	 * @param classAttribute the classification attribute of the data
+	 * @param numFolds       the number of folds
+	 */
+	CrossValidationResult(Attribute classAttribute, int numFolds) {
+		this.classAttribute = classAttribute;
+		errorRates = new double[numFolds];
+		confusionMatrices = new int[numFolds][][];
+		trainingMillis = new long[numFolds];
+		testingMillis = new long[numFolds];
+	}
+
+	// Record the outcome of one fold.
+	void setFold(int fold, int[][] confusionMatrix, long foldTrainingMillis, long foldTestingMillis) {
+		int total = 0;
+		int correct = 0;
+		for (int actual = 0; actual < confusionMatrix.length; actual++) {
+			for (int decided = 0; decided < confusionMatrix.length; decided++)
+				total += confusionMatrix[actual][decided];
+			correct += confusionMatrix[actual][actual];
+		}
+		errorRates[fold] = total == 0 ? 0.0 : (double) (total - correct) / total;
+		confusionMatrices[fold] = confusionMatrix;
+		trainingMillis[fold] = foldTrainingMillis;
+		testingMillis[fold] = foldTestingMillis;
+	}
+
+	/**
+	 * Get the number of folds.
+	 *
+	 * @return the number of folds
+	 */
+	public int getNumFolds() {
+		return errorRates.length;
+	}
+
+	/**
+	 * Get the error rate of the given fold's tree on its held-out rows.
+	 *
+	 * @param fold the index of the fold
+	 * @return the error rate
+	 */
+	public double getErrorRate(int fold) {
+		return errorRates[fold];
+	}
+
+	/**
+	 * Get the mean of the folds' error rates.
+	 *
+	 * @return the mean error rate
+	 */
+	public double getMeanErrorRate() {
+		double sum = 0.0;
+		for (double errorRate : errorRates)
+			sum += errorRate;
+		return sum / errorRates.length;
+	}
+
+	/**
+	 * Get the confusion matrix of the given fold. Element [a][d] is the number
+	 * of held-out rows whose classification is the a'th value of the
+	 * classification attribute and which the tree classified as the d'th.
+	 *
+	 * @param fold the index of the fold
+	 * @return the confusion matrix
+	 */
+	public int[][] getConfusionMatrix(int fold) {
+		return confusionMatrices[fold];
+	}
+
+	/**
+	 * Get the time taken to learn the given fold's tree.
+	 *
+	 * @param fold the index of the fold
+	 * @return the time in milliseconds
+	 */
+	public long getTrainingMillis(int fold) {
+		return trainingMillis[fold];
+	}
+
+	/**
+	 * Get the time taken to classify the given fold's held-out rows.
+	 *
+	 * @param fold the index of the fold
+	 * @return the time in milliseconds
+	 */
+	public long getTestingMillis(int fold) {
+		return testingMillis[fold];
+	}
+
+	/**
+	 * Print the error rate and timings of every fold, the mean error rate, and
+	 * the confusion matrix summed over all folds.
+	 */
+	public void print() {
+		for (int f = 0; f < errorRates.length; f++) {
+			System.out.println("fold " + f + ": error rate " + errorRates[f] + ", trained in " + trainingMillis[f]
+					+ " ms, tested in " + testingMillis[f] + " ms");
+		}
+		System.out.println("mean error rate: " + getMeanErrorRate());
+
+		String[] classes = classAttribute.getValues();
+		System.out.println("confusion matrix (rows are actual classifications):");
+		for (int actual = 0; actual < classes.length; actual++) {
+			StringBuilder builder = new StringBuilder();
+			builder.append(classes[actual] + ":");
+			for (int decided = 0; decided < classes.length; decided++) {
+				int sum = 0;
+				for (int[][] confusionMatrix : confusionMatrices)
+					sum += confusionMatrix[actual][decided];
+				builder.append(" " + sum);
+			}
+			System.out.println(builder);
+		}
+	}
+}
@@ -52,48 +52,98 @@ public abstract class DecisionTree {
 	 */
 	public static DecisionTree constructDecisionTree(InstanceSet examples, ArrayList<Attribute> attributes,
 			InstanceSet parentExamples, String label, int depth) throws DecisionTreeException {
+		return constructDecisionTree(examples, attributes, parentExamples, label, depth, SplitCriterion.ENTROPY);
+	}
+
+	/**
+	 * Construct a decision tree as above, choosing split attributes by the
+	 * given criterion instead of by maximum information gain.
+	 * 
+	 * @param examples       The examples from which this tree should be learned.
+	 * @param attributes     A list of attributes on which this tree is permitted to
+	 *                       make decisions.
+	 * @param parentExamples The examples from which the parent node of this
+	 *                       DecisionTree object were learned, or null for the
+	 *                       root.
+	 * @param label          The label on the edge leading to this DecisionTree
+	 *                       node, or <code>DecisionTree.ROOT_LABEL</code> for the
+	 *                       root.
+	 * @param depth          The depth of this node in the full decision tree.
+	 * @param criterion      The criterion by which split attributes are chosen.
+	 * @return The constructed DecisionTree.
+	 * @throws DecisionTreeException
+	 */
+	public static DecisionTree constructDecisionTree(InstanceSet examples, ArrayList<Attribute> attributes,
+			InstanceSet parentExamples, String label, int depth, SplitCriterion criterion)
+			throws DecisionTreeException {
+		if (examples.getNumInstances() == 0 && parentExamples == null)
+			throw new DecisionTreeException("cannot learn a decision tree from no examples");
+		int[] parentClassCounts = parentExamples == null ? null : countClasses(parentExamples);
+		return constructDecisionTree(examples, attributes, countClasses(examples), parentClassCounts, label, depth,
+				criterion);
+	}
+
+	/**
+	 * Construct a decision tree as above, given the class counts of the examples
+	 * and of the parent's examples, so that no pass over the examples is needed
+	 * to decide whether this node is a leaf or to compute a leaf's decision.
+	 * DecisionTreeInternal passes each child the counts it read off the
+	 * contingency table of its split attribute.
+	 * 
+	 * @param examples          The examples from which this tree should be
+	 *                          learned.
+	 * @param attributes        A list of attributes on which this tree is
+	 *                          permitted to make decisions.
+	 * @param classCounts       An array whose c'th element is the number of
+	 *                          examples with classification c.
+	 * @param parentClassCounts The class counts of the examples from which the
+	 *                          parent node was learned, or null for the root.
+	 * @param label             The label on the edge leading to this
+	 *                          DecisionTree node, or
+	 *                          <code>DecisionTree.ROOT_LABEL</code> for the root.
+	 * @param depth             The depth of this node in the full decision tree.
+	 * @param criterion         The criterion by which split attributes are
+	 *                          chosen.
+	 * @return The constructed DecisionTree.
+	 * @throws DecisionTreeException
+	 */
+	static DecisionTree constructDecisionTree(InstanceSet examples, ArrayList<Attribute> attributes,
+			int[] classCounts, int[] parentClassCounts, String label, int depth, SplitCriterion criterion)
+			throws DecisionTreeException {
 		// The algorithm closely mimics figure 18.5 of Russell and Norvig.
+		Attribute classAttribute = examples.getAttributeSet().getClassAttribute();
 		if (examples.getNumInstances() == 0) {
-			// TODO: fix the following line.
-			// HINT: it should begin "return new ..."
 			if (VERBOSE) {
 				System.out.println("------------------------------ If Statement: 1 ----------------------------");
 			}
-			return new DecisionTreeLeaf(parentExamples, label, depth + 1);
-		} else if (isPure(examples) || attributes.size() == 0) {
-			// TODO: fix the following line.
-			// HINT: it should begin "return new ..."
+			return new DecisionTreeLeaf(classAttribute, parentClassCounts, label, depth + 1);
+		} else if (ContingencyTable.isPure(classCounts) || attributes.size() == 0) {
 			if (VERBOSE) {
 				System.out.println("------------------------------ If Statement: 2 ----------------------------");
 			}
-			return new DecisionTreeLeaf(examples, label, depth + 1);
+			return new DecisionTreeLeaf(classAttribute, classCounts, label, depth + 1);
 		} else {
-			// TODO: fix the following line.
-			// HINT: it should begin "return new ..."
 			if (VERBOSE) {
 				System.out.println("------------------------------ If Statement: 3 ----------------------------");
 			}
-			return new DecisionTreeInternal(examples, attributes, label, depth + 1);
+			return new DecisionTreeInternal(examples, classCounts, attributes, label, depth + 1, criterion);
 
 		}
 	}
 
-	// Return true if the given set of instances is pure, and false otherwise.
-	private static boolean isPure(InstanceSet instances) {
-		// TODO: fill in the body of this method and fix the return statement
-		int index = instances.getAttributeSet().getClassAttributeIndex();
-		String[] instanceVals = instances.getInstances().get(0).getValues(); // get class value of first instance
-		String firstVal = instanceVals[0];
-		for (int i = 1; i < instanceVals.length; i++) {
-			if (!firstVal.equals(instanceVals[i])) {
-				if (VERBOSE)
-					System.out.println("THIS " + instanceVals[i] + " IS NOT A PURE INSTANCE " + firstVal);
-
-				return false;
-			}
+	// Count the examples with each classification.
+	static int[] countClasses(InstanceSet instances) throws DecisionTreeException {
+		Attribute classAttribute = instances.getAttributeSet().getClassAttribute();
+		int classAttributeIndex = instances.getAttributeSet().getClassAttributeIndex();
+		int[] classCounts = new int[classAttribute.getNumValues()];
+		for (Instance instance : instances.getInstances()) {
+			int classCode = classAttribute.getValueIndex(instance.getValues()[classAttributeIndex]);
+			if (classCode < 0)
+				throw new DecisionTreeException("unexpected value " + instance.getValues()[classAttributeIndex]
+						+ " for attribute " + classAttribute.getName());
+			classCounts[classCode]++;
 		}
-		return true;
-
+		return classCounts;
 	}
 
 	/**
@@ -111,7 +161,7 @@ public abstract class DecisionTree {
 	 *         the classification attribute removed.
 	 */
 	@SuppressWarnings("unchecked")
-	private static ArrayList<Attribute> removeClassAttribute(AttributeSet attributeSet,
+	public static ArrayList<Attribute> removeClassAttribute(AttributeSet attributeSet,
 			ArrayList<Attribute> attributes) {
 		Attribute classAttribute = attributeSet.getClassAttribute();
 		ArrayList<Attribute> newAttributes = (ArrayList<Attribute>) attributes.clone();
@@ -139,8 +189,27 @@ public abstract class DecisionTree {
 	 * @param attributes The set of attributes employed by the instance.
 	 * @param instance   The instance to be classified.
 	 * @return The classification of the given instance.
+	 * @throws DecisionTreeException if the instance takes a value that the
+	 *                               tree's split attributes do not declare
 	 */
-	public abstract String decide(AttributeSet attributes, Instance instance);
+	public abstract String decide(AttributeSet attributes, Instance instance) throws DecisionTreeException;
+
+	/**
+	 * Return the decision tree's decision for the given row of a ColumnStore.
+	 * 
+	 * @param data The encoded rows, which must use the attributes the tree was
+	 *             learned from.
+	 * @param row  The index of the row to be classified.
+	 * @return The classification of the given row.
+	 */
+	public abstract String decide(ColumnStore data, int row);
+
+	/**
+	 * @return The label on the edge leading to this DecisionTree node.
+	 */
+	String getLabel() {
+		return edgeLabel;
+	}
 
 	/**
 	 * Print out the DecisionTree in a human-readable form
@@ -158,8 +227,10 @@ public abstract class DecisionTree {
 	 * 
 	 * @param testSet A set of examples on which the error rate will be computed.
 	 * @return The error rate of the decision tree on the given test set.
+	 * @throws DecisionTreeException if an example takes a value that the tree's
+	 *                               split attributes do not declare
 	 */
-	public double computeErrorRate(InstanceSet testSet) {
+	public double computeErrorRate(InstanceSet testSet) throws DecisionTreeException {
 		int num_errors = 0;
 		AttributeSet attributes = testSet.getAttributeSet();
 		int classAttributeIndex = attributes.getClassAttributeIndex();
@@ -177,8 +248,10 @@ public abstract class DecisionTree {
 	 * test set.
 	 * 
 	 * @param testSet The set of instances whose decisions will be printed.
+	 * @throws DecisionTreeException if an instance takes a value that the tree's
+	 *                               split attributes do not declare
 	 */
-	public void printDecisions(InstanceSet testSet) {
+	public void printDecisions(InstanceSet testSet) throws DecisionTreeException {
 		AttributeSet attributes = testSet.getAttributeSet();
 		for (Instance instance : testSet.getInstances()) {
 			String decision = decide(attributes, instance);
@@ -8,13 +8,26 @@ import java.util.HashMap;
  */
 public class DecisionTreeInternal extends DecisionTree {
 
-	// A map consisting of the children of this internal node in the decision
-	// tree. The key is a possible value of this node's split attribute, and the
-	// corresponding value is a DecisionTree for classifying instances that
-	// agree with the key. For example, if this node's split attribute is
-	// "color", and the possible values of the attribute include "red", then the
-	// key "red" maps to a DecisionTree for instances whose "color" is "red".
-	HashMap<String, DecisionTree> children;
+	// The children of this internal node in the decision tree. Each is a
+	// DecisionTree for classifying instances that agree with one or more
+	// values of this node's split attribute. For example, if this node's split
+	// attribute is "color", and the possible values of the attribute include
+	// "red", then one child is for instances whose "color" is "red".
+	//
+	// If the split attribute is ordered, neighbouring values often lead to
+	// the same subtree (most often, a leaf making the same decision as its
+	// parent, because no examples had those values), so each run of
+	// consecutive values leading to identical subtrees shares one child. If
+	// there are few runs, each child is kept once: children[r] is the child for
+	// the values from runEnds[r - 1] (or 0) up to but excluding runEnds[r].
+	// Otherwise, and always if the split attribute is not ordered, runEnds is
+	// null and children[v] is the child for the value with index v.
+	private DecisionTree[] children;
+	private int[] runEnds;
+
+	// Runs are looked up by binary search rather than value index only if
+	// there are at most this fraction of them per value
+	private static final int MIN_VALUES_PER_RUN = 4;
 
 	// The attribute on which this internal node splits its instances. In the
 	// conventional way of drawing decision trees, the node would also be
@@ -29,103 +42,224 @@ public class DecisionTreeInternal extends DecisionTree {
 	 * should be constructed using the constructDecisionTree factory method in the
 	 * DecisionTree class.
 	 * 
-	 * @param examples   The examples from which this tree should be learned.
-	 * @param attributes A list of attributes on which this tree is permitted to
-	 *                   make decisions.
-	 * @param label      The label on the edge leading to this DecisionTree node, or
-	 *                   <code>DecisionTree.ROOT_LABEL</code> for the root.
-	 * @param depth      The depth of this node in the full decision tree.
+	 * @param examples    The examples from which this tree should be learned.
+	 * @param classCounts An array whose c'th element is the number of examples
+	 *                    with classification c.
+	 * @param attributes  A list of attributes on which this tree is permitted to
+	 *                    make decisions.
+	 * @param label       The label on the edge leading to this DecisionTree node,
+	 *                    or <code>DecisionTree.ROOT_LABEL</code> for the root.
+	 * @param depth       The depth of this node in the full decision tree.
+	 * @param criterion   The criterion by which split attributes are chosen.
 	 * @throws DecisionTreeException
 	 */
 	@SuppressWarnings("unchecked")
-	protected DecisionTreeInternal(InstanceSet examples, ArrayList<Attribute> attributes, String label, int depth)
-			throws DecisionTreeException {
+	protected DecisionTreeInternal(InstanceSet examples, int[] classCounts, ArrayList<Attribute> attributes,
+			String label, int depth, SplitCriterion criterion) throws DecisionTreeException {
 		super(label, depth);
 		assert attributes.size() > 0;
 
-		// compute and store the split attribute
-		splitAttribute = getSplitAttribute(examples, attributes);
+		// count every candidate attribute in a single pass over the examples,
+		// and compute and store the split attribute
+		ContingencyTable[] tables = countValues(examples, attributes);
+		int split = getSplitAttribute(tables, criterion);
+		splitAttribute = attributes.get(split);
 
 		// Make a list of valid attributes for child nodes, which consists of
 		// all the valid attributes for this node except the split attribute.
 		ArrayList<Attribute> childAttributes = (ArrayList<Attribute>) attributes.clone();
 		childAttributes.remove(splitAttribute);
 
-		// compute the children of this node, using recursion
-		children = makeChildren(examples, childAttributes);
+		// compute the children of this node, using recursion; each child's
+		// class counts are read off the split attribute's table
+		setChildren(makeChildren(examples, tables[split], classCounts, childAttributes, criterion));
 	}
 
 	/**
-	 * Compute the attribute on which this internal node will split its instances,
-	 * using the criterion of maximum information gain.
+	 * This protected constructor is used by tree builders that choose the split
+	 * attribute and construct the children themselves, such as
+	 * EncodedTreeBuilder.
 	 * 
-	 * @param examples   A set of instances that will be used to determine the split
-	 *                   attribute.
-	 * @param attributes A list of attributes that are valid candidates for the
-	 *                   split attribute.
-	 * @return The chosen split attribute.
-	 * @throws DecisionTreeException
+	 * @param splitAttribute The attribute on which this node splits its
+	 *                       instances.
+	 * @param children       The children of this node, keyed by the values of
+	 *                       <code>splitAttribute</code>.
+	 * @param label          The label on the edge leading to this DecisionTree
+	 *                       node, or <code>DecisionTree.ROOT_LABEL</code> for the
+	 *                       root.
+	 * @param depth          The depth of this node in the full decision tree.
 	 */
-	private Attribute getSplitAttribute(InstanceSet examples, ArrayList<Attribute> attributes)
-			throws DecisionTreeException {
-		// TODO: fill in the body of this method and fix the return statement
-		// HINT: the expectedEntropy() method will be needed
-		double minEntropy = Integer.MAX_VALUE;
-		Attribute minAt = null;
-		for (Attribute at : attributes) {
-			double curr = expectedEntropy(at, examples);
-			if (curr < minEntropy) {
-				minEntropy = curr;
-				minAt = at;
+	protected DecisionTreeInternal(Attribute splitAttribute, HashMap<String, DecisionTree> children, String label,
+			int depth) {
+		super(label, depth);
+		this.splitAttribute = splitAttribute;
+		setChildren(children);
+	}
+
+	// Store the children given by value, one per run of values if the split
+	// attribute is ordered.
+	private void setChildren(HashMap<String, DecisionTree> childMap) {
+		String[] values = splitAttribute.getValues();
+		if (!splitAttribute.isOrdered()) {
+			children = new DecisionTree[values.length];
+			for (int v = 0; v < values.length; v++)
+				children[v] = childMap.get(values[v]);
+			return;
+		}
+
+		ArrayList<DecisionTree> runChildren = new ArrayList<DecisionTree>();
+		ArrayList<Integer> ends = new ArrayList<Integer>();
+		int start = 0;
+		while (start < values.length) {
+			DecisionTree first = childMap.get(values[start]);
+			boolean shared = true;
+			int end = start + 1;
+			while (end < values.length) {
+				DecisionTree next = childMap.get(values[end]);
+				if (next != first && !sameLeaf(first, next))
+					break;
+				shared &= next == first;
+				end++;
+			}
+			// A run of distinct but identical leaves becomes one leaf, labeled
+			// with the range of values
+			if (!shared)
+				first = new DecisionTreeLeaf(((DecisionTreeLeaf) first).decision,
+						values[start] + ".." + values[end - 1], first.depth);
+			runChildren.add(first);
+			ends.add(end);
+			start = end;
+		}
+		if (runChildren.size() * MIN_VALUES_PER_RUN > values.length) {
+			children = new DecisionTree[values.length];
+			int v = 0;
+			for (int r = 0; r < runChildren.size(); r++) {
+				while (v < ends.get(r))
+					children[v++] = runChildren.get(r);
 			}
+			return;
+		}
+		children = runChildren.toArray(new DecisionTree[runChildren.size()]);
+		runEnds = new int[ends.size()];
+		for (int r = 0; r < runEnds.length; r++)
+			runEnds[r] = ends.get(r);
+	}
+
+	// Return true if both trees are leaves making the same decision.
+	private static boolean sameLeaf(DecisionTree a, DecisionTree b) {
+		return a instanceof DecisionTreeLeaf && b instanceof DecisionTreeLeaf
+				&& ((DecisionTreeLeaf) a).decision.equals(((DecisionTreeLeaf) b).decision);
+	}
+
+	/**
+	 * Get the child for instances with the given value of the split
+	 * attribute.
+	 * 
+	 * @param valueIndex The index of the value in the split attribute's list
+	 *                   of values.
+	 * @return The child.
+	 */
+	DecisionTree getChild(int valueIndex) {
+		if (runEnds == null)
+			return children[valueIndex];
+		// Find the first run that ends after the value
+		int low = 0;
+		int high = runEnds.length - 1;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (runEnds[middle] <= valueIndex)
+				low = middle + 1;
+			else
+				high = middle;
 		}
-		return minAt;
+		return children[low];
 	}
 
 	/**
-	 * Compute the matching instances from a given set of instances, where a match
-	 * is determined by having a given value on a given attribute. For example, we
-	 * might return all instances that have the value "red" on the attribute
-	 * "color".
+	 * Get the children of this node. A child leading from a run of values of
+	 * an ordered split attribute may appear once for the run, or once for
+	 * every value in it.
 	 * 
-	 * @param attribute The attribute to which matching will apply (e.g. "color").
-	 * @param value     The value of the attribute which is considered a match (e.g.
-	 *                  "red").
-	 * @param examples  The set of instances from which matches will be found.
-	 * @return A set of all matching instances.
+	 * @return The children, in the order of the values leading to them.
 	 */
-	private InstanceSet getMatches(Attribute attribute, String value, InstanceSet examples) {
-		ArrayList<Instance> matches = new ArrayList<Instance>();
+	DecisionTree[] getChildren() {
+		return children;
+	}
 
-		// find out the index of the attribute to be matched
-		AttributeSet attributes = examples.getAttributeSet();
-		int attributeIndex = attributes.getAttributeIndex(attribute);
+	/**
+	 * Compute the attribute on which this internal node will split its instances,
+	 * using the given criterion, by default maximum information gain.
+	 * 
+	 * @param tables    The contingency tables of the candidate attributes, as
+	 *                  computed by <code>countValues</code>.
+	 * @param criterion The criterion by which the candidates are scored.
+	 * @return The index of the chosen split attribute among the candidates; the
+	 *         first candidate with the lowest cost, as found by
+	 *         <code>SplitCriterion.choose</code>.
+	 */
+	private int getSplitAttribute(ContingencyTable[] tables, SplitCriterion criterion) {
+		double[] costs = new double[tables.length];
+		for (int t = 0; t < tables.length; t++) {
+			costs[t] = criterion.cost(tables[t]);
+			if (VERBOSE)
+				System.out.println("Expected " + criterion + ": " + costs[t]);
+		}
+		return SplitCriterion.choose(costs);
+	}
 
-		if(VERBOSE) {
-			System.out.println("VALUE OF INSTANCEs in ATTRIBUTE " + attribute.getName() + " is:");
+	/**
+	 * Count, for every candidate attribute, the examples having each
+	 * combination of attribute value and classification. All the tables are
+	 * filled in one pass over the examples.
+	 * 
+	 * @param examples   The examples to count.
+	 * @param attributes The candidate split attributes.
+	 * @return An array whose i'th element is the contingency table of the i'th
+	 *         candidate.
+	 * @throws DecisionTreeException if an example has a value its attribute
+	 *                               does not list
+	 */
+	private static ContingencyTable[] countValues(InstanceSet examples, ArrayList<Attribute> attributes)
+			throws DecisionTreeException {
+		AttributeSet attributeSet = examples.getAttributeSet();
+		Attribute classAttribute = attributeSet.getClassAttribute();
+		int classAttributeIndex = attributeSet.getClassAttributeIndex();
+		int numClasses = classAttribute.getNumValues();
+		ContingencyTable[] tables = new ContingencyTable[attributes.size()];
+		int[] attributeIndices = new int[attributes.size()];
+		for (int t = 0; t < tables.length; t++) {
+			tables[t] = new ContingencyTable(attributes.get(t).getNumValues(), numClasses);
+			attributeIndices[t] = attributeSet.getAttributeIndex(attributes.get(t));
 		}
-		// Loop through the examples, looking for matching instances and adding
-		// them to our list of matches
+
 		for (Instance instance : examples.getInstances()) {
-			String instanceValue = instance.getValues()[attributeIndex];
-			if(VERBOSE) {
-				System.out.println(" " + instanceValue);
-				System.out.println("VALUE: " + value);
-			}
-			if (instanceValue.equals(value)) {
-				
-				matches.add(instance);
-			}
+			String[] values = instance.getValues();
+			int classCode = classAttribute.getValueIndex(values[classAttributeIndex]);
+			for (int t = 0; t < tables.length; t++)
+				tables[t].add(getValueIndex(attributes.get(t), values[attributeIndices[t]]), classCode, 1);
 		}
+		return tables;
+	}
 
-		return new InstanceSet(examples.getAttributeSet(), matches);
+	// Return the index of the given value in the attribute's list of values.
+	private static int getValueIndex(Attribute attribute, String value) throws DecisionTreeException {
+		int index = attribute.getValueIndex(value);
+		if (index < 0)
+			throw new DecisionTreeException("unexpected value " + value + " for attribute " + attribute.getName());
+		return index;
 	}
 
 	/**
-	 * Create and compute the children of this node.
+	 * Create and compute the children of this node. The examples are divided
+	 * among the children in a single pass.
 	 * 
-	 * @param examples   A list of all training examples provided to this node
-	 * @param attributes A list of attributes valid for children of this node
+	 * @param examples    A list of all training examples provided to this node
+	 * @param splitTable  The contingency table of the split attribute
+	 * @param classCounts The class counts of all the examples, which are
+	 *                    inherited by children that receive no examples
+	 * @param attributes  A list of attributes valid for children of this node
+	 * @param criterion   The criterion by which the children choose their split
+	 *                    attributes
 	 * @return A map consisting of the children of this internal node in the
 	 *         decision tree. The key is a possible value of this node's split
 	 *         attribute, and the corresponding value is a DecisionTree for
@@ -135,81 +269,57 @@ public class DecisionTreeInternal extends DecisionTree {
 	 *         for instances whose "color" is "red".
 	 * @throws DecisionTreeException
 	 */
-	private HashMap<String, DecisionTree> makeChildren(InstanceSet examples, ArrayList<Attribute> attributes)
+	private HashMap<String, DecisionTree> makeChildren(InstanceSet examples, ContingencyTable splitTable,
+			int[] classCounts, ArrayList<Attribute> attributes, SplitCriterion criterion)
 			throws DecisionTreeException {
-		// TODO: fill in the body of this method and fix the return statement
-		// HINT: the getMatches() method will be useful
+		AttributeSet attributeSet = examples.getAttributeSet();
+		int attributeIndex = attributeSet.getAttributeIndex(splitAttribute);
+		String[] values = splitAttribute.getValues();
 
-		HashMap<String, DecisionTree> children = new HashMap<>();
+		// The table already knows how many examples each child receives
+		ArrayList<ArrayList<Instance>> matches = new ArrayList<ArrayList<Instance>>(values.length);
+		for (int v = 0; v < values.length; v++)
+			matches.add(new ArrayList<Instance>(splitTable.getValueTotal(v)));
+		for (Instance instance : examples.getInstances())
+			matches.get(getValueIndex(splitAttribute, instance.getValues()[attributeIndex])).add(instance);
 
-		for (String st : splitAttribute.getValues()) {
-			InstanceSet in = getMatches(splitAttribute, st, examples);
-			DecisionTree dt = DecisionTree.constructDecisionTree(in, attributes, examples, st, depth);
-			children.put(st, dt);
+		HashMap<String, DecisionTree> children = new HashMap<>();
+		for (int v = 0; v < values.length; v++) {
+			InstanceSet in = new InstanceSet(attributeSet, matches.get(v));
+			matches.set(v, null);
+			DecisionTree dt = DecisionTree.constructDecisionTree(in, attributes, splitTable.getClassCounts(v),
+					classCounts, values[v], depth, criterion);
+			children.put(values[v], dt);
 		}
 
 		return children;
 	}
 
-	/**
-	 * Compute the expected entropy of the given attribute, based on the given
-	 * examples.
-	 * 
-	 * @param attribute The attribute whose expected entropy will be computed.
-	 * @param examples  The examples used to compute the expected entropy of the
-	 *                  attribute.
-	 * @return The expected entropy of the given attribute.
-	 * @throws DecisionTreeException
-	 */
-	private double expectedEntropy(Attribute attribute, InstanceSet examples) throws DecisionTreeException {
-		// TODO: fill in the body of this method and fix the return statement
-		// HINT: use the Distribution class
-
-		String[] Sd = attribute.getValues(); // get list of names of the attribute values
-		double entropy = 0.0;
-		Distribution d = new Distribution(attribute);
-		d.computeProbabilitiesFromFrequencies();
-		if (VERBOSE) {
-			for(int i =0; i< Sd.length; i++) {
-				System.out.println("ATTRIBUTE VALUES: " + Sd[i]);
-			}
-			
-		}
-		
-		for (int i = 0; i < Sd.length; i++) { // Loop through the attributes
-			InstanceSet curr = getMatches(attribute, Sd[i], examples); // get a list of instances that have this value
-			int Nd = curr.getNumInstances(); // get number of instances in that list
-			int PId = Nd / Sd.length; // get the probability of current value
-
-			// Get the entropy of the distribution of classes
-			double Hd = d.getEntropy();
-
-			entropy += PId * Hd;
-
-		}
-
-		if (VERBOSE) {
-			System.out.print("Expected ENTROPY: " + entropy);
-		}
-
-		return entropy;
-
-	}
-
 	/*
 	 * (non-Javadoc)
 	 * 
 	 * @see DecisionTree#decide(AttributeSet, Instance)
 	 */
 	@Override
-	public String decide(AttributeSet attributes, Instance instance) {
+	public String decide(AttributeSet attributes, Instance instance) throws DecisionTreeException {
 		// TODO: fill in the body of this method and fix the return statement
 		// HINT: use the Distribution class
 		int index = attributes.getAttributeIndex(splitAttribute);
 		
 		String atVal = instance.getValues()[index];
 		
-		return children.get(atVal).decide(attributes, instance);
+		return getChild(getValueIndex(splitAttribute, atVal)).decide(attributes, instance);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see DecisionTree#decide(ColumnStore, int)
+	 */
+	@Override
+	public String decide(ColumnStore data, int row) {
+		int index = data.getAttributeSet().getAttributeIndex(splitAttribute);
+		return getChild(data.getCode(row, index)).decide(data, row);
 	}
 
 	/*
@@ -221,8 +331,9 @@ public class DecisionTreeInternal extends DecisionTree {
 	public void print() {
 		super.print();
 		System.out.println("[attribute " + splitAttribute.getName() + "]");
-		for (DecisionTree child : children.values()) {
-			child.print();
+		for (int c = 0; c < children.length; c++) {
+			if (c == 0 || children[c] != children[c - 1])
+				children[c].print();
 		}
 	}
 }
@@ -18,25 +18,52 @@ public class DecisionTreeLeaf extends DecisionTree {
 	 * @param label    The label on the edge leading to this DecisionTree node, or
 	 *                 <code>DecisionTree.ROOT_LABEL</code> for the root.
 	 * @param depth    The depth of this node in the full decision tree.
+	 * @throws DecisionTreeException
 	 */
-	protected DecisionTreeLeaf(InstanceSet examples, String label, int depth) {
+	protected DecisionTreeLeaf(InstanceSet examples, String label, int depth) throws DecisionTreeException {
+		this(examples.getAttributeSet().getClassAttribute(), DecisionTree.countClasses(examples), label, depth);
+	}
+
+	/**
+	 * This protected constructor is used when the class counts of the examples
+	 * are already known, for example from the contingency table the parent node
+	 * was split with, so the examples need not be scanned again.
+	 * 
+	 * @param classAttribute The classification attribute.
+	 * @param classCounts    An array whose c'th element is the number of
+	 *                       examples with classification c.
+	 * @param label          The label on the edge leading to this DecisionTree
+	 *                       node, or <code>DecisionTree.ROOT_LABEL</code> for the
+	 *                       root.
+	 * @param depth          The depth of this node in the full decision tree.
+	 */
+	protected DecisionTreeLeaf(Attribute classAttribute, int[] classCounts, String label, int depth) {
+		super(label, depth);
+		decision = computeDecision(classAttribute, classCounts);
+	}
+
+	/**
+	 * This protected constructor is used by tree builders that compute the
+	 * decision themselves, such as EncodedTreeBuilder.
+	 * 
+	 * @param decision The decision that this leaf node always makes.
+	 * @param label    The label on the edge leading to this DecisionTree node, or
+	 *                 <code>DecisionTree.ROOT_LABEL</code> for the root.
+	 * @param depth    The depth of this node in the full decision tree.
+	 */
+	protected DecisionTreeLeaf(String decision, String label, int depth) {
 		super(label, depth);
-		decision = computeDecision(examples);
+		this.decision = decision;
 	}
 
 	/**
-	 * @param examples The set of examples from which to compute the decision
-	 * @return The decision that this leaf node will make on the given set of
-	 *         examples.
+	 * @param classAttribute The classification attribute.
+	 * @param classCounts    The number of examples with each classification.
+	 * @return The decision that this leaf node will make: the most common
+	 *         classification, the first one in case of a tie.
 	 */
-	private String computeDecision(InstanceSet examples) {
-		// TODO: fill in the body of this method and fix the return statement
-		// HINT: use the Distribution class
-		Distribution dist = new Distribution(examples.getAttributeSet().getClassAttribute());
-		for(Instance instance : examples.getInstances()) {
-			dist.incrementFrequency(instance.getValues()[examples.getAttributeSet().getClassAttributeIndex()]);
-		}
-		return dist.getNameOfMaxFrequency();
+	private static String computeDecision(Attribute classAttribute, int[] classCounts) {
+		return classAttribute.getValues()[ContingencyTable.indexOfMax(classCounts)];
 	}
 
 	/*
@@ -49,6 +76,16 @@ public class DecisionTreeLeaf extends DecisionTree {
 		return decision;
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see DecisionTree#decide(ColumnStore, int)
+	 */
+	@Override
+	public String decide(ColumnStore data, int row) {
+		return decision;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
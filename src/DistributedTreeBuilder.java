@@ -0,0 +1,426 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * A DistributedTreeBuilder learns a DecisionTree from rows split into shards
+ * held by DistributedWorkers, typically in other JVMs, so that no single JVM
+ * has to hold all of the data. The builder holds only the tree being learned.
+ *
+ * The tree is learned one level at a time, as by LevelWiseTreeBuilder. For
+ * each level the builder sends every worker the splits chosen for the
+ * previous level and the candidate attributes of the nodes to be counted;
+ * each worker moves its rows down the new splits and counts them in the
+ * ContingencyTables of the nodes they reach, all workers at once; the builder
+ * adds up the workers' tables and chooses the split of every node of the
+ * level. The tables are the ones a single JVM would count from all the rows,
+ * so the learned tree is the one LevelWiseTreeBuilder and EncodedTreeBuilder
+ * learn from the same rows with the same limits. If the tables of a whole
+ * level would take more than <code>setMaxTableCells</code> counts, the level
+ * is counted in several rounds.
+ *
+ * @author jmac
+ */
+public class DistributedTreeBuilder implements Closeable {
+	private AttributeSet attributeSet;
+	private int numClasses;
+
+	// The connections to the workers
+	private ArrayList<Socket> sockets = new ArrayList<Socket>();
+	private ArrayList<DataInputStream> inputs = new ArrayList<DataInputStream>();
+	private ArrayList<DataOutputStream> outputs = new ArrayList<DataOutputStream>();
+	private long numRows;
+
+	// Nodes at this level (the root being at level 0) are made leaves
+	private int maxDepth = Integer.MAX_VALUE;
+
+	// Nodes holding fewer rows than this are made leaves
+	private int minLeafSize = 1;
+
+	// The criterion used to choose split attributes
+	private SplitCriterion criterion = SplitCriterion.ENTROPY;
+
+	// The maximum number of counts held in the tables of one round
+	private long maxTableCells = 1L << 24;
+
+	// Statistics of the last build: the number of rounds of requests, the
+	// bytes of tables received, and the processor time spent counting by the
+	// slowest worker of each round, added up
+	private int numRounds;
+	private long numBytesReceived;
+	private long countingNanos;
+
+	public static final boolean VERBOSE = false;
+
+	/**
+	 * Create a builder with no workers.
+	 *
+	 * @param attributeSet the attributes of the data the shards were written
+	 *                     from
+	 */
+	public DistributedTreeBuilder(AttributeSet attributeSet) {
+		this.attributeSet = attributeSet;
+		numClasses = attributeSet.getClassAttribute().getNumValues();
+	}
+
+	/**
+	 * Split encoded rows into shards of nearly equal size, written as column
+	 * files for workers to load.
+	 *
+	 * @param data      the rows
+	 * @param numShards the number of shards
+	 * @param prefix    the start of the names of the files; shard i is written
+	 *                  to <code>prefix + i + ".columns"</code>
+	 * @return the names of the files
+	 * @throws IOException
+	 */
+	public static String[] writeShards(ColumnStore data, int numShards, String prefix) throws IOException {
+		String[] filenames = new String[numShards];
+		int numAttributes = data.getNumAttributes();
+		int[] row = new int[numAttributes];
+		for (int i = 0; i < numShards; i++) {
+			int from = (int) ((long) data.getNumRows() * i / numShards);
+			int to = (int) ((long) data.getNumRows() * (i + 1) / numShards);
+			RowBatch shard = new RowBatch(data.getAttributeSet(), to - from);
+			for (int r = from; r < to; r++) {
+				for (int a = 0; a < numAttributes; a++)
+					row[a] = data.getCode(r, a);
+				shard.add(row, 0);
+			}
+			filenames[i] = prefix + i + ".columns";
+			ColumnFile.write(shard, filenames[i]);
+		}
+		return filenames;
+	}
+
+	/**
+	 * Wait for workers to connect.
+	 *
+	 * @param server     the socket the workers connect to
+	 * @param numWorkers the number of workers to wait for
+	 * @throws IOException
+	 * @throws DecisionTreeException if a worker's shard does not match the
+	 *                               attributes
+	 */
+	public void accept(ServerSocket server, int numWorkers) throws IOException, DecisionTreeException {
+		for (int w = 0; w < numWorkers; w++) {
+			Socket socket = server.accept();
+			socket.setTcpNoDelay(true);
+			sockets.add(socket);
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			inputs.add(in);
+			outputs.add(new DataOutputStream(new BufferedOutputStream(socket.getOutputStream())));
+			int shardRows = in.readInt();
+			int numAttributes = in.readInt();
+			int classAttributeIndex = in.readInt();
+			if (numAttributes != attributeSet.getAttributes().size()
+					|| classAttributeIndex != attributeSet.getClassAttributeIndex())
+				throw new DecisionTreeException("worker's shard does not match the attributes");
+			numRows += shardRows;
+			if (VERBOSE)
+				System.out.println("worker " + w + " connected with " + shardRows + " rows");
+		}
+	}
+
+	/**
+	 * @return the number of workers connected
+	 */
+	public int getNumWorkers() {
+		return sockets.size();
+	}
+
+	/**
+	 * Limit the depth of the learned trees.
+	 *
+	 * @param maxDepth The maximum number of splits on any path from the root
+	 *                 to a leaf.
+	 */
+	public void setMaxDepth(int maxDepth) {
+		this.maxDepth = maxDepth;
+	}
+
+	/**
+	 * Stop splitting nodes that hold few examples.
+	 *
+	 * @param minLeafSize Nodes holding fewer examples than this are made leaves
+	 *                    rather than split.
+	 */
+	public void setMinLeafSize(int minLeafSize) {
+		this.minLeafSize = minLeafSize;
+	}
+
+	/**
+	 * Choose split attributes by the given criterion.
+	 *
+	 * @param criterion The criterion; SplitCriterion.ENTROPY by default.
+	 */
+	public void setSplitCriterion(SplitCriterion criterion) {
+		this.criterion = criterion;
+	}
+
+	/**
+	 * Limit the memory used for counting, by the builder and by each worker.
+	 *
+	 * @param maxTableCells The maximum number of counts (ints) held at once in
+	 *                      the contingency tables of a level. A level needing
+	 *                      more is counted in several rounds; a single node
+	 *                      needing more is still counted in one round.
+	 */
+	public void setMaxTableCells(long maxTableCells) {
+		this.maxTableCells = maxTableCells;
+	}
+
+	/**
+	 * Get the number of rounds of requests made by the last call to
+	 * <code>build</code>, including the round that counts the classes of the
+	 * root.
+	 *
+	 * @return the number of rounds
+	 */
+	public int getNumRounds() {
+		return numRounds;
+	}
+
+	/**
+	 * Get the number of bytes of tables received from the workers by the last
+	 * call to <code>build</code>.
+	 *
+	 * @return the number of bytes
+	 */
+	public long getNumBytesReceived() {
+		return numBytesReceived;
+	}
+
+	/**
+	 * Get the processor time the workers spent counting during the last call
+	 * to <code>build</code>: for each round, the time of the slowest worker,
+	 * added up. With each worker on its own processor, this is the part of
+	 * the time to learn that shrinks as workers are added.
+	 *
+	 * @return the time in nanoseconds
+	 */
+	public long getCountingNanos() {
+		return countingNanos;
+	}
+
+	/**
+	 * Learn a decision tree from every row of every worker's shard.
+	 *
+	 * @param attributes A list of attributes on which the tree is permitted to
+	 *                   make decisions.
+	 * @return The root of the learned tree.
+	 * @throws IOException if a worker cannot be reached
+	 * @throws DecisionTreeException if there are no rows
+	 */
+	public DecisionTree build(ArrayList<Attribute> attributes) throws IOException, DecisionTreeException {
+		if (numRows == 0)
+			throw new DecisionTreeException("cannot learn a decision tree from no examples");
+		numRounds = 0;
+		numBytesReceived = 0;
+		countingNanos = 0;
+
+		LevelNode root = new LevelNode(attributeSet, countClasses(), attributes, DecisionTree.ROOT_LABEL, 1);
+		return LevelNode.learn(root, maxDepth, minLeafSize, maxTableCells, criterion, new LevelNode.Counter() {
+			@Override
+			public void count(ArrayList<LevelNode> previous, ArrayList<LevelNode> level, int from, int to)
+					throws IOException {
+				DistributedTreeBuilder.this.count(previous, level, from, to);
+			}
+		});
+	}
+
+	// Count the classes of every row, which also sends every row to the root.
+	private int[] countClasses() throws IOException {
+		numRounds++;
+		for (DataOutputStream out : outputs) {
+			out.writeInt(DistributedWorker.CLASSES);
+			out.writeInt(numClasses);
+			out.flush();
+		}
+		int[] classCounts = new int[numClasses];
+		for (DataInputStream in : inputs) {
+			for (int c = 0; c < numClasses; c++)
+				classCounts[c] += in.readInt();
+		}
+		return classCounts;
+	}
+
+	// Send one COUNT request to every worker, then add up their tables for the
+	// nodes in level[from..to) that are not leaves. If previous is non-null,
+	// the workers first move their rows down its splits.
+	private void count(ArrayList<LevelNode> previous, ArrayList<LevelNode> level, int from, int to)
+			throws IOException {
+		numRounds++;
+		int numCounted = 0;
+		for (int n = from; n < to; n++) {
+			if (!level.get(n).leaf)
+				numCounted++;
+		}
+		for (DataOutputStream out : outputs) {
+			out.writeInt(DistributedWorker.COUNT);
+			out.writeBoolean(previous != null);
+			if (previous != null) {
+				out.writeInt(previous.size());
+				for (LevelNode node : previous) {
+					out.writeInt(node.splitAttributeIndex);
+					if (node.splitAttributeIndex >= 0) {
+						out.writeInt(node.childIds.length);
+						for (int id : node.childIds)
+							out.writeInt(id >= 0 && level.get(id).leaf ? -1 : id);
+					}
+				}
+			}
+			out.writeInt(level.size());
+			out.writeInt(numCounted);
+			for (int n = from; n < to; n++) {
+				LevelNode node = level.get(n);
+				if (node.leaf)
+					continue;
+				out.writeInt(n);
+				out.writeInt(numClasses);
+				out.writeInt(node.attributeIndices.length);
+				for (int t = 0; t < node.attributeIndices.length; t++) {
+					out.writeInt(node.attributeIndices[t]);
+					out.writeInt(node.attributes.get(t).getNumValues());
+				}
+			}
+			out.flush();
+		}
+
+		// The workers count at once; their answers are read one at a time
+		long slowest = 0;
+		for (DataInputStream in : inputs) {
+			slowest = Math.max(slowest, in.readLong());
+			for (int n = from; n < to; n++) {
+				LevelNode node = level.get(n);
+				if (node.leaf)
+					continue;
+				for (ContingencyTable table : node.tables) {
+					int nonzero = DistributedWorker.readVarInt(in);
+					numBytesReceived += DistributedWorker.varIntLength(nonzero);
+					int cell = -1;
+					for (int i = 0; i < nonzero; i++) {
+						int gap = DistributedWorker.readVarInt(in);
+						int count = DistributedWorker.readVarInt(in);
+						numBytesReceived += DistributedWorker.varIntLength(gap) + DistributedWorker.varIntLength(count);
+						cell += gap + 1;
+						table.add(cell / numClasses, cell % numClasses, count);
+					}
+				}
+			}
+		}
+		countingNanos += slowest;
+	}
+
+	/**
+	 * Stop the workers and close the connections to them.
+	 */
+	@Override
+	public void close() throws IOException {
+		for (int w = 0; w < sockets.size(); w++) {
+			try {
+				outputs.get(w).writeInt(DistributedWorker.STOP);
+				outputs.get(w).flush();
+			} finally {
+				sockets.get(w).close();
+			}
+		}
+		sockets.clear();
+		inputs.clear();
+		outputs.clear();
+		numRows = 0;
+	}
+
+	/**
+	 * Learns from copies of the MAGIC training set, each but the first with
+	 * every numeric code moved up or down a bucket at random, split into
+	 * shards held by 1, 2 and 4 worker processes on this machine, and checks
+	 * that every tree makes the same decisions as the one EncodedTreeBuilder
+	 * learns in memory. Reports the time to learn, and the processor time
+	 * spent counting by the slowest worker of each round, which is what
+	 * shrinks with more workers when each has its own processor.
+	 *
+	 * @param arguments Optionally, the number of copies of the training set,
+	 *                  and the largest number of workers.
+	 * @throws DecisionTreeException
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public static void main(String[] arguments) throws DecisionTreeException, IOException, InterruptedException {
+		int numCopies = arguments.length > 0 ? Integer.parseInt(arguments[0]) : 10;
+		int maxWorkers = arguments.length > 1 ? Integer.parseInt(arguments[1]) : 4;
+		EncodedInstanceSet trainingSet = new EncodedInstanceSet(
+				new InstanceSet("data/MAGIC_DataSet_Training.arff"));
+		AttributeSet attributeSet = trainingSet.getAttributeSet();
+		ArrayList<Attribute> attributes = DecisionTree.removeClassAttribute(attributeSet,
+				attributeSet.getAttributes());
+
+		Random random = new Random(42);
+		int numAttributes = trainingSet.getNumAttributes();
+		int classAttributeIndex = attributeSet.getClassAttributeIndex();
+		RowBatch data = new RowBatch(attributeSet, numCopies * trainingSet.getNumRows());
+		int[] row = new int[numAttributes];
+		for (int copy = 0; copy < numCopies; copy++) {
+			for (int r = 0; r < trainingSet.getNumRows(); r++) {
+				for (int a = 0; a < numAttributes; a++) {
+					int code = trainingSet.getCode(r, a);
+					if (copy > 0 && a != classAttributeIndex)
+						code = Math.max(0, Math.min(trainingSet.getNumValues(a) - 1, code + random.nextInt(3) - 1));
+					row[a] = code;
+				}
+				data.add(row, 0);
+			}
+		}
+		long start = System.currentTimeMillis();
+		DecisionTree inMemory = new EncodedTreeBuilder(data, null).build(attributes);
+		System.out.println(data.getNumRows() + " rows; learned in memory in " + (System.currentTimeMillis() - start)
+				+ " ms");
+
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		for (int numWorkers = 1; numWorkers <= maxWorkers; numWorkers *= 2) {
+			String[] shards = writeShards(data, numWorkers, "MAGIC_shard");
+			ArrayList<Process> processes = new ArrayList<Process>();
+			try (ServerSocket server = new ServerSocket(0, numWorkers, InetAddress.getLoopbackAddress());
+					DistributedTreeBuilder builder = new DistributedTreeBuilder(attributeSet)) {
+				for (String shard : shards) {
+					processes.add(new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+							"DistributedWorker", server.getInetAddress().getHostAddress(),
+							Integer.toString(server.getLocalPort()), shard).inheritIO().start());
+				}
+				builder.accept(server, numWorkers);
+
+				// The first build warms up the workers
+				DecisionTree tree = null;
+				long elapsed = Long.MAX_VALUE;
+				for (int i = 0; i < 3; i++) {
+					start = System.nanoTime();
+					tree = builder.build(attributes);
+					elapsed = Math.min(elapsed, System.nanoTime() - start);
+				}
+				int differences = 0;
+				for (int r = 0; r < data.getNumRows(); r++) {
+					if (!tree.decide(data, r).equals(inMemory.decide(data, r)))
+						differences++;
+				}
+				System.out.println(String.format(
+						"%d workers: learned in %d ms, %d ms counting, %d rounds, %d KB received, %d differing decisions",
+						numWorkers, elapsed / 1000000, builder.getCountingNanos() / 1000000, builder.getNumRounds(),
+						builder.getNumBytesReceived() / 1024, differences));
+			} finally {
+				for (Process process : processes)
+					process.waitFor();
+				for (String shard : shards)
+					new File(shard).delete();
+			}
+		}
+	}
+}
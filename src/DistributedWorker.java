@@ -0,0 +1,298 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A DistributedWorker holds one shard of the training rows, read into memory
+ * from a ColumnFile, and counts them for a DistributedTreeBuilder over a
+ * socket. It never learns anything itself: for each request it moves its rows
+ * down the splits the builder has chosen, counts the rows reaching each node
+ * the builder asks about in that node's ContingencyTables, and sends the
+ * tables back, so that only statistics, never rows, cross the network.
+ *
+ * The protocol is a sequence of requests, each answered before the next is
+ * sent:
+ *
+ * <pre>
+ * CLASSES  numClasses                  -&gt; the shard's class counts
+ * COUNT    route?, then, if routing, for each node of the previous level
+ *          its split attribute (-1 if not split) and, for each value of
+ *          it, the child's index in the level being counted (-1 for a
+ *          leaf); then the number of nodes in the level and the number
+ *          counted, and for each node counted its index, numClasses and
+ *          its candidates (attribute index, number of values)
+ *                                      -&gt; processor time spent counting, in
+ *                                         nanoseconds, then
+ *                                         the nonzero cells of every table
+ * STOP                                 -&gt; (the connection is closed)
+ * </pre>
+ *
+ * The worker first sends the number of rows in its shard, the number of
+ * attributes and the index of the classification attribute. Only the
+ * nonzero cells of each table are sent, as variable-length integers, so the
+ * tables of a level take space in proportion to the rows counted rather than
+ * to the number of nodes times the size of their tables.
+ *
+ * @author jmac
+ */
+public class DistributedWorker {
+	static final int CLASSES = 1;
+	static final int COUNT = 2;
+	static final int STOP = 3;
+
+	// The number of rows read from each column at a time
+	private static final int BLOCK_SIZE = 1 << 16;
+
+	// The shard, column by column
+	private int numRows;
+	private int classAttributeIndex;
+	private int[][] codes;
+
+	// The node each row has reached in the level last counted, or -1 once it
+	// has reached a leaf
+	private int[] nodeIds;
+
+	public static final boolean VERBOSE = false;
+
+	/**
+	 * Load a shard.
+	 *
+	 * @param filename the name of a file written by <code>ColumnFile.write</code>,
+	 *                 for example by <code>DistributedTreeBuilder.writeShards</code>
+	 * @throws IOException
+	 * @throws DecisionTreeException if the file is not a column file
+	 */
+	public DistributedWorker(String filename) throws IOException, DecisionTreeException {
+		ColumnFile file = new ColumnFile(filename);
+		numRows = file.getNumRows();
+		classAttributeIndex = file.getClassAttributeIndex();
+		codes = new int[file.getNumAttributes()][numRows];
+		int[] block = new int[BLOCK_SIZE];
+		ByteBuffer buffer = ByteBuffer.allocate(4 * BLOCK_SIZE);
+		try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+			for (int a = 0; a < codes.length; a++) {
+				for (int start = 0; start < numRows; start += BLOCK_SIZE) {
+					int length = Math.min(BLOCK_SIZE, numRows - start);
+					file.readCodes(channel, a, start, length, buffer, block);
+					System.arraycopy(block, 0, codes[a], start, length);
+				}
+			}
+		}
+		nodeIds = new int[numRows];
+	}
+
+	/**
+	 * Answer the requests of a builder until it sends STOP or closes the
+	 * connection.
+	 *
+	 * @param socket a connection to the builder
+	 * @throws IOException
+	 * @throws DecisionTreeException if a request is not understood
+	 */
+	public void serve(Socket socket) throws IOException, DecisionTreeException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		out.writeInt(numRows);
+		out.writeInt(codes.length);
+		out.writeInt(classAttributeIndex);
+		out.flush();
+		while (true) {
+			int request;
+			try {
+				request = in.readInt();
+			} catch (EOFException e) {
+				return;
+			}
+			if (request == STOP)
+				return;
+			else if (request == CLASSES)
+				countClasses(in, out);
+			else if (request == COUNT)
+				count(in, out);
+			else
+				throw new DecisionTreeException("unknown request " + request);
+			out.flush();
+		}
+	}
+
+	private void countClasses(DataInputStream in, DataOutputStream out) throws IOException {
+		int[] classCounts = new int[in.readInt()];
+		for (int r = 0; r < numRows; r++) {
+			classCounts[codes[classAttributeIndex][r]]++;
+			// Every row starts at the root
+			nodeIds[r] = 0;
+		}
+		for (int count : classCounts)
+			out.writeInt(count);
+	}
+
+	private void count(DataInputStream in, DataOutputStream out) throws IOException {
+		// The splits of the previous level, if the rows are to be moved
+		boolean route = in.readBoolean();
+		int[] splitAttributes = null;
+		int[][] childIds = null;
+		if (route) {
+			int numPrevious = in.readInt();
+			splitAttributes = new int[numPrevious];
+			childIds = new int[numPrevious][];
+			for (int n = 0; n < numPrevious; n++) {
+				splitAttributes[n] = in.readInt();
+				if (splitAttributes[n] >= 0) {
+					childIds[n] = new int[in.readInt()];
+					for (int v = 0; v < childIds[n].length; v++)
+						childIds[n][v] = in.readInt();
+				}
+			}
+		}
+
+		// The nodes to count, and their tables
+		int levelSize = in.readInt();
+		int numCounted = in.readInt();
+		int[] positions = new int[levelSize];
+		Arrays.fill(positions, -1);
+		int[][] attributeIndices = new int[numCounted][];
+		ContingencyTable[][] tables = new ContingencyTable[numCounted][];
+		for (int k = 0; k < numCounted; k++) {
+			positions[in.readInt()] = k;
+			int numClasses = in.readInt();
+			int numCandidates = in.readInt();
+			attributeIndices[k] = new int[numCandidates];
+			tables[k] = new ContingencyTable[numCandidates];
+			for (int t = 0; t < numCandidates; t++) {
+				attributeIndices[k][t] = in.readInt();
+				tables[k][t] = new ContingencyTable(in.readInt(), numClasses);
+			}
+		}
+
+		long start = cpuTime();
+		int[] classCodes = codes[classAttributeIndex];
+		for (int r = 0; r < numRows; r++) {
+			int id = nodeIds[r];
+			if (id < 0)
+				continue;
+			if (route) {
+				id = childIds[id][codes[splitAttributes[id]][r]];
+				nodeIds[r] = id;
+				if (id < 0)
+					continue;
+			}
+			int k = positions[id];
+			if (k < 0)
+				continue;
+			int[] indices = attributeIndices[k];
+			ContingencyTable[] nodeTables = tables[k];
+			for (int t = 0; t < nodeTables.length; t++)
+				nodeTables[t].add(codes[indices[t]][r], classCodes[r], 1);
+		}
+		long elapsed = cpuTime() - start;
+		if (VERBOSE)
+			System.out.println("counted " + numCounted + " nodes in " + elapsed / 1000 + " us");
+
+		// Each table as its number of nonzero cells, then for each of them the
+		// number of empty cells before it and its count
+		out.writeLong(elapsed);
+		for (ContingencyTable[] nodeTables : tables) {
+			for (ContingencyTable table : nodeTables) {
+				int numClasses = table.getNumClasses();
+				int numCells = table.getNumValues() * numClasses;
+				int nonzero = 0;
+				for (int cell = 0; cell < numCells; cell++) {
+					if (table.getCount(cell / numClasses, cell % numClasses) > 0)
+						nonzero++;
+				}
+				writeVarInt(out, nonzero);
+				int last = -1;
+				for (int cell = 0; cell < numCells; cell++) {
+					int count = table.getCount(cell / numClasses, cell % numClasses);
+					if (count > 0) {
+						writeVarInt(out, cell - last - 1);
+						writeVarInt(out, count);
+						last = cell;
+					}
+				}
+			}
+		}
+	}
+
+	// The processor time used by this thread, so that workers sharing
+	// processors report the time they would take on their own.
+	private static long cpuTime() {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		return threads.isCurrentThreadCpuTimeSupported() ? threads.getCurrentThreadCpuTime() : System.nanoTime();
+	}
+
+	/**
+	 * Write a non-negative int in as few bytes as it needs, seven bits at a
+	 * time, least significant first.
+	 *
+	 * @param out   the stream
+	 * @param value the value
+	 * @throws IOException
+	 */
+	static void writeVarInt(DataOutputStream out, int value) throws IOException {
+		while ((value & ~0x7f) != 0) {
+			out.writeByte((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+
+	/**
+	 * @param value a non-negative int
+	 * @return the number of bytes <code>writeVarInt</code> writes for it
+	 */
+	static int varIntLength(int value) {
+		int length = 1;
+		while ((value & ~0x7f) != 0) {
+			value >>>= 7;
+			length++;
+		}
+		return length;
+	}
+
+	/**
+	 * Read an int written by <code>writeVarInt</code>.
+	 *
+	 * @param in the stream
+	 * @return the value
+	 * @throws IOException
+	 */
+	static int readVarInt(DataInputStream in) throws IOException {
+		int value = 0;
+		for (int shift = 0;; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (b & 0x7f) << shift;
+			if ((b & 0x80) == 0)
+				return value;
+		}
+	}
+
+	/**
+	 * Loads a shard and serves a builder.
+	 *
+	 * @param arguments The host and port on which the builder is listening,
+	 *                  and the name of the shard's column file.
+	 * @throws DecisionTreeException
+	 * @throws IOException
+	 */
+	public static void main(String[] arguments) throws DecisionTreeException, IOException {
+		if (arguments.length < 3)
+			throw new DecisionTreeException("usage: DistributedWorker host port shard");
+		DistributedWorker worker = new DistributedWorker(arguments[2]);
+		try (Socket socket = new Socket(arguments[0], Integer.parseInt(arguments[1]))) {
+			socket.setTcpNoDelay(true);
+			worker.serve(socket);
+		}
+	}
+}
@@ -0,0 +1,148 @@
+import java.util.ArrayList;
+
+/**
+ * An EncodedInstanceSet is a read-only, column-oriented copy of an InstanceSet
+ * in which every attribute value is replaced by its index in the array
+ * returned by <code>Attribute.getValues()</code>. Because it is never modified
+ * after construction, any number of models can be trained on the same
+ * EncodedInstanceSet at once; a model that needs a different sample of the
+ * rows describes that sample with its own array of row weights rather than by
+ * copying instances.
+ *
+ * @author jmac
+ */
+public class EncodedInstanceSet implements ColumnStore {
+	// The attributes shared by all rows, in the same order as the columns
+	private AttributeSet attributeSet;
+
+	// columns[a][r] is the index of the value taken by attribute a in row r
+	private int[][] columns;
+
+	// The number of rows (instances) in this set
+	private int numRows;
+
+	// Index of the classification attribute's column
+	private int classAttributeIndex;
+
+	/**
+	 * Construct an EncodedInstanceSet holding the same rows as the given
+	 * InstanceSet.
+	 *
+	 * @param instances the instance set to encode
+	 * @throws DecisionTreeException if an instance takes a value that its
+	 *                               attribute does not declare
+	 */
+	public EncodedInstanceSet(InstanceSet instances) throws DecisionTreeException {
+		attributeSet = instances.getAttributeSet();
+		classAttributeIndex = attributeSet.getClassAttributeIndex();
+		ArrayList<Attribute> attributes = attributeSet.getAttributes();
+		ArrayList<Instance> rows = instances.getInstances();
+		numRows = rows.size();
+		columns = new int[attributes.size()][numRows];
+		for (int r = 0; r < numRows; r++) {
+			String[] values = rows.get(r).getValues();
+			for (int a = 0; a < columns.length; a++) {
+				columns[a][r] = encodeValue(attributes.get(a), values[a]);
+			}
+		}
+	}
+
+	/**
+	 * Encode every value of the given instance, which must use the same
+	 * attributes as this set.
+	 *
+	 * @param instance the instance to encode
+	 * @return an array whose a'th element is the index of the instance's value
+	 *         for attribute a
+	 * @throws DecisionTreeException if the instance takes a value that its
+	 *                               attribute does not declare
+	 */
+	public int[] encode(Instance instance) throws DecisionTreeException {
+		ArrayList<Attribute> attributes = attributeSet.getAttributes();
+		String[] values = instance.getValues();
+		int[] codes = new int[attributes.size()];
+		for (int a = 0; a < codes.length; a++) {
+			codes[a] = encodeValue(attributes.get(a), values[a]);
+		}
+		return codes;
+	}
+
+	// Return the index of the given value, or throw if the attribute cannot
+	// take it.
+	private static int encodeValue(Attribute attribute, String value) throws DecisionTreeException {
+		int code = attribute.getValueIndex(value);
+		if (code < 0)
+			throw new DecisionTreeException(
+					"unexpected value " + value + " for attribute " + attribute.getName());
+		return code;
+	}
+
+	/**
+	 * Get the set of attributes used by every row in this set.
+	 *
+	 * @return the attributeSet
+	 */
+	public AttributeSet getAttributeSet() {
+		return attributeSet;
+	}
+
+	/**
+	 * Get the number of rows in this set.
+	 *
+	 * @return the number of rows
+	 */
+	public int getNumRows() {
+		return numRows;
+	}
+
+	/**
+	 * Get the number of attributes (columns), including the classification
+	 * attribute.
+	 *
+	 * @return the number of attributes
+	 */
+	public int getNumAttributes() {
+		return columns.length;
+	}
+
+	/**
+	 * Get the encoded value of the given attribute in the given row.
+	 *
+	 * @param row            the index of the row
+	 * @param attributeIndex the index of the attribute in the attribute set
+	 * @return the index of the row's value in the attribute's list of values
+	 */
+	public int getCode(int row, int attributeIndex) {
+		return columns[attributeIndex][row];
+	}
+
+	/**
+	 * Get the encoded classification of the given row.
+	 *
+	 * @param row the index of the row
+	 * @return the index of the row's classification in the classification
+	 *         attribute's list of values
+	 */
+	public int getClassCode(int row) {
+		return columns[classAttributeIndex][row];
+	}
+
+	/**
+	 * Get the number of values the given attribute can take.
+	 *
+	 * @param attributeIndex the index of the attribute in the attribute set
+	 * @return the number of values, i.e. one more than the largest code
+	 */
+	public int getNumValues(int attributeIndex) {
+		return attributeSet.getAttributes().get(attributeIndex).getNumValues();
+	}
+
+	/**
+	 * Get the number of values the classification attribute can take.
+	 *
+	 * @return the number of classes
+	 */
+	public int getNumClasses() {
+		return attributeSet.getClassAttribute().getNumValues();
+	}
+}
@@ -0,0 +1,861 @@
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Random;
+
+/**
+ * An EncodedTreeBuilder learns a DecisionTree from a ColumnStore using
+ * the same recursive algorithm as <code>DecisionTree.constructDecisionTree</code>
+ * (figure 18.5 of Russell and Norvig), but without copying any instances.
+ * Each node is described by a contiguous range of an array of row indices;
+ * splitting a node reorders its range so that the rows of each child are
+ * contiguous again. Rows can carry integer weights, so a bootstrap sample is
+ * just an array of counts over the shared data.
+ *
+ * When the data is a SparseInstanceSet, a candidate with fewer non-default
+ * values than the node has rows is counted from those values alone, the
+ * default value's counts being the node's class counts less the rest.
+ *
+ * Nodes holding very many rows can choose their split attribute from a
+ * sample of their rows rather than from all of them (see
+ * <code>setSampledSplitting</code>).
+ *
+ * Each node plans how to get its candidates' tables (see SplitStrategy):
+ * large nodes that hold most of their parent's rows take their parent's
+ * tables less those of their siblings, small nodes with large tables sort
+ * their rows rather than fill tables that are mostly empty, and other nodes
+ * count every row. Nodes of a SparseInstanceSet always count directly, from
+ * the non-default values. The strategy used at each node is recorded.
+ *
+ * A builder holds scratch space proportional to the number of rows, so each
+ * thread should use its own builder; any number of builders may share one
+ * ColumnStore.
+ *
+ * @author jmac
+ */
+public class EncodedTreeBuilder {
+	// The data from which trees are learned; never modified
+	private ColumnStore data;
+
+	// weights[r] is the number of times row r of the data is counted, or null
+	// if every row is counted once
+	private int[] weights;
+
+	// The number of attributes chosen at random as split candidates at each
+	// node, or 0 if every remaining attribute is a candidate
+	private int numCandidateAttributes = 0;
+
+	// The source of randomness used to choose candidate attributes
+	private Random random;
+
+	// Nodes at this level (the root being at level 0) are made leaves
+	private int maxDepth = Integer.MAX_VALUE;
+
+	// Nodes holding less than this total weight are made leaves
+	private int minLeafSize = 1;
+
+	// Tables shared with other builders, or null
+	private SplitStatisticsCache cache;
+
+	// The budget against which scratch space and nodes are reserved, or null,
+	// and the bytes reserved for the nodes of the tree being learned
+	private MemoryBudget budget;
+	private long treeBytes;
+
+	// The criterion used to choose split attributes
+	private SplitCriterion criterion = SplitCriterion.ENTROPY;
+
+	// Nodes holding more rows than this choose their split attribute from a
+	// sample of their rows, or 0 if every node counts all of its rows
+	private int minSampledNodeSize = 0;
+
+	// The allowed probability that a sampled node chooses a different split
+	// attribute than counting all of its rows would
+	private double delta;
+
+	// The source of randomness used to shuffle the rows for sampling
+	private Random sampleRandom;
+
+	// The number of nodes whose split attribute was chosen from a sample
+	// smaller than the node, and the number of rows those samples left out
+	private int numSampledNodes;
+	private long numRowsSkipped;
+
+	// The number of rows first sampled at a node; each round doubles it
+	private static final int INITIAL_SAMPLE_SIZE = 1000;
+
+	// True if each node plans how its tables are counted; false if every node
+	// counts every row (or samples them, if sampled splitting is enabled)
+	private boolean planning = true;
+
+	// The number of nodes that used each strategy, over every tree learned by
+	// this builder, and the strategy of each internal node of the last tree
+	private int[] strategyCounts = new int[SplitStrategy.values().length];
+	private IdentityHashMap<DecisionTree, SplitStrategy> strategies = new IdentityHashMap<DecisionTree, SplitStrategy>();
+
+	// The data, if it is sparse, or null
+	private SparseInstanceSet sparse;
+
+	// For sparse data, positions[r] is the index of row r in rows, or -1 if
+	// row r is not being learned from
+	private int[] positions;
+
+	// Sparse columns with at most this many non-default values per row of a
+	// node are scattered into the node rather than searched row by row
+	private static final int SPARSE_SCATTER_RATIO = 8;
+
+	// The row indices of the examples being learned from. Each node under
+	// construction owns a contiguous range of this array.
+	private int[] rows;
+
+	// Scratch space used when partitioning a node's range of rows
+	private int[] buffer;
+
+	// Scratch space holding, for the node being split, the classification and
+	// weight of each of its rows (if gathered is true) and one attribute's
+	// values, so that every candidate is counted by Kernels over plain arrays
+	private int[] classCodes;
+	private int[] rowWeights;
+	private int[] codes;
+	private boolean gathered;
+
+	private Attribute classAttribute;
+	private int numClasses;
+
+	public static final boolean VERBOSE = false;
+
+	/**
+	 * Create a builder that learns from the given data.
+	 *
+	 * @param data    The rows from which trees will be learned.
+	 * @param weights An array giving the number of times each row should be
+	 *                counted (rows with weight 0 are ignored), or null to count
+	 *                every row once.
+	 */
+	public EncodedTreeBuilder(ColumnStore data, int[] weights) {
+		this.data = data;
+		this.weights = weights;
+		classAttribute = data.getAttributeSet().getClassAttribute();
+		numClasses = data.getNumClasses();
+		if (data instanceof SparseInstanceSet)
+			sparse = (SparseInstanceSet) data;
+	}
+
+	/**
+	 * Restrict the split attribute at each node to a random subset of the
+	 * remaining attributes, as in a random forest.
+	 *
+	 * @param numCandidateAttributes The number of candidates considered at each
+	 *                               node, or 0 to consider every attribute.
+	 * @param random                 The source of randomness used to choose the
+	 *                               candidates.
+	 */
+	public void setNumCandidateAttributes(int numCandidateAttributes, Random random) {
+		this.numCandidateAttributes = numCandidateAttributes;
+		this.random = random;
+	}
+
+	/**
+	 * Limit the depth of the learned trees.
+	 *
+	 * @param maxDepth The maximum number of splits on any path from the root
+	 *                 to a leaf.
+	 */
+	public void setMaxDepth(int maxDepth) {
+		this.maxDepth = maxDepth;
+	}
+
+	/**
+	 * Stop splitting nodes that hold few examples.
+	 *
+	 * @param minLeafSize Nodes holding fewer examples than this (counting each
+	 *                    row by its weight) are made leaves rather than split.
+	 */
+	public void setMinLeafSize(int minLeafSize) {
+		this.minLeafSize = minLeafSize;
+	}
+
+	/**
+	 * Choose split attributes by the given criterion.
+	 *
+	 * @param criterion The criterion; SplitCriterion.ENTROPY by default.
+	 */
+	public void setSplitCriterion(SplitCriterion criterion) {
+		this.criterion = criterion;
+	}
+
+	/**
+	 * Choose the split attribute of large nodes from a growing sample of their
+	 * rows. At a node holding more than <code>minSampledNodeSize</code> rows,
+	 * every candidate is counted over the first INITIAL_SAMPLE_SIZE rows, then
+	 * over twice as many, and so on, until the Hoeffding bound shows that the
+	 * best candidate on the sample is, with probability at least
+	 * <code>1 - delta</code>, the best on all of the node's rows, or until the
+	 * sample is the whole node. Only the chosen attribute is then counted over
+	 * every row, so the children are learned from exact class counts. Smaller
+	 * nodes count every candidate over all of their rows, as usual.
+	 *
+	 * The rows are shuffled once before learning, and partitioning keeps their
+	 * order, so the first rows of every node are a random sample of it. Tables
+	 * of sampled nodes are not shared through a SplitStatisticsCache.
+	 *
+	 * @param minSampledNodeSize The number of rows above which a node is
+	 *                           sampled, or 0 to count all rows at every node.
+	 * @param delta              The allowed probability of choosing a different
+	 *                           attribute than counting all rows would, at each
+	 *                           sampled node.
+	 * @param random             The source of randomness used to shuffle the
+	 *                           rows.
+	 */
+	public void setSampledSplitting(int minSampledNodeSize, double delta, Random random) {
+		this.minSampledNodeSize = minSampledNodeSize;
+		this.delta = delta;
+		this.sampleRandom = random;
+	}
+
+	/**
+	 * Choose whether each node plans how its tables are counted. Planning
+	 * never changes the learned tree, so it is on by default.
+	 *
+	 * @param planning True to plan a strategy for each node; false to count
+	 *                 every row of every node (or sample them, if sampled
+	 *                 splitting is enabled).
+	 */
+	public void setSplitPlanning(boolean planning) {
+		this.planning = planning;
+	}
+
+	/**
+	 * @param strategy A strategy.
+	 * @return The number of nodes, over every tree learned by this builder,
+	 *         that chose their split attribute using the strategy.
+	 */
+	public int getNumNodes(SplitStrategy strategy) {
+		return strategyCounts[strategy.getIndex()];
+	}
+
+	/**
+	 * @param node An internal node of the last tree learned by this builder.
+	 * @return The strategy the node used to choose its split attribute, or
+	 *         null if the node is not one.
+	 */
+	public SplitStrategy getStrategy(DecisionTree node) {
+		return strategies.get(node);
+	}
+
+	/**
+	 * @return The number of nodes, over every tree learned by this builder,
+	 *         whose split attribute was chosen from a sample smaller than the
+	 *         node.
+	 */
+	public int getNumSampledNodes() {
+		return numSampledNodes;
+	}
+
+	/**
+	 * @return The total number of rows left out of the samples of those nodes,
+	 *         i.e. the rows each candidate but the chosen one was not counted
+	 *         over.
+	 */
+	public long getNumRowsSkipped() {
+		return numRowsSkipped;
+	}
+
+	/**
+	 * Reserve memory against the given budget while learning: the builder's
+	 * scratch space before it is allocated (released when learning ends) and
+	 * each internal node of the tree as it is made (kept, since the tree
+	 * remains, until <code>budget.release(tree)</code>). A tree that outgrows
+	 * the budget stops the build, and the nodes made so far are released.
+	 *
+	 * @param budget The budget, or null to reserve nothing.
+	 */
+	public void setMemoryBudget(MemoryBudget budget) {
+		this.budget = budget;
+	}
+
+	/**
+	 * Share contingency tables with other builders through the given cache.
+	 * Every builder using the cache must learn from the same data, weights and
+	 * rows (see SplitStatisticsCache).
+	 *
+	 * @param cache The cache to read tables from and store tables in, or null
+	 *              to compute every table.
+	 */
+	public void setSplitStatisticsCache(SplitStatisticsCache cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * Learn a decision tree from every row whose weight is nonzero.
+	 *
+	 * @param attributes A list of attributes on which the tree is permitted to
+	 *                   make decisions.
+	 * @return The root of the learned tree.
+	 * @throws DecisionTreeException
+	 */
+	public DecisionTree build(ArrayList<Attribute> attributes) throws DecisionTreeException {
+		int numRows = 0;
+		for (int r = 0; r < data.getNumRows(); r++) {
+			if (weight(r) > 0)
+				numRows++;
+		}
+		int[] selected = new int[numRows];
+		int i = 0;
+		for (int r = 0; r < data.getNumRows(); r++) {
+			if (weight(r) > 0)
+				selected[i++] = r;
+		}
+		return build(attributes, selected);
+	}
+
+	/**
+	 * Learn a decision tree from the given subset of the rows, for example the
+	 * training rows of one cross-validation fold.
+	 *
+	 * @param attributes A list of attributes on which the tree is permitted to
+	 *                   make decisions.
+	 * @param rows       The indices of the rows to learn from, each with
+	 *                   nonzero weight. The builder reorders this array while
+	 *                   learning.
+	 * @return The root of the learned tree.
+	 * @throws DecisionTreeException
+	 */
+	public DecisionTree build(ArrayList<Attribute> attributes, int[] rows) throws DecisionTreeException {
+		if (rows.length == 0)
+			throw new DecisionTreeException("cannot learn a decision tree from no examples");
+		long scratchBytes = MemoryBudget.estimateBuilderBytes(rows.length, weights != null, sparse != null);
+		if (budget != null)
+			budget.reserve(scratchBytes, "the scratch space of a tree builder");
+		treeBytes = 0;
+		DecisionTree tree = null;
+		try {
+			tree = learn(attributes, rows);
+			return tree;
+		} finally {
+			this.rows = null;
+			buffer = null;
+			classCodes = null;
+			rowWeights = null;
+			codes = null;
+			positions = null;
+			if (budget != null) {
+				budget.release(scratchBytes);
+				// A failed build keeps none of its nodes
+				if (tree == null)
+					budget.release(treeBytes);
+			}
+		}
+	}
+
+	private DecisionTree learn(ArrayList<Attribute> attributes, int[] rows) throws DecisionTreeException {
+		this.rows = rows;
+		strategies.clear();
+		buffer = new int[rows.length];
+		classCodes = new int[rows.length];
+		rowWeights = weights == null ? null : new int[rows.length];
+		codes = new int[rows.length];
+		if (minSampledNodeSize > 0) {
+			for (int i = rows.length - 1; i > 0; i--) {
+				int j = sampleRandom.nextInt(i + 1);
+				int r = rows[i];
+				rows[i] = rows[j];
+				rows[j] = r;
+			}
+		}
+		if (sparse != null) {
+			positions = new int[data.getNumRows()];
+			Arrays.fill(positions, -1);
+			for (int i = 0; i < rows.length; i++)
+				positions[rows[i]] = i;
+		}
+		int[] classCounts = new int[numClasses];
+		for (int r : rows)
+			classCounts[data.getClassCode(r)] += weight(r);
+
+		// The root is given depth 1, as it is by DecisionTree.constructDecisionTree
+		return buildNode(0, rows.length, classCounts, attributes, DecisionTree.ROOT_LABEL, 1,
+				SplitStatisticsCache.ROOT_PATH, null);
+	}
+
+	// Learn the subtree for the rows in rows[from..to), whose class counts are
+	// already known. The path identifies the node in the cache, if any.
+	// derived holds, by attribute index, the tables the parent derived for
+	// this node, or is null.
+	private DecisionTree buildNode(int from, int to, int[] classCounts, ArrayList<Attribute> attributes,
+			String label, int depth, String path, ContingencyTable[] derived) throws DecisionTreeException {
+		int majority = ContingencyTable.indexOfMax(classCounts);
+		if (isLeaf(classCounts, attributes, depth))
+			return new DecisionTreeLeaf(classAttribute.getValues()[majority], label, depth);
+
+		// Choose the candidate with the lowest cost
+		AttributeSet attributeSet = data.getAttributeSet();
+		Attribute splitAttribute = null;
+		ContingencyTable splitTable = null;
+		double minCost = Double.MAX_VALUE;
+		gathered = false;
+		ArrayList<Attribute> candidates = chooseCandidates(attributes);
+		ContingencyTable[] tables = new ContingencyTable[candidates.size()];
+		SplitStrategy strategy = plan(from, to, candidates, derived);
+		if (strategy == SplitStrategy.SAMPLED) {
+			int best = chooseFromSample(from, to, candidates, tables);
+			splitAttribute = candidates.get(best);
+			splitTable = tables[best];
+			if (splitTable.getTotal() < ContingencyTable.total(classCounts)) {
+				// The sample was smaller than the node
+				gathered = false;
+				splitTable = count(from, to, attributeSet.getAttributeIndex(splitAttribute), classCounts);
+			}
+			minCost = criterion.cost(splitTable);
+		} else {
+			double[] costs = new double[tables.length];
+			for (int t = 0; t < tables.length; t++) {
+				int attributeIndex = attributeSet.getAttributeIndex(candidates.get(t));
+				if (strategy == SplitStrategy.SUBTRACTED)
+					tables[t] = derived[attributeIndex];
+				else if (strategy == SplitStrategy.SWEPT)
+					tables[t] = sweep(from, to, attributeIndex);
+				else
+					tables[t] = getTable(from, to, attributeIndex, classCounts, path);
+				costs[t] = criterion.cost(tables[t]);
+				minCost = Math.min(minCost, costs[t]);
+			}
+			int best = SplitCriterion.choose(costs);
+			splitAttribute = candidates.get(best);
+			splitTable = tables[best];
+			// A swept table has only the values that occur, so its cells are
+			// summed in a different order from a full table's. Count the
+			// candidates tied with the best in full, and choose among them as
+			// a full count would.
+			if (strategy == SplitStrategy.SWEPT) {
+				ContingencyTable[] full = new ContingencyTable[tables.length];
+				for (int t = 0; t < tables.length; t++) {
+					if (SplitCriterion.isTied(costs[t], minCost)) {
+						full[t] = count(from, to, attributeSet.getAttributeIndex(candidates.get(t)), classCounts);
+						costs[t] = criterion.cost(full[t]);
+					} else {
+						costs[t] = Double.MAX_VALUE;
+					}
+				}
+				best = SplitCriterion.choose(costs);
+				splitAttribute = candidates.get(best);
+				splitTable = full[best];
+			}
+			minCost = costs[best];
+		}
+		if (VERBOSE)
+			System.out.println("split on " + splitAttribute.getName() + ", " + criterion + " " + minCost);
+
+		@SuppressWarnings("unchecked")
+		ArrayList<Attribute> childAttributes = (ArrayList<Attribute>) attributes.clone();
+		childAttributes.remove(splitAttribute);
+
+		// Reorder the rows so that each child's rows are contiguous, then
+		// learn the children. Children that receive no rows make the same
+		// decision as this node.
+		int splitAttributeIndex = attributeSet.getAttributeIndex(splitAttribute);
+		int[] starts = partition(from, to, splitAttributeIndex, splitAttribute.getNumValues());
+		gathered = false;
+
+		// The largest child may take this node's tables less the others'
+		int largest = 0;
+		for (int v = 1; v < splitAttribute.getNumValues(); v++) {
+			if (starts[v + 1] - starts[v] > starts[largest + 1] - starts[largest])
+				largest = v;
+		}
+		ContingencyTable[] childDerived = null;
+		if (shouldSubtract(strategy, from, to, starts[largest], starts[largest + 1],
+				splitTable.getClassCounts(largest), childAttributes, depth + 1))
+			childDerived = subtract(from, to, starts[largest], starts[largest + 1], candidates, tables,
+					splitAttribute);
+
+		String[] values = splitAttribute.getValues();
+		HashMap<String, DecisionTree> children = new HashMap<String, DecisionTree>();
+		for (int v = 0; v < values.length; v++) {
+			DecisionTree child;
+			if (splitTable.getValueTotal(v) == 0)
+				child = new DecisionTreeLeaf(classAttribute.getValues()[majority], values[v], depth + 1);
+			else
+				child = buildNode(starts[v], starts[v + 1], splitTable.getClassCounts(v), childAttributes,
+						values[v], depth + 1,
+						cache == null ? null : SplitStatisticsCache.childPath(path, splitAttributeIndex, v),
+						v == largest ? childDerived : null);
+			children.put(values[v], child);
+		}
+		DecisionTreeInternal node = new DecisionTreeInternal(splitAttribute, children, label, depth);
+		if (budget != null) {
+			long nodeBytes = MemoryBudget.estimateNodeBytes(node);
+			budget.reserve(nodeBytes, "the tree being learned");
+			treeBytes += nodeBytes;
+		}
+		strategies.put(node, strategy);
+		strategyCounts[strategy.getIndex()]++;
+		return node;
+	}
+
+	// Return true if a node with the given class counts, attributes and depth
+	// is made a leaf rather than split.
+	private boolean isLeaf(int[] classCounts, ArrayList<Attribute> attributes, int depth) {
+		return ContingencyTable.isPure(classCounts) || attributes.size() == 0 || depth - 1 >= maxDepth
+				|| ContingencyTable.total(classCounts) < minLeafSize;
+	}
+
+	// Choose how the node owning rows[from..to) gets its candidates' tables.
+	// derived holds the tables its parent derived for it, or is null.
+	private SplitStrategy plan(int from, int to, ArrayList<Attribute> candidates, ContingencyTable[] derived) {
+		int numRows = to - from;
+		if (minSampledNodeSize > 0 && numRows > minSampledNodeSize && candidates.size() > 1)
+			return SplitStrategy.SAMPLED;
+		// Sparse columns are counted from their non-default values alone,
+		// which is cheaper than reading every other row's code to subtract,
+		// or every row's code to sort
+		if (!planning || sparse != null)
+			return SplitStrategy.DIRECT;
+		if (derived != null)
+			return SplitStrategy.SUBTRACTED;
+		// Sorting costs about n log n; a full table costs its every cell to
+		// clear and to score
+		if (cache == null && numRows * (32 - Integer.numberOfLeadingZeros(numRows)) < meanTableCells(candidates))
+			return SplitStrategy.SWEPT;
+		return SplitStrategy.DIRECT;
+	}
+
+	// Return true if the child owning rows[childFrom..childTo) of the node
+	// owning rows[from..to) should be given the node's tables less those of
+	// the node's other rows: every candidate of the child must have an exact
+	// table at the node, the child must be split and counted in full, and
+	// counting the other rows must be cheaper than counting the child's.
+	private boolean shouldSubtract(SplitStrategy strategy, int from, int to, int childFrom, int childTo,
+			int[] childClassCounts, ArrayList<Attribute> childAttributes, int childDepth) {
+		if (!planning || sparse != null || cache != null || numCandidateAttributes > 0
+				|| (strategy != SplitStrategy.DIRECT && strategy != SplitStrategy.SUBTRACTED))
+			return false;
+		int numChildRows = childTo - childFrom;
+		if (isLeaf(childClassCounts, childAttributes, childDepth)
+				|| (minSampledNodeSize > 0 && numChildRows > minSampledNodeSize))
+			return false;
+		// Each table subtracted costs about as much as counting a row per cell
+		return numChildRows - (to - from - numChildRows) > meanTableCells(childAttributes);
+	}
+
+	// The mean number of cells in the tables of the given attributes.
+	private long meanTableCells(ArrayList<Attribute> attributes) {
+		if (attributes.isEmpty())
+			return 0;
+		long cells = 0;
+		for (Attribute attribute : attributes)
+			cells += (long) attribute.getNumValues() * numClasses;
+		return cells / attributes.size();
+	}
+
+	// Turn the node's tables of every candidate but the split attribute into
+	// the tables of the child owning rows[childFrom..childTo), by subtracting
+	// the counts of the node's other rows. Returns them by attribute index.
+	private ContingencyTable[] subtract(int from, int to, int childFrom, int childTo, ArrayList<Attribute> candidates,
+			ContingencyTable[] tables, Attribute splitAttribute) {
+		int[] others = new int[to - from - (childTo - childFrom)];
+		int k = 0;
+		for (int i = from; i < childFrom; i++)
+			others[k++] = rows[i];
+		for (int i = childTo; i < to; i++)
+			others[k++] = rows[i];
+		for (int i = 0; i < others.length; i++) {
+			classCodes[i] = data.getClassCode(others[i]);
+			if (rowWeights != null)
+				rowWeights[i] = weights[others[i]];
+		}
+		AttributeSet attributeSet = data.getAttributeSet();
+		ContingencyTable[] derived = new ContingencyTable[data.getNumAttributes()];
+		for (int t = 0; t < tables.length; t++) {
+			if (candidates.get(t) == splitAttribute)
+				continue;
+			int attributeIndex = attributeSet.getAttributeIndex(candidates.get(t));
+			for (int i = 0; i < others.length; i++)
+				codes[i] = data.getCode(others[i], attributeIndex);
+			ContingencyTable table = new ContingencyTable(data.getNumValues(attributeIndex), numClasses);
+			table.addAll(codes, classCodes, rowWeights, others.length);
+			tables[t].subtract(table);
+			derived[attributeIndex] = tables[t];
+		}
+		return derived;
+	}
+
+	// Count the given attribute over the rows in rows[from..to) into a table
+	// of only the values that occur, in increasing order, by sorting the rows'
+	// (value, classification) pairs. Empty values add nothing to any cost, so
+	// it scores as the full table does.
+	private ContingencyTable sweep(int from, int to, int attributeIndex) {
+		gatherClasses(from, to);
+		gatherCodes(from, to, attributeIndex);
+		int numRows = to - from;
+		long[] pairs = new long[numRows];
+		for (int i = 0; i < numRows; i++)
+			pairs[i] = ((long) (codes[i] * numClasses + classCodes[i]) << 32) | i;
+		Arrays.sort(pairs);
+		int numValues = 0;
+		int last = -1;
+		for (long pair : pairs) {
+			int value = (int) (pair >>> 32) / numClasses;
+			if (value != last) {
+				numValues++;
+				last = value;
+			}
+		}
+		ContingencyTable table = new ContingencyTable(numValues, numClasses);
+		int v = -1;
+		last = -1;
+		for (long pair : pairs) {
+			int key = (int) (pair >>> 32);
+			if (key / numClasses != last) {
+				v++;
+				last = key / numClasses;
+			}
+			table.add(v, key % numClasses, rowWeights == null ? 1 : rowWeights[(int) pair]);
+		}
+		return table;
+	}
+
+	// Return the attributes that may be chosen as the split attribute at the
+	// current node.
+	private ArrayList<Attribute> chooseCandidates(ArrayList<Attribute> attributes) {
+		if (numCandidateAttributes <= 0 || numCandidateAttributes >= attributes.size())
+			return attributes;
+		ArrayList<Attribute> shuffled = new ArrayList<Attribute>(attributes);
+		Collections.shuffle(shuffled, random);
+		return new ArrayList<Attribute>(shuffled.subList(0, numCandidateAttributes));
+	}
+
+	// Choose the split attribute for the node owning rows[from..to) by
+	// counting the candidates over a growing prefix of its rows, which is a
+	// random sample of them. Returns the index of the chosen candidate; its
+	// table, and every other candidate's, is left in tables, and covers the
+	// whole node only if the sample grew to the whole node.
+	private int chooseFromSample(int from, int to, ArrayList<Attribute> candidates, ContingencyTable[] tables) {
+		AttributeSet attributeSet = data.getAttributeSet();
+		int[] attributeIndices = new int[candidates.size()];
+		for (int t = 0; t < tables.length; t++) {
+			attributeIndices[t] = attributeSet.getAttributeIndex(candidates.get(t));
+			tables[t] = new ContingencyTable(data.getNumValues(attributeIndices[t]), numClasses);
+		}
+		double range = criterion.getRange(numClasses);
+		int numRows = to - from;
+		int sampled = 0;
+		int sampleSize = Math.min(INITIAL_SAMPLE_SIZE, numRows);
+		while (true) {
+			// Add the rows between the last sample and this one to every table
+			int start = from + sampled;
+			int length = sampleSize - sampled;
+			for (int i = 0; i < length; i++) {
+				classCodes[i] = data.getClassCode(rows[start + i]);
+				if (rowWeights != null)
+					rowWeights[i] = weights[rows[start + i]];
+			}
+			for (int t = 0; t < tables.length; t++) {
+				gatherCodes(start, start + length, attributeIndices[t]);
+				tables[t].addAll(codes, classCodes, rowWeights, length);
+			}
+			sampled = sampleSize;
+
+			double[] costs = new double[tables.length];
+			for (int t = 0; t < tables.length; t++)
+				costs[t] = criterion.cost(tables[t]);
+			int best = SplitCriterion.choose(costs);
+			double minCost = costs[best];
+			double secondCost = Double.MAX_VALUE;
+			for (int t = 0; t < tables.length; t++) {
+				if (t != best)
+					secondCost = Math.min(secondCost, costs[t]);
+			}
+			if (sampled == numRows)
+				return best;
+			double epsilon = Math.sqrt(range * range * Math.log(1.0 / delta) / (2.0 * sampled));
+			if (secondCost - minCost > epsilon) {
+				if (VERBOSE)
+					System.out.println("sampled " + sampled + " of " + numRows + " rows, margin "
+							+ (secondCost - minCost) + " > " + epsilon);
+				numSampledNodes++;
+				numRowsSkipped += numRows - sampled;
+				return best;
+			}
+			sampleSize = (int) Math.min(numRows, 2L * sampleSize);
+		}
+	}
+
+	// Get the table for the given attribute at the node owning rows[from..to),
+	// whose class counts are given, from the cache if possible.
+	private ContingencyTable getTable(int from, int to, int attributeIndex, int[] classCounts, String path) {
+		if (cache == null)
+			return count(from, to, attributeIndex, classCounts);
+		ContingencyTable table = cache.get(path, attributeIndex);
+		if (table == null) {
+			table = count(from, to, attributeIndex, classCounts);
+			cache.put(path, attributeIndex, table);
+		}
+		return table;
+	}
+
+	// Count the value/classification pairs of the given attribute over the
+	// rows in rows[from..to). The classifications and weights of the rows are
+	// read once per node, however many candidates are counted.
+	private ContingencyTable count(int from, int to, int attributeIndex, int[] classCounts) {
+		if (sparse != null && sparse.getNumNonDefault(attributeIndex) < to - from)
+			return countSparse(from, to, attributeIndex, classCounts);
+		gatherClasses(from, to);
+		gatherCodes(from, to, attributeIndex);
+		ContingencyTable table = new ContingencyTable(data.getNumValues(attributeIndex), numClasses);
+		table.addAll(codes, classCodes, rowWeights, to - from);
+		return table;
+	}
+
+	// Read the classification and weight of each row in rows[from..to) into
+	// classCodes and rowWeights, unless they were read already for this node.
+	private void gatherClasses(int from, int to) {
+		if (gathered)
+			return;
+		for (int i = from; i < to; i++) {
+			classCodes[i - from] = data.getClassCode(rows[i]);
+			if (rowWeights != null)
+				rowWeights[i - from] = weights[rows[i]];
+		}
+		gathered = true;
+	}
+
+	// Read the given attribute's value of each row in rows[from..to) into
+	// codes[0..to-from). For sparse data, unless the node is small compared to
+	// the column, the node is filled with the default and the column's
+	// non-default values are scattered into it, rather than searching the
+	// column for every row.
+	private void gatherCodes(int from, int to, int attributeIndex) {
+		if (sparse == null || sparse.getNumNonDefault(attributeIndex) > SPARSE_SCATTER_RATIO * (to - from)) {
+			for (int i = from; i < to; i++)
+				codes[i - from] = data.getCode(rows[i], attributeIndex);
+			return;
+		}
+		Arrays.fill(codes, 0, to - from, sparse.getDefaultCode(attributeIndex));
+		int[] nonDefaultRows = sparse.getNonDefaultRows(attributeIndex);
+		int[] nonDefaultCodes = sparse.getNonDefaultCodes(attributeIndex);
+		for (int k = 0; k < nonDefaultRows.length; k++) {
+			int position = positions[nonDefaultRows[k]];
+			if (position >= from && position < to)
+				codes[position - from] = nonDefaultCodes[k];
+		}
+	}
+
+	// Count the given attribute over the rows in rows[from..to) from its
+	// non-default values alone: every row of the node not among them has the
+	// default value, so the default value's count for each class is what is
+	// left of the node's class counts.
+	private ContingencyTable countSparse(int from, int to, int attributeIndex, int[] classCounts) {
+		int[] nonDefaultRows = sparse.getNonDefaultRows(attributeIndex);
+		int[] nonDefaultCodes = sparse.getNonDefaultCodes(attributeIndex);
+		ContingencyTable table = new ContingencyTable(data.getNumValues(attributeIndex), numClasses);
+		int[] defaultCounts = classCounts.clone();
+		for (int k = 0; k < nonDefaultRows.length; k++) {
+			int r = nonDefaultRows[k];
+			int position = positions[r];
+			if (position >= from && position < to) {
+				int classCode = data.getClassCode(r);
+				int weight = weight(r);
+				table.add(nonDefaultCodes[k], classCode, weight);
+				defaultCounts[classCode] -= weight;
+			}
+		}
+		int defaultCode = sparse.getDefaultCode(attributeIndex);
+		for (int c = 0; c < numClasses; c++) {
+			if (defaultCounts[c] > 0)
+				table.add(defaultCode, c, defaultCounts[c]);
+		}
+		return table;
+	}
+
+	// Stably reorder rows[from..to) by their value of the given attribute.
+	// Returns an array whose v'th element is the start of the range holding
+	// value v; the last element is to.
+	private int[] partition(int from, int to, int attributeIndex, int numValues) {
+		int[] starts = new int[numValues + 1];
+		gatherCodes(from, to, attributeIndex);
+		for (int i = from; i < to; i++)
+			starts[codes[i - from] + 1]++;
+		starts[0] = from;
+		for (int v = 0; v < numValues; v++)
+			starts[v + 1] += starts[v];
+		int[] next = starts.clone();
+		for (int i = from; i < to; i++)
+			buffer[next[codes[i - from]]++] = rows[i];
+		System.arraycopy(buffer, from, rows, from, to - from);
+		if (positions != null) {
+			for (int i = from; i < to; i++)
+				positions[rows[i]] = i;
+		}
+		return starts;
+	}
+
+	private int weight(int row) {
+		return weights == null ? 1 : weights[row];
+	}
+
+	/**
+	 * Learns trees from many copies of the MAGIC training set, perturbed so
+	 * that the copies differ, once counting every row and once sampling large
+	 * nodes, and compares the time taken, the error rates on the test set and
+	 * the number of rows skipped.
+	 *
+	 * @param arguments Optionally, the number of copies, the minimum sampled
+	 *                  node size and delta.
+	 * @throws DecisionTreeException
+	 * @throws FileNotFoundException
+	 * @throws IOException
+	 */
+	public static void main(String[] arguments) throws DecisionTreeException, FileNotFoundException, IOException {
+		int numCopies = arguments.length > 0 ? Integer.parseInt(arguments[0]) : 20;
+		int minSampledNodeSize = arguments.length > 1 ? Integer.parseInt(arguments[1]) : 10000;
+		double delta = arguments.length > 2 ? Double.parseDouble(arguments[2]) : 1e-6;
+		EncodedInstanceSet trainingSet = new EncodedInstanceSet(
+				new InstanceSet("data/MAGIC_DataSet_Training.arff"));
+		EncodedInstanceSet testSet = new EncodedInstanceSet(new InstanceSet("data/MAGIC_DataSet_Test.arff"));
+		AttributeSet attributeSet = trainingSet.getAttributeSet();
+		ArrayList<Attribute> attributes = DecisionTree.removeClassAttribute(attributeSet,
+				attributeSet.getAttributes());
+
+		// Each copy moves every numeric code up or down one bucket at random
+		Random random = new Random(42);
+		int numAttributes = trainingSet.getNumAttributes();
+		int classAttributeIndex = attributeSet.getClassAttributeIndex();
+		RowBatch data = new RowBatch(attributeSet, numCopies * trainingSet.getNumRows());
+		int[] row = new int[numAttributes];
+		for (int copy = 0; copy < numCopies; copy++) {
+			for (int r = 0; r < trainingSet.getNumRows(); r++) {
+				for (int a = 0; a < numAttributes; a++) {
+					int code = trainingSet.getCode(r, a);
+					if (copy > 0 && a != classAttributeIndex)
+						code = Math.max(0, Math.min(trainingSet.getNumValues(a) - 1, code + random.nextInt(3) - 1));
+					row[a] = code;
+				}
+				data.add(row, 0);
+			}
+		}
+		System.out.println(data.getNumRows() + " training rows");
+
+		for (int mode = 0; mode < 2; mode++) {
+			EncodedTreeBuilder builder = new EncodedTreeBuilder(data, null);
+			if (mode == 1)
+				builder.setSampledSplitting(minSampledNodeSize, delta, new Random(1));
+			long start = System.nanoTime();
+			DecisionTree tree = builder.build(attributes);
+			long elapsed = System.nanoTime() - start;
+			int numErrors = 0;
+			for (int r = 0; r < testSet.getNumRows(); r++) {
+				if (attributeSet.getClassAttribute().getValueIndex(tree.decide(testSet, r)) != testSet
+						.getClassCode(r))
+					numErrors++;
+			}
+			System.out.println(String.format("%-8s %6d ms, error rate %.4f, %d nodes sampled, %d rows skipped",
+					mode == 0 ? "exact" : "sampled", elapsed / 1000000, (double) numErrors / testSet.getNumRows(),
+					builder.getNumSampledNodes(), builder.getNumRowsSkipped()));
+		}
+	}
+}
@@ -0,0 +1,593 @@
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A GradientBoostedTrees object classifies instances using a sum of shallow
+ * RegressionTrees learned by gradient boosting. Problems with two classes are
+ * learned with the logistic loss, using one tree per round; problems with
+ * more classes are learned with the softmax (multinomial) loss, using one
+ * tree per class per round.
+ *
+ * The trees are learned from a ColumnStore, whose value indices serve
+ * directly as pre-computed bins: numeric attributes have already been divided
+ * into ordered buckets by InstanceSet, and the values of a nominal attribute
+ * are treated as ordered by their position in its declaration. To choose a
+ * split, the learner accumulates, for every attribute and bin, the sum of the
+ * gradients and hessians of the node's rows. Each attribute's histogram is
+ * accumulated independently, so the attributes are divided among several
+ * threads; and only the smaller child of each split is accumulated from its
+ * rows, the larger child's histogram being the parent's minus the smaller
+ * child's.
+ *
+ * @author jmac
+ */
+public class GradientBoostedTrees {
+	// The trees, in the order they were learned. Tree t contributes to the
+	// score of output t % numOutputs.
+	private RegressionTree[] trees;
+
+	// 1 for two-class problems, where the single score is the log-odds of the
+	// second class; otherwise the number of classes
+	private int numOutputs;
+
+	// The score of each output before any tree is added
+	private double[] initialScores;
+
+	// The classification attribute of the training data
+	private Attribute classAttribute;
+
+	/**
+	 * The weight of the L2 penalty on leaf outputs.
+	 */
+	public static final double L2_REGULARIZATION = 1.0;
+
+	/**
+	 * The minimum number of training rows in a leaf.
+	 */
+	public static final int MIN_LEAF_ROWS = 20;
+
+	/**
+	 * The minimum total hessian in a leaf.
+	 */
+	public static final double MIN_LEAF_HESSIAN = 1e-3;
+
+	/**
+	 * The number of rows routed through the trees together when scoring.
+	 */
+	public static final int BATCH_SIZE = 1024;
+
+	// Nodes with fewer rows than this accumulate their histograms on the
+	// calling thread
+	private static final int MIN_PARALLEL_ROWS = 4096;
+
+	public static final boolean VERBOSE = false;
+
+	/**
+	 * Learn a gradient boosted ensemble from the given examples.
+	 *
+	 * @param examples     The examples from which the ensemble should be
+	 *                     learned.
+	 * @param attributes   A list of attributes on which the trees are permitted
+	 *                     to split.
+	 * @param numRounds    The number of boosting rounds.
+	 * @param maxDepth     The maximum depth of each tree.
+	 * @param learningRate The factor by which each tree's outputs are shrunk.
+	 * @param numThreads   The number of threads used to accumulate histograms.
+	 * @return The learned ensemble.
+	 * @throws DecisionTreeException
+	 */
+	public static GradientBoostedTrees constructGradientBoostedTrees(ColumnStore examples,
+			ArrayList<Attribute> attributes, int numRounds, int maxDepth, double learningRate, int numThreads)
+			throws DecisionTreeException {
+		if (examples.getNumRows() == 0)
+			throw new DecisionTreeException("cannot learn gradient boosted trees from no examples");
+		if (attributes.size() == 0)
+			throw new DecisionTreeException("cannot learn gradient boosted trees without attributes");
+		GradientBoostedTrees model = new GradientBoostedTrees(examples.getAttributeSet().getClassAttribute());
+		Trainer trainer = new Trainer(model, examples, attributes, maxDepth, learningRate, numThreads);
+		try {
+			trainer.train(numRounds);
+		} finally {
+			trainer.executor.shutdownNow();
+		}
+		return model;
+	}
+
+	private GradientBoostedTrees(Attribute classAttribute) {
+		this.classAttribute = classAttribute;
+		int numClasses = classAttribute.getNumValues();
+		numOutputs = numClasses == 2 ? 1 : numClasses;
+	}
+
+	/**
+	 * Return the ensemble's decision for the given instance.
+	 *
+	 * @param attributes The set of attributes employed by the instance.
+	 * @param instance   The instance to be classified.
+	 * @return The classification of the given instance.
+	 * @throws DecisionTreeException if a tree splits the instance on an
+	 *                               attribute that does not declare its value
+	 */
+	public String decide(AttributeSet attributes, Instance instance) throws DecisionTreeException {
+		ArrayList<Attribute> attributeList = attributes.getAttributes();
+		String[] values = instance.getValues();
+		int[] codes = new int[values.length];
+		boolean undeclared = false;
+		for (int a = 0; a < codes.length; a++) {
+			codes[a] = attributeList.get(a).getValueIndex(values[a]);
+			undeclared |= codes[a] < 0;
+		}
+		if (undeclared) {
+			for (RegressionTree tree : trees) {
+				int a = tree.findUndeclared(codes);
+				if (a >= 0)
+					throw new DecisionTreeException(
+							"unexpected value " + values[a] + " for attribute " + attributeList.get(a).getName());
+			}
+		}
+		double[] scores = initialScores.clone();
+		for (int t = 0; t < trees.length; t++)
+			scores[t % numOutputs] += trees[t].getOutput(codes);
+		return classAttribute.getValues()[decisionIndex(scores, 0)];
+	}
+
+	/**
+	 * Compute the ensemble's decision for every row of the given data. Rows
+	 * are scored in batches of <code>BATCH_SIZE</code>: each tree routes the
+	 * whole batch one level at a time and adds its outputs to the batch's
+	 * scores before the next tree is applied.
+	 *
+	 * @param data The encoded rows to be classified.
+	 * @return An array whose i'th element is the decision for row i.
+	 */
+	public String[] decideAll(ColumnStore data) {
+		String[] decisions = new String[data.getNumRows()];
+		double[] scores = new double[BATCH_SIZE * numOutputs];
+		int[] nodes = new int[BATCH_SIZE];
+		int[] codes = new int[BATCH_SIZE];
+		for (int from = 0; from < data.getNumRows(); from += BATCH_SIZE) {
+			int to = Math.min(data.getNumRows(), from + BATCH_SIZE);
+			for (int i = 0; i < to - from; i++)
+				System.arraycopy(initialScores, 0, scores, i * numOutputs, numOutputs);
+			for (int t = 0; t < trees.length; t++)
+				trees[t].addOutputs(data, from, to, scores, 0, numOutputs, t % numOutputs, nodes, codes);
+			for (int i = 0; i < to - from; i++)
+				decisions[from + i] = classAttribute.getValues()[decisionIndex(scores, i * numOutputs)];
+		}
+		return decisions;
+	}
+
+	/**
+	 * Compute the error rate of the ensemble on the given encoded test set.
+	 *
+	 * @param testSet A set of examples on which the error rate will be computed.
+	 * @return The error rate of the ensemble on the given test set.
+	 */
+	public double computeErrorRate(ColumnStore testSet) {
+		String[] decisions = decideAll(testSet);
+		int num_errors = 0;
+		for (int r = 0; r < decisions.length; r++) {
+			if (classAttribute.getValueIndex(decisions[r]) != testSet.getClassCode(r))
+				num_errors++;
+		}
+		return (double) num_errors / testSet.getNumRows();
+	}
+
+	// Return the index of the classification chosen by the scores starting at
+	// the given offset.
+	private int decisionIndex(double[] scores, int offset) {
+		if (numOutputs == 1)
+			return scores[offset] > 0 ? 1 : 0;
+		int best = 0;
+		for (int k = 1; k < numOutputs; k++) {
+			if (scores[offset + k] > scores[offset + best])
+				best = k;
+		}
+		return best;
+	}
+
+	/**
+	 * Get the number of trees in the ensemble.
+	 *
+	 * @return the number of trees
+	 */
+	public int getNumTrees() {
+		return trees.length;
+	}
+
+	/*
+	 * Holds the state needed while learning an ensemble: the current scores of
+	 * the training rows, their gradients and hessians for the output being
+	 * learned, and the scratch space used to grow one tree.
+	 */
+	private static class Trainer {
+		private GradientBoostedTrees model;
+		private ColumnStore data;
+		private int numRows;
+		private int numOutputs;
+		private int maxDepth;
+		private double learningRate;
+
+		// The attribute index of each candidate split attribute, and the
+		// position of its first bin in a histogram
+		private int[] features;
+		private int[] binOffsets;
+		private int numBins;
+
+		// Row indices; each node being grown owns a contiguous range
+		private int[] rows;
+		private int[] buffer;
+
+		// scores[r * numOutputs + k] is the current score of output k for row r
+		private double[] scores;
+
+		// The gradient and hessian of the loss for each row, for the output
+		// whose tree is being grown
+		private double[] gradients;
+		private double[] hessians;
+
+		private int numThreads;
+		private ExecutorService executor;
+
+		Trainer(GradientBoostedTrees model, ColumnStore data, ArrayList<Attribute> attributes, int maxDepth,
+				double learningRate, int numThreads) {
+			this.model = model;
+			this.data = data;
+			this.maxDepth = maxDepth;
+			this.learningRate = learningRate;
+			this.numThreads = Math.max(1, numThreads);
+			numRows = data.getNumRows();
+			numOutputs = model.numOutputs;
+
+			AttributeSet attributeSet = data.getAttributeSet();
+			features = new int[attributes.size()];
+			binOffsets = new int[attributes.size() + 1];
+			for (int f = 0; f < features.length; f++) {
+				features[f] = attributeSet.getAttributeIndex(attributes.get(f));
+				binOffsets[f + 1] = binOffsets[f] + data.getNumValues(features[f]);
+			}
+			numBins = binOffsets[features.length];
+
+			rows = new int[numRows];
+			buffer = new int[numRows];
+			scores = new double[numRows * numOutputs];
+			gradients = new double[numRows];
+			hessians = new double[numRows];
+			executor = Executors.newFixedThreadPool(this.numThreads);
+		}
+
+		// Learn numRounds rounds of trees and store them in the model.
+		void train(int numRounds) throws DecisionTreeException {
+			model.initialScores = initialScores();
+			for (int r = 0; r < numRows; r++)
+				System.arraycopy(model.initialScores, 0, scores, r * numOutputs, numOutputs);
+
+			RegressionTree[] trees = new RegressionTree[numRounds * numOutputs];
+			double[] probabilities = new double[numRows * numOutputs];
+			int[] nodes = new int[BATCH_SIZE];
+			int[] codes = new int[BATCH_SIZE];
+			for (int round = 0; round < numRounds; round++) {
+				computeProbabilities(probabilities);
+				for (int k = 0; k < numOutputs; k++) {
+					computeGradients(probabilities, k);
+					RegressionTree tree = growTree();
+					for (int from = 0; from < numRows; from += BATCH_SIZE)
+						tree.addOutputs(data, from, Math.min(numRows, from + BATCH_SIZE), scores, from, numOutputs,
+								k, nodes, codes);
+					trees[round * numOutputs + k] = tree;
+				}
+				if (VERBOSE)
+					System.out.println("finished boosting round " + round);
+			}
+			model.trees = trees;
+		}
+
+		// The log-odds (two classes) or log-frequency (more classes) of each
+		// class in the training data.
+		private double[] initialScores() {
+			int numClasses = data.getNumClasses();
+			double[] counts = new double[numClasses];
+			for (int r = 0; r < numRows; r++)
+				counts[data.getClassCode(r)]++;
+			double[] initial = new double[numOutputs];
+			if (numOutputs == 1) {
+				initial[0] = Math.log((counts[1] + 1) / (counts[0] + 1));
+			} else {
+				for (int k = 0; k < numOutputs; k++)
+					initial[k] = Math.log((counts[k] + 1) / (numRows + numClasses));
+			}
+			return initial;
+		}
+
+		// Convert the current scores into class probabilities: the logistic
+		// function of the score for two classes, otherwise the softmax.
+		private void computeProbabilities(double[] probabilities) {
+			if (numOutputs == 1) {
+				for (int r = 0; r < numRows; r++)
+					probabilities[r] = 1.0 / (1.0 + Math.exp(-scores[r]));
+				return;
+			}
+			for (int r = 0; r < numRows; r++) {
+				int offset = r * numOutputs;
+				double max = scores[offset];
+				for (int k = 1; k < numOutputs; k++)
+					max = Math.max(max, scores[offset + k]);
+				double sum = 0.0;
+				for (int k = 0; k < numOutputs; k++) {
+					probabilities[offset + k] = Math.exp(scores[offset + k] - max);
+					sum += probabilities[offset + k];
+				}
+				for (int k = 0; k < numOutputs; k++)
+					probabilities[offset + k] /= sum;
+			}
+		}
+
+		// Compute the gradient and hessian of the loss with respect to the
+		// score of output k, for every row.
+		private void computeGradients(double[] probabilities, int k) {
+			int positiveClass = numOutputs == 1 ? 1 : k;
+			for (int r = 0; r < numRows; r++) {
+				double p = probabilities[r * numOutputs + k];
+				double y = data.getClassCode(r) == positiveClass ? 1.0 : 0.0;
+				gradients[r] = p - y;
+				hessians[r] = Math.max(p * (1.0 - p), 1e-16);
+			}
+		}
+
+		// Grow one regression tree fitting the current gradients.
+		private RegressionTree growTree() throws DecisionTreeException {
+			RegressionTree tree = new RegressionTree((1 << (maxDepth + 1)) - 1);
+			for (int r = 0; r < numRows; r++)
+				rows[r] = r;
+			grow(tree, tree.addNode(0), 0, numRows, accumulate(0, numRows), 0);
+			return tree;
+		}
+
+		// Grow the subtree rooted at the given node from rows[from..to), whose
+		// histogram is already known.
+		private void grow(RegressionTree tree, int node, int from, int to, Histogram histogram, int depth)
+				throws DecisionTreeException {
+			int[] split = depth < maxDepth ? findSplit(histogram) : null;
+			if (split == null) {
+				double output = -learningRate * histogram.totalGradient
+						/ (histogram.totalHessian + L2_REGULARIZATION);
+				tree.makeLeaf(node, output);
+				return;
+			}
+			int attributeIndex = features[split[0]];
+			int threshold = split[1];
+			int middle = partition(from, to, attributeIndex, threshold);
+
+			// Accumulate the smaller child and subtract it from the parent to
+			// get the larger one
+			Histogram left, right;
+			if (middle - from <= to - middle) {
+				left = accumulate(from, middle);
+				right = histogram.minus(left);
+			} else {
+				right = accumulate(middle, to);
+				left = histogram.minus(right);
+			}
+			int leftChild = tree.addNode(depth + 1);
+			int rightChild = tree.addNode(depth + 1);
+			tree.makeSplit(node, attributeIndex, threshold, leftChild, rightChild);
+			grow(tree, leftChild, from, middle, left, depth + 1);
+			grow(tree, rightChild, middle, to, right, depth + 1);
+		}
+
+		// Return {feature, threshold} for the split of largest gain, or null if
+		// no split has positive gain and leaves large enough children.
+		private int[] findSplit(Histogram histogram) {
+			double totalGradient = histogram.totalGradient;
+			double totalHessian = histogram.totalHessian;
+			int totalCount = histogram.totalCount;
+			if (totalCount < 2 * MIN_LEAF_ROWS)
+				return null;
+			double parentScore = totalGradient * totalGradient / (totalHessian + L2_REGULARIZATION);
+			double bestGain = 0.0;
+			int[] best = null;
+			for (int f = 0; f < features.length; f++) {
+				double leftGradient = 0.0;
+				double leftHessian = 0.0;
+				int leftCount = 0;
+				for (int bin = binOffsets[f]; bin < binOffsets[f + 1] - 1; bin++) {
+					leftGradient += histogram.gradients[bin];
+					leftHessian += histogram.hessians[bin];
+					leftCount += histogram.counts[bin];
+					int rightCount = totalCount - leftCount;
+					if (leftCount < MIN_LEAF_ROWS)
+						continue;
+					if (rightCount < MIN_LEAF_ROWS)
+						break;
+					double rightGradient = totalGradient - leftGradient;
+					double rightHessian = totalHessian - leftHessian;
+					if (leftHessian < MIN_LEAF_HESSIAN || rightHessian < MIN_LEAF_HESSIAN)
+						continue;
+					double gain = leftGradient * leftGradient / (leftHessian + L2_REGULARIZATION)
+							+ rightGradient * rightGradient / (rightHessian + L2_REGULARIZATION) - parentScore;
+					if (gain > bestGain) {
+						bestGain = gain;
+						best = new int[] { f, bin - binOffsets[f] };
+					}
+				}
+			}
+			return best;
+		}
+
+		// Stably reorder rows[from..to) so that rows whose value index is at
+		// most the threshold come first; return the start of the others.
+		private int partition(int from, int to, int attributeIndex, int threshold) {
+			int left = from;
+			int right = 0;
+			for (int i = from; i < to; i++) {
+				int r = rows[i];
+				if (data.getCode(r, attributeIndex) <= threshold)
+					rows[left++] = r;
+				else
+					buffer[right++] = r;
+			}
+			System.arraycopy(buffer, 0, rows, left, right);
+			return left;
+		}
+
+		// Accumulate the histogram of rows[from..to), dividing the features
+		// among the worker threads when the node is large.
+		private Histogram accumulate(final int from, final int to) throws DecisionTreeException {
+			final Histogram histogram = new Histogram(numBins);
+			if (numThreads == 1 || to - from < MIN_PARALLEL_ROWS) {
+				accumulateFeatures(histogram, from, to, 0, features.length);
+			} else {
+				List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+				int numGroups = Math.min(numThreads, features.length);
+				for (int g = 0; g < numGroups; g++) {
+					final int firstFeature = g * features.length / numGroups;
+					final int lastFeature = (g + 1) * features.length / numGroups;
+					tasks.add(new Callable<Void>() {
+						public Void call() {
+							accumulateFeatures(histogram, from, to, firstFeature, lastFeature);
+							return null;
+						}
+					});
+				}
+				ParallelTasks.invokeAll(executor, tasks);
+			}
+			// Every row falls in exactly one bin of the first feature
+			for (int bin = binOffsets[0]; bin < binOffsets[1]; bin++) {
+				histogram.totalGradient += histogram.gradients[bin];
+				histogram.totalHessian += histogram.hessians[bin];
+				histogram.totalCount += histogram.counts[bin];
+			}
+			return histogram;
+		}
+
+		// Accumulate the bins of features firstFeature..lastFeature-1 over
+		// rows[from..to). Different calls touch disjoint bins.
+		private void accumulateFeatures(Histogram histogram, int from, int to, int firstFeature, int lastFeature) {
+			for (int f = firstFeature; f < lastFeature; f++) {
+				int attributeIndex = features[f];
+				int offset = binOffsets[f];
+				for (int i = from; i < to; i++) {
+					int r = rows[i];
+					int bin = offset + data.getCode(r, attributeIndex);
+					histogram.gradients[bin] += gradients[r];
+					histogram.hessians[bin] += hessians[r];
+					histogram.counts[bin]++;
+				}
+			}
+		}
+	}
+
+	/*
+	 * The sums of gradients, hessians and row counts for every bin of every
+	 * candidate attribute, over the rows of one node.
+	 */
+	private static class Histogram {
+		double[] gradients;
+		double[] hessians;
+		int[] counts;
+		double totalGradient;
+		double totalHessian;
+		int totalCount;
+
+		Histogram(int numBins) {
+			gradients = new double[numBins];
+			hessians = new double[numBins];
+			counts = new int[numBins];
+		}
+
+		// Return this histogram with the given one (of a subset of the rows)
+		// subtracted.
+		Histogram minus(Histogram other) {
+			Histogram difference = new Histogram(counts.length);
+			for (int bin = 0; bin < counts.length; bin++) {
+				difference.gradients[bin] = gradients[bin] - other.gradients[bin];
+				difference.hessians[bin] = hessians[bin] - other.hessians[bin];
+				difference.counts[bin] = counts[bin] - other.counts[bin];
+			}
+			difference.totalGradient = totalGradient - other.totalGradient;
+			difference.totalHessian = totalHessian - other.totalHessian;
+			difference.totalCount = totalCount - other.totalCount;
+			return difference;
+		}
+	}
+
+	/**
+	 * Learns gradient boosted trees from a training set with a quarter, half
+	 * and all of the given number of rounds, and prints the error rates on the
+	 * training and test sets. Every row's scores are updated by every tree, so
+	 * more rounds should never leave the training error higher; if they do,
+	 * an exception is thrown. Also checks that each test instance is decided
+	 * as its encoded row is, and that an instance with undeclared values is
+	 * rejected.
+	 *
+	 * @param arguments Optionally, the names of the training and test .arff
+	 *                  files, followed by the number of rounds and the number of
+	 *                  threads. The MAGIC data set is used by default.
+	 * @throws DecisionTreeException if the training error rises with more
+	 *                               rounds, or a check fails
+	 * @throws FileNotFoundException
+	 * @throws IOException
+	 */
+	public static void main(String[] arguments) throws DecisionTreeException, FileNotFoundException, IOException {
+		String trainingFile = arguments.length > 1 ? arguments[0] : "data/MAGIC_DataSet_Training.arff";
+		String testFile = arguments.length > 1 ? arguments[1] : "data/MAGIC_DataSet_Test.arff";
+		int numRounds = arguments.length > 2 ? Integer.parseInt(arguments[2]) : 100;
+		int numThreads = arguments.length > 3 ? Integer.parseInt(arguments[3])
+				: Runtime.getRuntime().availableProcessors();
+
+		InstanceSet trainingSet = new InstanceSet(trainingFile);
+		InstanceSet testSet = new InstanceSet(testFile);
+		AttributeSet attributeSet = trainingSet.getAttributeSet();
+		ArrayList<Attribute> attributes = DecisionTree.removeClassAttribute(attributeSet,
+				attributeSet.getAttributes());
+		EncodedInstanceSet encodedTrainingSet = new EncodedInstanceSet(trainingSet);
+		EncodedInstanceSet encodedTestSet = new EncodedInstanceSet(testSet);
+
+		double previousError = 1.0;
+		for (int rounds : new int[] { Math.max(1, numRounds / 4), Math.max(1, numRounds / 2), numRounds }) {
+			long start = System.currentTimeMillis();
+			GradientBoostedTrees model = GradientBoostedTrees.constructGradientBoostedTrees(encodedTrainingSet,
+					attributes, rounds, 4, 0.1, numThreads);
+			long elapsed = System.currentTimeMillis() - start;
+
+			double trainingError = model.computeErrorRate(encodedTrainingSet);
+			System.out.println();
+			System.out.println("Learned " + model.getNumTrees() + " trees in " + elapsed + " ms");
+			System.out.println("Error rate on training set: " + trainingError);
+			System.out.println("Error rate on testing set: " + model.computeErrorRate(encodedTestSet));
+			if (trainingError > previousError)
+				throw new DecisionTreeException("training error rose from " + previousError + " to "
+						+ trainingError + " with " + rounds + " rounds");
+			previousError = trainingError;
+
+			// Every instance decides as its encoded row does, and one with an
+			// undeclared value is rejected
+			String[] decisions = model.decideAll(encodedTestSet);
+			for (int r = 0; r < testSet.getNumInstances(); r++) {
+				Instance instance = testSet.getInstances().get(r);
+				if (!model.decide(attributeSet, instance).equals(decisions[r]))
+					throw new DecisionTreeException("instance " + r + " decided differently from its row");
+			}
+			String[] values = testSet.getInstances().get(0).getValues().clone();
+			for (int a = 0; a < values.length; a++) {
+				if (a != attributeSet.getClassAttributeIndex())
+					values[a] = "unknown";
+			}
+			String message = null;
+			try {
+				model.decide(attributeSet, new Instance(values));
+			} catch (DecisionTreeException e) {
+				message = e.getMessage();
+			}
+			if (message == null)
+				throw new DecisionTreeException("an instance with undeclared values was decided");
+			System.out.println("Rejected an instance: " + message);
+		}
+		System.out.println();
+	}
+}
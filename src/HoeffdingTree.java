@@ -0,0 +1,331 @@
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * A HoeffdingTree is a decision tree that is learned incrementally from a
+ * stream of instances, following Domingos and Hulten, "Mining High-Speed Data
+ * Streams" (KDD 2000). Instead of being constructed from a complete
+ * InstanceSet, the tree starts as a single leaf and is updated by
+ * <code>learn</code>, one instance or one mini-batch at a time. Each leaf
+ * keeps a ContingencyTable of value/classification counts for every attribute
+ * it could still split on. Once a leaf has seen enough instances that the
+ * Hoeffding bound guarantees (with probability 1 - delta) that the attribute
+ * with the highest information gain would also win on infinitely many
+ * instances, the leaf is replaced by an internal node on that attribute.
+ *
+ * Instances are never stored, so the memory used by a leaf depends only on
+ * the number of attributes and values, not on the length of the stream. A
+ * HoeffdingTree is not safe for concurrent use; use
+ * <code>toDecisionTree</code> to obtain a snapshot for scoring elsewhere.
+ *
+ * @author jmac
+ */
+public class HoeffdingTree {
+	/**
+	 * The default probability that a split is chosen wrongly.
+	 */
+	public static final double DEFAULT_DELTA = 1e-7;
+
+	/**
+	 * The default difference in information gain below which the two best
+	 * attributes are considered tied.
+	 */
+	public static final double DEFAULT_TIE_THRESHOLD = 0.05;
+
+	/**
+	 * The default number of instances a leaf must see between split attempts.
+	 */
+	public static final int DEFAULT_GRACE_PERIOD = 200;
+
+	public static final boolean VERBOSE = false;
+
+	// The attributes of the instances in the stream
+	private AttributeSet attributeSet;
+	private Attribute classAttribute;
+	private int classAttributeIndex;
+
+	private double delta;
+	private double tieThreshold;
+	private int gracePeriod;
+
+	private Node root;
+	private long numInstancesSeen;
+	private int numLeaves;
+
+	/**
+	 * Create a tree consisting of a single empty leaf, using the default
+	 * parameters.
+	 *
+	 * @param attributeSet The attributes of the instances that will be learned.
+	 * @param attributes   A list of attributes on which the tree is permitted to
+	 *                     split.
+	 */
+	public HoeffdingTree(AttributeSet attributeSet, ArrayList<Attribute> attributes) {
+		this(attributeSet, attributes, DEFAULT_DELTA, DEFAULT_TIE_THRESHOLD, DEFAULT_GRACE_PERIOD);
+	}
+
+	/**
+	 * Create a tree consisting of a single empty leaf.
+	 *
+	 * @param attributeSet The attributes of the instances that will be learned.
+	 * @param attributes   A list of attributes on which the tree is permitted to
+	 *                     split.
+	 * @param delta        The probability that a split is chosen wrongly.
+	 * @param tieThreshold The difference in information gain below which the
+	 *                     two best attributes are considered tied, so that the
+	 *                     leaf splits on the best one anyway.
+	 * @param gracePeriod  The number of instances a leaf must see between split
+	 *                     attempts.
+	 */
+	public HoeffdingTree(AttributeSet attributeSet, ArrayList<Attribute> attributes, double delta,
+			double tieThreshold, int gracePeriod) {
+		this.attributeSet = attributeSet;
+		this.delta = delta;
+		this.tieThreshold = tieThreshold;
+		this.gracePeriod = gracePeriod;
+		classAttribute = attributeSet.getClassAttribute();
+		classAttributeIndex = attributeSet.getClassAttributeIndex();
+		root = new Node(attributes, new int[classAttribute.getNumValues()], 0);
+		numLeaves = 1;
+	}
+
+	/**
+	 * Update the tree with one labelled instance.
+	 *
+	 * @param instance An instance using the tree's attribute set.
+	 * @throws DecisionTreeException if the instance takes a value that its
+	 *                               attribute does not declare
+	 */
+	public void learn(Instance instance) throws DecisionTreeException {
+		String[] values = instance.getValues();
+		int classCode = encode(classAttribute, values[classAttributeIndex]);
+		Node leaf = root;
+		while (leaf.splitAttribute != null)
+			leaf = leaf.children[encode(leaf.splitAttribute, values[leaf.splitAttributeIndex])];
+
+		leaf.classCounts[classCode]++;
+		if (leaf.tables == null)
+			leaf.allocateTables();
+		for (int i = 0; i < leaf.attributes.size(); i++)
+			leaf.tables[i].add(encode(leaf.attributes.get(i), values[leaf.attributeIndices[i]]), classCode, 1);
+		numInstancesSeen++;
+		if (++leaf.seenSinceLastAttempt >= gracePeriod) {
+			leaf.seenSinceLastAttempt = 0;
+			attemptSplit(leaf);
+		}
+	}
+
+	/**
+	 * Update the tree with a mini-batch of labelled instances, in order.
+	 *
+	 * @param instances Instances using the tree's attribute set.
+	 * @throws DecisionTreeException if an instance takes a value that its
+	 *                               attribute does not declare
+	 */
+	public void learn(List<Instance> instances) throws DecisionTreeException {
+		for (Instance instance : instances)
+			learn(instance);
+	}
+
+	// Split the given leaf if the Hoeffding bound allows it.
+	private void attemptSplit(Node leaf) {
+		if (leaf.attributes.size() == 0 || ContingencyTable.isPure(leaf.classCounts)
+				|| leaf.tables[0].getTotal() == 0)
+			return;
+
+		// Information gain is the reduction in entropy, so the attribute of
+		// highest gain is the one of lowest expected entropy.
+		double[] entropies = new double[leaf.tables.length];
+		for (int i = 0; i < leaf.tables.length; i++)
+			entropies[i] = leaf.tables[i].expectedEntropy();
+		int best = SplitCriterion.choose(entropies);
+		double bestEntropy = entropies[best];
+		double secondEntropy = Double.MAX_VALUE;
+		for (int i = 0; i < leaf.tables.length; i++) {
+			if (i != best)
+				secondEntropy = Math.min(secondEntropy, entropies[i]);
+		}
+		// With a single candidate, compare against not splitting at all
+		if (leaf.tables.length == 1)
+			secondEntropy = ContingencyTable.entropy(leaf.tables[0].getClassTotals(), 0,
+					leaf.classCounts.length, leaf.tables[0].getTotal());
+
+		double range = Math.log(classAttribute.getNumValues()) / Math.log(2);
+		double n = leaf.tables[best].getTotal();
+		double epsilon = Math.sqrt(range * range * Math.log(1.0 / delta) / (2.0 * n));
+		if (secondEntropy - bestEntropy > epsilon || epsilon < tieThreshold) {
+			if (VERBOSE)
+				System.out.println("splitting on " + leaf.attributes.get(best).getName() + " after " + n
+						+ " instances");
+			split(leaf, best);
+		}
+	}
+
+	// Replace the given leaf by an internal node splitting on the i'th of its
+	// attributes. Each new leaf starts from the class counts the old leaf
+	// observed for its value, so it can make sensible decisions at once.
+	private void split(Node leaf, int i) {
+		ContingencyTable table = leaf.tables[i];
+		Attribute splitAttribute = leaf.attributes.get(i);
+		@SuppressWarnings("unchecked")
+		ArrayList<Attribute> childAttributes = (ArrayList<Attribute>) leaf.attributes.clone();
+		childAttributes.remove(splitAttribute);
+
+		int majority = ContingencyTable.indexOfMax(leaf.classCounts);
+		leaf.children = new Node[splitAttribute.getNumValues()];
+		for (int v = 0; v < leaf.children.length; v++) {
+			int[] classCounts = table.getValueTotal(v) > 0 ? table.getClassCounts(v)
+					: new int[classAttribute.getNumValues()];
+			leaf.children[v] = new Node(childAttributes, classCounts, majority);
+		}
+		leaf.splitAttribute = splitAttribute;
+		leaf.splitAttributeIndex = attributeSet.getAttributeIndex(splitAttribute);
+		leaf.attributes = null;
+		leaf.attributeIndices = null;
+		leaf.tables = null;
+		numLeaves += leaf.children.length - 1;
+	}
+
+	/**
+	 * Return the tree's current decision for the given instance.
+	 *
+	 * @param attributes The set of attributes employed by the instance.
+	 * @param instance   The instance to be classified.
+	 * @return The classification of the given instance.
+	 */
+	public String decide(AttributeSet attributes, Instance instance) {
+		String[] values = instance.getValues();
+		Node node = root;
+		while (node.splitAttribute != null) {
+			int code = node.splitAttribute.getValueIndex(values[attributes.getAttributeIndex(node.splitAttribute)]);
+			if (code < 0)
+				break;
+			node = node.children[code];
+		}
+		return classAttribute.getValues()[node.getDecision()];
+	}
+
+	/**
+	 * Copy the current state of the tree into an ordinary DecisionTree, which
+	 * is unaffected by further learning.
+	 *
+	 * @return The root of the copy.
+	 */
+	public DecisionTree toDecisionTree() {
+		return toDecisionTree(root, DecisionTree.ROOT_LABEL, 1);
+	}
+
+	private DecisionTree toDecisionTree(Node node, String label, int depth) {
+		if (node.splitAttribute == null)
+			return new DecisionTreeLeaf(classAttribute.getValues()[node.getDecision()], label, depth);
+		String[] values = node.splitAttribute.getValues();
+		HashMap<String, DecisionTree> children = new HashMap<String, DecisionTree>();
+		for (int v = 0; v < values.length; v++)
+			children.put(values[v], toDecisionTree(node.children[v], values[v], depth + 1));
+		return new DecisionTreeInternal(node.splitAttribute, children, label, depth);
+	}
+
+	/**
+	 * Get the number of instances learned so far.
+	 *
+	 * @return the number of instances
+	 */
+	public long getNumInstancesSeen() {
+		return numInstancesSeen;
+	}
+
+	/**
+	 * Get the number of leaves in the tree.
+	 *
+	 * @return the number of leaves
+	 */
+	public int getNumLeaves() {
+		return numLeaves;
+	}
+
+	private static int encode(Attribute attribute, String value) throws DecisionTreeException {
+		int code = attribute.getValueIndex(value);
+		if (code < 0)
+			throw new DecisionTreeException("unexpected value " + value + " for attribute " + attribute.getName());
+		return code;
+	}
+
+	/*
+	 * A node of a HoeffdingTree. A leaf has a null splitAttribute and keeps
+	 * statistics for every attribute it may split on; an internal node has
+	 * children indexed by the values of its split attribute and keeps no
+	 * statistics.
+	 */
+	private class Node {
+		// Internal nodes only
+		Attribute splitAttribute;
+		int splitAttributeIndex;
+		Node[] children;
+
+		// Leaves only: the attributes this leaf may split on, their indices in
+		// the attribute set, and a table of counts for each. The tables are
+		// allocated when the leaf sees its first instance, since most leaves
+		// created by a split on a many-valued attribute never see one.
+		ArrayList<Attribute> attributes;
+		int[] attributeIndices;
+		ContingencyTable[] tables;
+		int seenSinceLastAttempt;
+
+		// The classifications observed at this node, and the decision to make
+		// if none have been observed
+		int[] classCounts;
+		int defaultDecision;
+
+		Node(ArrayList<Attribute> attributes, int[] classCounts, int defaultDecision) {
+			this.attributes = attributes;
+			this.classCounts = classCounts;
+			this.defaultDecision = defaultDecision;
+		}
+
+		void allocateTables() {
+			attributeIndices = new int[attributes.size()];
+			tables = new ContingencyTable[attributes.size()];
+			for (int i = 0; i < tables.length; i++) {
+				attributeIndices[i] = attributeSet.getAttributeIndex(attributes.get(i));
+				tables[i] = new ContingencyTable(attributes.get(i).getNumValues(), classCounts.length);
+			}
+		}
+
+		int getDecision() {
+			for (int count : classCounts) {
+				if (count > 0)
+					return ContingencyTable.indexOfMax(classCounts);
+			}
+			return defaultDecision;
+		}
+	}
+
+	/**
+	 * Learns a HoeffdingTree from the MAGIC training set in mini-batches,
+	 * printing the error rate on the test set after each batch.
+	 *
+	 * @param arguments Optionally, the mini-batch size.
+	 * @throws DecisionTreeException
+	 * @throws FileNotFoundException
+	 * @throws IOException
+	 */
+	public static void main(String[] arguments) throws DecisionTreeException, FileNotFoundException, IOException {
+		int batchSize = arguments.length > 0 ? Integer.parseInt(arguments[0]) : 1000;
+		InstanceSet trainingSet = new InstanceSet("data/MAGIC_DataSet_Training.arff");
+		InstanceSet testSet = new InstanceSet("data/MAGIC_DataSet_Test.arff");
+		AttributeSet attributeSet = trainingSet.getAttributeSet();
+		ArrayList<Attribute> attributes = DecisionTree.removeClassAttribute(attributeSet,
+				attributeSet.getAttributes());
+
+		HoeffdingTree tree = new HoeffdingTree(attributeSet, attributes);
+		ArrayList<Instance> instances = trainingSet.getInstances();
+		for (int from = 0; from < instances.size(); from += batchSize) {
+			tree.learn(instances.subList(from, Math.min(instances.size(), from + batchSize)));
+			System.out.println("After " + tree.getNumInstancesSeen() + " instances (" + tree.getNumLeaves()
+					+ " leaves): error rate on testing set " + tree.toDecisionTree().computeErrorRate(testSet));
+		}
+	}
+}
@@ -0,0 +1,216 @@
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A HyperparameterSweep learns a decision tree for every combination of a grid
+ * of bucket counts, maximum depths, minimum leaf sizes and split criteria, and
+ * reports each tree's error rate on a test set. Configurations are evaluated
+ * in parallel.
+ *
+ * Two kinds of work are shared between configurations, and between calls to
+ * <code>run</code>. The training and test files are read, discretized and
+ * encoded once per bucket count. And every configuration with the same bucket
+ * count learns from the same rows, so the contingency tables computed at each
+ * node are shared through one SplitStatisticsCache per bucket count:
+ * configurations that differ only in their stopping criteria grow the same
+ * upper levels, and only the first to reach a node counts its rows. Each
+ * cache holds a bounded number of table cells (see
+ * <code>setMaxCachedCells</code>), evicting the least recently used tables,
+ * so a long sweep does not keep every node's tables.
+ *
+ * @author jmac
+ */
+public class HyperparameterSweep {
+	private String trainingFilename;
+	private String testFilename;
+	private int numThreads;
+
+	// Key is a bucket count, value is the encoded training and test sets
+	private ConcurrentHashMap<Integer, EncodedInstanceSet[]> discretizations = new ConcurrentHashMap<Integer, EncodedInstanceSet[]>();
+
+	// Key is a bucket count, value is the tables computed from its training set
+	private ConcurrentHashMap<Integer, SplitStatisticsCache> statistics = new ConcurrentHashMap<Integer, SplitStatisticsCache>();
+	private long maxCachedCells = SplitStatisticsCache.DEFAULT_MAX_CELLS;
+
+	/**
+	 * Create a sweep over the given training and test files.
+	 *
+	 * @param trainingFilename the name of the .arff file to learn from
+	 * @param testFilename     the name of the .arff file to compute error rates
+	 *                         on
+	 * @param numThreads       the number of configurations evaluated at once
+	 */
+	public HyperparameterSweep(String trainingFilename, String testFilename, int numThreads) {
+		this.trainingFilename = trainingFilename;
+		this.testFilename = testFilename;
+		this.numThreads = numThreads;
+	}
+
+	/**
+	 * Set the capacity of the cache of contingency tables created for each
+	 * bucket count from now on.
+	 *
+	 * @param maxCells the largest number of table cells each cache holds; by
+	 *                 default <code>SplitStatisticsCache.DEFAULT_MAX_CELLS</code>
+	 */
+	public void setMaxCachedCells(long maxCells) {
+		maxCachedCells = maxCells;
+	}
+
+	/**
+	 * Learn and evaluate a tree for every combination of the given values.
+	 *
+	 * @param bucketCounts The numbers of buckets into which numeric attributes
+	 *                     are divided.
+	 * @param maxDepths    The maximum depths; use Integer.MAX_VALUE for no
+	 *                     limit.
+	 * @param minLeafSizes The minimum numbers of examples in a node that is
+	 *                     split.
+	 * @return The results, ordered from lowest to highest error rate.
+	 * @throws DecisionTreeException
+	 */
+	public ArrayList<SweepResult> run(int[] bucketCounts, final int[] maxDepths, final int[] minLeafSizes)
+			throws DecisionTreeException {
+		return run(bucketCounts, maxDepths, minLeafSizes, new SplitCriterion[] { SplitCriterion.ENTROPY });
+	}
+
+	/**
+	 * Learn and evaluate a tree for every combination of the given values.
+	 *
+	 * @param bucketCounts The numbers of buckets into which numeric attributes
+	 *                     are divided.
+	 * @param maxDepths    The maximum depths; use Integer.MAX_VALUE for no
+	 *                     limit.
+	 * @param minLeafSizes The minimum numbers of examples in a node that is
+	 *                     split.
+	 * @param criteria     The criteria by which split attributes are chosen.
+	 * @return The results, ordered from lowest to highest error rate.
+	 * @throws DecisionTreeException
+	 */
+	public ArrayList<SweepResult> run(int[] bucketCounts, final int[] maxDepths, final int[] minLeafSizes,
+			SplitCriterion[] criteria) throws DecisionTreeException {
+		// Read any discretizations that are not cached yet
+		List<Callable<Void>> loads = new ArrayList<Callable<Void>>();
+		for (final int numBuckets : bucketCounts) {
+			if (discretizations.containsKey(numBuckets))
+				continue;
+			loads.add(new Callable<Void>() {
+				public Void call() throws DecisionTreeException, IOException {
+					EncodedInstanceSet[] sets = new EncodedInstanceSet[] {
+							new EncodedInstanceSet(new InstanceSet(trainingFilename, numBuckets)),
+							new EncodedInstanceSet(new InstanceSet(testFilename, numBuckets)) };
+					discretizations.put(numBuckets, sets);
+					statistics.put(numBuckets, new SplitStatisticsCache(maxCachedCells));
+					return null;
+				}
+			});
+		}
+		ParallelTasks.invokeAll(loads, numThreads);
+
+		List<Callable<SweepResult>> tasks = new ArrayList<Callable<SweepResult>>();
+		for (final int numBuckets : bucketCounts) {
+			for (final int maxDepth : maxDepths) {
+				for (final int minLeafSize : minLeafSizes) {
+					for (final SplitCriterion criterion : criteria) {
+						tasks.add(new Callable<SweepResult>() {
+							public SweepResult call() throws DecisionTreeException {
+								return evaluate(numBuckets, maxDepth, minLeafSize, criterion);
+							}
+						});
+					}
+				}
+			}
+		}
+		ArrayList<SweepResult> results = new ArrayList<SweepResult>(ParallelTasks.invokeAll(tasks, numThreads));
+		Collections.sort(results, new Comparator<SweepResult>() {
+			public int compare(SweepResult a, SweepResult b) {
+				return Double.compare(a.getErrorRate(), b.getErrorRate());
+			}
+		});
+		return results;
+	}
+
+	// Learn and evaluate a tree for one configuration.
+	private SweepResult evaluate(int numBuckets, int maxDepth, int minLeafSize, SplitCriterion criterion)
+			throws DecisionTreeException {
+		EncodedInstanceSet trainingSet = discretizations.get(numBuckets)[0];
+		EncodedInstanceSet testSet = discretizations.get(numBuckets)[1];
+		AttributeSet attributeSet = trainingSet.getAttributeSet();
+		ArrayList<Attribute> attributes = DecisionTree.removeClassAttribute(attributeSet,
+				attributeSet.getAttributes());
+
+		long start = System.currentTimeMillis();
+		EncodedTreeBuilder builder = new EncodedTreeBuilder(trainingSet, null);
+		builder.setMaxDepth(maxDepth);
+		builder.setMinLeafSize(minLeafSize);
+		builder.setSplitCriterion(criterion);
+		builder.setSplitStatisticsCache(statistics.get(numBuckets));
+		DecisionTree tree = builder.build(attributes);
+		long elapsed = System.currentTimeMillis() - start;
+
+		Attribute classAttribute = attributeSet.getClassAttribute();
+		int num_errors = 0;
+		for (int r = 0; r < testSet.getNumRows(); r++) {
+			if (classAttribute.getValueIndex(tree.decide(testSet, r)) != testSet.getClassCode(r))
+				num_errors++;
+		}
+		return new SweepResult(numBuckets, maxDepth, minLeafSize, criterion,
+				(double) num_errors / testSet.getNumRows(), elapsed);
+	}
+
+	/**
+	 * Get the cache of contingency tables shared by configurations with the
+	 * given bucket count.
+	 *
+	 * @param numBuckets the bucket count
+	 * @return the cache, or null if no configuration with this bucket count has
+	 *         been run
+	 */
+	public SplitStatisticsCache getSplitStatisticsCache(int numBuckets) {
+		return statistics.get(numBuckets);
+	}
+
+	/**
+	 * Sweeps a grid of configurations on the MAGIC data set and prints the
+	 * results, best first.
+	 *
+	 * @param arguments Optionally, the names of the training and test .arff
+	 *                  files, followed by the number of table cells each
+	 *                  cache may hold.
+	 * @throws DecisionTreeException
+	 * @throws FileNotFoundException
+	 * @throws IOException
+	 */
+	public static void main(String[] arguments) throws DecisionTreeException, FileNotFoundException, IOException {
+		String trainingFile = arguments.length > 1 ? arguments[0] : "data/MAGIC_DataSet_Training.arff";
+		String testFile = arguments.length > 1 ? arguments[1] : "data/MAGIC_DataSet_Test.arff";
+		int[] bucketCounts = { 10, 30, 100, InstanceSet.NUM_BUCKETS };
+		int[] maxDepths = { 1, 2, 3, 4, Integer.MAX_VALUE };
+		int[] minLeafSizes = { 1, 5, 20, 50 };
+
+		HyperparameterSweep sweep = new HyperparameterSweep(trainingFile, testFile,
+				Runtime.getRuntime().availableProcessors());
+		if (arguments.length > 2)
+			sweep.setMaxCachedCells(Long.parseLong(arguments[2]));
+		long start = System.currentTimeMillis();
+		ArrayList<SweepResult> results = sweep.run(bucketCounts, maxDepths, minLeafSizes, SplitCriterion.values());
+		long elapsed = System.currentTimeMillis() - start;
+
+		for (SweepResult result : results)
+			result.print();
+		System.out.println();
+		System.out.println(results.size() + " configurations in " + elapsed + " ms");
+		for (int numBuckets : bucketCounts) {
+			SplitStatisticsCache cache = sweep.getSplitStatisticsCache(numBuckets);
+			System.out.println(numBuckets + " buckets: " + cache.size() + " tables (" + cache.getNumCells()
+					+ " cells) cached, " + cache.getHits() + " hits, " + cache.getMisses() + " misses, "
+					+ cache.getEvictions() + " evictions");
+		}
+	}
+}
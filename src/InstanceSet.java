@@ -27,6 +27,9 @@ public class InstanceSet {
 
 	public static final int NUM_BUCKETS = 300;
 
+	// The number of buckets into which each numeric attribute is divided
+	private int numBuckets = NUM_BUCKETS;
+
 	/**
 	 * 
 	 */
@@ -55,6 +58,21 @@ public class InstanceSet {
 		parseInputFile(inputFilename);
 	}
 
+	/**
+	 * Construct an InstanceSet by reading a .arff file with the given filename,
+	 * dividing each numeric attribute into the given number of buckets instead
+	 * of <code>NUM_BUCKETS</code>.
+	 * 
+	 * @param inputFilename name of the file to read
+	 * @param numBuckets    the number of buckets for each numeric attribute
+	 * @throws DecisionTreeException
+	 * @throws IOException
+	 */
+	public InstanceSet(String inputFilename, int numBuckets) throws DecisionTreeException, IOException {
+		this.numBuckets = numBuckets;
+		parseInputFile(inputFilename);
+	}
+
 	/**
 	 * Construct an InstanceSet from a list of instances
 	 * 
@@ -76,21 +94,44 @@ public class InstanceSet {
 		}
 	}
 
-	private void parseInputFile(String inputFilename) throws DecisionTreeException, IOException {
-		BufferedReader reader = new BufferedReader(new FileReader(inputFilename));
+	/**
+	 * Read the preamble of a .arff file, up to and including the @data line,
+	 * into an InstanceSet with no instances. Numeric attributes are given the
+	 * given number of buckets, and are ordered.
+	 * 
+	 * @param reader     the file, positioned at its start; afterwards it is
+	 *                   positioned at the first line of data
+	 * @param numBuckets the number of buckets for each numeric attribute
+	 * @return an InstanceSet holding only the attributes
+	 * @throws DecisionTreeException
+	 * @throws IOException
+	 */
+	static InstanceSet readPreamble(BufferedReader reader, int numBuckets) throws DecisionTreeException, IOException {
+		InstanceSet preamble = new InstanceSet(new AttributeSet(), new ArrayList<Instance>());
+		preamble.numBuckets = numBuckets;
+		preamble.parsePreamble(reader);
+		return preamble;
+	}
+
+	private void parsePreamble(BufferedReader reader) throws DecisionTreeException, IOException {
 		String line = reader.readLine().toLowerCase();
-		line = line.toLowerCase();
 		while (!parsePreambleLine(line)) {
 			line = reader.readLine();
 			line = line.toLowerCase();
 		}
 		attributeSet.setDefaultClassAttribute();
+	}
+
+	private void parseInputFile(String inputFilename) throws DecisionTreeException, IOException {
+		BufferedReader reader = new BufferedReader(new FileReader(inputFilename));
+		parsePreamble(reader);
 
 		// Now parse the data
 		ArrayList<String> lines = new ArrayList<String>();
-		line = reader.readLine();
+		String line = reader.readLine();
 		while (line.isEmpty())
 			line = reader.readLine().toLowerCase();
+		line = expandSparseLine(line.toLowerCase());
 
 		// Initialization of global variables
 		mostCommonDataValues = new String[line.split("[,\\s]+").length];
@@ -99,7 +140,7 @@ public class InstanceSet {
 		}
 
 		while (!line.trim().equals("%")) {
-			line = line.toLowerCase();
+			line = expandSparseLine(line.toLowerCase());
 			lines.add(line);
 			line = reader.readLine();
 			if (line == null)
@@ -145,13 +186,13 @@ public class InstanceSet {
 	 */
 	private String assignBucket(double val, int numericIndex) {
 		ArrayList<Double> arr = numericData.get(numericIndex);
-		int i = (arr.size()) / NUM_BUCKETS;
-		for (int j = 1; j < NUM_BUCKETS; j++) {
+		int i = (arr.size()) / numBuckets;
+		for (int j = 1; j < numBuckets; j++) {
 			if (val < arr.get(i * j)) {
 				return String.valueOf(j);
 			}
 		}
-		return String.valueOf(NUM_BUCKETS);
+		return String.valueOf(numBuckets);
 	}
 
 	private boolean shouldIgnoreLine(String line) {
@@ -212,12 +253,12 @@ public class InstanceSet {
 			Attribute attribute = new Attribute(attribute_name, values);
 			this.attributeSet.addAttribute(attribute);
 		} else {
-			String[] values = new String[NUM_BUCKETS];
-			for (int i = 0; i < NUM_BUCKETS; i++) {
+			String[] values = new String[numBuckets];
+			for (int i = 0; i < numBuckets; i++) {
 				values[i] = String.valueOf(i + 1);
 			}
 
-			Attribute attribute = new Attribute(attribute_name, values);
+			Attribute attribute = new Attribute(attribute_name, values, true);
 			this.attributeSet.addAttribute(attribute);
 			numericIndexes.add(attributeSet.getAttributeIndex(attribute));
 
@@ -225,6 +266,45 @@ public class InstanceSet {
 
 	}
 
+	/**
+	 * Rewrite a line of sparse .arff data, such as "{1 x, 3 y}", as a dense,
+	 * comma-separated line. Each attribute missing from a sparse line takes its
+	 * default: 0 for a numeric attribute, and the first listed value for a
+	 * nominal one. Other lines are returned unchanged. SparseInstanceSet reads
+	 * sparse data without expanding it.
+	 * 
+	 * @param line a line of data
+	 * @return the dense line
+	 * @throws DecisionTreeException if a sparse entry is malformed
+	 */
+	private String expandSparseLine(String line) throws DecisionTreeException {
+		String trimmed = line.trim();
+		if (!trimmed.startsWith("{"))
+			return line;
+		ArrayList<Attribute> attributes = attributeSet.getAttributes();
+		String[] values = new String[attributes.size()];
+		for (int a = 0; a < values.length; a++)
+			values[a] = attributes.get(a).isOrdered() ? "0" : attributes.get(a).getValues()[0];
+		String body = trimmed.substring(1, trimmed.endsWith("}") ? trimmed.length() - 1 : trimmed.length());
+		for (String entry : body.split(",")) {
+			String[] pair = entry.trim().split("\\s+");
+			if (pair.length == 1 && pair[0].isEmpty())
+				continue;
+			try {
+				values[Integer.parseInt(pair[0])] = pair[1];
+			} catch (RuntimeException e) {
+				throw new DecisionTreeException("malformed sparse entry \"" + entry.trim() + "\" in line: " + line);
+			}
+		}
+		StringBuilder builder = new StringBuilder();
+		for (int a = 0; a < values.length; a++) {
+			if (a > 0)
+				builder.append(',');
+			builder.append(values[a]);
+		}
+		return builder.toString();
+	}
+
 	private void parseDataLine(String line) {
 		if (shouldIgnoreLine(line))
 			return;
@@ -283,6 +363,43 @@ public class InstanceSet {
 		return instances.size();
 	}
 
+	/**
+	 * Get the boundaries between the buckets of a numeric attribute, as used to
+	 * discretize it when this set was read. A value falls in the bucket whose
+	 * index (in the attribute's list of values) is the number of boundaries
+	 * less than or equal to it, so other data can be discretized exactly as
+	 * this set was.
+	 * 
+	 * @param attributeIndex the index of the attribute
+	 * @return an ascending array of <code>numBuckets - 1</code> boundaries, or
+	 *         null if the attribute is not numeric or this set was not read
+	 *         from a file
+	 */
+	public double[] getBucketBoundaries(int attributeIndex) {
+		ArrayList<Double> arr = numericData.get(attributeIndex);
+		if (arr == null)
+			return null;
+		double[] boundaries = new double[numBuckets - 1];
+		int i = (arr.size()) / numBuckets;
+		for (int j = 1; j < numBuckets; j++)
+			boundaries[j - 1] = arr.get(i * j);
+		return boundaries;
+	}
+
+	/**
+	 * Get the value of an attribute that replaced missing ("?") values when
+	 * this set was read: the most common value in the file, before any
+	 * discretization.
+	 * 
+	 * @param attributeIndex the index of the attribute
+	 * @return the value, or null if this set was not read from a file
+	 */
+	public String getMostCommonValue(int attributeIndex) {
+		if (mostCommonDataValues == null || attributeIndex >= mostCommonDataValues.length)
+			return null;
+		return mostCommonDataValues[attributeIndex];
+	}
+
 	/**
 	 * Checks if line contains missing data
 	 * 
@@ -0,0 +1,208 @@
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Kernels are the innermost loops of training and scoring, written over
+ * plain int arrays so that they can be implemented with SIMD instructions.
+ * Two implementations exist: ScalarKernels, in plain Java, and VectorKernels,
+ * which uses the incubating Vector API (jdk.incubator.vector) to process
+ * several array elements per instruction. <code>getInstance</code> returns
+ * VectorKernels if the jdk.incubator.vector module is available at run time
+ * (<code>java --add-modules jdk.incubator.vector</code>) and ScalarKernels
+ * otherwise, so the same code runs on any JVM.
+ *
+ * Kernels hold no state, and may be used by any number of threads at once.
+ *
+ * The implementations compute the same counts and routes, but
+ * <code>sumXLogX</code> may differ in its last bits, since VectorKernels
+ * takes logarithms and adds lane by lane. The tree builders take costs within
+ * <code>SplitCriterion.TOLERANCE</code> of each other to be tied, so either
+ * implementation learns the same trees.
+ *
+ * @author jmac
+ */
+public abstract class Kernels {
+	// The kernels chosen for this JVM, replaced only while main compares the
+	// trees learned with each implementation
+	private static Kernels instance = chooseInstance();
+
+	/**
+	 * Set this system property to "false" to use ScalarKernels even when the
+	 * Vector API is available.
+	 */
+	public static final String VECTOR_PROPERTY = "decisiontree.vector";
+
+	public static final boolean VERBOSE = false;
+
+	/**
+	 * Get the fastest kernels available in this JVM.
+	 *
+	 * @return the kernels
+	 */
+	public static Kernels getInstance() {
+		return instance;
+	}
+
+	private static Kernels chooseInstance() {
+		if (!Boolean.parseBoolean(System.getProperty(VECTOR_PROPERTY, "true")))
+			return new ScalarKernels();
+		try {
+			// Loading VectorKernels fails if jdk.incubator.vector is missing
+			return (Kernels) Class.forName("VectorKernels").getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException | LinkageError e) {
+			if (VERBOSE)
+				System.out.println("Vector API unavailable, using scalar kernels: " + e);
+			return new ScalarKernels();
+		}
+	}
+
+	/**
+	 * Get a short description of the implementation, for reports.
+	 *
+	 * @return the description
+	 */
+	public abstract String getName();
+
+	/**
+	 * Add a batch of examples to a contingency table's counts: for each i less
+	 * than <code>length</code>, add <code>weights[i]</code> (or 1) to
+	 * <code>counts[codes[i] * numClasses + classCodes[i]]</code>.
+	 *
+	 * @param counts     the counts, indexed by value and classification
+	 * @param numClasses the number of classifications
+	 * @param codes      the examples' values
+	 * @param classCodes the examples' classifications
+	 * @param weights    the examples' weights, or null to count each once
+	 * @param length     the number of examples
+	 */
+	public abstract void accumulate(int[] counts, int numClasses, int[] codes, int[] classCodes, int[] weights,
+			int length);
+
+	/**
+	 * Compute the sum of x ln x over a range of counts, taking 0 ln 0 to be 0.
+	 * Entropies of many distributions at once are differences of such sums
+	 * (see <code>ContingencyTable.expectedEntropy</code>).
+	 *
+	 * @param counts an array of nonnegative counts
+	 * @param offset the index of the first count
+	 * @param length the number of counts
+	 * @return the sum
+	 */
+	public abstract double sumXLogX(int[] counts, int offset, int length);
+
+	/**
+	 * Move a batch of rows one level down a tree of threshold tests: for each
+	 * i less than <code>length</code>, with n = <code>nodes[i]</code>, set
+	 * <code>nodes[i]</code> to <code>leftChildren[n]</code> if
+	 * <code>codes[i] &lt;= thresholds[n]</code> and to
+	 * <code>rightChildren[n]</code> otherwise.
+	 *
+	 * @param codes         each row's value of the attribute its node tests
+	 * @param thresholds    the largest value each node sends left
+	 * @param leftChildren  the left child of each node
+	 * @param rightChildren the right child of each node
+	 * @param nodes         each row's node, replaced by its child
+	 * @param length        the number of rows
+	 */
+	public abstract void route(int[] codes, int[] thresholds, int[] leftChildren, int[] rightChildren, int[] nodes,
+			int length);
+
+	/**
+	 * Times each kernel of the scalar implementation and of the implementation
+	 * chosen by <code>getInstance</code> on random data shaped like the MAGIC
+	 * data set (300 values per attribute, two classes), and checks that both
+	 * compute the same results, the sums of x ln x to within
+	 * <code>SplitCriterion.TOLERANCE</code>. Then learns trees from the
+	 * breast.w and soybean training sets with each implementation, by every
+	 * criterion, and reports the number of nodes at which they differ.
+	 *
+	 * @param arguments Not used.
+	 * @throws DecisionTreeException
+	 * @throws FileNotFoundException
+	 * @throws IOException
+	 */
+	public static void main(String[] arguments) throws DecisionTreeException, FileNotFoundException, IOException {
+		int length = 1 << 16;
+		int numValues = InstanceSet.NUM_BUCKETS;
+		int numClasses = 2;
+		int repetitions = 2000;
+		Random random = new Random(1);
+		int[] codes = new int[length];
+		int[] classCodes = new int[length];
+		for (int i = 0; i < length; i++) {
+			codes[i] = random.nextInt(numValues);
+			classCodes[i] = random.nextInt(numClasses);
+		}
+		int numNodes = 1023;
+		int[] thresholds = new int[numNodes];
+		int[] leftChildren = new int[numNodes];
+		int[] rightChildren = new int[numNodes];
+		for (int n = 0; n < numNodes; n++) {
+			thresholds[n] = random.nextInt(numValues);
+			leftChildren[n] = Math.min(numNodes - 1, 2 * n + 1);
+			rightChildren[n] = Math.min(numNodes - 1, 2 * n + 2);
+		}
+
+		Kernels[] implementations = { new ScalarKernels(), getInstance() };
+		long[][] results = new long[implementations.length][];
+		double[] sums = new double[implementations.length];
+		for (int k = 0; k < implementations.length; k++) {
+			Kernels kernels = implementations[k];
+			int[] counts = new int[numValues * numClasses];
+			long start = System.nanoTime();
+			for (int rep = 0; rep < repetitions; rep++)
+				kernels.accumulate(counts, numClasses, codes, classCodes, null, length);
+			long accumulated = System.nanoTime();
+			double sum = 0;
+			for (int rep = 0; rep < repetitions * 100; rep++)
+				sum += kernels.sumXLogX(counts, 0, counts.length);
+			long summed = System.nanoTime();
+			int[] nodes = new int[length];
+			for (int rep = 0; rep < repetitions; rep++) {
+				if (rep % 10 == 0)
+					Arrays.fill(nodes, 0);
+				kernels.route(codes, thresholds, leftChildren, rightChildren, nodes, length);
+			}
+			long routed = System.nanoTime();
+
+			long nodeSum = 0;
+			for (int node : nodes)
+				nodeSum += node;
+			results[k] = new long[] { counts[0], counts[counts.length - 1], nodeSum };
+			sums[k] = kernels.sumXLogX(counts, 0, counts.length);
+			System.out.println(kernels.getName() + ": accumulate " + (accumulated - start) / 1000000 + " ms, sumXLogX "
+					+ (summed - accumulated) / 1000000 + " ms, route " + (routed - summed) / 1000000 + " ms");
+		}
+		System.out.println("Results agree: " + (Arrays.equals(results[0], results[1])
+				&& SplitCriterion.isTied(sums[1], sums[0]) && SplitCriterion.isTied(sums[0], sums[1]))
+				+ " (sums of x ln x differ by " + Math.abs(sums[1] - sums[0]) + ")");
+
+		String[] files = { "data/breast.w.train.arff", "data/soybean.train.arff" };
+		for (String file : files) {
+			EncodedInstanceSet data = new EncodedInstanceSet(new InstanceSet(file));
+			AttributeSet attributeSet = data.getAttributeSet();
+			ArrayList<Attribute> attributes = DecisionTree.removeClassAttribute(attributeSet,
+					attributeSet.getAttributes());
+			for (SplitCriterion criterion : SplitCriterion.values()) {
+				DecisionTree[] trees = new DecisionTree[implementations.length];
+				Kernels chosen = instance;
+				try {
+					for (int k = 0; k < implementations.length; k++) {
+						instance = implementations[k];
+						EncodedTreeBuilder builder = new EncodedTreeBuilder(data, null);
+						builder.setSplitCriterion(criterion);
+						trees[k] = builder.build(attributes);
+					}
+				} finally {
+					instance = chosen;
+				}
+				System.out.println(file + ", " + criterion + ": differing nodes "
+						+ TreeCompactor.countDifferences(trees[0], trees[1]) + " of "
+						+ TreeCompactor.countNodes(trees[0], false));
+			}
+		}
+	}
+}
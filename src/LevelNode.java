@@ -0,0 +1,234 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * A node of a tree being learned one level at a time, by LevelWiseTreeBuilder
+ * from a column file or by DistributedTreeBuilder from workers' shards. The
+ * builders differ only in how they count the rows reaching the nodes of a
+ * level, which they do through a <code>Counter</code>; deciding which nodes
+ * become leaves, dividing a level into groups whose tables fit in memory,
+ * choosing splits and making the DecisionTree are done here.
+ *
+ * Once its level has been counted, a node either becomes a leaf or an
+ * internal node whose children are nodes of the next level. The DecisionTree
+ * is made from the nodes once every level has been learned, from the leaves
+ * up, since an internal node's children must be known when it is made.
+ *
+ * @author jmac
+ */
+class LevelNode {
+	/**
+	 * Counts the rows reaching some of the nodes of a level in the nodes'
+	 * tables, which have been allocated.
+	 */
+	interface Counter {
+		/**
+		 * @param previous if non-null, the previous level, from whose nodes
+		 *                 every row must first be moved to its node in this
+		 *                 level (or to none, once it has reached a leaf)
+		 * @param level    the nodes of the level
+		 * @param from     the first node to count
+		 * @param to       one past the last node to count; leaves among them
+		 *                 are not counted
+		 * @throws IOException
+		 */
+		void count(ArrayList<LevelNode> previous, ArrayList<LevelNode> level, int from, int to) throws IOException;
+	}
+
+	AttributeSet attributeSet;
+	int[] classCounts;
+	ArrayList<Attribute> attributes;
+	String label;
+	int depth;
+
+	// True once the node has been made a leaf, and then its decision
+	boolean leaf;
+	String decision;
+
+	// The indices of the candidate attributes in the attribute set, and their
+	// tables while the node is being counted
+	int[] attributeIndices;
+	ContingencyTable[] tables;
+
+	// Once split: the attribute split on, and for each of its values the index
+	// of the child in the next level, or -1 if the child is a leaf making the
+	// majority decision; and the children in the next level
+	int splitAttributeIndex = -1;
+	int[] childIds;
+	Attribute splitAttribute;
+	LevelNode[] children;
+
+	public static final boolean VERBOSE = false;
+
+	/**
+	 * Create a node that has not been counted.
+	 *
+	 * @param attributeSet the attributes of the data
+	 * @param classCounts  the number of rows of each classification reaching
+	 *                     the node
+	 * @param attributes   the candidate split attributes
+	 * @param label        the label of the edge leading to the node
+	 * @param depth        the depth of the node, the root's being 1
+	 */
+	LevelNode(AttributeSet attributeSet, int[] classCounts, ArrayList<Attribute> attributes, String label,
+			int depth) {
+		this.attributeSet = attributeSet;
+		this.classCounts = classCounts;
+		this.attributes = attributes;
+		this.label = label;
+		this.depth = depth;
+		attributeIndices = new int[attributes.size()];
+		for (int t = 0; t < attributeIndices.length; t++)
+			attributeIndices[t] = attributeSet.getAttributeIndex(attributes.get(t));
+	}
+
+	/**
+	 * Learn the tree below a root one level at a time.
+	 *
+	 * @param root          the root, with the class counts of every row
+	 * @param maxDepth      nodes at this level (the root being at level 0)
+	 *                      are made leaves
+	 * @param minLeafSize   nodes holding fewer rows than this are made leaves
+	 * @param maxTableCells the maximum number of counts held in the tables of
+	 *                      one call to the counter
+	 * @param criterion     the criterion used to choose split attributes
+	 * @param counter       counts the rows reaching the nodes of each level
+	 * @return the learned tree
+	 * @throws IOException
+	 */
+	static DecisionTree learn(LevelNode root, int maxDepth, int minLeafSize, long maxTableCells,
+			SplitCriterion criterion, Counter counter) throws IOException {
+		ArrayList<LevelNode> level = new ArrayList<LevelNode>();
+		level.add(root);
+		ArrayList<LevelNode> previous = null;
+		while (!level.isEmpty()) {
+			ArrayList<LevelNode> next = learnLevel(previous, level, maxDepth, minLeafSize, maxTableCells, criterion,
+					counter);
+			previous = level;
+			level = next;
+		}
+		return root.toDecisionTree();
+	}
+
+	// Count the rows that reach each node of the given level, split the nodes
+	// that should be split, and return the nodes of the next level. The rows
+	// are still at their nodes in the previous level, which is null for the
+	// root.
+	private static ArrayList<LevelNode> learnLevel(ArrayList<LevelNode> previous, ArrayList<LevelNode> level,
+			int maxDepth, int minLeafSize, long maxTableCells, SplitCriterion criterion, Counter counter)
+			throws IOException {
+		// Nodes that will not be split are finished without counting
+		for (LevelNode node : level) {
+			int[] classCounts = node.classCounts;
+			if (ContingencyTable.isPure(classCounts) || node.attributes.size() == 0 || node.depth - 1 >= maxDepth
+					|| ContingencyTable.total(classCounts) < minLeafSize) {
+				node.makeLeaf(node.attributeSet.getClassAttribute().getValues()[ContingencyTable
+						.indexOfMax(classCounts)]);
+			}
+		}
+
+		// Count and split the remaining nodes in as few calls to the counter as
+		// memory allows. The first call also moves every row from its node in
+		// the previous level to its node in this one.
+		ArrayList<LevelNode> next = new ArrayList<LevelNode>();
+		int from = 0;
+		boolean route = previous != null;
+		while (from < level.size()) {
+			long cells = 0;
+			int to = from;
+			while (to < level.size() && (cells == 0 || cells + level.get(to).numTableCells() <= maxTableCells)) {
+				cells += level.get(to).numTableCells();
+				to++;
+			}
+			if (cells > 0) {
+				for (int n = from; n < to; n++)
+					level.get(n).allocateTables();
+				counter.count(route ? previous : null, level, from, to);
+				route = false;
+				for (int n = from; n < to; n++) {
+					if (!level.get(n).leaf)
+						level.get(n).split(next, criterion);
+				}
+			}
+			from = to;
+		}
+		if (VERBOSE)
+			System.out.println("level of " + level.size() + " nodes, " + next.size() + " nodes in the next level");
+		return next;
+	}
+
+	// The number of counts in the tables of the node, or 0 for a leaf.
+	long numTableCells() {
+		if (leaf)
+			return 0;
+		long cells = 0;
+		for (Attribute attribute : attributes)
+			cells += (long) attribute.getNumValues() * classCounts.length;
+		return cells;
+	}
+
+	void allocateTables() {
+		if (leaf)
+			return;
+		tables = new ContingencyTable[attributes.size()];
+		for (int t = 0; t < tables.length; t++)
+			tables[t] = new ContingencyTable(attributes.get(t).getNumValues(), classCounts.length);
+	}
+
+	void makeLeaf(String decision) {
+		leaf = true;
+		this.decision = decision;
+	}
+
+	// Choose the candidate with the lowest cost, and add the nonempty children
+	// to next.
+	@SuppressWarnings("unchecked")
+	void split(ArrayList<LevelNode> next, SplitCriterion criterion) {
+		double[] costs = new double[tables.length];
+		for (int t = 0; t < tables.length; t++)
+			costs[t] = criterion.cost(tables[t]);
+		int best = SplitCriterion.choose(costs);
+		splitAttribute = attributes.get(best);
+		ContingencyTable splitTable = tables[best];
+		tables = null;
+		if (VERBOSE)
+			System.out.println("split on " + splitAttribute.getName() + ", " + criterion + " " + costs[best]);
+
+		ArrayList<Attribute> childAttributes = (ArrayList<Attribute>) attributes.clone();
+		childAttributes.remove(splitAttribute);
+
+		String[] values = splitAttribute.getValues();
+		splitAttributeIndex = attributeIndices[best];
+		childIds = new int[values.length];
+		children = new LevelNode[values.length];
+		for (int v = 0; v < values.length; v++) {
+			if (splitTable.getValueTotal(v) == 0) {
+				childIds[v] = -1;
+			} else {
+				childIds[v] = next.size();
+				children[v] = new LevelNode(attributeSet, splitTable.getClassCounts(v), childAttributes, values[v],
+						depth + 1);
+				next.add(children[v]);
+			}
+		}
+		attributes = null;
+		attributeIndices = null;
+	}
+
+	// Make the subtree rooted at this node.
+	DecisionTree toDecisionTree() {
+		if (leaf)
+			return new DecisionTreeLeaf(decision, label, depth);
+		String majority = attributeSet.getClassAttribute().getValues()[ContingencyTable.indexOfMax(classCounts)];
+		String[] values = splitAttribute.getValues();
+		HashMap<String, DecisionTree> childMap = new HashMap<String, DecisionTree>();
+		for (int v = 0; v < values.length; v++) {
+			if (children[v] == null)
+				childMap.put(values[v], new DecisionTreeLeaf(majority, values[v], depth + 1));
+			else
+				childMap.put(values[v], children[v].toDecisionTree());
+		}
+		return new DecisionTreeInternal(splitAttribute, childMap, label, depth);
+	}
+}
@@ -0,0 +1,280 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+
+/**
+ * A LevelWiseTreeBuilder learns a DecisionTree from data stored in a
+ * ColumnFile without ever holding the data in memory. Instead of recursing
+ * depth-first, it builds the tree one level at a time. For each level it makes
+ * one sequential scan of the file, in blocks of rows, during which every row
+ * is routed to the node it has reached at that level and counted in the
+ * ContingencyTables of that node. All nodes of the level are then split
+ * together, and the next level is learned by the next scan.
+ *
+ * The node each row has reached is kept in a temporary node-id file holding
+ * one int per row, which is read and rewritten block by block during each
+ * scan, so the memory used depends only on the block size and on the number of
+ * nodes in the widest level, never on the number of rows. If the tables of a
+ * whole level would take more than <code>setMaxTableCells</code> counts, the
+ * level is counted in several scans.
+ *
+ * The learned tree is the one EncodedTreeBuilder learns from the same rows
+ * with the same depth and leaf size limits.
+ *
+ * @author jmac
+ */
+public class LevelWiseTreeBuilder {
+	// The number of rows read from each column at a time
+	private static final int BLOCK_SIZE = 1 << 16;
+
+	private String filename;
+	private ColumnFile file;
+	private AttributeSet attributeSet;
+	private int numClasses;
+
+	// Nodes at this level (the root being at level 0) are made leaves
+	private int maxDepth = Integer.MAX_VALUE;
+
+	// Nodes holding fewer rows than this are made leaves
+	private int minLeafSize = 1;
+
+	// The criterion used to choose split attributes
+	private SplitCriterion criterion = SplitCriterion.ENTROPY;
+
+	// The maximum number of counts held in the tables of one scan
+	private long maxTableCells = 1L << 24;
+
+	// The number of scans of the file made by the last build
+	private int numScans;
+
+	/**
+	 * Create a builder that learns from the given column file.
+	 *
+	 * @param filename     the name of a file written by
+	 *                     <code>ColumnFile.write</code>
+	 * @param attributeSet the attributes of the data the file was written from
+	 * @throws IOException
+	 * @throws DecisionTreeException if the file does not match the attributes
+	 */
+	public LevelWiseTreeBuilder(String filename, AttributeSet attributeSet) throws IOException, DecisionTreeException {
+		this.filename = filename;
+		this.attributeSet = attributeSet;
+		file = new ColumnFile(filename);
+		file.checkAttributes(attributeSet);
+		numClasses = attributeSet.getClassAttribute().getNumValues();
+	}
+
+	/**
+	 * Limit the depth of the learned trees.
+	 *
+	 * @param maxDepth The maximum number of splits on any path from the root
+	 *                 to a leaf.
+	 */
+	public void setMaxDepth(int maxDepth) {
+		this.maxDepth = maxDepth;
+	}
+
+	/**
+	 * Stop splitting nodes that hold few examples.
+	 *
+	 * @param minLeafSize Nodes holding fewer examples than this are made leaves
+	 *                    rather than split.
+	 */
+	public void setMinLeafSize(int minLeafSize) {
+		this.minLeafSize = minLeafSize;
+	}
+
+	/**
+	 * Choose split attributes by the given criterion.
+	 *
+	 * @param criterion The criterion; SplitCriterion.ENTROPY by default.
+	 */
+	public void setSplitCriterion(SplitCriterion criterion) {
+		this.criterion = criterion;
+	}
+
+	/**
+	 * Limit the memory used for counting.
+	 *
+	 * @param maxTableCells The maximum number of counts (ints) held at once in
+	 *                      the contingency tables of a level. A level needing
+	 *                      more is counted in several scans; a single node
+	 *                      needing more is still counted in one scan.
+	 */
+	public void setMaxTableCells(long maxTableCells) {
+		this.maxTableCells = maxTableCells;
+	}
+
+	/**
+	 * Get the number of scans of the column file made by the last call to
+	 * <code>build</code>, including the scan that counts the classes of the
+	 * root.
+	 *
+	 * @return the number of scans
+	 */
+	public int getNumScans() {
+		return numScans;
+	}
+
+	/**
+	 * Learn a decision tree from every row of the file.
+	 *
+	 * @param attributes A list of attributes on which the tree is permitted to
+	 *                   make decisions.
+	 * @return The root of the learned tree.
+	 * @throws IOException
+	 * @throws DecisionTreeException
+	 */
+	public DecisionTree build(ArrayList<Attribute> attributes) throws IOException, DecisionTreeException {
+		if (file.getNumRows() == 0)
+			throw new DecisionTreeException("cannot learn a decision tree from no examples");
+		numScans = 0;
+		Path nodeFile = Files.createTempFile("nodes", ".ids");
+		try (FileChannel data = FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+				FileChannel nodes = FileChannel.open(nodeFile, StandardOpenOption.READ, StandardOpenOption.WRITE,
+						StandardOpenOption.DELETE_ON_CLOSE)) {
+			// Every row starts at the root, node 0 of level 0
+			ColumnFile.writeFully(nodes, ByteBuffer.allocate(1), 4L * file.getNumRows() - 1);
+
+			LevelNode root = new LevelNode(attributeSet, countClasses(data), attributes, DecisionTree.ROOT_LABEL, 1);
+			return LevelNode.learn(root, maxDepth, minLeafSize, maxTableCells, criterion, new LevelNode.Counter() {
+				@Override
+				public void count(ArrayList<LevelNode> previous, ArrayList<LevelNode> level, int from, int to)
+						throws IOException {
+					scan(data, nodes, previous, level, from, to);
+				}
+			});
+		}
+	}
+
+	// Scan the file once. If previous is non-null, move each row from its node
+	// in the previous level to its node in the given level (or to -1 if it has
+	// reached a leaf) and rewrite the node-id file. Count each row reaching a
+	// node in level[from..to) in that node's tables.
+	private void scan(FileChannel data, FileChannel nodes, ArrayList<LevelNode> previous, ArrayList<LevelNode> level,
+			int from, int to) throws IOException {
+		numScans++;
+		int numAttributes = file.getNumAttributes();
+		int classAttributeIndex = attributeSet.getClassAttributeIndex();
+		int[][] codes = new int[numAttributes][BLOCK_SIZE];
+		int[] nodeIds = new int[BLOCK_SIZE];
+		ByteBuffer buffer = ByteBuffer.allocate(4 * BLOCK_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+		// Only the columns used by this scan are read
+		boolean[] needed = new boolean[numAttributes];
+		needed[classAttributeIndex] = true;
+		for (int n = from; n < to; n++) {
+			if (!level.get(n).leaf) {
+				for (int a : level.get(n).attributeIndices)
+					needed[a] = true;
+			}
+		}
+		if (previous != null) {
+			for (LevelNode node : previous) {
+				if (node.splitAttributeIndex >= 0)
+					needed[node.splitAttributeIndex] = true;
+			}
+		}
+
+		for (int start = 0; start < file.getNumRows(); start += BLOCK_SIZE) {
+			int length = Math.min(BLOCK_SIZE, file.getNumRows() - start);
+			readNodeIds(nodes, start, length, buffer, nodeIds);
+			for (int a = 0; a < numAttributes; a++) {
+				if (needed[a])
+					file.readCodes(data, a, start, length, buffer, codes[a]);
+			}
+			int[] classCodes = codes[classAttributeIndex];
+			for (int i = 0; i < length; i++) {
+				int id = nodeIds[i];
+				if (id < 0)
+					continue;
+				if (previous != null) {
+					LevelNode parent = previous.get(id);
+					id = parent.childIds[codes[parent.splitAttributeIndex][i]];
+					if (id >= 0 && level.get(id).leaf)
+						id = -1;
+					nodeIds[i] = id;
+				}
+				if (id >= from && id < to) {
+					LevelNode node = level.get(id);
+					for (int t = 0; t < node.tables.length; t++)
+						node.tables[t].add(codes[node.attributeIndices[t]][i], classCodes[i], 1);
+				}
+			}
+			if (previous != null)
+				writeNodeIds(nodes, start, length, buffer, nodeIds);
+		}
+	}
+
+	// Count the classes of every row by scanning the class column.
+	private int[] countClasses(FileChannel data) throws IOException {
+		numScans++;
+		int[] classCounts = new int[numClasses];
+		int[] codes = new int[BLOCK_SIZE];
+		ByteBuffer buffer = ByteBuffer.allocate(4 * BLOCK_SIZE);
+		for (int start = 0; start < file.getNumRows(); start += BLOCK_SIZE) {
+			int length = Math.min(BLOCK_SIZE, file.getNumRows() - start);
+			file.readCodes(data, attributeSet.getClassAttributeIndex(), start, length, buffer, codes);
+			for (int i = 0; i < length; i++)
+				classCounts[codes[i]]++;
+		}
+		return classCounts;
+	}
+
+	private static void readNodeIds(FileChannel nodes, int start, int length, ByteBuffer buffer, int[] nodeIds)
+			throws IOException {
+		buffer.clear();
+		buffer.limit(4 * length);
+		ColumnFile.readFully(nodes, buffer, 4L * start);
+		buffer.flip();
+		buffer.asIntBuffer().get(nodeIds, 0, length);
+	}
+
+	private static void writeNodeIds(FileChannel nodes, int start, int length, ByteBuffer buffer, int[] nodeIds)
+			throws IOException {
+		buffer.clear();
+		buffer.asIntBuffer().put(nodeIds, 0, length);
+		buffer.limit(4 * length);
+		ColumnFile.writeFully(nodes, buffer, 4L * start);
+	}
+
+	/**
+	 * Writes the MAGIC training set to a column file, learns a decision tree
+	 * from it level by level, and checks that the tree makes the same decisions
+	 * as the one learned in memory by EncodedTreeBuilder.
+	 *
+	 * @param arguments Optionally, the name of the column file to write.
+	 * @throws DecisionTreeException
+	 * @throws IOException
+	 */
+	public static void main(String[] arguments) throws DecisionTreeException, IOException {
+		String columnFilename = arguments.length > 0 ? arguments[0] : "MAGIC_DataSet_Training.columns";
+		InstanceSet trainingSet = new InstanceSet("data/MAGIC_DataSet_Training.arff");
+		AttributeSet attributeSet = trainingSet.getAttributeSet();
+		ArrayList<Attribute> attributes = DecisionTree.removeClassAttribute(attributeSet,
+				attributeSet.getAttributes());
+		EncodedInstanceSet data = new EncodedInstanceSet(trainingSet);
+		ColumnFile.write(data, columnFilename);
+
+		LevelWiseTreeBuilder builder = new LevelWiseTreeBuilder(columnFilename, attributeSet);
+		long start = System.currentTimeMillis();
+		DecisionTree tree = builder.build(attributes);
+		long elapsed = System.currentTimeMillis() - start;
+		DecisionTree inMemory = new EncodedTreeBuilder(data, null).build(attributes);
+
+		int num_differences = 0;
+		for (int r = 0; r < data.getNumRows(); r++) {
+			if (!tree.decide(data, r).equals(inMemory.decide(data, r)))
+				num_differences++;
+		}
+		System.out.println("Learned from " + columnFilename + " in " + builder.getNumScans() + " scans, " + elapsed
+				+ " ms");
+		System.out.println("Decisions differing from the in-memory tree: " + num_differences);
+	}
+}
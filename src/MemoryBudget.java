@@ -0,0 +1,560 @@
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A MemoryBudget accounts for the heap memory a training job will need, so
+ * that a job too big for its machine fails at once with a clear
+ * DecisionTreeException instead of running out of memory hours later. It
+ * works in three parts:
+ *
+ * <ul>
+ * <li>Estimates of the bytes taken by a data set in each representation (an
+ * InstanceSet of strings, an EncodedInstanceSet, a SparseInstanceSet), by the
+ * scratch space of an EncodedTreeBuilder, and by the nodes of a learned tree,
+ * from the sizes of the objects involved on a 64-bit JVM with compressed
+ * references.</li>
+ * <li>Enforcement: memory is reserved against the budget before it is
+ * allocated, and a reservation that does not fit throws. <code>load</code>
+ * scans a .arff file and reads it in the fastest representation that fits,
+ * falling back to a SparseInstanceSet, which holds only the values that are
+ * not the default and never holds the file's strings; an EncodedTreeBuilder
+ * given the budget reserves its scratch space before learning and each node
+ * as it is made, so a tree that grows too large stops the build. The nodes
+ * of a failed build are released, and a finished tree's are released by
+ * <code>release(tree)</code> once it is no longer used.</li>
+ * <li>Measurement: the peak heap usage actually reached, read from the JVM's
+ * memory pool MXBeans, to check the estimates against.</li>
+ * </ul>
+ *
+ * The estimates are approximate, and the garbage collector needs headroom
+ * beyond them, so a budget should be well below the maximum heap size. Any
+ * number of threads may reserve against one budget.
+ *
+ * @author jmac
+ */
+public class MemoryBudget {
+	// The approximate sizes, in bytes, of an object header, an array header
+	// and a reference
+	static final int OBJECT_HEADER_BYTES = 12;
+	static final int ARRAY_HEADER_BYTES = 16;
+	static final int REFERENCE_BYTES = 4;
+
+	// The approximate size of a short String, such as an attribute value,
+	// including its byte array
+	static final int SHORT_STRING_BYTES = 48;
+
+	// The size of a DecisionTreeLeaf and of a DecisionTreeInternal, not
+	// counting the arrays of the latter
+	static final int LEAF_BYTES = 24;
+	static final int INTERNAL_BYTES = 32;
+
+	private long maxBytes;
+	private AtomicLong reserved = new AtomicLong();
+	private AtomicLong peakReserved = new AtomicLong();
+
+	public static final boolean VERBOSE = false;
+
+	/**
+	 * Create a budget.
+	 *
+	 * @param maxBytes the number of bytes that may be reserved at once
+	 */
+	public MemoryBudget(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Create a budget of a fraction of the maximum heap size.
+	 *
+	 * @param fraction the fraction, for example 0.6 to leave the garbage
+	 *                 collector 40% of the heap as headroom
+	 * @return the budget
+	 */
+	public static MemoryBudget ofMaxHeap(double fraction) {
+		return new MemoryBudget((long) (Runtime.getRuntime().maxMemory() * fraction));
+	}
+
+	/**
+	 * Reserve memory that is about to be allocated.
+	 *
+	 * @param bytes   the number of bytes
+	 * @param purpose what the memory is for, for the exception's message
+	 * @throws DecisionTreeException if the reservation would exceed the budget;
+	 *                               nothing is reserved then
+	 */
+	public void reserve(long bytes, String purpose) throws DecisionTreeException {
+		while (true) {
+			long current = reserved.get();
+			if (current + bytes > maxBytes)
+				throw new DecisionTreeException("memory budget exceeded: " + purpose + " needs about "
+						+ megabytes(bytes) + " but only " + megabytes(maxBytes - current) + " of the "
+						+ megabytes(maxBytes) + " budget remain");
+			if (reserved.compareAndSet(current, current + bytes)) {
+				long peak;
+				while ((peak = peakReserved.get()) < current + bytes
+						&& !peakReserved.compareAndSet(peak, current + bytes))
+					;
+				if (VERBOSE)
+					System.out.println("reserved " + megabytes(bytes) + " for " + purpose);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Return memory that has been freed, or will no longer be used, to the
+	 * budget.
+	 *
+	 * @param bytes the number of bytes, which must have been reserved
+	 */
+	public void release(long bytes) {
+		reserved.addAndGet(-bytes);
+	}
+
+	/**
+	 * Return the memory of a tree that is no longer used to the budget.
+	 *
+	 * @param tree a tree learned by an EncodedTreeBuilder given this budget,
+	 *             whose nodes stay reserved after learning
+	 */
+	public void release(DecisionTree tree) {
+		release(estimateTreeBytes(tree));
+	}
+
+	/**
+	 * @return the number of bytes that may be reserved at once
+	 */
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * @return the number of bytes reserved now
+	 */
+	public long getReservedBytes() {
+		return reserved.get();
+	}
+
+	/**
+	 * @return the largest number of bytes ever reserved at once
+	 */
+	public long getPeakReservedBytes() {
+		return peakReserved.get();
+	}
+
+	/**
+	 * Estimate the peak memory taken by reading a file into an InstanceSet: its
+	 * instances, and while reading, the lines of the file and the lists of
+	 * numeric values from which bucket boundaries are computed.
+	 *
+	 * @param profile the file's profile
+	 * @return the number of bytes
+	 */
+	public static long estimateInstanceSetBytes(Profile profile) {
+		long numValues = profile.numRows * profile.numAttributes;
+		long instances = profile.numRows
+				* (OBJECT_HEADER_BYTES + 2 * REFERENCE_BYTES + ARRAY_HEADER_BYTES + REFERENCE_BYTES
+						+ (long) profile.numAttributes * REFERENCE_BYTES)
+				+ numValues * SHORT_STRING_BYTES;
+		long lines = profile.numRows * (SHORT_STRING_BYTES + REFERENCE_BYTES) + profile.numChars;
+		long numericValues = profile.numRows * profile.numNumeric * (OBJECT_HEADER_BYTES + 4 + REFERENCE_BYTES);
+		return instances + lines + numericValues;
+	}
+
+	/**
+	 * Estimate the memory taken by an EncodedInstanceSet.
+	 *
+	 * @param numRows       the number of rows
+	 * @param numAttributes the number of attributes, including the class
+	 * @return the number of bytes
+	 */
+	public static long estimateEncodedBytes(long numRows, int numAttributes) {
+		return numAttributes * (ARRAY_HEADER_BYTES + 4 * numRows);
+	}
+
+	/**
+	 * Estimate the peak memory taken by reading a file into a
+	 * SparseInstanceSet, when the raw numeric values are held as well as the
+	 * codes.
+	 *
+	 * @param profile the file's profile
+	 * @return the number of bytes
+	 */
+	public static long estimateSparseBytes(Profile profile) {
+		// A row index and a code per value, growable arrays up to twice the
+		// size needed, and the dense classifications
+		long perValue = 2 * (4 + 4) + (profile.numNumeric > 0 ? 2 * 8 : 0);
+		return profile.numNonDefault * perValue + 4 * profile.numRows
+				+ 4L * profile.numAttributes * ARRAY_HEADER_BYTES;
+	}
+
+	/**
+	 * Estimate the scratch space an EncodedTreeBuilder holds while learning: an
+	 * int per row for the row indices, the partition buffer, the
+	 * classifications, one attribute's codes, the selected rows, and
+	 * optionally the weights and the positions of sparse rows.
+	 *
+	 * @param numRows  the number of rows
+	 * @param weighted true if the rows have weights
+	 * @param sparse   true if the data is a SparseInstanceSet
+	 * @return the number of bytes
+	 */
+	public static long estimateBuilderBytes(long numRows, boolean weighted, boolean sparse) {
+		int numArrays = 5 + (weighted ? 1 : 0) + (sparse ? 1 : 0);
+		return numArrays * (ARRAY_HEADER_BYTES + 4 * numRows);
+	}
+
+	/**
+	 * Estimate the memory kept by an internal node once made: the node, its
+	 * arrays, and the leaves among its children. Internal children are
+	 * counted when they are made.
+	 *
+	 * @param node the node
+	 * @return the number of bytes
+	 */
+	static long estimateNodeBytes(DecisionTreeInternal node) {
+		DecisionTree[] children = node.getChildren();
+		long bytes = INTERNAL_BYTES + ARRAY_HEADER_BYTES + (long) REFERENCE_BYTES * children.length;
+		// Only runs of values are stored with the ends of the runs
+		if (children.length != node.splitAttribute.getNumValues())
+			bytes += ARRAY_HEADER_BYTES + 4L * children.length;
+		for (int c = 0; c < children.length; c++) {
+			if (children[c] instanceof DecisionTreeLeaf && (c == 0 || children[c] != children[c - 1])) {
+				bytes += LEAF_BYTES;
+				// A leaf standing for a run of values has a label of its own
+				if (children[c].getLabel().contains(".."))
+					bytes += SHORT_STRING_BYTES;
+			}
+		}
+		return bytes;
+	}
+
+	/**
+	 * Estimate the memory kept by a tree: the sum of
+	 * <code>estimateNodeBytes</code> over its internal nodes, which is what an
+	 * EncodedTreeBuilder reserves for it.
+	 *
+	 * @param tree the root of the tree
+	 * @return the number of bytes
+	 */
+	static long estimateTreeBytes(DecisionTree tree) {
+		if (!(tree instanceof DecisionTreeInternal))
+			return 0;
+		DecisionTreeInternal node = (DecisionTreeInternal) tree;
+		long bytes = estimateNodeBytes(node);
+		for (DecisionTree child : node.getChildren())
+			bytes += estimateTreeBytes(child);
+		return bytes;
+	}
+
+	/**
+	 * Scan a .arff file, reserve memory for it, and read it. It is read into
+	 * an EncodedInstanceSet, by way of an InstanceSet, if that and the scratch
+	 * space of an unweighted EncodedTreeBuilder fit in the budget, and
+	 * otherwise into a SparseInstanceSet, which takes much less memory if most
+	 * values are the default and never holds the file's strings. Both hold the
+	 * same codes, with missing values replaced in the same way, so the tree
+	 * learned does not depend on which the budget allows. The memory of the
+	 * data set stays reserved; the scratch space is not reserved, since an
+	 * EncodedTreeBuilder given this budget reserves it when learning. If the
+	 * file cannot be read, nothing stays reserved.
+	 *
+	 * @param filename the name of the file
+	 * @return the data
+	 * @throws DecisionTreeException if the file cannot be read in the budget
+	 *                               in any representation
+	 * @throws IOException
+	 */
+	public ColumnStore load(String filename) throws DecisionTreeException, IOException {
+		Profile profile = profile(filename);
+		long available = maxBytes - reserved.get();
+		long encoded = estimateEncodedBytes(profile.numRows, profile.numAttributes);
+		long dense = estimateInstanceSetBytes(profile) + encoded;
+		long denseScratch = estimateBuilderBytes(profile.numRows, false, false);
+		long sparse = estimateSparseBytes(profile);
+		long sparseScratch = estimateBuilderBytes(profile.numRows, false, true);
+		if (VERBOSE)
+			System.out.println(profile + ": dense " + megabytes(dense) + " + " + megabytes(denseScratch)
+					+ ", sparse " + megabytes(sparse) + " + " + megabytes(sparseScratch));
+
+		if (dense + denseScratch <= available) {
+			reserve(dense, "reading " + filename);
+			EncodedInstanceSet data = null;
+			try {
+				data = new EncodedInstanceSet(new InstanceSet(filename));
+			} finally {
+				// Only the encoded columns are kept
+				release(data != null ? dense - encoded : dense);
+			}
+			return data;
+		}
+		if (sparse + sparseScratch <= available) {
+			reserve(sparse, "reading " + filename + " as sparse columns");
+			SparseInstanceSet data = null;
+			try {
+				data = new SparseInstanceSet(filename);
+			} finally {
+				if (data == null)
+					release(sparse);
+			}
+			return data;
+		}
+		throw new DecisionTreeException("memory budget exceeded: " + filename + " (" + profile
+				+ ") needs about " + megabytes(dense + denseScratch) + " to learn from dense, or "
+				+ megabytes(sparse + sparseScratch) + " sparse, but only " + megabytes(available) + " of the "
+				+ megabytes(maxBytes) + " budget remain");
+	}
+
+	/**
+	 * Scan a .arff file for the figures the estimates need, without keeping any
+	 * of its rows.
+	 *
+	 * @param filename the name of the file
+	 * @return the profile of the file
+	 * @throws DecisionTreeException if its preamble is malformed
+	 * @throws IOException
+	 */
+	public static Profile profile(String filename) throws DecisionTreeException, IOException {
+		BufferedReader reader = new BufferedReader(new FileReader(filename));
+		try {
+			AttributeSet attributeSet = InstanceSet.readPreamble(reader, InstanceSet.NUM_BUCKETS).getAttributeSet();
+			ArrayList<Attribute> attributes = attributeSet.getAttributes();
+			Profile profile = new Profile();
+			profile.numAttributes = attributes.size();
+			for (Attribute attribute : attributes) {
+				if (attribute.isOrdered())
+					profile.numNumeric++;
+			}
+			int classAttributeIndex = attributeSet.getClassAttributeIndex();
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith(InstanceSet.commentStart))
+					continue;
+				profile.numRows++;
+				profile.numChars += line.length();
+				if (line.startsWith("{")) {
+					// Every entry but the classification's is non-default
+					for (int i = 0; i < line.length(); i++) {
+						if (line.charAt(i) == ',')
+							profile.numNonDefault++;
+					}
+					continue;
+				}
+				String[] values = line.toLowerCase().split("[,\\s]+");
+				for (int a = 0; a < values.length && a < attributes.size(); a++) {
+					if (a != classAttributeIndex && !isDefault(attributes.get(a), values[a]))
+						profile.numNonDefault++;
+				}
+			}
+			return profile;
+		} finally {
+			reader.close();
+		}
+	}
+
+	// Return true if the value is its attribute's default in sparse rows.
+	private static boolean isDefault(Attribute attribute, String value) {
+		if (!attribute.isOrdered())
+			return value.equals(attribute.getValues()[0]);
+		try {
+			return Double.parseDouble(value) == 0.0;
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * The figures of a .arff file from which its memory is estimated.
+	 */
+	public static class Profile {
+		long numRows;
+		int numAttributes;
+		int numNumeric;
+		long numNonDefault;
+		long numChars;
+
+		/**
+		 * @return the number of rows
+		 */
+		public long getNumRows() {
+			return numRows;
+		}
+
+		/**
+		 * @return the number of attributes, including the class
+		 */
+		public int getNumAttributes() {
+			return numAttributes;
+		}
+
+		/**
+		 * @return the number of values, not counting classifications, that
+		 *         are not their attribute's default
+		 */
+		public long getNumNonDefault() {
+			return numNonDefault;
+		}
+
+		@Override
+		public String toString() {
+			return numRows + " rows, " + numAttributes + " attributes, " + numNonDefault + " non-default values";
+		}
+	}
+
+	/**
+	 * Reset the peak usage of every heap memory pool to its current usage.
+	 */
+	public static void resetPeakHeapUsage() {
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP)
+				pool.resetPeakUsage();
+		}
+	}
+
+	/**
+	 * Get the peak heap usage since the last reset, as the sum of the peak
+	 * usage of every heap memory pool. The pools may have peaked at different
+	 * times, so this is an upper bound, and it includes garbage not yet
+	 * collected.
+	 *
+	 * @return the number of bytes
+	 */
+	public static long getPeakHeapUsage() {
+		long peak = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP)
+				peak += pool.getPeakUsage().getUsed();
+		}
+		return peak;
+	}
+
+	/**
+	 * Get the heap in use now, after asking for a garbage collection so that
+	 * only live objects are counted.
+	 *
+	 * @return the number of bytes
+	 */
+	public static long getLiveHeapUsage() {
+		System.gc();
+		return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+	}
+
+	/**
+	 * Format a number of bytes in megabytes.
+	 *
+	 * @param bytes the number of bytes
+	 * @return the formatted number, such as "12.3 MB"
+	 */
+	public static String megabytes(long bytes) {
+		return String.format("%.1f MB", bytes / 1048576.0);
+	}
+
+	/**
+	 * Loads a data set within a budget and learns a tree from it, reporting
+	 * the memory estimated, reserved and actually used; then learns it
+	 * repeatedly in a budget with room for little more than one tree,
+	 * releasing each, and once in a budget too small for it, and checks that
+	 * nothing stays reserved; then loads it again
+	 * with a budget too small for dense columns, and checks that the tree
+	 * learned from the other representation decides every row the same way;
+	 * then tries again with a budget too small for either, to show the
+	 * failure.
+	 *
+	 * @param arguments Optionally, the name of a .arff file and the budget in
+	 *                  megabytes.
+	 * @throws DecisionTreeException
+	 * @throws FileNotFoundException
+	 * @throws IOException
+	 */
+	public static void main(String[] arguments) throws DecisionTreeException, FileNotFoundException, IOException {
+		String filename = arguments.length > 0 ? arguments[0] : "data/MAGIC_DataSet_Training.arff";
+		long maxBytes = arguments.length > 1 ? Long.parseLong(arguments[1]) << 20
+				: Runtime.getRuntime().maxMemory() / 2;
+
+		Profile profile = profile(filename);
+		System.out.println(filename + ": " + profile);
+		System.out.println("Estimated InstanceSet " + megabytes(estimateInstanceSetBytes(profile))
+				+ ", EncodedInstanceSet " + megabytes(estimateEncodedBytes(profile.numRows, profile.numAttributes))
+				+ ", SparseInstanceSet " + megabytes(estimateSparseBytes(profile)) + ", builder scratch "
+				+ megabytes(estimateBuilderBytes(profile.numRows, false, false)));
+
+		long before = getLiveHeapUsage();
+		resetPeakHeapUsage();
+		MemoryBudget budget = new MemoryBudget(maxBytes);
+		ColumnStore data = budget.load(filename);
+		long loaded = getLiveHeapUsage() - before;
+		AttributeSet attributeSet = data.getAttributeSet();
+		ArrayList<Attribute> attributes = DecisionTree.removeClassAttribute(attributeSet,
+				attributeSet.getAttributes());
+		EncodedTreeBuilder builder = new EncodedTreeBuilder(data, null);
+		builder.setMemoryBudget(budget);
+		long reservedBefore = budget.getReservedBytes();
+		DecisionTree tree = builder.build(attributes);
+		long peak = getPeakHeapUsage() - before;
+		long treeBytes = getLiveHeapUsage() - before - loaded;
+		System.out.println("Loaded as " + data.getClass().getName() + " in a budget of " + megabytes(maxBytes)
+				+ ": " + megabytes(loaded) + " live, " + megabytes(reservedBefore) + " reserved");
+		System.out.println("Tree: " + megabytes(treeBytes) + " live, "
+				+ megabytes(budget.getReservedBytes() - reservedBefore) + " reserved");
+		System.out.println("Peak: " + megabytes(peak) + " measured (upper bound), "
+				+ megabytes(budget.getPeakReservedBytes()) + " reserved");
+		System.out.println("Learned " + TreeCompactor.countNodes(tree, true) + " nodes");
+
+		// Learn repeatedly in a budget with room for little more than one
+		// tree, releasing each, then in one too small for a tree: neither may
+		// leave anything reserved
+		long treeReserved = budget.getReservedBytes() - reservedBefore;
+		budget.release(tree);
+		long scratch = estimateBuilderBytes(data.getNumRows(), false, data instanceof SparseInstanceSet);
+		MemoryBudget fixedBudget = new MemoryBudget(scratch + treeReserved * 3 / 2);
+		builder.setMemoryBudget(fixedBudget);
+		int numBuilds = 20;
+		for (int i = 0; i < numBuilds; i++)
+			fixedBudget.release(builder.build(attributes));
+		MemoryBudget tinyBudget = new MemoryBudget(scratch + treeReserved / 2);
+		builder.setMemoryBudget(tinyBudget);
+		try {
+			builder.build(attributes);
+		} catch (DecisionTreeException e) {
+			System.out.println("In a budget of " + megabytes(tinyBudget.getMaxBytes()) + ": " + e.getMessage());
+		}
+		if (budget.getReservedBytes() != reservedBefore || fixedBudget.getReservedBytes() != 0
+				|| tinyBudget.getReservedBytes() != 0)
+			throw new DecisionTreeException("reservations leaked: " + (budget.getReservedBytes() - reservedBefore)
+					+ ", " + fixedBudget.getReservedBytes() + " and " + tinyBudget.getReservedBytes() + " bytes");
+		System.out.println(numBuilds + " trees learned and released in a budget of "
+				+ megabytes(fixedBudget.getMaxBytes()) + ", and nothing left reserved");
+
+		long denseBytes = estimateInstanceSetBytes(profile)
+				+ estimateEncodedBytes(profile.numRows, profile.numAttributes)
+				+ estimateBuilderBytes(profile.numRows, false, false);
+		MemoryBudget smallerBudget = new MemoryBudget(denseBytes - 1);
+		ColumnStore other = smallerBudget.load(filename);
+		EncodedTreeBuilder otherBuilder = new EncodedTreeBuilder(other, null);
+		otherBuilder.setMemoryBudget(smallerBudget);
+		DecisionTree otherTree = otherBuilder.build(DecisionTree.removeClassAttribute(other.getAttributeSet(),
+				other.getAttributeSet().getAttributes()));
+		int differences = 0;
+		for (int r = 0; r < data.getNumRows(); r++) {
+			if (!tree.decide(data, r).equals(otherTree.decide(other, r)))
+				differences++;
+		}
+		System.out.println("Loaded as " + other.getClass().getName() + " in a budget of "
+				+ megabytes(smallerBudget.getMaxBytes()) + ": " + TreeCompactor.countNodes(otherTree, true)
+				+ " nodes, " + differences + " rows decided differently");
+
+		try {
+			new MemoryBudget(estimateSparseBytes(profile) / 2).load(filename);
+		} catch (DecisionTreeException e) {
+			System.out.println("With a smaller budget: " + e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,289 @@
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A ModelRegistry holds the model that scoring threads use, and lets a new
+ * model replace it while they keep scoring, in the manner of read-copy-update:
+ *
+ * <ul>
+ * <li>A scoring thread calls <code>acquire</code> to lease the current model
+ * (a ModelSnapshot), decides with it, and closes the lease. Acquiring takes no
+ * lock; it increments the model's reference count.</li>
+ * <li><code>publish</code> compacts the new tree (see TreeCompactor), compiles
+ * it into a snapshot, lays the snapshot out for the warm-up rows (if any; see
+ * ModelSnapshot.relayout, so they should be a sample of recent traffic), warms
+ * it up by deciding them and checking that it agrees with the tree, and only
+ * then swaps it in with a single atomic write. Leases acquired from then on get
+ * the new model.</li>
+ * <li>Leases on the old model stay valid, so requests in flight finish on the
+ * model they started with. When the last of them is closed, the old model is
+ * reclaimed: the registry drops its reference, so its memory can be
+ * collected.</li>
+ * </ul>
+ *
+ * Each published model has a version number, starting at 1.
+ *
+ * @author jmac
+ */
+public class ModelRegistry {
+	private AttributeSet attributeSet;
+
+	// The current version, which holds one reference to itself until replaced
+	private AtomicReference<Version> current = new AtomicReference<Version>();
+
+	// The rows each new model decides before it is published
+	private volatile ColumnStore warmUpData;
+
+	private AtomicLong lastVersion = new AtomicLong();
+	private AtomicInteger numLiveVersions = new AtomicInteger();
+	private AtomicLong numReclaimed = new AtomicLong();
+
+	public static final boolean VERBOSE = false;
+
+	/**
+	 * Create an empty registry. Nothing can be acquired until a model is
+	 * published.
+	 *
+	 * @param attributeSet the attributes of the instances to be decided
+	 */
+	public ModelRegistry(AttributeSet attributeSet) {
+		this.attributeSet = attributeSet;
+	}
+
+	/**
+	 * Set the rows that every new model decides before it is published. The
+	 * new model is laid out so that the paths they take most are contiguous,
+	 * they bring its array into the cache, and each decision is checked
+	 * against the tree the model was compiled from.
+	 *
+	 * @param data rows using the registry's attributes, or null for none
+	 */
+	public void setWarmUpData(ColumnStore data) {
+		warmUpData = data;
+	}
+
+	/**
+	 * Compile, warm up and publish a new model, replacing the current one.
+	 * This may take a while, but scoring threads are not held up: they use the
+	 * current model until the new one is swapped in.
+	 *
+	 * @param tree the new model, which must use the registry's attributes
+	 * @return the version number of the new model
+	 * @throws DecisionTreeException if the tree cannot be compiled, or its
+	 *                               snapshot disagrees with it on a warm-up row
+	 */
+	public long publish(DecisionTree tree) throws DecisionTreeException {
+		ModelSnapshot snapshot = new ModelSnapshot(new TreeCompactor().compact(tree), attributeSet,
+				lastVersion.incrementAndGet());
+		ColumnStore data = warmUpData;
+		if (data != null)
+			snapshot = snapshot.relayout(data);
+		warmUp(tree, snapshot, data);
+		Version version = new Version(snapshot);
+		numLiveVersions.incrementAndGet();
+		Version old = current.getAndSet(version);
+		if (old != null)
+			old.release();
+		if (VERBOSE)
+			System.out.println("published version " + snapshot.getVersion());
+		return snapshot.getVersion();
+	}
+
+	private void warmUp(DecisionTree tree, ModelSnapshot snapshot, ColumnStore data) throws DecisionTreeException {
+		if (data == null)
+			return;
+		for (int row = 0; row < data.getNumRows(); row++) {
+			if (!snapshot.decide(data, row).equals(tree.decide(data, row)))
+				throw new DecisionTreeException("version " + snapshot.getVersion()
+						+ " disagrees with its tree on warm-up row " + row);
+		}
+	}
+
+	/**
+	 * Lease the current model. The lease must be closed, and should be held
+	 * only while deciding, since the model it leases cannot be reclaimed until
+	 * then.
+	 *
+	 * @return a lease on the current model
+	 * @throws DecisionTreeException if no model has been published
+	 */
+	public Lease acquire() throws DecisionTreeException {
+		while (true) {
+			Version version = current.get();
+			if (version == null)
+				throw new DecisionTreeException("no model has been published");
+			// This fails only if the version was replaced and released by
+			// every other holder since it was read; then try the new one
+			if (version.retain())
+				return new Lease(version);
+		}
+	}
+
+	/**
+	 * @return the version number of the current model, or 0 if none has been
+	 *         published
+	 */
+	public long getVersion() {
+		Version version = current.get();
+		return version == null ? 0 : version.number;
+	}
+
+	/**
+	 * @return the number of models published and not yet reclaimed, including
+	 *         the current one
+	 */
+	public int getNumLiveVersions() {
+		return numLiveVersions.get();
+	}
+
+	/**
+	 * @return the number of models reclaimed
+	 */
+	public long getNumReclaimed() {
+		return numReclaimed.get();
+	}
+
+	/**
+	 * A lease on one model, held by one thread.
+	 */
+	public class Lease implements AutoCloseable {
+		private Version version;
+
+		private Lease(Version version) {
+			this.version = version;
+		}
+
+		/**
+		 * @return the leased model
+		 */
+		public ModelSnapshot getSnapshot() {
+			return version.snapshot;
+		}
+
+		/**
+		 * Give up the lease. Closing a lease more than once has no effect.
+		 */
+		@Override
+		public void close() {
+			if (version != null) {
+				version.release();
+				version = null;
+			}
+		}
+	}
+
+	// A published model and the number of references to it: one held by the
+	// registry while it is current, and one per open lease
+	private class Version {
+		final long number;
+		volatile ModelSnapshot snapshot;
+		AtomicInteger references = new AtomicInteger(1);
+
+		Version(ModelSnapshot snapshot) {
+			this.snapshot = snapshot;
+			number = snapshot.getVersion();
+		}
+
+		// Add a reference, unless the count has already dropped to 0.
+		boolean retain() {
+			int n;
+			while ((n = references.get()) > 0) {
+				if (references.compareAndSet(n, n + 1))
+					return true;
+			}
+			return false;
+		}
+
+		void release() {
+			if (references.decrementAndGet() == 0) {
+				if (VERBOSE)
+					System.out.println("reclaimed version " + number);
+				snapshot = null;
+				numLiveVersions.decrementAndGet();
+				numReclaimed.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Scores the MAGIC training set on several threads while models of different
+	 * depths are published one after another, and checks that every decision
+	 * matches the tree of the version that made it.
+	 *
+	 * @param arguments Optionally, the number of scoring threads.
+	 * @throws DecisionTreeException
+	 * @throws FileNotFoundException
+	 * @throws IOException
+	 */
+	public static void main(String[] arguments) throws DecisionTreeException, FileNotFoundException, IOException {
+		int numThreads = arguments.length > 0 ? Integer.parseInt(arguments[0]) : 4;
+		InstanceSet trainingSet = new InstanceSet("data/MAGIC_DataSet_Training.arff");
+		AttributeSet attributeSet = trainingSet.getAttributeSet();
+		ArrayList<Attribute> attributes = DecisionTree.removeClassAttribute(attributeSet,
+				attributeSet.getAttributes());
+		final EncodedInstanceSet data = new EncodedInstanceSet(trainingSet);
+
+		// Versions 1 to 8 have maximum depths 1 to 8
+		final ArrayList<DecisionTree> trees = new ArrayList<DecisionTree>();
+		trees.add(null);
+		for (int depth = 1; depth <= 8; depth++) {
+			EncodedTreeBuilder builder = new EncodedTreeBuilder(data, null);
+			builder.setMaxDepth(depth);
+			trees.add(builder.build(attributes));
+		}
+
+		final ModelRegistry registry = new ModelRegistry(attributeSet);
+		registry.setWarmUpData(data);
+		registry.publish(trees.get(1));
+
+		final AtomicBoolean publishing = new AtomicBoolean(true);
+		final AtomicLong mismatches = new AtomicLong();
+		final AtomicLong decisions = new AtomicLong();
+		ArrayList<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for (int t = 0; t < numThreads; t++) {
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() throws DecisionTreeException {
+					int row = 0;
+					while (publishing.get()) {
+						try (Lease lease = registry.acquire()) {
+							ModelSnapshot snapshot = lease.getSnapshot();
+							DecisionTree tree = trees.get((int) snapshot.getVersion());
+							for (int r = 0; r < 64; r++, row = (row + 1) % data.getNumRows()) {
+								if (!snapshot.decide(data, row).equals(tree.decide(data, row)))
+									mismatches.incrementAndGet();
+							}
+						}
+						decisions.addAndGet(64);
+					}
+					return null;
+				}
+			});
+		}
+		tasks.add(new Callable<Void>() {
+			@Override
+			public Void call() throws DecisionTreeException {
+				for (int v = 2; v < trees.size(); v++) {
+					long start = System.nanoTime();
+					registry.publish(trees.get(v));
+					System.out.println("published version " + v + " in " + (System.nanoTime() - start) / 1000
+							+ " us; " + registry.getNumLiveVersions() + " live, " + registry.getNumReclaimed()
+							+ " reclaimed");
+				}
+				publishing.set(false);
+				return null;
+			}
+		});
+		ParallelTasks.invokeAll(tasks, tasks.size());
+
+		System.out.println(decisions.get() + " decisions, " + mismatches.get() + " mismatches");
+		System.out.println("current version " + registry.getVersion() + ", " + registry.getNumLiveVersions()
+				+ " live, " + registry.getNumReclaimed() + " reclaimed");
+	}
+}
@@ -0,0 +1,425 @@
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Random;
+
+/**
+ * A ModelSnapshot is an immutable copy of a DecisionTree, compiled into one
+ * flat array so that it can be shared by any number of scoring threads
+ * without locks, and safely published to them. The tree itself is built of
+ * HashMaps and mutable fields and is not meant to be read while it might be
+ * changed.
+ *
+ * Each internal node is a record in <code>nodes</code>: at its offset o,
+ * <code>nodes[o]</code> is the index of the split attribute, and an instance
+ * whose value of that attribute has index v continues at
+ * <code>nodes[o + 1 + v]</code>, which is the offset of the child's record,
+ * or, if the child is a leaf, minus one minus the index of its decision. So a
+ * decision reads two entries per level, usually in different cache lines, and
+ * none for the leaf. A tree that is a single leaf is the record
+ * <code>-1 - decision</code>. A subtree that appears several times in the
+ * tree (the same object) is compiled once.
+ *
+ * The root's record comes first, and the rest are in breadth-first order, so
+ * the nodes near the root, which every decision visits, are together in
+ * memory. When traffic is skewed, <code>relayout</code> does better: given
+ * the number of times each branch was taken in a sample of traffic (see
+ * <code>profile</code>), it places each node's most used child immediately
+ * after it, so the hot paths of the tree are contiguous, and moves the
+ * subtrees the sample never reached to the end.
+ *
+ * @author jmac
+ */
+public final class ModelSnapshot {
+	private final AttributeSet attributeSet;
+	private final long version;
+
+	private final int[] nodes;
+	private final String[] decisions;
+
+	// The number of distinct nodes, leaves included
+	private final int numNodes;
+
+	/**
+	 * Compile a tree.
+	 *
+	 * @param tree         the tree
+	 * @param attributeSet the attributes of the instances to be decided
+	 * @param version      a number identifying this snapshot
+	 * @throws DecisionTreeException if the tree tests an attribute that is not
+	 *                               in the attribute set, lacks the child for
+	 *                               a value, or decides a value that is not a
+	 *                               classification
+	 */
+	public ModelSnapshot(DecisionTree tree, AttributeSet attributeSet, long version) throws DecisionTreeException {
+		this.attributeSet = attributeSet;
+		this.version = version;
+		decisions = attributeSet.getClassAttribute().getValues().clone();
+		if (tree instanceof DecisionTreeLeaf) {
+			nodes = new int[] { -1 - decisionCode(tree) };
+			numNodes = 1;
+			return;
+		}
+
+		// Give the distinct internal nodes offsets breadth first
+		IdentityHashMap<DecisionTree, Integer> offsets = new IdentityHashMap<DecisionTree, Integer>();
+		IdentityHashMap<DecisionTree, Boolean> leaves = new IdentityHashMap<DecisionTree, Boolean>();
+		ArrayDeque<DecisionTree> queue = new ArrayDeque<DecisionTree>();
+		ArrayList<DecisionTreeInternal> internals = new ArrayList<DecisionTreeInternal>();
+		int length = 0;
+		offsets.put(tree, 0);
+		queue.add(tree);
+		while (!queue.isEmpty()) {
+			DecisionTreeInternal internal = (DecisionTreeInternal) queue.remove();
+			internals.add(internal);
+			length += 1 + internal.splitAttribute.getNumValues();
+			for (int v = 0; v < internal.splitAttribute.getNumValues(); v++) {
+				DecisionTree child = internal.getChild(v);
+				if (child == null)
+					throw new DecisionTreeException("no child for value " + internal.splitAttribute.getValues()[v]
+							+ " of attribute " + internal.splitAttribute.getName());
+				if (child instanceof DecisionTreeLeaf) {
+					leaves.put(child, Boolean.TRUE);
+				} else if (!offsets.containsKey(child)) {
+					offsets.put(child, offsets.size());
+					queue.add(child);
+				}
+			}
+		}
+		numNodes = internals.size() + leaves.size();
+
+		// Turn the numbers into offsets, then fill in the records
+		int[] recordOffsets = new int[internals.size()];
+		for (int i = 1; i < internals.size(); i++)
+			recordOffsets[i] = recordOffsets[i - 1] + 1 + internals.get(i - 1).splitAttribute.getNumValues();
+		nodes = new int[length];
+		for (int i = 0; i < internals.size(); i++) {
+			DecisionTreeInternal internal = internals.get(i);
+			int index = attributeSet.getAttributeIndex(internal.splitAttribute);
+			if (index < 0)
+				throw new DecisionTreeException("unknown attribute " + internal.splitAttribute.getName());
+			int o = recordOffsets[i];
+			nodes[o] = index;
+			for (int v = 0; v < internal.splitAttribute.getNumValues(); v++) {
+				DecisionTree child = internal.getChild(v);
+				nodes[o + 1 + v] = child instanceof DecisionTreeLeaf ? -1 - decisionCode(child)
+						: recordOffsets[offsets.get(child)];
+			}
+		}
+	}
+
+	// Copy a snapshot with its records in a different order.
+	private ModelSnapshot(ModelSnapshot snapshot, int[] nodes) {
+		attributeSet = snapshot.attributeSet;
+		version = snapshot.version;
+		decisions = snapshot.decisions;
+		numNodes = snapshot.numNodes;
+		this.nodes = nodes;
+	}
+
+	private int decisionCode(DecisionTree leaf) throws DecisionTreeException {
+		String decision = ((DecisionTreeLeaf) leaf).decision;
+		int code = attributeSet.getClassAttribute().getValueIndex(decision);
+		if (code < 0)
+			throw new DecisionTreeException("unknown decision " + decision);
+		return code;
+	}
+
+	/**
+	 * Count how often each branch of the snapshot is taken when deciding the
+	 * given rows, for example a sample of recent traffic.
+	 *
+	 * @param sample rows using the snapshot's attributes
+	 * @return the counts, for <code>relayout</code>; the array is the same
+	 *         length as the snapshot's, and element o + 1 + v counts the
+	 *         decisions that left the node at offset o by value v
+	 */
+	public long[] profile(ColumnStore sample) {
+		long[] counts = new long[nodes.length];
+		for (int row = 0; row < sample.getNumRows(); row++) {
+			int node = 0;
+			int split;
+			while ((split = nodes[node]) >= 0) {
+				int branch = node + 1 + sample.getCode(row, split);
+				counts[branch]++;
+				node = nodes[branch];
+				if (node < 0)
+					break;
+			}
+		}
+		return counts;
+	}
+
+	/**
+	 * Make a copy of this snapshot laid out for the traffic profiled: each
+	 * node's most used child (by the number of decisions passing through it)
+	 * is placed immediately after it, recursively, so each hot path is
+	 * contiguous, then the other used children, in decreasing order of use;
+	 * subtrees the profile never reached go at the end, breadth first. The
+	 * copy makes exactly the same decisions and has the same version.
+	 *
+	 * @param counts the branch counts returned by <code>profile</code>
+	 * @return the new snapshot
+	 */
+	public ModelSnapshot relayout(final long[] counts) {
+		if (nodes[0] < 0)
+			return this;
+		int[] newOffsets = new int[nodes.length];
+		Arrays.fill(newOffsets, -1);
+		int[] relaid = new int[nodes.length];
+		int next = 0;
+		ArrayDeque<Integer> stack = new ArrayDeque<Integer>();
+		ArrayDeque<Integer> cold = new ArrayDeque<Integer>();
+		stack.push(0);
+		while (!stack.isEmpty() || !cold.isEmpty()) {
+			int o = stack.isEmpty() ? cold.remove() : stack.pop();
+			if (newOffsets[o] >= 0)
+				continue;
+			newOffsets[o] = next;
+			int numValues = attributeSet.getAttributes().get(nodes[o]).getNumValues();
+			next += 1 + numValues;
+
+			// The traffic through each distinct internal child
+			final HashMap<Integer, Long> traffic = new HashMap<Integer, Long>();
+			ArrayList<Integer> children = new ArrayList<Integer>();
+			for (int v = 0; v < numValues; v++) {
+				int child = nodes[o + 1 + v];
+				if (child < 0 || newOffsets[child] >= 0)
+					continue;
+				Long total = traffic.get(child);
+				if (total == null)
+					children.add(child);
+				traffic.put(child, (total == null ? 0 : total) + counts[o + 1 + v]);
+			}
+			// Push the least used first, so the most used is placed next
+			Collections.sort(children, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer a, Integer b) {
+					return Long.compare(traffic.get(a), traffic.get(b));
+				}
+			});
+			for (int child : children) {
+				if (traffic.get(child) > 0)
+					stack.push(child);
+			}
+			for (int c = children.size() - 1; c >= 0; c--) {
+				if (traffic.get(children.get(c)) == 0)
+					cold.add(children.get(c));
+			}
+		}
+
+		for (int o = 0; o < nodes.length; o++) {
+			if (newOffsets[o] < 0)
+				continue;
+			int n = newOffsets[o];
+			relaid[n] = nodes[o];
+			int numValues = attributeSet.getAttributes().get(nodes[o]).getNumValues();
+			for (int v = 0; v < numValues; v++) {
+				int child = nodes[o + 1 + v];
+				relaid[n + 1 + v] = child < 0 ? child : newOffsets[child];
+			}
+		}
+		return new ModelSnapshot(this, relaid);
+	}
+
+	/**
+	 * Make a copy of this snapshot laid out for the traffic in a sample.
+	 *
+	 * @param sample rows using the snapshot's attributes
+	 * @return the new snapshot
+	 */
+	public ModelSnapshot relayout(ColumnStore sample) {
+		return relayout(profile(sample));
+	}
+
+	/**
+	 * @return the number identifying this snapshot
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * @return the attributes of the instances this snapshot decides
+	 */
+	public AttributeSet getAttributeSet() {
+		return attributeSet;
+	}
+
+	/**
+	 * @return the number of distinct nodes
+	 */
+	public int getNumNodes() {
+		return numNodes;
+	}
+
+	/**
+	 * Decide the classification of a row of encoded data, as the tree this
+	 * snapshot was compiled from would.
+	 *
+	 * @param data the encoded rows, which use the snapshot's attributes
+	 * @param row  the index of the row to be classified
+	 * @return the decision
+	 */
+	public String decide(ColumnStore data, int row) {
+		return decisions[decideCode(data, row)];
+	}
+
+	/**
+	 * Decide the classification of a row of encoded data.
+	 *
+	 * @param data the encoded rows, which use the snapshot's attributes
+	 * @param row  the index of the row to be classified
+	 * @return the index of the decision among the classification's values
+	 */
+	public int decideCode(ColumnStore data, int row) {
+		int node = 0;
+		int split;
+		while ((split = nodes[node]) >= 0) {
+			node = nodes[node + 1 + data.getCode(row, split)];
+			if (node < 0)
+				return -1 - node;
+		}
+		return -1 - split;
+	}
+
+	/**
+	 * Decide the classification of an instance, as the tree this snapshot was
+	 * compiled from would.
+	 *
+	 * @param instance the instance to be classified
+	 * @return the decision
+	 * @throws DecisionTreeException if the instance takes a value that a split
+	 *                               attribute does not declare
+	 */
+	public String decide(Instance instance) throws DecisionTreeException {
+		String[] values = instance.getValues();
+		int node = 0;
+		int split;
+		while ((split = nodes[node]) >= 0) {
+			Attribute attribute = attributeSet.getAttributes().get(split);
+			int code = attribute.getValueIndex(values[split]);
+			if (code < 0)
+				throw new DecisionTreeException(
+						"unexpected value " + values[split] + " for attribute " + attribute.getName());
+			node = nodes[node + 1 + code];
+			if (node < 0)
+				return decisions[-1 - node];
+		}
+		return decisions[-1 - split];
+	}
+
+	// The average time in nanoseconds to decide each row.
+	private static double time(ModelSnapshot snapshot, ColumnStore data) {
+		long sink = 0;
+		long start = System.nanoTime();
+		for (int r = 0; r < data.getNumRows(); r++)
+			sink += snapshot.decideCode(data, r);
+		long elapsed = System.nanoTime() - start;
+		// Keeps the decisions from being optimized away
+		if (sink < 0)
+			System.out.println(sink);
+		return (double) elapsed / data.getNumRows();
+	}
+
+	/**
+	 * Learns a large tree from copies of the MAGIC training set, each but the
+	 * first with every numeric code moved up or down a bucket at random, then
+	 * decides skewed traffic (most rows drawn from a small part of the test
+	 * set) with the tree, with its snapshot in breadth-first order, and with
+	 * the snapshot laid out for a profile of the first half of the traffic,
+	 * reporting the time per decision on the second half and checking that
+	 * all three agree.
+	 *
+	 * @param arguments Optionally, the number of copies of the training set,
+	 *                  and the number of rows of traffic.
+	 * @throws DecisionTreeException
+	 * @throws FileNotFoundException
+	 * @throws IOException
+	 */
+	public static void main(String[] arguments) throws DecisionTreeException, FileNotFoundException, IOException {
+		int numCopies = arguments.length > 0 ? Integer.parseInt(arguments[0]) : 10;
+		int numTrafficRows = arguments.length > 1 ? Integer.parseInt(arguments[1]) : 400000;
+		EncodedInstanceSet trainingSet = new EncodedInstanceSet(
+				new InstanceSet("data/MAGIC_DataSet_Training.arff"));
+		EncodedInstanceSet testSet = new EncodedInstanceSet(new InstanceSet("data/MAGIC_DataSet_Test.arff"));
+		AttributeSet attributeSet = trainingSet.getAttributeSet();
+		ArrayList<Attribute> attributes = DecisionTree.removeClassAttribute(attributeSet,
+				attributeSet.getAttributes());
+
+		Random random = new Random(42);
+		int numAttributes = trainingSet.getNumAttributes();
+		int classAttributeIndex = attributeSet.getClassAttributeIndex();
+		RowBatch data = new RowBatch(attributeSet, numCopies * trainingSet.getNumRows());
+		int[] row = new int[numAttributes];
+		for (int copy = 0; copy < numCopies; copy++) {
+			for (int r = 0; r < trainingSet.getNumRows(); r++) {
+				for (int a = 0; a < numAttributes; a++) {
+					int code = trainingSet.getCode(r, a);
+					if (copy > 0 && a != classAttributeIndex)
+						code = Math.max(0, Math.min(trainingSet.getNumValues(a) - 1, code + random.nextInt(3) - 1));
+					row[a] = code;
+				}
+				data.add(row, 0);
+			}
+		}
+		DecisionTree tree = new EncodedTreeBuilder(data, null).build(attributes);
+
+		// Nine rows in ten come from the first tenth of the test set
+		RowBatch traffic = new RowBatch(attributeSet, numTrafficRows);
+		int hotRows = testSet.getNumRows() / 10;
+		for (int i = 0; i < numTrafficRows; i++) {
+			int r = random.nextInt(10) < 9 ? random.nextInt(hotRows) : random.nextInt(testSet.getNumRows());
+			for (int a = 0; a < numAttributes; a++)
+				row[a] = testSet.getCode(r, a);
+			traffic.add(row, 0);
+		}
+		RowBatch sample = new RowBatch(attributeSet, numTrafficRows / 2);
+		RowBatch measured = new RowBatch(attributeSet, numTrafficRows - numTrafficRows / 2);
+		for (int r = 0; r < numTrafficRows; r++) {
+			for (int a = 0; a < numAttributes; a++)
+				row[a] = traffic.getCode(r, a);
+			(r < numTrafficRows / 2 ? sample : measured).add(row, 0);
+		}
+
+		ModelSnapshot breadthFirst = new ModelSnapshot(tree, attributeSet, 1);
+		long start = System.nanoTime();
+		ModelSnapshot relaid = breadthFirst.relayout(sample);
+		long relayoutMicros = (System.nanoTime() - start) / 1000;
+		System.out.println(data.getNumRows() + " training rows, " + breadthFirst.getNumNodes() + " nodes, "
+				+ breadthFirst.nodes.length * 4 / 1024 + " KB; laid out in " + relayoutMicros + " us");
+
+		Attribute classAttribute = attributeSet.getClassAttribute();
+		int[] expected = new int[measured.getNumRows()];
+		for (int r = 0; r < expected.length; r++)
+			expected[r] = classAttribute.getValueIndex(tree.decide(measured, r));
+		int differences = 0;
+		for (int r = 0; r < expected.length; r++) {
+			if (breadthFirst.decideCode(measured, r) != expected[r] || relaid.decideCode(measured, r) != expected[r])
+				differences++;
+		}
+
+		// The best of several rounds, alternating, to see past the noise
+		double treeNanos = Double.MAX_VALUE;
+		double breadthFirstNanos = Double.MAX_VALUE;
+		double relaidNanos = Double.MAX_VALUE;
+		long sink = 0;
+		for (int round = 0; round < 10; round++) {
+			start = System.nanoTime();
+			for (int r = 0; r < expected.length; r++)
+				sink += classAttribute.getValueIndex(tree.decide(measured, r));
+			treeNanos = Math.min(treeNanos, (double) (System.nanoTime() - start) / expected.length);
+			breadthFirstNanos = Math.min(breadthFirstNanos, time(breadthFirst, measured));
+			relaidNanos = Math.min(relaidNanos, time(relaid, measured));
+		}
+		System.out.println(String.format("tree %.1f ns, breadth first %.1f ns, laid out %.1f ns per decision (%d)",
+				treeNanos, breadthFirstNanos, relaidNanos, sink));
+		System.out.println("Differing decisions: " + differences);
+	}
+}
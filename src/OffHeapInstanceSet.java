@@ -0,0 +1,208 @@
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+
+/**
+ * An OffHeapInstanceSet is a ColumnStore whose codes live outside the Java
+ * heap, in MemorySegments owned by an Arena, using the Foreign Function and
+ * Memory API. Each column uses the narrowest of 1, 2 or 4 bytes per code that
+ * can hold its attribute's values. The columns are either copied from another
+ * ColumnStore into native memory, or mapped directly from a ColumnFile, in
+ * which case the operating system pages them in on demand and the data may be
+ * much larger than the heap.
+ *
+ * The memory is released by <code>close</code>; any use of the set afterwards
+ * throws IllegalStateException. Until then any number of threads may read the
+ * set. This class uses java.lang.foreign, which is final in JDK 22; on JDK 21 it
+ * must be compiled and run with <code>--enable-preview</code>.
+ *
+ * @author jmac
+ */
+public class OffHeapInstanceSet implements ColumnStore, AutoCloseable {
+	private static final ValueLayout.OfShort SHORT = ValueLayout.JAVA_SHORT_UNALIGNED
+			.withOrder(ByteOrder.LITTLE_ENDIAN);
+	private static final ValueLayout.OfInt INT = ValueLayout.JAVA_INT_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+
+	private AttributeSet attributeSet;
+	private int numRows;
+	private int classAttributeIndex;
+
+	// The arena owning the memory of every column
+	private Arena arena;
+
+	// columns[a] holds the codes of attribute a, each widths[a] bytes long
+	private MemorySegment[] columns;
+	private int[] widths;
+
+	/**
+	 * Copy the given data into native memory.
+	 *
+	 * @param data the data to copy
+	 */
+	public OffHeapInstanceSet(ColumnStore data) {
+		attributeSet = data.getAttributeSet();
+		numRows = data.getNumRows();
+		classAttributeIndex = attributeSet.getClassAttributeIndex();
+		arena = Arena.ofShared();
+		int numAttributes = data.getNumAttributes();
+		columns = new MemorySegment[numAttributes];
+		widths = new int[numAttributes];
+		for (int a = 0; a < numAttributes; a++) {
+			widths[a] = ColumnFile.widthFor(data.getNumValues(a));
+			MemorySegment column = arena.allocate(Math.max(1, (long) numRows * widths[a]), 8);
+			for (int r = 0; r < numRows; r++) {
+				int code = data.getCode(r, a);
+				if (widths[a] == 1)
+					column.set(ValueLayout.JAVA_BYTE, r, (byte) code);
+				else if (widths[a] == 2)
+					column.setAtIndex(SHORT, r, (short) code);
+				else
+					column.setAtIndex(INT, r, code);
+			}
+			columns[a] = column;
+		}
+	}
+
+	// Use columns that have already been set up.
+	private OffHeapInstanceSet(AttributeSet attributeSet, int numRows, Arena arena, MemorySegment[] columns,
+			int[] widths) {
+		this.attributeSet = attributeSet;
+		this.numRows = numRows;
+		this.arena = arena;
+		this.columns = columns;
+		this.widths = widths;
+		classAttributeIndex = attributeSet.getClassAttributeIndex();
+	}
+
+	/**
+	 * Map a column file into memory. The file is not read until its pages are
+	 * used, and pages that are no longer used can be dropped by the operating
+	 * system, so the file may be much larger than the available memory.
+	 *
+	 * @param filename     the name of a file written by
+	 *                     <code>ColumnFile.write</code>
+	 * @param attributeSet the attributes of the data the file was written from
+	 * @return the mapped set, which must be closed to unmap the file
+	 * @throws IOException
+	 * @throws DecisionTreeException if the file does not match the attributes
+	 */
+	public static OffHeapInstanceSet map(String filename, AttributeSet attributeSet)
+			throws IOException, DecisionTreeException {
+		ColumnFile file = new ColumnFile(filename);
+		file.checkAttributes(attributeSet);
+		Arena arena = Arena.ofShared();
+		try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+			MemorySegment mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, file.getLength(), arena);
+			MemorySegment[] columns = new MemorySegment[file.getNumAttributes()];
+			int[] widths = new int[file.getNumAttributes()];
+			for (int a = 0; a < columns.length; a++) {
+				widths[a] = file.getWidth(a);
+				columns[a] = mapped.asSlice(file.getColumnOffset(a), (long) file.getNumRows() * widths[a]);
+			}
+			return new OffHeapInstanceSet(attributeSet, file.getNumRows(), arena, columns, widths);
+		} catch (IOException e) {
+			arena.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Release the memory holding the columns, or unmap the file.
+	 */
+	@Override
+	public void close() {
+		arena.close();
+	}
+
+	@Override
+	public AttributeSet getAttributeSet() {
+		return attributeSet;
+	}
+
+	@Override
+	public int getNumRows() {
+		return numRows;
+	}
+
+	@Override
+	public int getNumAttributes() {
+		return columns.length;
+	}
+
+	@Override
+	public int getCode(int row, int attributeIndex) {
+		MemorySegment column = columns[attributeIndex];
+		switch (widths[attributeIndex]) {
+		case 1:
+			return column.get(ValueLayout.JAVA_BYTE, row) & 0xff;
+		case 2:
+			return column.getAtIndex(SHORT, row) & 0xffff;
+		default:
+			return column.getAtIndex(INT, row);
+		}
+	}
+
+	@Override
+	public int getClassCode(int row) {
+		return getCode(row, classAttributeIndex);
+	}
+
+	@Override
+	public int getNumValues(int attributeIndex) {
+		return attributeSet.getAttributes().get(attributeIndex).getNumValues();
+	}
+
+	@Override
+	public int getNumClasses() {
+		return attributeSet.getClassAttribute().getNumValues();
+	}
+
+	/**
+	 * Get the number of bytes of native or mapped memory used by the columns.
+	 *
+	 * @return the number of bytes
+	 */
+	public long getByteSize() {
+		long size = 0;
+		for (MemorySegment column : columns)
+			size += column.byteSize();
+		return size;
+	}
+
+	/**
+	 * Writes the MAGIC training set to a column file, maps it, and learns a
+	 * decision tree from the mapped columns.
+	 *
+	 * @param arguments Optionally, the name of the column file to write.
+	 * @throws DecisionTreeException
+	 * @throws IOException
+	 */
+	public static void main(String[] arguments) throws DecisionTreeException, IOException {
+		String columnFilename = arguments.length > 0 ? arguments[0] : "MAGIC_DataSet_Training.columns";
+		InstanceSet trainingSet = new InstanceSet("data/MAGIC_DataSet_Training.arff");
+		AttributeSet attributeSet = trainingSet.getAttributeSet();
+		ArrayList<Attribute> attributes = DecisionTree.removeClassAttribute(attributeSet,
+				attributeSet.getAttributes());
+		ColumnFile.write(new EncodedInstanceSet(trainingSet), columnFilename);
+
+		try (OffHeapInstanceSet data = OffHeapInstanceSet.map(columnFilename, attributeSet)) {
+			long start = System.currentTimeMillis();
+			DecisionTree tree = new EncodedTreeBuilder(data, null).build(attributes);
+			long elapsed = System.currentTimeMillis() - start;
+
+			int num_errors = 0;
+			for (int r = 0; r < data.getNumRows(); r++) {
+				if (attributeSet.getClassAttribute().getValueIndex(tree.decide(data, r)) != data.getClassCode(r))
+					num_errors++;
+			}
+			System.out.println("Learned from " + data.getByteSize() + " mapped bytes in " + elapsed + " ms");
+			System.out.println("Error rate on training set: " + (double) num_errors / data.getNumRows());
+		}
+	}
+}
@@ -0,0 +1,66 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Helper methods for running independent tasks -- learning trees, folds or
+ * histograms -- on a pool of threads, translating any failure into a
+ * DecisionTreeException.
+ *
+ * @author jmac
+ */
+public class ParallelTasks {
+
+	private ParallelTasks() {
+	}
+
+	/**
+	 * Run the given tasks on a new pool of the given number of threads, which
+	 * is shut down before returning.
+	 *
+	 * @param tasks      the tasks to run
+	 * @param numThreads the number of threads in the pool
+	 * @return the results of the tasks, in the same order as the tasks
+	 * @throws DecisionTreeException if a task fails or the calling thread is
+	 *                               interrupted
+	 */
+	public static <T> List<T> invokeAll(List<? extends Callable<T>> tasks, int numThreads)
+			throws DecisionTreeException {
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, numThreads));
+		try {
+			return invokeAll(executor, tasks);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Run the given tasks on the given executor and wait for all of them.
+	 *
+	 * @param executor the executor on which to run the tasks
+	 * @param tasks    the tasks to run
+	 * @return the results of the tasks, in the same order as the tasks
+	 * @throws DecisionTreeException if a task fails or the calling thread is
+	 *                               interrupted
+	 */
+	public static <T> List<T> invokeAll(ExecutorService executor, List<? extends Callable<T>> tasks)
+			throws DecisionTreeException {
+		try {
+			List<T> results = new ArrayList<T>();
+			for (Future<T> future : executor.invokeAll(tasks))
+				results.add(future.get());
+			return results;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new DecisionTreeException("interrupted while waiting for parallel tasks");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof DecisionTreeException)
+				throw (DecisionTreeException) e.getCause();
+			throw new DecisionTreeException("parallel task failed: " + e.getCause());
+		}
+	}
+}
@@ -0,0 +1,333 @@
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A PredictionCache sits in front of a DecisionTree and remembers its
+ * decisions, so that instances that agree on every attribute the tree tests
+ * are decided without walking the tree again. The key of an instance consists
+ * of its value indices for only those attributes, so instances differing
+ * elsewhere share an entry.
+ *
+ * At most <code>capacity</code> decisions are kept. When the cache is full,
+ * an entry is evicted using the CLOCK algorithm: entries sit on a ring, every
+ * hit marks its entry as referenced, and the clock hand sweeps the ring,
+ * clearing marks, until it finds an unmarked entry to replace. Hits take no
+ * locks, so any number of threads may use the cache at once.
+ *
+ * Replacing the model with <code>setModel</code> discards every entry, so a
+ * decision made by an old model is never returned.
+ *
+ * @author jmac
+ */
+public class PredictionCache {
+	private AttributeSet attributeSet;
+	private int capacity;
+
+	// The model and its entries, replaced together by setModel
+	private volatile Generation generation;
+
+	private AtomicLong hits = new AtomicLong();
+	private AtomicLong misses = new AtomicLong();
+	private AtomicLong evictions = new AtomicLong();
+
+	/**
+	 * Create an empty cache in front of the given tree.
+	 *
+	 * @param tree         the model whose decisions are cached
+	 * @param attributeSet the attributes of the instances to be decided
+	 * @param capacity     the maximum number of decisions kept
+	 */
+	public PredictionCache(DecisionTree tree, AttributeSet attributeSet, int capacity) {
+		this.attributeSet = attributeSet;
+		this.capacity = Math.max(1, capacity);
+		generation = new Generation(tree);
+	}
+
+	/**
+	 * Replace the model. Every cached decision is discarded; threads that are
+	 * deciding an instance with the old model at the time finish doing so, but
+	 * their decisions are not cached for the new one.
+	 *
+	 * @param tree the new model
+	 */
+	public void setModel(DecisionTree tree) {
+		generation = new Generation(tree);
+	}
+
+	/**
+	 * Get the model whose decisions are currently cached.
+	 *
+	 * @return the model
+	 */
+	public DecisionTree getModel() {
+		return generation.tree;
+	}
+
+	/**
+	 * Discard every cached decision, keeping the model.
+	 */
+	public void clear() {
+		setModel(generation.tree);
+	}
+
+	/**
+	 * Decide the classification of an instance, using a cached decision if the
+	 * cache holds one for its values of the attributes the model tests.
+	 *
+	 * @param instance the instance to be classified
+	 * @return the model's decision
+	 * @throws DecisionTreeException if the instance takes a value that the
+	 *                               model's split attributes do not declare
+	 */
+	public String decide(Instance instance) throws DecisionTreeException {
+		Generation current = generation;
+		String[] values = instance.getValues();
+		int[] key = new int[current.attributes.length];
+		for (int k = 0; k < key.length; k++)
+			key[k] = current.attributes[k].getValueIndex(values[current.attributeIndices[k]]);
+		Key cacheKey = new Key(key);
+		String decision = current.get(cacheKey);
+		if (decision == null) {
+			decision = current.tree.decide(attributeSet, instance);
+			current.put(cacheKey, decision);
+		}
+		return decision;
+	}
+
+	/**
+	 * Decide the classification of a row of encoded data, using a cached
+	 * decision if possible.
+	 *
+	 * @param data the encoded rows, which use the cache's attributes
+	 * @param row  the index of the row to be classified
+	 * @return the model's decision
+	 */
+	public String decide(ColumnStore data, int row) {
+		Generation current = generation;
+		int[] key = new int[current.attributes.length];
+		for (int k = 0; k < key.length; k++)
+			key[k] = data.getCode(row, current.attributeIndices[k]);
+		Key cacheKey = new Key(key);
+		String decision = current.get(cacheKey);
+		if (decision == null) {
+			decision = current.tree.decide(data, row);
+			current.put(cacheKey, decision);
+		}
+		return decision;
+	}
+
+	/**
+	 * @return the number of decisions found in the cache
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return the number of decisions that had to be made by the model
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * @return the number of decisions evicted to make room for others
+	 */
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	/**
+	 * @return the fraction of decisions found in the cache, or 0 if none has
+	 *         been requested
+	 */
+	public double getHitRate() {
+		long h = hits.get();
+		long total = h + misses.get();
+		return total == 0 ? 0.0 : (double) h / total;
+	}
+
+	/**
+	 * @return the number of decisions currently cached
+	 */
+	public int size() {
+		return generation.map.size();
+	}
+
+	/**
+	 * @return the names of the attributes the current model tests, which make
+	 *         up the cache keys
+	 */
+	public ArrayList<String> getKeyAttributeNames() {
+		ArrayList<String> names = new ArrayList<String>();
+		for (Attribute attribute : generation.attributes)
+			names.add(attribute.getName());
+		return names;
+	}
+
+	/**
+	 * A model together with the decisions cached for it.
+	 */
+	private class Generation {
+		DecisionTree tree;
+
+		// The attributes tested anywhere in the tree, in attribute set order
+		Attribute[] attributes;
+		int[] attributeIndices;
+
+		ConcurrentHashMap<Key, Entry> map = new ConcurrentHashMap<Key, Entry>();
+
+		// The CLOCK ring of cached entries and the position of the hand;
+		// guarded by this Generation
+		Entry[] ring = new Entry[capacity];
+		int hand;
+		int used;
+
+		Generation(DecisionTree tree) {
+			this.tree = tree;
+			TreeSet<Integer> indices = new TreeSet<Integer>();
+			collectSplitAttributes(tree, indices);
+			attributes = new Attribute[indices.size()];
+			attributeIndices = new int[indices.size()];
+			int k = 0;
+			for (int index : indices) {
+				attributeIndices[k] = index;
+				attributes[k] = attributeSet.getAttributes().get(index);
+				k++;
+			}
+		}
+
+		// Add the index of every split attribute in the given subtree.
+		private void collectSplitAttributes(DecisionTree node, TreeSet<Integer> indices) {
+			if (node instanceof DecisionTreeInternal) {
+				DecisionTreeInternal internal = (DecisionTreeInternal) node;
+				indices.add(attributeSet.getAttributeIndex(internal.splitAttribute));
+				for (DecisionTree child : internal.getChildren())
+					collectSplitAttributes(child, indices);
+			}
+		}
+
+		String get(Key key) {
+			Entry entry = map.get(key);
+			if (entry == null) {
+				misses.incrementAndGet();
+				return null;
+			}
+			entry.referenced = true;
+			hits.incrementAndGet();
+			return entry.decision;
+		}
+
+		synchronized void put(Key key, String decision) {
+			if (generation != this || map.containsKey(key))
+				return;
+			Entry entry = new Entry(key, decision);
+			if (used < ring.length) {
+				ring[used++] = entry;
+			} else {
+				// Sweep past recently used entries, giving each a second chance
+				while (ring[hand].referenced) {
+					ring[hand].referenced = false;
+					hand = (hand + 1) % ring.length;
+				}
+				map.remove(ring[hand].key);
+				evictions.incrementAndGet();
+				ring[hand] = entry;
+				hand = (hand + 1) % ring.length;
+			}
+			map.put(key, entry);
+		}
+	}
+
+	private static class Entry {
+		Key key;
+		String decision;
+		volatile boolean referenced;
+
+		Entry(Key key, String decision) {
+			this.key = key;
+			this.decision = decision;
+		}
+	}
+
+	// The value indices of an instance for the attributes the model tests
+	private static class Key {
+		private int[] codes;
+		private int hash;
+
+		Key(int[] codes) {
+			this.codes = codes;
+			hash = Arrays.hashCode(codes);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			return other instanceof Key && Arrays.equals(codes, ((Key) other).codes);
+		}
+	}
+
+	/**
+	 * Learns a shallow decision tree from the MAGIC training set, then decides
+	 * the test set several times through a cache, as a service answering
+	 * repeated requests would, and reports the hit rate and timings.
+	 *
+	 * @param arguments Optionally, the maximum depth of the tree and the
+	 *                  capacity of the cache.
+	 * @throws DecisionTreeException
+	 * @throws FileNotFoundException
+	 * @throws IOException
+	 */
+	public static void main(String[] arguments) throws DecisionTreeException, FileNotFoundException, IOException {
+		int maxDepth = arguments.length > 0 ? Integer.parseInt(arguments[0]) : 4;
+		int capacity = arguments.length > 1 ? Integer.parseInt(arguments[1]) : 1 << 14;
+		InstanceSet trainingSet = new InstanceSet("data/MAGIC_DataSet_Training.arff");
+		InstanceSet testSet = new InstanceSet("data/MAGIC_DataSet_Test.arff");
+		AttributeSet attributeSet = trainingSet.getAttributeSet();
+		ArrayList<Attribute> attributes = DecisionTree.removeClassAttribute(attributeSet,
+				attributeSet.getAttributes());
+		EncodedTreeBuilder builder = new EncodedTreeBuilder(new EncodedInstanceSet(trainingSet), null);
+		builder.setMaxDepth(maxDepth);
+		DecisionTree tree = builder.build(attributes);
+
+		PredictionCache cache = new PredictionCache(tree, attributeSet, capacity);
+		int numPasses = 20;
+		long start = System.nanoTime();
+		int agreements = 0;
+		for (int pass = 0; pass < numPasses; pass++) {
+			for (Instance instance : testSet.getInstances()) {
+				if (cache.decide(instance).equals(tree.decide(attributeSet, instance)))
+					agreements++;
+			}
+		}
+		long checked = System.nanoTime();
+		for (int pass = 0; pass < numPasses; pass++) {
+			for (Instance instance : testSet.getInstances())
+				tree.decide(attributeSet, instance);
+		}
+		long uncached = System.nanoTime();
+		for (int pass = 0; pass < numPasses; pass++) {
+			for (Instance instance : testSet.getInstances())
+				cache.decide(instance);
+		}
+		long cached = System.nanoTime();
+
+		int numDecisions = numPasses * testSet.getNumInstances();
+		System.out.println("Key attributes: " + cache.getKeyAttributeNames());
+		System.out.println("Agreement with the tree: " + agreements + " of " + numDecisions + " (checked in "
+				+ (checked - start) / 1000000 + " ms)");
+		System.out.println("Uncached: " + (uncached - checked) / numDecisions + " ns per decision");
+		System.out.println("Cached: " + (cached - uncached) / numDecisions + " ns per decision");
+		System.out.println("Hit rate " + cache.getHitRate() + ", " + cache.size() + " entries, "
+				+ cache.getEvictions() + " evictions");
+	}
+}
@@ -0,0 +1,212 @@
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+
+/**
+ * A RandomForest is an ensemble of decision trees, each learned from a
+ * bootstrap sample of the training examples and choosing its split attribute
+ * at every node from a random subset of the remaining attributes. The forest
+ * classifies an instance by majority vote of its trees.
+ *
+ * The trees are learned in parallel from a single shared ColumnStore.
+ * A bootstrap sample is represented by an array holding the number of times
+ * each row was drawn, which is discarded once its tree is built, so memory
+ * use grows with the size of the data plus the size of the trees rather than
+ * with their product.
+ *
+ * @author jmac
+ */
+public class RandomForest {
+	// The trees in the forest
+	private DecisionTree[] trees;
+
+	// The classification attribute of the training data; votes are indexed by
+	// the positions of its values
+	private Attribute classAttribute;
+
+	// The number of threads used for scoring
+	private int numThreads;
+
+	/**
+	 * Learn a random forest from the given examples.
+	 *
+	 * @param examples               The examples from which the forest should be
+	 *                               learned.
+	 * @param attributes             A list of attributes on which the trees are
+	 *                               permitted to make decisions.
+	 * @param numTrees               The number of trees in the forest.
+	 * @param numCandidateAttributes The number of attributes chosen at random as
+	 *                               split candidates at each node, or 0 to use
+	 *                               the square root of the number of
+	 *                               attributes.
+	 * @param seed                   The seed from which every tree's random
+	 *                               choices are derived; the same seed always
+	 *                               gives the same forest.
+	 * @param numThreads             The number of threads used to learn and to
+	 *                               score trees.
+	 * @return The learned forest.
+	 * @throws DecisionTreeException
+	 */
+	public static RandomForest constructRandomForest(final ColumnStore examples,
+			final ArrayList<Attribute> attributes, int numTrees, int numCandidateAttributes, final long seed,
+			int numThreads) throws DecisionTreeException {
+		if (numCandidateAttributes <= 0)
+			numCandidateAttributes = Math.max(1, (int) Math.round(Math.sqrt(attributes.size())));
+		final int numCandidates = numCandidateAttributes;
+
+		List<Callable<DecisionTree>> tasks = new ArrayList<Callable<DecisionTree>>();
+		for (int t = 0; t < numTrees; t++) {
+			final int treeIndex = t;
+			tasks.add(new Callable<DecisionTree>() {
+				public DecisionTree call() throws DecisionTreeException {
+					Random random = new Random(seed + treeIndex);
+					EncodedTreeBuilder builder = new EncodedTreeBuilder(examples, bootstrapCounts(examples, random));
+					builder.setNumCandidateAttributes(numCandidates, random);
+					return builder.build(attributes);
+				}
+			});
+		}
+
+		RandomForest forest = new RandomForest(examples.getAttributeSet().getClassAttribute(), numThreads);
+		List<DecisionTree> trees = ParallelTasks.invokeAll(tasks, numThreads);
+		forest.trees = trees.toArray(new DecisionTree[trees.size()]);
+		return forest;
+	}
+
+	// Draw numRows rows with replacement, returning the number of times each
+	// row was drawn.
+	private static int[] bootstrapCounts(ColumnStore examples, Random random) {
+		int numRows = examples.getNumRows();
+		int[] counts = new int[numRows];
+		for (int i = 0; i < numRows; i++)
+			counts[random.nextInt(numRows)]++;
+		return counts;
+	}
+
+	private RandomForest(Attribute classAttribute, int numThreads) {
+		this.classAttribute = classAttribute;
+		this.numThreads = numThreads;
+	}
+
+	/**
+	 * Return the forest's decision for the given instance: the classification
+	 * chosen by the most trees, with ties broken in favour of the
+	 * classification listed first by the classification attribute.
+	 *
+	 * @param attributes The set of attributes employed by the instance.
+	 * @param instance   The instance to be classified.
+	 * @return The classification of the given instance.
+	 * @throws DecisionTreeException if the instance takes a value that a
+	 *                               tree's split attributes do not declare
+	 */
+	public String decide(AttributeSet attributes, Instance instance) throws DecisionTreeException {
+		int[] votes = new int[classAttribute.getNumValues()];
+		for (DecisionTree tree : trees)
+			votes[classAttribute.getValueIndex(tree.decide(attributes, instance))]++;
+		return classAttribute.getValues()[ContingencyTable.indexOfMax(votes)];
+	}
+
+	/**
+	 * Compute the forest's decision for every instance in the given set. The
+	 * instances are divided into contiguous blocks that are classified in
+	 * parallel.
+	 *
+	 * @param testSet The instances to be classified.
+	 * @return An array whose i'th element is the decision for the i'th
+	 *         instance.
+	 * @throws DecisionTreeException
+	 */
+	public String[] decideAll(InstanceSet testSet) throws DecisionTreeException {
+		final AttributeSet attributes = testSet.getAttributeSet();
+		final ArrayList<Instance> instances = testSet.getInstances();
+		final String[] decisions = new String[instances.size()];
+		int numBlocks = Math.max(1, numThreads);
+		int blockSize = (instances.size() + numBlocks - 1) / numBlocks;
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for (int start = 0; start < instances.size(); start += blockSize) {
+			final int from = start;
+			final int to = Math.min(instances.size(), start + blockSize);
+			tasks.add(new Callable<Void>() {
+				public Void call() throws DecisionTreeException {
+					for (int i = from; i < to; i++)
+						decisions[i] = decide(attributes, instances.get(i));
+					return null;
+				}
+			});
+		}
+		ParallelTasks.invokeAll(tasks, numThreads);
+		return decisions;
+	}
+
+	/**
+	 * Compute the error rate of the forest on the given test set.
+	 *
+	 * @param testSet A set of examples on which the error rate will be computed.
+	 * @return The error rate of the forest on the given test set.
+	 * @throws DecisionTreeException
+	 */
+	public double computeErrorRate(InstanceSet testSet) throws DecisionTreeException {
+		String[] decisions = decideAll(testSet);
+		int classAttributeIndex = testSet.getAttributeSet().getClassAttributeIndex();
+		int num_errors = 0;
+		for (int i = 0; i < decisions.length; i++) {
+			if (!decisions[i].equals(testSet.getInstances().get(i).getValues()[classAttributeIndex]))
+				num_errors++;
+		}
+		return (double) num_errors / testSet.getNumInstances();
+	}
+
+	/**
+	 * Get the number of trees in the forest.
+	 *
+	 * @return the number of trees
+	 */
+	public int getNumTrees() {
+		return trees.length;
+	}
+
+	/**
+	 * Get the trees in the forest.
+	 *
+	 * @return the trees; callers must not modify the array
+	 */
+	public DecisionTree[] getTrees() {
+		return trees;
+	}
+
+	/**
+	 * Learns a random forest from the MAGIC training set and prints its error
+	 * rates on the training and test sets.
+	 *
+	 * @param arguments Optionally, the number of trees followed by the number of
+	 *                  threads.
+	 * @throws DecisionTreeException
+	 * @throws FileNotFoundException
+	 * @throws IOException
+	 */
+	public static void main(String[] arguments) throws DecisionTreeException, FileNotFoundException, IOException {
+		int numTrees = arguments.length > 0 ? Integer.parseInt(arguments[0]) : 50;
+		int numThreads = arguments.length > 1 ? Integer.parseInt(arguments[1])
+				: Runtime.getRuntime().availableProcessors();
+
+		InstanceSet trainingSet = new InstanceSet("data/MAGIC_DataSet_Training.arff");
+		InstanceSet testSet = new InstanceSet("data/MAGIC_DataSet_Test.arff");
+		AttributeSet attributeSet = trainingSet.getAttributeSet();
+		ArrayList<Attribute> attributes = DecisionTree.removeClassAttribute(attributeSet,
+				attributeSet.getAttributes());
+
+		long start = System.currentTimeMillis();
+		RandomForest forest = RandomForest.constructRandomForest(new EncodedInstanceSet(trainingSet), attributes,
+				numTrees, 0, 1, numThreads);
+		long elapsed = System.currentTimeMillis() - start;
+
+		System.out.println();
+		System.out.println("Learned " + forest.getNumTrees() + " trees in " + elapsed + " ms");
+		System.out.println("Error rate on training set: " + forest.computeErrorRate(trainingSet));
+		System.out.println("Error rate on testing set: " + forest.computeErrorRate(testSet));
+		System.out.println();
+	}
+}
@@ -0,0 +1,156 @@
+/**
+ * A RegressionTree is a small binary tree that maps an encoded row to a real
+ * number. Each internal node compares one attribute's value index against a
+ * threshold, sending rows whose index is at most the threshold to its left
+ * child; each leaf holds an output value. RegressionTrees are the weak
+ * learners combined by GradientBoostedTrees.
+ *
+ * The nodes are stored in parallel arrays. A leaf is encoded as a node whose
+ * threshold admits every value and whose children are the leaf itself, so a
+ * row can be routed a fixed number of steps (the depth of the tree) without
+ * testing whether it has already reached a leaf. This lets
+ * <code>addOutputs</code> route a whole batch of rows one level at a time in
+ * a tight loop, using the fastest available Kernels.
+ *
+ * @author jmac
+ */
+public class RegressionTree {
+	// For node n: the attribute compared, the largest value index sent left,
+	// the left and right children, and the output if n is a leaf
+	private int[] attributeIndices;
+	private int[] thresholds;
+	private int[] leftChildren;
+	private int[] rightChildren;
+	private double[] outputs;
+
+	// The number of nodes in use; node 0 is the root
+	private int numNodes;
+
+	// The length of the longest path from the root to a leaf
+	private int depth;
+
+	/**
+	 * Create a tree with room for the given number of nodes. The tree is
+	 * filled in by <code>addNode</code>, <code>makeLeaf</code> and
+	 * <code>makeSplit</code>.
+	 *
+	 * @param capacity the maximum number of nodes
+	 */
+	RegressionTree(int capacity) {
+		attributeIndices = new int[capacity];
+		thresholds = new int[capacity];
+		leftChildren = new int[capacity];
+		rightChildren = new int[capacity];
+		outputs = new double[capacity];
+	}
+
+	// Allocate a new node at the given depth and return its index.
+	int addNode(int nodeDepth) {
+		depth = Math.max(depth, nodeDepth);
+		return numNodes++;
+	}
+
+	// Turn the given node into a leaf with the given output.
+	void makeLeaf(int node, double output) {
+		attributeIndices[node] = 0;
+		thresholds[node] = Integer.MAX_VALUE;
+		leftChildren[node] = node;
+		rightChildren[node] = node;
+		outputs[node] = output;
+	}
+
+	// Turn the given node into an internal node.
+	void makeSplit(int node, int attributeIndex, int threshold, int leftChild, int rightChild) {
+		attributeIndices[node] = attributeIndex;
+		thresholds[node] = threshold;
+		leftChildren[node] = leftChild;
+		rightChildren[node] = rightChild;
+	}
+
+	/**
+	 * Compute the output of the tree for a single encoded row.
+	 *
+	 * @param codes an array whose a'th element is the row's value index for
+	 *              attribute a
+	 * @return the output of the leaf the row reaches
+	 */
+	public double getOutput(int[] codes) {
+		int node = 0;
+		for (int level = 0; level < depth; level++) {
+			node = codes[attributeIndices[node]] <= thresholds[node] ? leftChildren[node] : rightChildren[node];
+		}
+		return outputs[node];
+	}
+
+	/**
+	 * Find the first split on a row's path whose attribute has no value index
+	 * in the row.
+	 *
+	 * @param codes an array whose a'th element is the row's value index for
+	 *              attribute a, or -1 if the attribute does not declare the
+	 *              row's value
+	 * @return the index of the attribute, or -1 if the row reaches a leaf
+	 *         through splits on declared values only
+	 */
+	int findUndeclared(int[] codes) {
+		int node = 0;
+		while (leftChildren[node] != node) {
+			if (codes[attributeIndices[node]] < 0)
+				return attributeIndices[node];
+			node = codes[attributeIndices[node]] <= thresholds[node] ? leftChildren[node] : rightChildren[node];
+		}
+		return -1;
+	}
+
+	/**
+	 * Add the output of the tree for each row in rows[from..to) of the given
+	 * data to the corresponding score.
+	 *
+	 * @param data   the encoded rows
+	 * @param from   the first row of the batch
+	 * @param to     one past the last row of the batch
+	 * @param scores an array whose element (first + i - from) * stride +
+	 *               offset receives the output for row i
+	 * @param first  the position in scores of row from's scores: 0 for
+	 *               scores holding just the batch, or from for scores
+	 *               holding every row
+	 * @param stride the distance between the scores of consecutive rows
+	 * @param offset the position of this tree's score within each row's scores
+	 * @param nodes  scratch space holding at least (to - from) elements
+	 * @param codes  scratch space holding at least (to - from) elements
+	 */
+	public void addOutputs(ColumnStore data, int from, int to, double[] scores, int first, int stride,
+			int offset, int[] nodes, int[] codes) {
+		Kernels kernels = Kernels.getInstance();
+		int n = to - from;
+		for (int i = 0; i < n; i++)
+			nodes[i] = 0;
+		for (int level = 0; level < depth; level++) {
+			// Read the value each row's node tests, then compare all the rows
+			// with their nodes' thresholds at once
+			for (int i = 0; i < n; i++)
+				codes[i] = data.getCode(from + i, attributeIndices[nodes[i]]);
+			kernels.route(codes, thresholds, leftChildren, rightChildren, nodes, n);
+		}
+		for (int i = 0; i < n; i++)
+			scores[(first + i) * stride + offset] += outputs[nodes[i]];
+	}
+
+	/**
+	 * Get the number of nodes in the tree.
+	 *
+	 * @return the number of nodes
+	 */
+	public int getNumNodes() {
+		return numNodes;
+	}
+
+	/**
+	 * Get the depth of the tree.
+	 *
+	 * @return the length of the longest path from the root to a leaf
+	 */
+	public int getDepth() {
+		return depth;
+	}
+}
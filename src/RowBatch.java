@@ -0,0 +1,121 @@
+/**
+ * A RowBatch is a reusable, fixed-capacity ColumnStore holding a batch of
+ * encoded rows in one int array, row after row. Scoring paths fill a batch
+ * with rows as they arrive (for example from a RowEncoder) and decide them
+ * together, reusing the same batch for the next rows, so no objects are
+ * allocated per row.
+ *
+ * A RowBatch may be read by several threads once filled, but must not be
+ * filled while it is being read.
+ *
+ * @author jmac
+ */
+public class RowBatch implements ColumnStore {
+	private AttributeSet attributeSet;
+	private int numAttributes;
+	private int classAttributeIndex;
+
+	// codes[row * numAttributes + a] is the value index of attribute a
+	private int[] codes;
+	private int numRows;
+
+	/**
+	 * Create an empty batch.
+	 *
+	 * @param attributeSet the attributes of the rows
+	 * @param capacity     the maximum number of rows
+	 */
+	public RowBatch(AttributeSet attributeSet, int capacity) {
+		this.attributeSet = attributeSet;
+		numAttributes = attributeSet.getAttributes().size();
+		classAttributeIndex = attributeSet.getClassAttributeIndex();
+		codes = new int[capacity * numAttributes];
+	}
+
+	/**
+	 * Remove every row.
+	 */
+	public void clear() {
+		numRows = 0;
+	}
+
+	/**
+	 * @return true if no more rows can be added
+	 */
+	public boolean isFull() {
+		return (numRows + 1) * numAttributes > codes.length;
+	}
+
+	/**
+	 * @return the maximum number of rows
+	 */
+	public int getCapacity() {
+		return codes.length / numAttributes;
+	}
+
+	/**
+	 * Add a row that has already been encoded.
+	 *
+	 * @param source an array holding the index of each attribute's value
+	 * @param offset the position in <code>source</code> of the first attribute
+	 * @return the index of the new row
+	 */
+	public int add(int[] source, int offset) {
+		System.arraycopy(source, offset, codes, numRows * numAttributes, numAttributes);
+		return numRows++;
+	}
+
+	/**
+	 * Add a row by encoding a data line.
+	 *
+	 * @param encoder the encoder for the batch's attributes
+	 * @param values  the values of the line (see <code>RowEncoder.encode</code>)
+	 * @return the index of the new row
+	 * @throws DecisionTreeException if the line cannot be encoded
+	 */
+	public int add(RowEncoder encoder, String[] values) throws DecisionTreeException {
+		encoder.encode(values, codes, numRows * numAttributes);
+		return numRows++;
+	}
+
+	@Override
+	public AttributeSet getAttributeSet() {
+		return attributeSet;
+	}
+
+	@Override
+	public int getNumRows() {
+		return numRows;
+	}
+
+	@Override
+	public int getNumAttributes() {
+		return numAttributes;
+	}
+
+	@Override
+	public int getCode(int row, int attributeIndex) {
+		return codes[row * numAttributes + attributeIndex];
+	}
+
+	/**
+	 * Get the encoded classification of the given row.
+	 *
+	 * @param row the index of the row
+	 * @return the index of the row's classification, or -1 if it is not known
+	 */
+	@Override
+	public int getClassCode(int row) {
+		return codes[row * numAttributes + classAttributeIndex];
+	}
+
+	@Override
+	public int getNumValues(int attributeIndex) {
+		return attributeSet.getAttributes().get(attributeIndex).getNumValues();
+	}
+
+	@Override
+	public int getNumClasses() {
+		return attributeSet.getClassAttribute().getNumValues();
+	}
+}
@@ -0,0 +1,152 @@
+import java.util.ArrayList;
+
+/**
+ * A RowEncoder turns data lines in the .arff format of a training set into
+ * value indices, exactly as the training set's own lines were turned into
+ * values when it was read: missing values are replaced with the training
+ * set's most common value, and numeric values are put into the training set's
+ * buckets. This lets new data be decided by a model learned from the training
+ * set without building an InstanceSet, and without being discretized by its
+ * own quantiles.
+ *
+ * A RowEncoder is immutable, so any number of threads may use it at once.
+ *
+ * @author jmac
+ */
+public class RowEncoder {
+	private AttributeSet attributeSet;
+	private int numAttributes;
+	private int classAttributeIndex;
+
+	// For each attribute, the bucket boundaries if it is numeric, or null
+	private double[][] boundaries;
+
+	// For each attribute, the raw value that replaces "?"
+	private String[] mostCommonValues;
+
+	/**
+	 * Create an encoder for data like the given training set.
+	 *
+	 * @param trainingSet a set read from a .arff file
+	 */
+	public RowEncoder(InstanceSet trainingSet) {
+		attributeSet = trainingSet.getAttributeSet();
+		numAttributes = attributeSet.getAttributes().size();
+		classAttributeIndex = attributeSet.getClassAttributeIndex();
+		boundaries = new double[numAttributes][];
+		mostCommonValues = new String[numAttributes];
+		for (int a = 0; a < numAttributes; a++) {
+			boundaries[a] = trainingSet.getBucketBoundaries(a);
+			mostCommonValues[a] = trainingSet.getMostCommonValue(a);
+		}
+	}
+
+	/**
+	 * @return the attributes of the encoded rows
+	 */
+	public AttributeSet getAttributeSet() {
+		return attributeSet;
+	}
+
+	/**
+	 * Split a data line into values, the way InstanceSet does.
+	 *
+	 * @param line a line of comma- or whitespace-separated values
+	 * @return the values, in lower case
+	 */
+	public static String[] split(String line) {
+		// Splits like line.trim().toLowerCase().split("[,\\s]+"), but without a
+		// regular expression, which dominated the cost of bulk scoring
+		String lower = line.trim().toLowerCase();
+		int length = lower.length();
+		ArrayList<String> values = new ArrayList<String>();
+		int start = 0;
+		if (length > 0 && lower.charAt(0) == ',')
+			values.add("");
+		while (start < length) {
+			while (start < length && isSeparator(lower.charAt(start)))
+				start++;
+			int end = start;
+			while (end < length && !isSeparator(lower.charAt(end)))
+				end++;
+			if (end > start)
+				values.add(lower.substring(start, end));
+			start = end;
+		}
+		if (values.isEmpty())
+			values.add("");
+		return values.toArray(new String[values.size()]);
+	}
+
+	private static boolean isSeparator(char c) {
+		return c == ',' || c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f' || c == '\u000B';
+	}
+
+	/**
+	 * Encode a data line.
+	 *
+	 * @param values the values of the line, as returned by <code>split</code>.
+	 *               The value of the classification attribute may be omitted,
+	 *               or be "?" if it is not known.
+	 * @param codes  receives the index of each attribute's value, starting at
+	 *               <code>offset</code>; the classification's index is -1 if
+	 *               it is omitted or not known
+	 * @param offset the position in <code>codes</code> of the first attribute
+	 * @throws DecisionTreeException if the line has the wrong number of values
+	 *                               or a value its attribute does not list
+	 */
+	public void encode(String[] values, int[] codes, int offset) throws DecisionTreeException {
+		boolean hasClass = values.length == numAttributes;
+		if (!hasClass && values.length != numAttributes - 1)
+			throw new DecisionTreeException("expected " + numAttributes + " values but found " + values.length);
+		for (int a = 0; a < numAttributes; a++) {
+			if (a == classAttributeIndex)
+				codes[offset + a] = hasClass ? attributeSet.getClassAttribute().getValueIndex(values[a]) : -1;
+			else
+				codes[offset + a] = encodeValue(a, values[hasClass || a < classAttributeIndex ? a : a - 1]);
+		}
+	}
+
+	/**
+	 * Encode one value of one attribute.
+	 *
+	 * @param attributeIndex the index of the attribute
+	 * @param value          the raw value, or "?" if it is missing
+	 * @return the index of the value in the attribute's list of values
+	 * @throws DecisionTreeException if the attribute does not list the value
+	 */
+	public int encodeValue(int attributeIndex, String value) throws DecisionTreeException {
+		if (value.equals("?") && mostCommonValues[attributeIndex] != null)
+			value = mostCommonValues[attributeIndex];
+		double[] bounds = boundaries[attributeIndex];
+		if (bounds != null) {
+			double number;
+			try {
+				number = Double.parseDouble(value);
+			} catch (NumberFormatException e) {
+				throw new DecisionTreeException("unexpected value " + value + " for numeric attribute "
+						+ attributeSet.getAttributes().get(attributeIndex).getName());
+			}
+			return bucketOf(bounds, number);
+		}
+		Attribute attribute = attributeSet.getAttributes().get(attributeIndex);
+		int code = attribute.getValueIndex(value);
+		if (code < 0)
+			throw new DecisionTreeException("unexpected value " + value + " for attribute " + attribute.getName());
+		return code;
+	}
+
+	// Return the number of boundaries less than or equal to the value.
+	static int bucketOf(double[] bounds, double value) {
+		int low = 0;
+		int high = bounds.length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (bounds[middle] <= value)
+				low = middle + 1;
+			else
+				high = middle;
+		}
+		return low;
+	}
+}
@@ -0,0 +1,43 @@
+/**
+ * The plain Java implementation of the Kernels, used when the Vector API is
+ * not available.
+ *
+ * @author jmac
+ */
+public class ScalarKernels extends Kernels {
+
+	@Override
+	public String getName() {
+		return "scalar";
+	}
+
+	@Override
+	public void accumulate(int[] counts, int numClasses, int[] codes, int[] classCodes, int[] weights, int length) {
+		if (weights == null) {
+			for (int i = 0; i < length; i++)
+				counts[codes[i] * numClasses + classCodes[i]]++;
+		} else {
+			for (int i = 0; i < length; i++)
+				counts[codes[i] * numClasses + classCodes[i]] += weights[i];
+		}
+	}
+
+	@Override
+	public double sumXLogX(int[] counts, int offset, int length) {
+		double sum = 0.0;
+		for (int i = offset; i < offset + length; i++) {
+			if (counts[i] > 0)
+				sum += counts[i] * Math.log(counts[i]);
+		}
+		return sum;
+	}
+
+	@Override
+	public void route(int[] codes, int[] thresholds, int[] leftChildren, int[] rightChildren, int[] nodes,
+			int length) {
+		for (int i = 0; i < length; i++) {
+			int node = nodes[i];
+			nodes[i] = codes[i] <= thresholds[node] ? leftChildren[node] : rightChildren[node];
+		}
+	}
+}
@@ -0,0 +1,503 @@
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A ScoringServer makes a DecisionTree available to other processes over
+ * HTTP on the local machine, using the HTTP server built into the JDK.
+ *
+ * <pre>
+ * POST /score   body: one .arff data line per row (the classification may be
+ *               omitted); response: one decision per line, in order
+ * GET  /stats   request, batch and latency statistics
+ * </pre>
+ *
+ * Each request is handled on its own virtual thread, which encodes the rows
+ * with a RowEncoder and then waits while a single batching thread decides
+ * them. The batching thread takes every request that is waiting (up to
+ * <code>maxBatchSize</code> rows) and decides all their rows as one RowBatch.
+ * Under light load each batch holds a single request and adds no delay; as
+ * load rises, requests queue up while a batch is being decided, so batches
+ * grow by themselves and the cost of scoring is shared. Optionally the
+ * batching thread can linger a little for more requests to arrive. Requests
+ * of <code>maxBatchSize</code> rows or more are already a batch, and are
+ * decided on their own thread.
+ *
+ * Virtual threads are part of JDK 21.
+ *
+ * @author jmac
+ */
+public class ScoringServer {
+	private HttpServer server;
+	private ExecutorService executor;
+	private Thread batcher;
+	private volatile boolean running;
+
+	// The model, which can be replaced while requests are being decided
+	private ModelRegistry models;
+	private RowEncoder encoder;
+	private int numAttributes;
+
+	// The most rows decided in one batch
+	private int maxBatchSize = 256;
+
+	// How long the batching thread waits for more requests once it has one
+	private long maxBatchDelayNanos = 0;
+
+	private LinkedBlockingQueue<Request> queue = new LinkedBlockingQueue<Request>();
+
+	private AtomicLong numRequests = new AtomicLong();
+	private AtomicLong numRows = new AtomicLong();
+	private AtomicLong numBatches = new AtomicLong();
+	private AtomicLong numErrors = new AtomicLong();
+	private LatencyHistogram latencies = new LatencyHistogram();
+	private long startNanos;
+
+	public static final boolean VERBOSE = false;
+
+	// Responses are small, so send them without waiting to fill a packet;
+	// otherwise Nagle's algorithm and delayed acknowledgements hold each
+	// response for tens of milliseconds. The JDK server reads this property
+	// once, when the first server is created.
+	static {
+		if (System.getProperty("sun.net.httpserver.nodelay") == null)
+			System.setProperty("sun.net.httpserver.nodelay", "true");
+	}
+
+	/**
+	 * Create a server for the given model, listening on the loopback
+	 * interface. The server does not accept requests until it is started.
+	 *
+	 * @param tree    the model
+	 * @param encoder the encoder for the data the model was learned from
+	 * @param port    the port to listen on, or 0 for any free port
+	 * @throws IOException           if the port cannot be bound
+	 * @throws DecisionTreeException if the model does not fit the encoder's
+	 *                               attributes
+	 */
+	public ScoringServer(DecisionTree tree, RowEncoder encoder, int port) throws IOException, DecisionTreeException {
+		this.encoder = encoder;
+		models = new ModelRegistry(encoder.getAttributeSet());
+		models.publish(tree);
+		numAttributes = encoder.getAttributeSet().getAttributes().size();
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+	}
+
+	/**
+	 * Limit the size of batches.
+	 *
+	 * @param maxBatchSize the most rows decided together
+	 */
+	public void setMaxBatchSize(int maxBatchSize) {
+		this.maxBatchSize = Math.max(1, maxBatchSize);
+	}
+
+	/**
+	 * Let the batching thread wait for more requests before deciding a batch
+	 * that is not full.
+	 *
+	 * @param maxBatchDelayMicros the longest wait in microseconds, 0 (the
+	 *                            default) to decide whatever is waiting at once
+	 */
+	public void setMaxBatchDelay(long maxBatchDelayMicros) {
+		maxBatchDelayNanos = TimeUnit.MICROSECONDS.toNanos(maxBatchDelayMicros);
+	}
+
+	/**
+	 * Replace the model, without pausing scoring. Requests already in a batch
+	 * are decided by the model the batch started with. See ModelRegistry.
+	 *
+	 * @param tree the new model, which must use the same attributes
+	 * @return the version number of the new model
+	 * @throws DecisionTreeException if the model cannot be compiled
+	 */
+	public long setModel(DecisionTree tree) throws DecisionTreeException {
+		return models.publish(tree);
+	}
+
+	/**
+	 * @return the registry holding the server's model, for example to set
+	 *         its warm-up rows
+	 */
+	public ModelRegistry getModelRegistry() {
+		return models;
+	}
+
+	/**
+	 * Start accepting requests.
+	 */
+	public void start() {
+		running = true;
+		startNanos = System.nanoTime();
+		executor = Executors.newVirtualThreadPerTaskExecutor();
+		server.createContext("/score", this::handleScore);
+		server.createContext("/stats", this::handleStats);
+		server.setExecutor(executor);
+		batcher = new Thread(this::runBatches, "scoring-batcher");
+		batcher.setDaemon(true);
+		batcher.start();
+		server.start();
+	}
+
+	/**
+	 * Stop accepting requests, and wait for the requests being handled to
+	 * finish.
+	 *
+	 * @throws InterruptedException
+	 */
+	public void stop() throws InterruptedException {
+		server.stop(0);
+		executor.shutdown();
+		executor.awaitTermination(10, TimeUnit.SECONDS);
+		running = false;
+		batcher.interrupt();
+		batcher.join();
+	}
+
+	/**
+	 * @return the port the server listens on
+	 */
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * Describe the work done since the server started.
+	 *
+	 * @return a few lines of statistics
+	 */
+	public String getStats() {
+		double seconds = (System.nanoTime() - startNanos) / 1e9;
+		long batches = numBatches.get();
+		StringBuilder stats = new StringBuilder();
+		stats.append("model version ").append(models.getVersion()).append(", ").append(models.getNumLiveVersions())
+				.append(" live\n");
+		stats.append("requests ").append(numRequests.get()).append(", rows ").append(numRows.get())
+				.append(", errors ").append(numErrors.get()).append('\n');
+		stats.append("batches ").append(batches).append(", mean batch size ")
+				.append(batches == 0 ? 0 : String.format("%.2f", (double) numRows.get() / batches)).append('\n');
+		stats.append("throughput ").append(String.format("%.0f", numRequests.get() / seconds))
+				.append(" requests/s\n");
+		stats.append("latency p50 ").append(latencies.percentile(0.5)).append(" us, p99 ")
+				.append(latencies.percentile(0.99)).append(" us, p99.9 ").append(latencies.percentile(0.999))
+				.append(" us\n");
+		return stats.toString();
+	}
+
+	private void handleScore(HttpExchange exchange) throws IOException {
+		long start = System.nanoTime();
+		if (!exchange.getRequestMethod().equals("POST")) {
+			respond(exchange, 405, "use POST\n");
+			return;
+		}
+		Request request;
+		try (InputStream body = exchange.getRequestBody()) {
+			request = parse(new String(body.readAllBytes(), StandardCharsets.UTF_8));
+		} catch (DecisionTreeException e) {
+			numErrors.incrementAndGet();
+			respond(exchange, 400, e.getMessage() + "\n");
+			return;
+		}
+
+		if (request.numRows >= maxBatchSize) {
+			RowBatch batch = new RowBatch(encoder.getAttributeSet(), request.numRows);
+			for (int r = 0; r < request.numRows; r++)
+				batch.add(request.codes, r * numAttributes);
+			try {
+				decide(batch, request.decisions, 0);
+			} catch (DecisionTreeException e) {
+				numErrors.incrementAndGet();
+				respond(exchange, 503, e.getMessage() + "\n");
+				return;
+			} catch (RuntimeException e) {
+				numErrors.incrementAndGet();
+				respond(exchange, 503, e + "\n");
+				return;
+			}
+			numBatches.incrementAndGet();
+		} else {
+			queue.add(request);
+			try {
+				request.done.await();
+			} catch (InterruptedException e) {
+				respond(exchange, 503, "interrupted\n");
+				return;
+			}
+			if (request.error != null) {
+				numErrors.incrementAndGet();
+				respond(exchange, 503, request.error + "\n");
+				return;
+			}
+		}
+
+		StringBuilder response = new StringBuilder();
+		for (String decision : request.decisions)
+			response.append(decision).append('\n');
+		respond(exchange, 200, response.toString());
+		numRequests.incrementAndGet();
+		numRows.addAndGet(request.numRows);
+		latencies.record((System.nanoTime() - start) / 1000);
+	}
+
+	private void handleStats(HttpExchange exchange) throws IOException {
+		respond(exchange, 200, getStats());
+	}
+
+	private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream output = exchange.getResponseBody()) {
+			output.write(bytes);
+		}
+	}
+
+	// Encode the non-empty lines of a request body.
+	private Request parse(String body) throws DecisionTreeException {
+		String[] lines = body.split("\n");
+		int[] codes = new int[lines.length * numAttributes];
+		int n = 0;
+		for (String line : lines) {
+			if (line.trim().isEmpty())
+				continue;
+			encoder.encode(RowEncoder.split(line), codes, n * numAttributes);
+			n++;
+		}
+		if (n == 0)
+			throw new DecisionTreeException("no rows to score");
+		return new Request(codes, n);
+	}
+
+	// Decide every row of the batch with the current model, storing the
+	// decisions from the given position onwards.
+	private void decide(RowBatch batch, String[] decisions, int offset) throws DecisionTreeException {
+		try (ModelRegistry.Lease lease = models.acquire()) {
+			ModelSnapshot model = lease.getSnapshot();
+			for (int r = 0; r < batch.getNumRows(); r++)
+				decisions[offset + r] = model.decide(batch, r);
+		}
+	}
+
+	// The body of the batching thread.
+	private void runBatches() {
+		RowBatch batch = new RowBatch(encoder.getAttributeSet(), maxBatchSize);
+		String[] decisions = new String[maxBatchSize];
+		ArrayList<Request> requests = new ArrayList<Request>();
+		Request carried = null;
+		while (running) {
+			try {
+				Request request = carried != null ? carried : queue.take();
+				carried = null;
+				long deadline = System.nanoTime() + maxBatchDelayNanos;
+				while (request != null) {
+					if (batch.getNumRows() + request.numRows > maxBatchSize) {
+						carried = request;
+						break;
+					}
+					for (int r = 0; r < request.numRows; r++)
+						batch.add(request.codes, r * numAttributes);
+					requests.add(request);
+					request = queue.poll();
+					long remaining = deadline - System.nanoTime();
+					if (request == null && remaining > 0)
+						request = queue.poll(remaining, TimeUnit.NANOSECONDS);
+				}
+			} catch (InterruptedException e) {
+				if (!running)
+					break;
+			}
+
+			// Whatever goes wrong is reported to the batch's requests, so that
+			// none waits forever and the thread goes on to the next batch
+			String error = null;
+			try {
+				decide(batch, decisions, 0);
+			} catch (DecisionTreeException e) {
+				error = e.getMessage();
+			} catch (RuntimeException e) {
+				error = e.toString();
+			}
+			numBatches.incrementAndGet();
+			if (VERBOSE)
+				System.out.println("decided a batch of " + batch.getNumRows() + " rows");
+			int next = 0;
+			for (Request request : requests) {
+				System.arraycopy(decisions, next, request.decisions, 0, request.numRows);
+				request.error = error;
+				next += request.numRows;
+				request.done.countDown();
+			}
+			requests.clear();
+			batch.clear();
+		}
+	}
+
+	// The encoded rows of one request, and the decisions once they are made
+	private static class Request {
+		int[] codes;
+		int numRows;
+		String[] decisions;
+		String error;
+		CountDownLatch done = new CountDownLatch(1);
+
+		Request(int[] codes, int numRows) {
+			this.codes = codes;
+			this.numRows = numRows;
+			decisions = new String[numRows];
+		}
+	}
+
+	/**
+	 * Counts latencies in buckets whose width grows with the latency, eight
+	 * buckets per power of two, so any percentile is known to within 1/8 of its
+	 * value using a fixed, small amount of memory.
+	 */
+	private static class LatencyHistogram {
+		private AtomicLongArray counts = new AtomicLongArray(8 * 62);
+
+		void record(long micros) {
+			counts.incrementAndGet(bucketOf(Math.max(0, micros)));
+		}
+
+		private static int bucketOf(long value) {
+			if (value < 8)
+				return (int) value;
+			int exponent = 63 - Long.numberOfLeadingZeros(value);
+			return (exponent - 2) * 8 + (int) ((value >> (exponent - 3)) & 7);
+		}
+
+		// The largest value falling in the given bucket.
+		private static long upperBound(int bucket) {
+			if (bucket < 8)
+				return bucket;
+			int exponent = bucket / 8 + 2;
+			long width = 1L << (exponent - 3);
+			return (8 + bucket % 8) * width + width - 1;
+		}
+
+		// An upper bound on the given fraction of the latencies recorded.
+		long percentile(double fraction) {
+			long total = 0;
+			for (int b = 0; b < counts.length(); b++)
+				total += counts.get(b);
+			if (total == 0)
+				return 0;
+			long rank = (long) Math.ceil(fraction * total);
+			long seen = 0;
+			for (int b = 0; b < counts.length(); b++) {
+				seen += counts.get(b);
+				if (seen >= rank)
+					return upperBound(b);
+			}
+			return upperBound(counts.length() - 1);
+		}
+	}
+
+	// Read the data lines of a .arff file.
+	private static ArrayList<String> readDataLines(String filename) throws IOException {
+		ArrayList<String> lines = new ArrayList<String>();
+		try (BufferedReader reader = new BufferedReader(new FileReader(filename))) {
+			boolean inData = false;
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String trimmed = line.trim();
+				if (!inData)
+					inData = trimmed.toLowerCase().startsWith("@data");
+				else if (!trimmed.isEmpty() && !trimmed.startsWith(InstanceSet.commentStart))
+					lines.add(trimmed);
+			}
+		}
+		return lines;
+	}
+
+	/**
+	 * Learns a decision tree from the MAGIC training set and serves it. With
+	 * "-port" and a port number, the server runs until the process is killed;
+	 * otherwise it is started on a free port, and many concurrent clients,
+	 * each on a virtual thread, send it the rows of the MAGIC test set one per
+	 * request, after which the server's statistics are printed.
+	 *
+	 * @param arguments Optionally "-port" and a port number, or the number of
+	 *                  concurrent clients.
+	 * @throws Exception
+	 */
+	public static void main(String[] arguments) throws Exception {
+		InstanceSet trainingSet = new InstanceSet("data/MAGIC_DataSet_Training.arff");
+		AttributeSet attributeSet = trainingSet.getAttributeSet();
+		ArrayList<Attribute> attributes = DecisionTree.removeClassAttribute(attributeSet,
+				attributeSet.getAttributes());
+		DecisionTree tree = new EncodedTreeBuilder(new EncodedInstanceSet(trainingSet), null).build(attributes);
+		RowEncoder encoder = new RowEncoder(trainingSet);
+
+		if (arguments.length == 2 && arguments[0].equals("-port")) {
+			ScoringServer server = new ScoringServer(tree, encoder, Integer.parseInt(arguments[1]));
+			server.start();
+			System.out.println("Serving on port " + server.getPort());
+			return;
+		}
+
+		int numClients = arguments.length > 0 ? Integer.parseInt(arguments[0]) : 64;
+		final ArrayList<String> lines = readDataLines("data/MAGIC_DataSet_Test.arff");
+		final ScoringServer server = new ScoringServer(tree, encoder, 0);
+		server.start();
+		final HttpClient client = HttpClient.newBuilder().executor(Executors.newVirtualThreadPerTaskExecutor())
+				.build();
+		final URI uri = URI.create("http://127.0.0.1:" + server.getPort() + "/score");
+
+		// Each client sends its share of the rows and checks the decisions
+		// against the tree
+		final AtomicLong mismatches = new AtomicLong();
+		List<Callable<Void>> clients = new ArrayList<Callable<Void>>();
+		for (int c = 0; c < numClients; c++) {
+			final int first = c;
+			final int stride = numClients;
+			clients.add(new Callable<Void>() {
+				public Void call() throws Exception {
+					RowBatch batch = new RowBatch(encoder.getAttributeSet(), 1);
+					for (int i = first; i < lines.size(); i += stride) {
+						HttpRequest request = HttpRequest.newBuilder(uri)
+								.POST(HttpRequest.BodyPublishers.ofString(lines.get(i))).build();
+						String decision = client.send(request, HttpResponse.BodyHandlers.ofString()).body().trim();
+						batch.clear();
+						batch.add(encoder, RowEncoder.split(lines.get(i)));
+						if (!decision.equals(tree.decide(batch, 0)))
+							mismatches.incrementAndGet();
+					}
+					return null;
+				}
+			});
+		}
+		long start = System.currentTimeMillis();
+		try (ExecutorService clientThreads = Executors.newVirtualThreadPerTaskExecutor()) {
+			ParallelTasks.invokeAll(clientThreads, clients);
+		}
+		long elapsed = System.currentTimeMillis() - start;
+		server.stop();
+
+		System.out.println(lines.size() + " requests from " + numClients + " clients in " + elapsed + " ms, "
+				+ mismatches.get() + " decisions differing from the tree");
+		System.out.print(server.getStats());
+	}
+}
@@ -0,0 +1,563 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * A SparseInstanceSet is a ColumnStore read from a .arff file whose rows are
+ * mostly default values, such as high-dimensional features that are mostly
+ * zero. Each attribute is stored as a sparse column: a default code, and the
+ * ascending indices of the rows whose value differs from it together with
+ * their codes. Loading therefore takes time and memory proportional to the
+ * number of non-default values rather than to rows times columns, and
+ * EncodedTreeBuilder counts a candidate attribute from its non-default values
+ * alone when that is cheaper, deriving the counts of the default value by
+ * subtraction from the node's class counts.
+ *
+ * Rows may be written in the sparse .arff format, for example
+ * <code>{0 x, 7 1.5, 12 yes}</code>, where every attribute not listed takes
+ * its default: 0 for a numeric attribute and the first listed value for a
+ * nominal one. Dense rows are accepted too. Missing values ("?") are replaced
+ * as InstanceSet replaces them, by the value the attribute takes in the last
+ * row in which it is not missing, and numeric attributes are divided into
+ * buckets exactly as InstanceSet divides them, counting the implicit zeros
+ * and the replaced values, so a SparseInstanceSet holds the same codes as an
+ * EncodedInstanceSet of the same file.
+ *
+ * Reading a single value with <code>getCode</code> takes a binary search over
+ * its column.
+ *
+ * @author jmac
+ */
+public class SparseInstanceSet implements ColumnStore {
+	private AttributeSet attributeSet;
+	private int numRows;
+	private int classAttributeIndex;
+
+	// The classification of every row, which is stored densely
+	private int[] classCodes;
+
+	// For each attribute a, defaultCodes[a] is the code of every row not
+	// listed in rows[a]; rows[a] holds the ascending indices of the other rows
+	// and codes[a] their codes, none equal to the default
+	private int[] defaultCodes;
+	private int[][] rows;
+	private int[][] codes;
+
+	public static final boolean VERBOSE = false;
+
+	/**
+	 * Read a .arff file, dividing each numeric attribute into
+	 * <code>InstanceSet.NUM_BUCKETS</code> buckets.
+	 *
+	 * @param inputFilename the name of the file
+	 * @throws DecisionTreeException if the file is malformed
+	 * @throws IOException
+	 */
+	public SparseInstanceSet(String inputFilename) throws DecisionTreeException, IOException {
+		this(inputFilename, InstanceSet.NUM_BUCKETS);
+	}
+
+	/**
+	 * Read a .arff file, dividing each numeric attribute into the given number
+	 * of buckets.
+	 *
+	 * @param inputFilename the name of the file
+	 * @param numBuckets    the number of buckets for each numeric attribute
+	 * @throws DecisionTreeException if the file is malformed
+	 * @throws IOException
+	 */
+	public SparseInstanceSet(String inputFilename, int numBuckets) throws DecisionTreeException, IOException {
+		BufferedReader reader = new BufferedReader(new FileReader(inputFilename));
+		try {
+			attributeSet = InstanceSet.readPreamble(reader, numBuckets).getAttributeSet();
+			classAttributeIndex = attributeSet.getClassAttributeIndex();
+			ArrayList<Attribute> attributes = attributeSet.getAttributes();
+			int numAttributes = attributes.size();
+
+			// Non-default entries are collected per attribute: codes for
+			// nominal attributes, and raw values for numeric ones until the
+			// bucket boundaries are known
+			int[][] entryRows = new int[numAttributes][16];
+			int[][] entryCodes = new int[numAttributes][];
+			double[][] entryValues = new double[numAttributes][];
+			int[] numEntries = new int[numAttributes];
+			int[] lastRow = new int[numAttributes];
+			Arrays.fill(lastRow, -1);
+			// The rows in which each attribute is missing, and the last row in
+			// which it was given explicitly, with its value there
+			int[][] missingRows = new int[numAttributes][];
+			int[] numMissing = new int[numAttributes];
+			int[] lastValueRows = new int[numAttributes];
+			Arrays.fill(lastValueRows, -1);
+			double[] lastNumbers = new double[numAttributes];
+			int[] lastCodes = new int[numAttributes];
+			defaultCodes = new int[numAttributes];
+			for (int a = 0; a < numAttributes; a++) {
+				if (attributes.get(a).isOrdered())
+					entryValues[a] = new double[16];
+				else
+					entryCodes[a] = new int[16];
+			}
+			classCodes = new int[1024];
+			String[] pair = new String[2];
+
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim().toLowerCase();
+				if (line.isEmpty() || line.startsWith(InstanceSet.commentStart))
+					continue;
+				if (numRows == classCodes.length)
+					classCodes = Arrays.copyOf(classCodes, 2 * numRows);
+				classCodes[numRows] = 0;
+				boolean sparse = line.startsWith("{");
+				String[] entries = sparse ? line.substring(1, line.endsWith("}") ? line.length() - 1 : line.length())
+						.split(",") : line.split("[,\\s]+");
+				if (!sparse && entries.length != numAttributes)
+					throw new DecisionTreeException("expected " + numAttributes + " values in line: " + line);
+				for (int e = 0; e < entries.length; e++) {
+					int a;
+					String value;
+					if (sparse) {
+						if (entries[e].trim().isEmpty())
+							continue;
+						if (!splitEntry(entries[e], pair))
+							throw new DecisionTreeException("malformed sparse entry \"" + entries[e].trim()
+									+ "\" in line: " + line);
+						a = Integer.parseInt(pair[0]);
+						value = pair[1];
+						if (a < 0 || a >= numAttributes)
+							throw new DecisionTreeException("no attribute " + a + " in line: " + line);
+					} else {
+						a = e;
+						value = entries[e];
+					}
+					if (lastRow[a] == numRows)
+						throw new DecisionTreeException("attribute " + a + " given twice in line: " + line);
+					lastRow[a] = numRows;
+					if (value.equals("?")) {
+						if (missingRows[a] == null)
+							missingRows[a] = new int[16];
+						else if (numMissing[a] == missingRows[a].length)
+							missingRows[a] = Arrays.copyOf(missingRows[a], 2 * numMissing[a]);
+						missingRows[a][numMissing[a]++] = numRows;
+						continue;
+					}
+					lastValueRows[a] = numRows;
+					Attribute attribute = attributes.get(a);
+					if (attribute.isOrdered()) {
+						double number = Double.parseDouble(value);
+						lastNumbers[a] = number;
+						if (number == 0.0)
+							continue;
+						if (numEntries[a] == entryRows[a].length) {
+							entryRows[a] = Arrays.copyOf(entryRows[a], 2 * numEntries[a]);
+							entryValues[a] = Arrays.copyOf(entryValues[a], 2 * numEntries[a]);
+						}
+						entryRows[a][numEntries[a]] = numRows;
+						entryValues[a][numEntries[a]++] = number;
+					} else {
+						int code = attribute.getValueIndex(value);
+						if (code < 0)
+							throw new DecisionTreeException("unexpected value " + value + " for attribute "
+									+ attribute.getName());
+						lastCodes[a] = code;
+						if (a == classAttributeIndex) {
+							classCodes[numRows] = code;
+						} else if (code != 0) {
+							if (numEntries[a] == entryRows[a].length) {
+								entryRows[a] = Arrays.copyOf(entryRows[a], 2 * numEntries[a]);
+								entryCodes[a] = Arrays.copyOf(entryCodes[a], 2 * numEntries[a]);
+							}
+							entryRows[a][numEntries[a]] = numRows;
+							entryCodes[a][numEntries[a]++] = code;
+						}
+					}
+				}
+				numRows++;
+			}
+			if (numRows == 0)
+				throw new DecisionTreeException("no data in " + inputFilename);
+			classCodes = Arrays.copyOf(classCodes, numRows);
+
+			// Rows were read in order, so each column is already sorted
+			rows = new int[numAttributes][];
+			codes = new int[numAttributes][];
+			for (int a = 0; a < numAttributes; a++) {
+				if (numMissing[a] > 0) {
+					// InstanceSet replaces missing values by the value in the
+					// last row in which the attribute is not missing, which is
+					// its default unless it was given there
+					int fillRow = numRows - 1;
+					int m = numMissing[a];
+					while (m > 0 && missingRows[a][m - 1] == fillRow) {
+						m--;
+						fillRow--;
+					}
+					boolean given = fillRow >= 0 && lastValueRows[a] == fillRow;
+					if (a == classAttributeIndex) {
+						for (int i = 0; i < numMissing[a]; i++)
+							classCodes[missingRows[a][i]] = given ? lastCodes[a] : 0;
+					} else {
+						// Merge the missing rows into the entries, unless they
+						// take the default
+						double fillNumber = given ? lastNumbers[a] : 0.0;
+						int fillCode = given ? lastCodes[a] : 0;
+						boolean ordered = attributes.get(a).isOrdered();
+						if (ordered ? fillNumber != 0.0 : fillCode != 0) {
+							int n = numEntries[a] + numMissing[a];
+							int[] sources = new int[n];
+							entryRows[a] = merge(entryRows[a], numEntries[a], missingRows[a], numMissing[a], sources);
+							if (ordered) {
+								double[] values = new double[n];
+								for (int i = 0; i < n; i++)
+									values[i] = sources[i] < 0 ? fillNumber : entryValues[a][sources[i]];
+								entryValues[a] = values;
+							} else {
+								int[] entries = new int[n];
+								for (int i = 0; i < n; i++)
+									entries[i] = sources[i] < 0 ? fillCode : entryCodes[a][sources[i]];
+								entryCodes[a] = entries;
+							}
+							numEntries[a] = n;
+						}
+					}
+					missingRows[a] = null;
+				}
+				if (a == classAttributeIndex) {
+					rows[a] = new int[0];
+					codes[a] = new int[0];
+					continue;
+				}
+				if (attributes.get(a).isOrdered())
+					encodeNumeric(a, entryRows[a], entryValues[a], numEntries[a], numBuckets);
+				else
+					storeColumn(a, entryRows[a], entryCodes[a], numEntries[a]);
+				entryRows[a] = null;
+				entryCodes[a] = null;
+				entryValues[a] = null;
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	// Merge the ascending rows of a column's entries with the ascending rows in
+	// which it is missing, setting sources[i] to the index of the i'th merged
+	// row among the entries, or -1 if it is missing.
+	private static int[] merge(int[] entryRows, int numEntries, int[] missingRows, int numMissing, int[] sources) {
+		int[] merged = new int[numEntries + numMissing];
+		int e = 0;
+		int m = 0;
+		for (int i = 0; i < merged.length; i++) {
+			if (m == numMissing || (e < numEntries && entryRows[e] < missingRows[m])) {
+				sources[i] = e;
+				merged[i] = entryRows[e++];
+			} else {
+				sources[i] = -1;
+				merged[i] = missingRows[m++];
+			}
+		}
+		return merged;
+	}
+
+	// Split a sparse entry "index value" into its two parts, returning false
+	// if it does not have exactly two.
+	private static boolean splitEntry(String entry, String[] pair) {
+		String[] parts = entry.trim().split("\\s+");
+		if (parts.length != 2)
+			return false;
+		pair[0] = parts[0];
+		pair[1] = parts[1];
+		return true;
+	}
+
+	// Divide a numeric attribute into buckets as InstanceSet does: the
+	// boundaries are the values at every (numRows / numBuckets)'th position of
+	// all the values in order, zeros included, and a value's code is the number
+	// of boundaries less than or equal to it.
+	private void encodeNumeric(int a, int[] entryRows, double[] entryValues, int numEntries, int numBuckets) {
+		double[] sorted = Arrays.copyOf(entryValues, numEntries);
+		Arrays.sort(sorted);
+		int numNegative = 0;
+		while (numNegative < numEntries && sorted[numNegative] < 0.0)
+			numNegative++;
+		int numZeros = numRows - numEntries;
+		double[] boundaries = new double[numBuckets - 1];
+		int step = numRows / numBuckets;
+		for (int j = 1; j < numBuckets; j++) {
+			int k = step * j;
+			if (k < numNegative)
+				boundaries[j - 1] = sorted[k];
+			else if (k < numNegative + numZeros)
+				boundaries[j - 1] = 0.0;
+			else
+				boundaries[j - 1] = sorted[k - numZeros];
+		}
+		defaultCodes[a] = bucket(boundaries, 0.0);
+		int[] entryCodes = new int[numEntries];
+		for (int i = 0; i < numEntries; i++)
+			entryCodes[i] = bucket(boundaries, entryValues[i]);
+		storeColumn(a, entryRows, entryCodes, numEntries);
+	}
+
+	// The number of boundaries less than or equal to the value.
+	private static int bucket(double[] boundaries, double value) {
+		int low = 0;
+		int high = boundaries.length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (boundaries[middle] <= value)
+				low = middle + 1;
+			else
+				high = middle;
+		}
+		return low;
+	}
+
+	// Store the non-default entries of a column, which are in ascending order
+	// of row, leaving out any whose code is the default.
+	private void storeColumn(int a, int[] entryRows, int[] entryCodes, int numEntries) {
+		int n = 0;
+		for (int i = 0; i < numEntries; i++) {
+			if (entryCodes[i] != defaultCodes[a]) {
+				entryRows[n] = entryRows[i];
+				entryCodes[n++] = entryCodes[i];
+			}
+		}
+		rows[a] = Arrays.copyOf(entryRows, n);
+		codes[a] = Arrays.copyOf(entryCodes, n);
+	}
+
+	/**
+	 * Get the code of every row of an attribute not listed by
+	 * <code>getNonDefaultRows</code>.
+	 *
+	 * @param attributeIndex the index of the attribute
+	 * @return the default code
+	 */
+	public int getDefaultCode(int attributeIndex) {
+		return defaultCodes[attributeIndex];
+	}
+
+	/**
+	 * Get the number of rows whose value of an attribute is not the default.
+	 *
+	 * @param attributeIndex the index of a non-class attribute
+	 * @return the number of rows
+	 */
+	public int getNumNonDefault(int attributeIndex) {
+		return rows[attributeIndex].length;
+	}
+
+	/**
+	 * Get the rows whose value of an attribute is not the default.
+	 *
+	 * @param attributeIndex the index of a non-class attribute
+	 * @return the ascending indices of the rows; callers must not modify it
+	 */
+	public int[] getNonDefaultRows(int attributeIndex) {
+		return rows[attributeIndex];
+	}
+
+	/**
+	 * Get the codes of the rows whose value of an attribute is not the
+	 * default.
+	 *
+	 * @param attributeIndex the index of a non-class attribute
+	 * @return the codes, in the order of <code>getNonDefaultRows</code>;
+	 *         callers must not modify it
+	 */
+	public int[] getNonDefaultCodes(int attributeIndex) {
+		return codes[attributeIndex];
+	}
+
+	/**
+	 * Get the total number of non-default values, over every row and non-class
+	 * attribute.
+	 *
+	 * @return the number of values
+	 */
+	public long getNumNonDefault() {
+		long total = 0;
+		for (int a = 0; a < rows.length; a++)
+			total += rows[a].length;
+		return total;
+	}
+
+	@Override
+	public AttributeSet getAttributeSet() {
+		return attributeSet;
+	}
+
+	@Override
+	public int getNumRows() {
+		return numRows;
+	}
+
+	@Override
+	public int getNumAttributes() {
+		return defaultCodes.length;
+	}
+
+	@Override
+	public int getCode(int row, int attributeIndex) {
+		if (attributeIndex == classAttributeIndex)
+			return classCodes[row];
+		int i = Arrays.binarySearch(rows[attributeIndex], row);
+		return i >= 0 ? codes[attributeIndex][i] : defaultCodes[attributeIndex];
+	}
+
+	@Override
+	public int getClassCode(int row) {
+		return classCodes[row];
+	}
+
+	@Override
+	public int getNumValues(int attributeIndex) {
+		return attributeSet.getAttributes().get(attributeIndex).getNumValues();
+	}
+
+	@Override
+	public int getNumClasses() {
+		return attributeSet.getClassAttribute().getNumValues();
+	}
+
+	/**
+	 * Write a random sparse data set in the sparse .arff format: binary
+	 * features, a few numeric ones, and a class that depends on the first few
+	 * features, with a few values missing.
+	 *
+	 * @param filename      the name of the file to write
+	 * @param numRows       the number of rows
+	 * @param numAttributes the number of attributes besides the class
+	 * @param density       the fraction of most attributes' values that are
+	 *                      not the default
+	 * @throws IOException
+	 */
+	static void writeRandom(String filename, int numRows, int numAttributes, double density) throws IOException {
+		int numNumeric = 5;
+		Random random = new Random(42);
+		PrintWriter writer = new PrintWriter(new FileWriter(filename));
+		writer.println("@relation sparse-demo");
+		for (int a = 0; a < numAttributes; a++) {
+			if (a < numNumeric)
+				writer.println("@attribute x" + a + " continuous");
+			else
+				writer.println("@attribute f" + a + " {0,1}");
+		}
+		writer.println("@attribute class {neg,pos}");
+		writer.println("@data");
+		for (int r = 0; r < numRows; r++) {
+			StringBuilder line = new StringBuilder("{");
+			boolean positive = false;
+			for (int a = 0; a < numAttributes; a++) {
+				boolean important = a >= numNumeric && a < numNumeric + 8;
+				if (random.nextDouble() >= (important ? 0.2 : density))
+					continue;
+				if (random.nextDouble() < 0.05) {
+					line.append(a).append(" ?, ");
+				} else if (a < numNumeric) {
+					line.append(a).append(' ').append(String.format("%.3f", random.nextGaussian())).append(", ");
+				} else {
+					line.append(a).append(" 1, ");
+					positive ^= important;
+				}
+			}
+			if (random.nextDouble() < 0.05)
+				positive = !positive;
+			line.append(numAttributes).append(positive ? " pos}" : " neg}");
+			writer.println(line);
+		}
+		writer.close();
+	}
+
+	/**
+	 * Writes a random sparse data set, with a few missing values, to a file,
+	 * reads it both as a SparseInstanceSet and, expanded to dense rows, as an
+	 * InstanceSet, learns a tree from each, and compares the time taken, the
+	 * trees' decisions and the number of values held. Then reads the bundled
+	 * data sets that have missing values both ways and counts the codes that
+	 * differ.
+	 *
+	 * @param arguments Optionally, the number of rows, the number of
+	 *                  attributes and the fraction of values that are not the
+	 *                  default.
+	 * @throws DecisionTreeException
+	 * @throws FileNotFoundException
+	 * @throws IOException
+	 */
+	public static void main(String[] arguments) throws DecisionTreeException, FileNotFoundException, IOException {
+		int numRows = arguments.length > 0 ? Integer.parseInt(arguments[0]) : 5000;
+		int numAttributes = arguments.length > 1 ? Integer.parseInt(arguments[1]) : 400;
+		double density = arguments.length > 2 ? Double.parseDouble(arguments[2]) : 0.01;
+
+		String filename = "sparse-demo.arff";
+		writeRandom(filename, numRows, numAttributes, density);
+
+		long start = System.nanoTime();
+		SparseInstanceSet sparse = new SparseInstanceSet(filename);
+		long sparseLoad = System.nanoTime() - start;
+		start = System.nanoTime();
+		EncodedInstanceSet dense = new EncodedInstanceSet(new InstanceSet(filename));
+		long denseLoad = System.nanoTime() - start;
+
+		AttributeSet attributeSet = sparse.getAttributeSet();
+		ArrayList<Attribute> attributes = DecisionTree.removeClassAttribute(attributeSet,
+				attributeSet.getAttributes());
+		ArrayList<Attribute> denseAttributes = DecisionTree.removeClassAttribute(dense.getAttributeSet(),
+				dense.getAttributeSet().getAttributes());
+		DecisionTree sparseTree = null;
+		DecisionTree denseTree = null;
+		long sparseLearn = Long.MAX_VALUE;
+		long denseLearn = Long.MAX_VALUE;
+		for (int i = 0; i < 3; i++) {
+			start = System.nanoTime();
+			sparseTree = new EncodedTreeBuilder(sparse, null).build(attributes);
+			sparseLearn = Math.min(sparseLearn, System.nanoTime() - start);
+			start = System.nanoTime();
+			denseTree = new EncodedTreeBuilder(dense, null).build(denseAttributes);
+			denseLearn = Math.min(denseLearn, System.nanoTime() - start);
+		}
+
+		int differences = 0;
+		for (int r = 0; r < numRows; r++) {
+			for (int a = 0; a < numAttributes + 1; a++) {
+				if (sparse.getCode(r, a) != dense.getCode(r, a)) {
+					differences++;
+					break;
+				}
+			}
+			if (!sparseTree.decide(sparse, r).equals(denseTree.decide(dense, r)))
+				differences++;
+		}
+		System.out.println(numRows + " rows, " + numAttributes + " attributes, " + sparse.getNumNonDefault()
+				+ " non-default values");
+		System.out.println(String.format("sparse: load %5d ms, learn %5d ms", sparseLoad / 1000000,
+				sparseLearn / 1000000));
+		System.out.println(String.format("dense:  load %5d ms, learn %5d ms", denseLoad / 1000000,
+				denseLearn / 1000000));
+		System.out.println("Rows with differing codes or decisions: " + differences);
+		new File(filename).delete();
+
+		for (String file : new String[] { "data/soybean.train.arff", "data/breast.w.train.arff",
+				"data/autos.train.arff" }) {
+			sparse = new SparseInstanceSet(file);
+			dense = new EncodedInstanceSet(new InstanceSet(file));
+			differences = 0;
+			for (int r = 0; r < dense.getNumRows(); r++) {
+				for (int a = 0; a < dense.getNumAttributes(); a++) {
+					if (sparse.getCode(r, a) != dense.getCode(r, a))
+						differences++;
+				}
+			}
+			System.out.println(file + ": " + differences + " differing codes");
+		}
+	}
+}
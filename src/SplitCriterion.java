@@ -0,0 +1,227 @@
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * A SplitCriterion scores the candidate split attributes of a node from their
+ * contingency tables; the tree builders split on the candidate with the
+ * lowest cost, the first one in case of a tie (see <code>choose</code>).
+ * Three criteria are provided:
+ *
+ * <ul>
+ * <li><code>ENTROPY</code>: the expected entropy of the classification after
+ * the split, i.e. maximum information gain. This is the default.</li>
+ * <li><code>GAIN_RATIO</code>: the information gain divided by the split
+ * information, as in C4.5, which penalizes attributes with many values.</li>
+ * <li><code>GINI</code>: the expected Gini impurity after the split, as in
+ * CART. It is computed from integer counts without any logarithms, so it is
+ * the cheapest on problems with many values and classes.</li>
+ * </ul>
+ *
+ * @author jmac
+ */
+public abstract class SplitCriterion {
+	public static final SplitCriterion ENTROPY = new SplitCriterion("entropy") {
+		@Override
+		public double cost(ContingencyTable table) {
+			return table.expectedEntropy();
+		}
+
+		@Override
+		public double getRange(int numClasses) {
+			return Math.log(numClasses) / Math.log(2);
+		}
+	};
+
+	public static final SplitCriterion GAIN_RATIO = new SplitCriterion("gain-ratio") {
+		@Override
+		public double cost(ContingencyTable table) {
+			double splitInformation = table.splitInformation();
+			// An attribute sending every example the same way gains nothing
+			if (splitInformation <= 0.0)
+				return 0.0;
+			return -(table.classEntropy() - table.expectedEntropy()) / splitInformation;
+		}
+
+		@Override
+		public double getRange(int numClasses) {
+			// The gain cannot exceed the split information
+			return 1.0;
+		}
+	};
+
+	public static final SplitCriterion GINI = new SplitCriterion("gini") {
+		@Override
+		public double cost(ContingencyTable table) {
+			return table.expectedGini();
+		}
+
+		@Override
+		public double getRange(int numClasses) {
+			return 1.0 - 1.0 / numClasses;
+		}
+	};
+
+	/**
+	 * Costs within this much of the least (relative to it, or absolutely if
+	 * it is below 1) are taken to be tied with it. A table's cost may differ
+	 * in its last bits between ScalarKernels and VectorKernels, or when its
+	 * cells are summed in a different order, and exact ties must be broken
+	 * the same way whichever was used.
+	 */
+	public static final double TOLERANCE = 1e-9;
+
+	private String name;
+
+	// Keeps the benchmark's costs from being optimized away
+	private static double checksum;
+
+	private SplitCriterion(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Compute the cost of splitting on an attribute.
+	 *
+	 * @param table the contingency table of the attribute at the node
+	 * @return the cost; lower is better
+	 */
+	public abstract double cost(ContingencyTable table);
+
+	/**
+	 * Get the difference between the highest and lowest costs possible, as
+	 * needed for the Hoeffding bound.
+	 *
+	 * @param numClasses the number of classifications
+	 * @return the range of the cost
+	 */
+	public abstract double getRange(int numClasses);
+
+	/**
+	 * Decide whether a cost is tied with the least cost of some candidates.
+	 *
+	 * @param cost    a candidate's cost
+	 * @param minCost the least cost
+	 * @return true if the cost is within <code>TOLERANCE</code> of the least
+	 */
+	public static boolean isTied(double cost, double minCost) {
+		return cost <= minCost + TOLERANCE * Math.max(1.0, Math.abs(minCost));
+	}
+
+	/**
+	 * Choose the candidate to split on from the candidates' costs.
+	 *
+	 * @param costs the cost of each candidate, in the order of the candidates
+	 * @return the index of the first candidate whose cost is tied with the
+	 *         least
+	 */
+	public static int choose(double[] costs) {
+		double minCost = Double.MAX_VALUE;
+		for (double cost : costs)
+			minCost = Math.min(minCost, cost);
+		int t = 0;
+		while (!isTied(costs[t], minCost))
+			t++;
+		return t;
+	}
+
+	/**
+	 * @return the name of the criterion, as accepted by <code>forName</code>
+	 */
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+
+	/**
+	 * @return every criterion
+	 */
+	public static SplitCriterion[] values() {
+		return new SplitCriterion[] { ENTROPY, GAIN_RATIO, GINI };
+	}
+
+	/**
+	 * Find a criterion by name.
+	 *
+	 * @param name "entropy", "gain-ratio" or "gini"
+	 * @return the criterion
+	 * @throws DecisionTreeException if there is no such criterion
+	 */
+	public static SplitCriterion forName(String name) throws DecisionTreeException {
+		for (SplitCriterion criterion : values()) {
+			if (criterion.name.equals(name))
+				return criterion;
+		}
+		throw new DecisionTreeException("unknown split criterion " + name);
+	}
+
+	/**
+	 * Compares the criteria on the MAGIC and soybean data sets: the time taken
+	 * to learn a tree, the time taken only to score the candidate attributes
+	 * at every node, and the error rate on the test set.
+	 *
+	 * @param arguments Optionally, the number of times each tree is learned.
+	 * @throws DecisionTreeException
+	 * @throws FileNotFoundException
+	 * @throws IOException
+	 */
+	public static void main(String[] arguments) throws DecisionTreeException, FileNotFoundException, IOException {
+		int numRepetitions = arguments.length > 0 ? Integer.parseInt(arguments[0]) : 5;
+		String[][] dataSets = { { "data/MAGIC_DataSet_Training.arff", "data/MAGIC_DataSet_Test.arff" },
+				{ "data/soybean.train.arff", "data/soybean.test.arff" } };
+		for (String[] files : dataSets) {
+			EncodedInstanceSet trainingSet = new EncodedInstanceSet(new InstanceSet(files[0]));
+			EncodedInstanceSet testSet = new EncodedInstanceSet(new InstanceSet(files[1]));
+			AttributeSet attributeSet = trainingSet.getAttributeSet();
+			ArrayList<Attribute> attributes = DecisionTree.removeClassAttribute(attributeSet,
+					attributeSet.getAttributes());
+			System.out.println(files[0] + ": " + trainingSet.getNumRows() + " rows, " + trainingSet.getNumClasses()
+					+ " classes");
+
+			// Every candidate table at the root, to time the criteria alone
+			ArrayList<ContingencyTable> tables = new ArrayList<ContingencyTable>();
+			for (Attribute attribute : attributes) {
+				int a = attributeSet.getAttributeIndex(attribute);
+				ContingencyTable table = new ContingencyTable(attribute.getNumValues(), trainingSet.getNumClasses());
+				for (int r = 0; r < trainingSet.getNumRows(); r++)
+					table.add(trainingSet.getCode(r, a), trainingSet.getClassCode(r), 1);
+				tables.add(table);
+			}
+
+			for (SplitCriterion criterion : values()) {
+				DecisionTree tree = null;
+				long start = System.nanoTime();
+				for (int i = 0; i < numRepetitions; i++) {
+					EncodedTreeBuilder builder = new EncodedTreeBuilder(trainingSet, null);
+					builder.setSplitCriterion(criterion);
+					tree = builder.build(attributes);
+				}
+				long buildNanos = (System.nanoTime() - start) / numRepetitions;
+
+				double sink = 0.0;
+				int numScored = 0;
+				start = System.nanoTime();
+				while (numScored < 200000) {
+					for (ContingencyTable table : tables)
+						sink += criterion.cost(table);
+					numScored += tables.size();
+				}
+				long costNanos = (System.nanoTime() - start) / numScored;
+				checksum += sink;
+
+				Attribute classAttribute = attributeSet.getClassAttribute();
+				int numErrors = 0;
+				for (int r = 0; r < testSet.getNumRows(); r++) {
+					if (classAttribute.getValueIndex(tree.decide(testSet, r)) != testSet.getClassCode(r))
+						numErrors++;
+				}
+				System.out.println(String.format("  %-10s learn %7.1f ms, %6d ns per table, error rate %.4f",
+						criterion, buildNanos / 1e6, costNanos, (double) numErrors / testSet.getNumRows()));
+			}
+		}
+	}
+}
@@ -0,0 +1,170 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A SplitStatisticsCache lets several EncodedTreeBuilders share the
+ * ContingencyTables they compute. A table is identified by the node it was
+ * computed at and the attribute it counts. A node is identified by its path
+ * from the root -- the sequence of split attributes and values leading to it
+ * -- which determines exactly which rows reach the node, provided every
+ * builder using the cache learns from the same data, rows and weights.
+ * Builders that differ only in when they stop splitting (maximum depth,
+ * minimum leaf size) grow identical trees up to where they stop, so each
+ * table they share is computed once rather than once per builder.
+ *
+ * A cache holds at most a given number of table cells (counts). Once it is
+ * full, storing a table evicts the tables least recently looked up or
+ * stored, so a long run keeps the tables of the nodes that are still being
+ * reached rather than of every node ever counted. A table evicted is simply
+ * counted again by the next builder that needs it.
+ *
+ * A cache may be used by many threads at once. Tables in the cache must not
+ * be modified.
+ *
+ * @author jmac
+ */
+public class SplitStatisticsCache {
+	// Key is a node's path followed by an attribute index; iterated from the
+	// least recently used table. Guarded by this cache's lock, as is
+	// numCells.
+	private LinkedHashMap<String, ContingencyTable> tables = new LinkedHashMap<String, ContingencyTable>(16, 0.75f,
+			true);
+	private long numCells;
+	private long maxCells;
+
+	private AtomicLong hits = new AtomicLong();
+	private AtomicLong misses = new AtomicLong();
+	private AtomicLong evictions = new AtomicLong();
+
+	/**
+	 * The default capacity, in cells: 64 MB of counts.
+	 */
+	public static final long DEFAULT_MAX_CELLS = 1L << 24;
+
+	/**
+	 * Create a cache holding at most <code>DEFAULT_MAX_CELLS</code> cells.
+	 */
+	public SplitStatisticsCache() {
+		this(DEFAULT_MAX_CELLS);
+	}
+
+	/**
+	 * Create a cache.
+	 *
+	 * @param maxCells the largest number of table cells held at once
+	 */
+	public SplitStatisticsCache(long maxCells) {
+		this.maxCells = maxCells;
+	}
+
+	/**
+	 * The path of the root node.
+	 */
+	public static final String ROOT_PATH = "";
+
+	/**
+	 * Get the path of the child reached from the node with the given path by
+	 * the given value of the given split attribute.
+	 *
+	 * @param parentPath     the path of the parent node
+	 * @param attributeIndex the index of the parent's split attribute
+	 * @param value          the index of the value leading to the child
+	 * @return the path of the child
+	 */
+	public static String childPath(String parentPath, int attributeIndex, int value) {
+		return parentPath + "/" + attributeIndex + "=" + value;
+	}
+
+	/**
+	 * Get the table previously stored for the given node and attribute.
+	 *
+	 * @param path           the path of the node
+	 * @param attributeIndex the index of the counted attribute
+	 * @return the table, or null if none has been stored
+	 */
+	public ContingencyTable get(String path, int attributeIndex) {
+		ContingencyTable table;
+		synchronized (this) {
+			table = tables.get(path + "#" + attributeIndex);
+		}
+		if (table == null)
+			misses.incrementAndGet();
+		else
+			hits.incrementAndGet();
+		return table;
+	}
+
+	/**
+	 * Store the table computed for the given node and attribute, evicting the
+	 * least recently used tables if the cache would hold too many cells. If
+	 * another thread has already stored one, the stored table is kept. A
+	 * table larger than the whole cache is not stored.
+	 *
+	 * @param path           the path of the node
+	 * @param attributeIndex the index of the counted attribute
+	 * @param table          the table
+	 */
+	public synchronized void put(String path, int attributeIndex, ContingencyTable table) {
+		long cells = cells(table);
+		if (cells > maxCells || tables.putIfAbsent(path + "#" + attributeIndex, table) != null)
+			return;
+		numCells += cells;
+		Iterator<Map.Entry<String, ContingencyTable>> eldest = tables.entrySet().iterator();
+		while (numCells > maxCells) {
+			numCells -= cells(eldest.next().getValue());
+			eldest.remove();
+			evictions.incrementAndGet();
+		}
+	}
+
+	private static long cells(ContingencyTable table) {
+		return (long) table.getNumValues() * table.getNumClasses();
+	}
+
+	/**
+	 * Get the number of tables in the cache.
+	 *
+	 * @return the number of tables
+	 */
+	public synchronized int size() {
+		return tables.size();
+	}
+
+	/**
+	 * Get the number of table cells in the cache.
+	 *
+	 * @return the number of cells
+	 */
+	public synchronized long getNumCells() {
+		return numCells;
+	}
+
+	/**
+	 * Get the number of tables evicted to make room for others.
+	 *
+	 * @return the number of evictions
+	 */
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	/**
+	 * Get the number of lookups that found a table.
+	 *
+	 * @return the number of hits
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * Get the number of lookups that found no table.
+	 *
+	 * @return the number of misses
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+}
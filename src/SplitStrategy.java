@@ -0,0 +1,178 @@
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * A SplitStrategy is a way for EncodedTreeBuilder to get the contingency
+ * tables from which a node chooses its split attribute. The builder plans one
+ * strategy per node from the number of rows the node holds, the sizes of its
+ * candidates' tables and what its parent left it, and records the choice:
+ *
+ * <ul>
+ * <li><code>DIRECT</code>: every candidate is counted over every row of the
+ * node.</li>
+ * <li><code>SUBTRACTED</code>: the node is the largest child of its parent,
+ * and each candidate's table is the parent's table less the tables of the
+ * parent's other rows, so only the rows of the smaller children are counted.
+ * </li>
+ * <li><code>SWEPT</code>: the node holds few rows compared to the size of the
+ * tables, so each candidate's (value, classification) pairs are sorted and
+ * swept into a table of the values that occur, rather than into a table of
+ * every value, which would mostly be empty. Only the chosen attribute is then
+ * counted into a full table.</li>
+ * <li><code>SAMPLED</code>: the node is large, and sampled splitting is
+ * enabled, so the split attribute is chosen from a sample of its rows (see
+ * <code>EncodedTreeBuilder.setSampledSplitting</code>).</li>
+ * </ul>
+ *
+ * Only <code>SAMPLED</code> can change the learned tree; the others count the
+ * same tables, or, for <code>SWEPT</code>, the same tables without their
+ * empty values. Leaving out empty values changes the order in which a
+ * table's cells are summed, and so can break exact ties between candidates
+ * differently, so the candidates whose costs are tied with the least (see
+ * <code>SplitCriterion.isTied</code>) are counted in full and chosen among
+ * as <code>DIRECT</code> would.
+ *
+ * The nodes of a SparseInstanceSet are always <code>DIRECT</code>: they count
+ * each candidate from its non-default values alone, which costs less than
+ * reading the codes of the rows to subtract or to sort.
+ *
+ * @author jmac
+ */
+public final class SplitStrategy {
+	public static final SplitStrategy DIRECT = new SplitStrategy("direct", 0);
+	public static final SplitStrategy SUBTRACTED = new SplitStrategy("subtracted", 1);
+	public static final SplitStrategy SWEPT = new SplitStrategy("swept", 2);
+	public static final SplitStrategy SAMPLED = new SplitStrategy("sampled", 3);
+
+	private String name;
+	private int index;
+
+	private SplitStrategy(String name, int index) {
+		this.name = name;
+		this.index = index;
+	}
+
+	/**
+	 * @return the name of the strategy
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return the position of the strategy in <code>values()</code>
+	 */
+	public int getIndex() {
+		return index;
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+
+	/**
+	 * @return every strategy
+	 */
+	public static SplitStrategy[] values() {
+		return new SplitStrategy[] { DIRECT, SUBTRACTED, SWEPT, SAMPLED };
+	}
+
+	/**
+	 * Learns trees from the soybean and MAGIC data sets, from copies of the
+	 * MAGIC training set with every numeric code moved up or down a bucket at
+	 * random, and from a random sparse data set read both as a
+	 * SparseInstanceSet and as dense rows, once with every node counting every
+	 * row and once with each node planning its strategy. Reports the time taken to learn, the number
+	 * of nodes using each strategy, the number of nodes at which the two trees
+	 * split on different attributes or decide differently, and the number of
+	 * test rows on which they decide differently.
+	 *
+	 * @param arguments Optionally, the number of copies of the MAGIC training
+	 *                  set, and the number of times each tree is learned.
+	 * @throws DecisionTreeException
+	 * @throws FileNotFoundException
+	 * @throws IOException
+	 */
+	public static void main(String[] arguments) throws DecisionTreeException, FileNotFoundException, IOException {
+		int numCopies = arguments.length > 0 ? Integer.parseInt(arguments[0]) : 10;
+		int numRepetitions = arguments.length > 1 ? Integer.parseInt(arguments[1]) : 5;
+		String[][] dataSets = { { "data/soybean.train.arff", "data/soybean.test.arff" },
+				{ "data/MAGIC_DataSet_Training.arff", "data/MAGIC_DataSet_Test.arff" } };
+		for (String[] files : dataSets) {
+			EncodedInstanceSet trainingSet = new EncodedInstanceSet(new InstanceSet(files[0]));
+			EncodedInstanceSet testSet = new EncodedInstanceSet(new InstanceSet(files[1]));
+			compare(files[0], trainingSet, testSet, numRepetitions);
+			if (files == dataSets[dataSets.length - 1])
+				compare(numCopies + " perturbed copies of " + files[0], perturbedCopies(trainingSet, numCopies),
+						testSet, numRepetitions);
+		}
+
+		String filename = "sparse-demo.arff";
+		SparseInstanceSet.writeRandom(filename, 5000, 400, 0.01);
+		SparseInstanceSet sparse = new SparseInstanceSet(filename);
+		EncodedInstanceSet dense = new EncodedInstanceSet(new InstanceSet(filename));
+		new File(filename).delete();
+		compare("sparse " + filename, sparse, sparse, numRepetitions);
+		compare("dense " + filename, dense, dense, numRepetitions);
+	}
+
+	// Learn from the data with and without planning, and report.
+	private static void compare(String name, ColumnStore data, ColumnStore testSet, int numRepetitions)
+			throws DecisionTreeException {
+		AttributeSet attributeSet = data.getAttributeSet();
+		ArrayList<Attribute> attributes = DecisionTree.removeClassAttribute(attributeSet,
+				attributeSet.getAttributes());
+		DecisionTree[] trees = new DecisionTree[2];
+		for (int planned = 0; planned < 2; planned++) {
+			EncodedTreeBuilder builder = null;
+			long start = System.nanoTime();
+			for (int i = 0; i < numRepetitions; i++) {
+				builder = new EncodedTreeBuilder(data, null);
+				builder.setSplitPlanning(planned == 1);
+				trees[planned] = builder.build(attributes);
+			}
+			long elapsed = (System.nanoTime() - start) / numRepetitions;
+			StringBuilder counts = new StringBuilder();
+			for (SplitStrategy strategy : values()) {
+				if (builder.getNumNodes(strategy) > 0)
+					counts.append(", ").append(builder.getNumNodes(strategy)).append(' ').append(strategy);
+			}
+			System.out.println(String.format("%s, %s: learn %.1f ms%s", name, planned == 1 ? "planned" : "direct",
+					elapsed / 1e6, counts));
+		}
+		int differences = 0;
+		for (int r = 0; r < testSet.getNumRows(); r++) {
+			if (!trees[0].decide(testSet, r).equals(trees[1].decide(testSet, r)))
+				differences++;
+		}
+		System.out.println("  differing nodes: " + TreeCompactor.countDifferences(trees[0], trees[1]) + " of "
+				+ TreeCompactor.countNodes(trees[0], false) + ", differing test decisions: " + differences);
+	}
+
+	// Copy the rows, then add copies with each numeric code moved up or down
+	// one bucket at random.
+	private static RowBatch perturbedCopies(ColumnStore data, int numCopies) {
+		Random random = new Random(42);
+		AttributeSet attributeSet = data.getAttributeSet();
+		int numAttributes = data.getNumAttributes();
+		int classAttributeIndex = attributeSet.getClassAttributeIndex();
+		RowBatch copies = new RowBatch(attributeSet, numCopies * data.getNumRows());
+		int[] row = new int[numAttributes];
+		for (int copy = 0; copy < numCopies; copy++) {
+			for (int r = 0; r < data.getNumRows(); r++) {
+				for (int a = 0; a < numAttributes; a++) {
+					int code = data.getCode(r, a);
+					if (copy > 0 && a != classAttributeIndex)
+						code = Math.max(0, Math.min(data.getNumValues(a) - 1, code + random.nextInt(3) - 1));
+					row[a] = code;
+				}
+				copies.add(row, 0);
+			}
+		}
+		return copies;
+	}
+}
@@ -0,0 +1,86 @@
+/**
+ * A SweepResult records one configuration evaluated by a HyperparameterSweep
+ * and the outcome of learning a decision tree with it.
+ *
+ * @author jmac
+ */
+public class SweepResult {
+	private int numBuckets;
+	private int maxDepth;
+	private int minLeafSize;
+	private SplitCriterion criterion;
+	private double errorRate;
+	private long trainingMillis;
+
+	/**
+	 * Record the outcome of one configuration.
+	 *
+	 * @param numBuckets     the number of buckets per numeric attribute
+	 * @param maxDepth       the maximum depth of the tree
+	 * @param minLeafSize    the minimum number of examples in a node that is
+	 *                       split
+	 * @param criterion      the criterion by which split attributes were chosen
+	 * @param errorRate      the error rate on the test set
+	 * @param trainingMillis the time taken to learn the tree, in milliseconds
+	 */
+	public SweepResult(int numBuckets, int maxDepth, int minLeafSize, SplitCriterion criterion, double errorRate,
+			long trainingMillis) {
+		this.numBuckets = numBuckets;
+		this.maxDepth = maxDepth;
+		this.minLeafSize = minLeafSize;
+		this.criterion = criterion;
+		this.errorRate = errorRate;
+		this.trainingMillis = trainingMillis;
+	}
+
+	/**
+	 * @return the number of buckets per numeric attribute
+	 */
+	public int getNumBuckets() {
+		return numBuckets;
+	}
+
+	/**
+	 * @return the maximum depth of the tree
+	 */
+	public int getMaxDepth() {
+		return maxDepth;
+	}
+
+	/**
+	 * @return the minimum number of examples in a node that is split
+	 */
+	public int getMinLeafSize() {
+		return minLeafSize;
+	}
+
+	/**
+	 * @return the criterion by which split attributes were chosen
+	 */
+	public SplitCriterion getSplitCriterion() {
+		return criterion;
+	}
+
+	/**
+	 * @return the error rate on the test set
+	 */
+	public double getErrorRate() {
+		return errorRate;
+	}
+
+	/**
+	 * @return the time taken to learn the tree, in milliseconds
+	 */
+	public long getTrainingMillis() {
+		return trainingMillis;
+	}
+
+	/**
+	 * Print the configuration and its outcome on one line.
+	 */
+	public void print() {
+		String depth = maxDepth == Integer.MAX_VALUE ? "unlimited" : String.valueOf(maxDepth);
+		System.out.println("buckets " + numBuckets + ", max depth " + depth + ", min leaf size " + minLeafSize
+				+ ", " + criterion + ": error rate " + errorRate + " (" + trainingMillis + " ms)");
+	}
+}
@@ -0,0 +1,206 @@
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+/**
+ * A TreeCompactor turns a decision tree into a smaller directed acyclic graph
+ * that makes exactly the same decisions, by hash-consing: working from the
+ * leaves up, every subtree is looked up in a table of the subtrees already
+ * made, and a structurally identical one is shared instead of kept twice. Two
+ * leaves are identical if they make the same decision; two internal nodes are
+ * identical if they split on the same attribute and have identical children
+ * for every value. In addition, an internal node whose children are all the
+ * same node is replaced by that node, since the split makes no difference to
+ * the decision. Trees learned by splitting on every value of an attribute
+ * have many such nodes, for example those whose empty branches all copy the
+ * parent's majority.
+ *
+ * The tree given is not changed. In the result, a node shared by several
+ * parents keeps the label and depth of the first occurrence, so
+ * <code>print</code> shows a shared subtree with that label wherever it
+ * appears. Every node of the result is reachable from the root, and anything
+ * that walks it as a tree sees the same decisions; ModelSnapshot compiles
+ * each shared node once.
+ *
+ * @author jmac
+ */
+public class TreeCompactor {
+	// The canonical leaf for each decision
+	private HashMap<String, DecisionTree> leaves = new HashMap<String, DecisionTree>();
+
+	// The canonical internal node for each split and list of children
+	private HashMap<Key, DecisionTree> internals = new HashMap<Key, DecisionTree>();
+
+	// A number for each canonical node, used in the keys of its parents
+	private IdentityHashMap<DecisionTree, Integer> ids = new IdentityHashMap<DecisionTree, Integer>();
+
+	/**
+	 * Compact a tree. Subtrees are shared across every tree compacted by the
+	 * same TreeCompactor, so an ensemble can be compacted into one graph by
+	 * compacting each of its trees in turn.
+	 *
+	 * @param tree the tree to compact, which is not changed
+	 * @return the root of the compacted graph
+	 */
+	public DecisionTree compact(DecisionTree tree) {
+		if (tree instanceof DecisionTreeLeaf) {
+			DecisionTree leaf = leaves.get(((DecisionTreeLeaf) tree).decision);
+			if (leaf == null) {
+				leaf = tree;
+				leaves.put(((DecisionTreeLeaf) tree).decision, leaf);
+				ids.put(leaf, ids.size());
+			}
+			return leaf;
+		}
+
+		DecisionTreeInternal internal = (DecisionTreeInternal) tree;
+		String[] values = internal.splitAttribute.getValues();
+		DecisionTree[] children = new DecisionTree[values.length];
+		int[] childIds = new int[values.length];
+		boolean allSame = true;
+		for (int v = 0; v < values.length; v++) {
+			children[v] = compact(internal.getChild(v));
+			childIds[v] = ids.get(children[v]);
+			allSame &= children[v] == children[0];
+		}
+		if (allSame)
+			return children[0];
+
+		Key key = new Key(internal.splitAttribute, childIds);
+		DecisionTree node = internals.get(key);
+		if (node == null) {
+			HashMap<String, DecisionTree> childMap = new HashMap<String, DecisionTree>();
+			for (int v = 0; v < values.length; v++)
+				childMap.put(values[v], children[v]);
+			node = new DecisionTreeInternal(internal.splitAttribute, childMap, internal.getLabel(), internal.depth);
+			internals.put(key, node);
+			ids.put(node, ids.size());
+		}
+		return node;
+	}
+
+	/**
+	 * Count the nodes of a tree or graph.
+	 *
+	 * @param tree     the root
+	 * @param distinct true to count each shared node once, false to count it
+	 *                 once for every path from the root that reaches it, as
+	 *                 if the graph were a tree
+	 * @return the number of nodes
+	 */
+	public static long countNodes(DecisionTree tree, boolean distinct) {
+		if (distinct)
+			return countDistinct(tree, new IdentityHashMap<DecisionTree, Boolean>());
+		long count = 1;
+		if (tree instanceof DecisionTreeInternal) {
+			DecisionTreeInternal internal = (DecisionTreeInternal) tree;
+			for (int v = 0; v < internal.splitAttribute.getNumValues(); v++)
+				count += countNodes(internal.getChild(v), false);
+		}
+		return count;
+	}
+
+	private static long countDistinct(DecisionTree tree, IdentityHashMap<DecisionTree, Boolean> seen) {
+		if (seen.put(tree, Boolean.TRUE) != null)
+			return 0;
+		long count = 1;
+		if (tree instanceof DecisionTreeInternal) {
+			for (DecisionTree child : ((DecisionTreeInternal) tree).getChildren())
+				count += countDistinct(child, seen);
+		}
+		return count;
+	}
+
+	/**
+	 * Count the nodes at which two trees learned from the same attributes
+	 * differ.
+	 *
+	 * @param a a tree
+	 * @param b another tree
+	 * @return the number of nodes of <code>a</code> at which <code>b</code>
+	 *         splits on a different attribute or makes a different decision,
+	 *         not counting those below them
+	 */
+	public static int countDifferences(DecisionTree a, DecisionTree b) {
+		if (a instanceof DecisionTreeLeaf || b instanceof DecisionTreeLeaf)
+			return a instanceof DecisionTreeLeaf && b instanceof DecisionTreeLeaf
+					&& ((DecisionTreeLeaf) a).decision.equals(((DecisionTreeLeaf) b).decision) ? 0 : 1;
+		DecisionTreeInternal x = (DecisionTreeInternal) a;
+		DecisionTreeInternal y = (DecisionTreeInternal) b;
+		if (x.splitAttribute != y.splitAttribute)
+			return 1;
+		int differences = 0;
+		for (int v = 0; v < x.splitAttribute.getNumValues(); v++)
+			differences += countDifferences(x.getChild(v), y.getChild(v));
+		return differences;
+	}
+
+	// The split attribute and canonical children of an internal node
+	private static class Key {
+		private Attribute attribute;
+		private int[] childIds;
+		private int hash;
+
+		Key(Attribute attribute, int[] childIds) {
+			this.attribute = attribute;
+			this.childIds = childIds;
+			hash = 31 * System.identityHashCode(attribute) + Arrays.hashCode(childIds);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof Key))
+				return false;
+			Key key = (Key) other;
+			return attribute == key.attribute && Arrays.equals(childIds, key.childIds);
+		}
+	}
+
+	/**
+	 * Learns a decision tree from the MAGIC training set, compacts it, and
+	 * reports the number of nodes before and after, and whether the compacted
+	 * graph makes the same decisions on the training and test sets.
+	 *
+	 * @param arguments Optionally, the maximum depth of the tree.
+	 * @throws DecisionTreeException
+	 * @throws FileNotFoundException
+	 * @throws IOException
+	 */
+	public static void main(String[] arguments) throws DecisionTreeException, FileNotFoundException, IOException {
+		InstanceSet trainingSet = new InstanceSet("data/MAGIC_DataSet_Training.arff");
+		InstanceSet testSet = new InstanceSet("data/MAGIC_DataSet_Test.arff");
+		AttributeSet attributeSet = trainingSet.getAttributeSet();
+		ArrayList<Attribute> attributes = DecisionTree.removeClassAttribute(attributeSet,
+				attributeSet.getAttributes());
+		EncodedTreeBuilder builder = new EncodedTreeBuilder(new EncodedInstanceSet(trainingSet), null);
+		if (arguments.length > 0)
+			builder.setMaxDepth(Integer.parseInt(arguments[0]));
+		DecisionTree tree = builder.build(attributes);
+
+		long start = System.nanoTime();
+		DecisionTree compacted = new TreeCompactor().compact(tree);
+		long elapsed = System.nanoTime() - start;
+
+		int differences = 0;
+		for (InstanceSet set : new InstanceSet[] { trainingSet, testSet }) {
+			for (Instance instance : set.getInstances()) {
+				if (!compacted.decide(set.getAttributeSet(), instance).equals(tree.decide(attributeSet, instance)))
+					differences++;
+			}
+		}
+		System.out.println("Tree: " + countNodes(tree, true) + " nodes");
+		System.out.println("Compacted: " + countNodes(compacted, true) + " distinct nodes (" + elapsed / 1000000
+				+ " ms)");
+		System.out.println("Snapshot nodes: " + new ModelSnapshot(tree, attributeSet, 0).getNumNodes() + " before, "
+				+ new ModelSnapshot(compacted, attributeSet, 0).getNumNodes() + " after");
+		System.out.println("Differing decisions: " + differences);
+	}
+}
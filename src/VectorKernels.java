@@ -0,0 +1,74 @@
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The implementation of the Kernels using the incubating Vector API, which
+ * the JIT compiles to SIMD instructions (SSE, AVX2 or AVX-512 on x86) using
+ * the widest vectors the processor supports. This class can only be loaded
+ * when the jdk.incubator.vector module is present, so it is never referred to
+ * directly; <code>Kernels.getInstance</code> loads it by name.
+ *
+ * Accumulating counts is inherited from ScalarKernels: the increments cannot
+ * be vectorized, since several examples in a vector may have the same value,
+ * and computing the indices in a separate vectorized pass was measured to be
+ * slower than the fused scalar loop.
+ *
+ * @author jmac
+ */
+public class VectorKernels extends ScalarKernels {
+	private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+	private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED;
+
+	// Ints with as many lanes as DOUBLES, for converting counts to doubles
+	private static final VectorSpecies<Integer> INTS_FOR_DOUBLES = VectorSpecies.of(int.class,
+			VectorShape.forBitSize(DOUBLES.vectorBitSize() / 2));
+
+	@Override
+	public String getName() {
+		return "vector (" + INTS.vectorBitSize() + " bits)";
+	}
+
+	@Override
+	public double sumXLogX(int[] counts, int offset, int length) {
+		DoubleVector sums = DoubleVector.zero(DOUBLES);
+		int upper = INTS_FOR_DOUBLES.loopBound(length);
+		int i = 0;
+		for (; i < upper; i += INTS_FOR_DOUBLES.length()) {
+			DoubleVector x = (DoubleVector) IntVector.fromArray(INTS_FOR_DOUBLES, counts, offset + i)
+					.convertShape(VectorOperators.I2D, DOUBLES, 0);
+			// Take the log of 1 rather than 0, so that 0 ln 0 is 0
+			DoubleVector logs = x.blend(1.0, x.eq(0.0)).lanewise(VectorOperators.LOG);
+			sums = x.fma(logs, sums);
+		}
+		double sum = sums.reduceLanes(VectorOperators.ADD);
+		for (; i < length; i++) {
+			int count = counts[offset + i];
+			if (count > 0)
+				sum += count * Math.log(count);
+		}
+		return sum;
+	}
+
+	@Override
+	public void route(int[] codes, int[] thresholds, int[] leftChildren, int[] rightChildren, int[] nodes,
+			int length) {
+		int upper = INTS.loopBound(length);
+		int i = 0;
+		for (; i < upper; i += INTS.length()) {
+			// Gather each row's node's threshold and children
+			IntVector threshold = IntVector.fromArray(INTS, thresholds, 0, nodes, i);
+			IntVector left = IntVector.fromArray(INTS, leftChildren, 0, nodes, i);
+			IntVector right = IntVector.fromArray(INTS, rightChildren, 0, nodes, i);
+			VectorMask<Integer> goLeft = IntVector.fromArray(INTS, codes, i).compare(VectorOperators.LE, threshold);
+			right.blend(left, goLeft).intoArray(nodes, i);
+		}
+		for (; i < length; i++) {
+			int node = nodes[i];
+			nodes[i] = codes[i] <= thresholds[node] ? leftChildren[node] : rightChildren[node];
+		}
+	}
+}
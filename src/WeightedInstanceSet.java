@@ -0,0 +1,294 @@
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * A WeightedInstanceSet is a read-only, column-oriented set of the distinct
+ * encoded rows of some data, each with the number of times it occurs. Once
+ * numeric values are bucketed, and in nominal data sets such as soybean and
+ * breast.w, many rows are exact copies of one another; learning from the
+ * distinct rows with their counts as weights (see
+ * <code>EncodedTreeBuilder</code>) counts the same contingency tables, and
+ * so learns the same tree, while holding and scanning fewer rows at every
+ * node.
+ *
+ * Duplicates are found by hashing each row's codes as it is added, so the
+ * data is never held in memory twice. The distinct rows keep the order in
+ * which each first occurred.
+ *
+ * @author jmac
+ */
+public class WeightedInstanceSet implements ColumnStore {
+	private AttributeSet attributeSet;
+	private int classAttributeIndex;
+
+	// columns[a][r] is the code of attribute a in distinct row r
+	private int[][] columns;
+
+	// weights[r] is the number of times distinct row r occurs
+	private int[] weights;
+
+	private int numRows;
+	private long numOriginalRows;
+
+	// While rows are being added: the codes of the distinct rows, one after
+	// another, and an open-addressing hash table of their indices (-1 for an
+	// empty slot)
+	private int[] rowCodes;
+	private int[] table;
+
+	public static final boolean VERBOSE = false;
+
+	/**
+	 * Encode the rows of an instance set, keeping each distinct row once.
+	 *
+	 * @param instances the instance set to encode
+	 * @throws DecisionTreeException if an instance takes a value that its
+	 *                               attribute does not declare
+	 */
+	public WeightedInstanceSet(InstanceSet instances) throws DecisionTreeException {
+		this(instances.getAttributeSet());
+		ArrayList<Attribute> attributes = attributeSet.getAttributes();
+		int[] codes = new int[attributes.size()];
+		for (Instance instance : instances.getInstances()) {
+			String[] values = instance.getValues();
+			for (int a = 0; a < codes.length; a++) {
+				codes[a] = attributes.get(a).getValueIndex(values[a]);
+				if (codes[a] < 0)
+					throw new DecisionTreeException(
+							"unexpected value " + values[a] + " for attribute " + attributes.get(a).getName());
+			}
+			add(codes);
+		}
+		finish();
+	}
+
+	/**
+	 * Keep each distinct row of encoded data once.
+	 *
+	 * @param data the rows
+	 */
+	public WeightedInstanceSet(ColumnStore data) {
+		this(data.getAttributeSet());
+		int[] codes = new int[data.getNumAttributes()];
+		for (int r = 0; r < data.getNumRows(); r++) {
+			for (int a = 0; a < codes.length; a++)
+				codes[a] = data.getCode(r, a);
+			add(codes);
+		}
+		finish();
+	}
+
+	private WeightedInstanceSet(AttributeSet attributeSet) {
+		this.attributeSet = attributeSet;
+		classAttributeIndex = attributeSet.getClassAttributeIndex();
+		rowCodes = new int[16 * attributeSet.getAttributes().size()];
+		weights = new int[16];
+		table = new int[32];
+		Arrays.fill(table, -1);
+	}
+
+	// Count one more occurrence of the given row.
+	private void add(int[] codes) {
+		numOriginalRows++;
+		int mask = table.length - 1;
+		int slot = hash(codes, 0, codes.length) & mask;
+		for (int r; (r = table[slot]) >= 0; slot = (slot + 1) & mask) {
+			if (Arrays.equals(rowCodes, r * codes.length, (r + 1) * codes.length, codes, 0, codes.length)) {
+				weights[r]++;
+				return;
+			}
+		}
+		if ((numRows + 1) * codes.length > rowCodes.length) {
+			rowCodes = Arrays.copyOf(rowCodes, 2 * rowCodes.length);
+			weights = Arrays.copyOf(weights, 2 * weights.length);
+		}
+		System.arraycopy(codes, 0, rowCodes, numRows * codes.length, codes.length);
+		weights[numRows] = 1;
+		table[slot] = numRows++;
+		// Keep the table at most half full
+		if (2 * numRows > table.length)
+			rehash(codes.length);
+	}
+
+	private void rehash(int numAttributes) {
+		table = new int[2 * table.length];
+		Arrays.fill(table, -1);
+		int mask = table.length - 1;
+		for (int r = 0; r < numRows; r++) {
+			int slot = hash(rowCodes, r * numAttributes, numAttributes) & mask;
+			while (table[slot] >= 0)
+				slot = (slot + 1) & mask;
+			table[slot] = r;
+		}
+	}
+
+	private static int hash(int[] codes, int offset, int length) {
+		int h = 1;
+		for (int i = offset; i < offset + length; i++)
+			h = 31 * h + codes[i];
+		// Spread the high bits down, since the table uses the low ones
+		return h ^ (h >>> 16);
+	}
+
+	// Turn the distinct rows into columns and drop the hash table.
+	private void finish() {
+		int numAttributes = attributeSet.getAttributes().size();
+		columns = new int[numAttributes][numRows];
+		for (int r = 0; r < numRows; r++) {
+			for (int a = 0; a < numAttributes; a++)
+				columns[a][r] = rowCodes[r * numAttributes + a];
+		}
+		weights = Arrays.copyOf(weights, numRows);
+		rowCodes = null;
+		table = null;
+		if (VERBOSE)
+			System.out.println(numOriginalRows + " rows, " + numRows + " distinct");
+	}
+
+	/**
+	 * Get the number of times each distinct row occurs, as the weights to
+	 * learn from, for example by <code>new EncodedTreeBuilder(set,
+	 * set.getWeights())</code>.
+	 *
+	 * @return the weights, which must not be modified
+	 */
+	public int[] getWeights() {
+		return weights;
+	}
+
+	/**
+	 * @param row the index of a distinct row
+	 * @return the number of times the row occurs
+	 */
+	public int getWeight(int row) {
+		return weights[row];
+	}
+
+	/**
+	 * @return the number of rows before duplicates were removed
+	 */
+	public long getNumOriginalRows() {
+		return numOriginalRows;
+	}
+
+	/**
+	 * Compute the error rate of a tree on the rows, counting each distinct row
+	 * as many times as it occurs. This is the error rate on the original
+	 * rows, found with one decision per distinct row.
+	 *
+	 * @param tree the tree
+	 * @return the fraction of the original rows the tree misclassifies
+	 */
+	public double computeErrorRate(DecisionTree tree) {
+		Attribute classAttribute = attributeSet.getClassAttribute();
+		long num_errors = 0;
+		for (int r = 0; r < numRows; r++) {
+			if (classAttribute.getValueIndex(tree.decide(this, r)) != getClassCode(r))
+				num_errors += weights[r];
+		}
+		return (double) num_errors / numOriginalRows;
+	}
+
+	@Override
+	public AttributeSet getAttributeSet() {
+		return attributeSet;
+	}
+
+	/**
+	 * @return the number of distinct rows
+	 */
+	@Override
+	public int getNumRows() {
+		return numRows;
+	}
+
+	@Override
+	public int getNumAttributes() {
+		return columns.length;
+	}
+
+	@Override
+	public int getCode(int row, int attributeIndex) {
+		return columns[attributeIndex][row];
+	}
+
+	@Override
+	public int getClassCode(int row) {
+		return columns[classAttributeIndex][row];
+	}
+
+	@Override
+	public int getNumValues(int attributeIndex) {
+		return attributeSet.getAttributes().get(attributeIndex).getNumValues();
+	}
+
+	@Override
+	public int getNumClasses() {
+		return attributeSet.getClassAttribute().getNumValues();
+	}
+
+	/**
+	 * Removes the duplicate rows of the soybean, breast.w and MAGIC training
+	 * sets, then learns a tree from every row and from the distinct rows with
+	 * their weights, reporting the number of rows, the time taken to learn,
+	 * and whether the two trees make the same decisions on the test set.
+	 *
+	 * @param arguments Optionally, the number of times each tree is learned.
+	 * @throws DecisionTreeException
+	 * @throws FileNotFoundException
+	 * @throws IOException
+	 */
+	public static void main(String[] arguments) throws DecisionTreeException, FileNotFoundException, IOException {
+		int numRepetitions = arguments.length > 0 ? Integer.parseInt(arguments[0]) : 20;
+		String[][] dataSets = { { "data/soybean.train.arff", "data/soybean.test.arff" },
+				{ "data/breast.w.train.arff", "data/breast.w.test.arff" },
+				{ "data/MAGIC_DataSet_Training.arff", "data/MAGIC_DataSet_Test.arff" } };
+		for (String[] files : dataSets) {
+			InstanceSet instances = new InstanceSet(files[0]);
+			EncodedInstanceSet trainingSet = new EncodedInstanceSet(instances);
+			EncodedInstanceSet testSet = new EncodedInstanceSet(new InstanceSet(files[1]));
+			AttributeSet attributeSet = trainingSet.getAttributeSet();
+			ArrayList<Attribute> attributes = DecisionTree.removeClassAttribute(attributeSet,
+					attributeSet.getAttributes());
+
+			long start = System.nanoTime();
+			WeightedInstanceSet weighted = new WeightedInstanceSet(instances);
+			long compressMicros = (System.nanoTime() - start) / 1000;
+
+			DecisionTree tree = null;
+			DecisionTree weightedTree = null;
+			long[] learnMicros = new long[2];
+			for (int i = 0; i < numRepetitions; i++) {
+				start = System.nanoTime();
+				tree = new EncodedTreeBuilder(trainingSet, null).build(attributes);
+				learnMicros[0] += (System.nanoTime() - start) / 1000;
+				start = System.nanoTime();
+				weightedTree = new EncodedTreeBuilder(weighted, weighted.getWeights()).build(attributes);
+				learnMicros[1] += (System.nanoTime() - start) / 1000;
+			}
+
+			int differences = 0;
+			for (int r = 0; r < testSet.getNumRows(); r++) {
+				if (!tree.decide(testSet, r).equals(weightedTree.decide(testSet, r)))
+					differences++;
+			}
+			int numTrainingErrors = 0;
+			for (int r = 0; r < trainingSet.getNumRows(); r++) {
+				if (!tree.decide(trainingSet, r).equals(attributeSet.getClassAttribute().getValues()[trainingSet
+						.getClassCode(r)]))
+					numTrainingErrors++;
+			}
+			System.out.println(String.format(
+					"%s: %d rows, %d distinct (%.2fx) in %d us; learn %d us from every row, %d us from distinct rows",
+					files[0], trainingSet.getNumRows(), weighted.getNumRows(),
+					(double) trainingSet.getNumRows() / weighted.getNumRows(), compressMicros,
+					learnMicros[0] / numRepetitions, learnMicros[1] / numRepetitions));
+			System.out.println(String.format(
+					"  training error %.4f, weighted %.4f; differing test decisions: %d",
+					(double) numTrainingErrors / trainingSet.getNumRows(), weighted.computeErrorRate(weightedTree),
+					differences));
+		}
+	}
+}